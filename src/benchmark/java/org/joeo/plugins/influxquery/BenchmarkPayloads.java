@@ -0,0 +1,173 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Query responses used by benchmarks, built from sample InfluxDB 1.x responses in resources/payloads.
+ * The rows of the first series of a sample are repeated to reach the requested size, split over
+ * the requested number of series, so large payloads do not need to be checked in.
+ */
+final class BenchmarkPayloads {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long TIME_STEP_MILLIS = 1000;
+
+    private BenchmarkPayloads() {
+    }
+
+    /**
+     * @param sample name of sample response without extension
+     * @return sample response as sent by InfluxDB
+     * @throws IOException if sample does not exist
+     */
+    static byte[] sample(String sample) throws IOException {
+        InputStream in = BenchmarkPayloads.class.getResourceAsStream("payloads/" + sample + ".json");
+        if (in == null) {
+            throw new IOException("No sample response " + sample);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @param sample name of sample response without extension
+     * @param rows total number of rows
+     * @param series number of series sharing the rows, each series has at least one row
+     * @return response of one statement with rows of the first series of sample
+     * @throws IOException if sample does not exist or has no series
+     */
+    static byte[] scaled(String sample, int rows, int series) throws IOException {
+        SeriesTable template = decode(sample(sample)).get(0).getFirstSeries();
+        if (template == null) {
+            throw new IOException("Sample response " + sample + " has no series");
+        }
+        int rowsPerSeries = Math.max(1, rows / series);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(rowsPerSeries * series * 64);
+        Writer out = new OutputStreamWriter(bytes, UTF_8);
+        out.write("{\"results\":[{\"statement_id\":0,\"series\":[");
+        for (int s = 0; s < series; s++) {
+            if (s > 0) {
+                out.write(',');
+            }
+            writeSeries(out, template, s, rowsPerSeries);
+        }
+        out.write("]}]}");
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeSeries(Writer out, SeriesTable template, int index, int rows) throws IOException {
+        Map<String, String> tags = new LinkedHashMap<String, String>(template.getTags());
+        if (tags.isEmpty()) {
+            tags.put("host", "host");
+        }
+        out.write("{\"name\":");
+        writeString(out, template.getName());
+        out.write(",\"tags\":{");
+        boolean first = true;
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            if (!first) {
+                out.write(',');
+            }
+            first = false;
+            writeString(out, tag.getKey());
+            out.write(':');
+            writeString(out, tag.getValue() + "-" + index);
+        }
+        out.write("},\"columns\":[");
+        List<String> columns = template.getColumns();
+        for (int column = 0; column < columns.size(); column++) {
+            if (column > 0) {
+                out.write(',');
+            }
+            writeString(out, columns.get(column));
+        }
+        out.write("],\"values\":[");
+        long startTime = template.hasTime() ? template.getTime(0) : 0;
+        for (int row = 0; row < rows; row++) {
+            if (row > 0) {
+                out.write(',');
+            }
+            int templateRow = row % template.getRowCount();
+            out.write('[');
+            for (int column = 0; column < columns.size(); column++) {
+                if (column > 0) {
+                    out.write(',');
+                }
+                if (template.isTimeColumn(column)) {
+                    out.write(Long.toString(startTime + row * TIME_STEP_MILLIS));
+                    continue;
+                }
+                double value = template.getDouble(column, templateRow);
+                String string = template.getString(column, templateRow);
+                if (!Double.isNaN(value)) {
+                    out.write(value == Math.rint(value) ? Long.toString((long) value) : Double.toString(value));
+                } else if (string != null) {
+                    writeString(out, string);
+                } else {
+                    out.write("null");
+                }
+            }
+            out.write(']');
+        }
+        out.write("]}");
+    }
+
+    private static void writeString(Writer out, String value) throws IOException {
+        out.write('"');
+        out.write(value.replace("\\", "\\\\").replace("\"", "\\\""));
+        out.write('"');
+    }
+
+    static List<StatementResult> decode(byte[] payload) throws IOException {
+        return decode(payload, ResponseFormat.JSON);
+    }
+
+    static List<StatementResult> decode(byte[] payload, ResponseFormat format) throws IOException {
+        ColumnarResultHandler handler = new ColumnarResultHandler();
+        QueryResponseParser.parse(format.newReader(new ByteArrayInputStream(payload)), handler);
+        return handler.getResults();
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Per check path of {@link InfluxDBQuery#perform} once the response is received: decoding, value extraction,
+ * threshold evaluation and console output, over result sizes from 1 row to 1M rows in 1 to 1000 series.
+ * Decoding is measured for JSON and for the same response encoded as MessagePack.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResultPathBenchmark {
+    private static final String COMMAND = "select * from jmeter";
+    private static final double THRESHOLD = 1000;
+
+    @Param({"aggregate", "group-by", "raw-points"})
+    public String sample;
+
+    @Param({"1", "1000", "100000", "1000000"})
+    public int rows;
+
+    @Param({"1", "100", "1000"})
+    public int series;
+
+    private byte[] payload;
+    private byte[] messagePackPayload;
+    private StatementResult decoded;
+    private LoggerUtils console;
+
+    @Setup
+    public void setUp() throws IOException {
+        payload = BenchmarkPayloads.scaled(sample, rows, series);
+        messagePackPayload = MessagePackEncoder.fromJson(payload);
+        decoded = BenchmarkPayloads.decode(payload).get(0);
+        console = new LoggerUtils(new PrintStream(new DiscardingOutputStream(), false, "UTF-8"));
+    }
+
+    @Benchmark
+    public void decode(Blackhole blackhole) throws IOException {
+        blackhole.consume(BenchmarkPayloads.decode(payload));
+    }
+
+    @Benchmark
+    public void decodeMessagePack(Blackhole blackhole) throws IOException {
+        blackhole.consume(BenchmarkPayloads.decode(messagePackPayload, ResponseFormat.MSGPACK));
+    }
+
+    @Benchmark
+    public void evaluate(Blackhole blackhole) {
+        blackhole.consume(new CheckEvaluator("bench", THRESHOLD, true, false).evaluate(decoded));
+    }
+
+    @Benchmark
+    public boolean perCheck() throws IOException {
+        return runCheck(false);
+    }
+
+    @Benchmark
+    public boolean perCheckShowResults() throws IOException {
+        return runCheck(true);
+    }
+
+    private boolean runCheck(boolean showResults) throws IOException {
+        CheckEvaluator evaluator = new CheckEvaluator("bench", THRESHOLD, true, showResults);
+        List<StatementResult> results = BenchmarkPayloads.decode(payload);
+        return evaluator.report(evaluator.evaluate(results.get(0)), COMMAND, console);
+    }
+
+    @Benchmark
+    public void streamingStatistic(Blackhole blackhole) throws IOException {
+        StreamingStatistics statistics = new StreamingStatistics();
+        QueryResponseParser.parse(new ByteArrayInputStream(payload),
+                new StreamingCheckQuery.StatisticsHandler(statistics, null));
+        blackhole.consume(statistics.get(Statistic.P95));
+    }
+
+    /**
+     * Console of a build, output is discarded so that only formatting is measured
+     */
+    static final class DiscardingOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+            // discarded
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            // discarded
+        }
+    }
+}
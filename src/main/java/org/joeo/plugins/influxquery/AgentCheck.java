@@ -0,0 +1,214 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import hudson.FilePath;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import jenkins.security.MasterToSlaveCallable;
+
+/**
+ * Runs the query and evaluation of one check where it is called, on the controller or on the agent of the build.
+ * Only the {@link CheckEvaluator}, holding verdict and timing of the check, is sent back; results shown in the
+ * console are archived from there.
+ */
+final class AgentCheck extends MasterToSlaveCallable<CheckEvaluator, InterruptedException> {
+    private static final long serialVersionUID = 1L;
+
+    private final CheckEvaluator evaluator;
+    private final InfluxDBEndpoint endpoint;
+    private final QueryLanguage language;
+    private final String command;
+    private final int cacheTtl;
+    private final Statistic statistic;
+    private final String valueColumn;
+    private final int chunkSize;
+    private final StreamingStatistics preAggregated;
+    private final RetryPolicy retryPolicy;
+    private final int retryCount;
+    private final int deadline;
+    private final long buildStart;
+    private final TaskListener listener;
+    private final FilePath artifactsDir;
+    private boolean gatedOnController;
+    private RequestSlots requestSlots;
+
+    /**
+     * @param endpoint {@link InfluxDBEndpoint} with resolved transport settings
+     * @param language {@link QueryLanguage} of command
+     * @param command expanded query command
+     * @param statistic {@link Statistic} computed over raw points, null to evaluate the first value
+     * @param preAggregated statistics of points read by {@link PreEvaluation}, null if none
+     * @param buildStart start time in milliseconds of the build
+     * @param artifactsDir artifacts directory of the build
+     */
+    AgentCheck(CheckEvaluator evaluator, InfluxDBEndpoint endpoint, QueryLanguage language, String command, int cacheTtl, Statistic statistic,
+            String valueColumn, int chunkSize, StreamingStatistics preAggregated, RetryPolicy retryPolicy, int retryCount, int deadline,
+            long buildStart, TaskListener listener, FilePath artifactsDir) {
+        this.evaluator = evaluator;
+        this.endpoint = endpoint;
+        this.language = language;
+        this.command = command;
+        this.cacheTtl = cacheTtl;
+        this.statistic = statistic;
+        this.valueColumn = valueColumn;
+        this.chunkSize = chunkSize;
+        this.preAggregated = preAggregated;
+        this.retryPolicy = retryPolicy;
+        this.retryCount = retryCount;
+        this.deadline = deadline;
+        this.buildStart = buildStart;
+        this.listener = listener;
+        this.artifactsDir = artifactsDir;
+    }
+
+    @Override
+    public CheckEvaluator call() throws InterruptedException {
+        EndpointReader reader = new EndpointReader(endpoint, evaluator.getTiming(), buildStart);
+        reader.setGatedOnController(gatedOnController);
+        reader.setRequestSlots(requestSlots);
+        CheckQuery query;
+        if (language == QueryLanguage.FLUX) {
+            query = new FluxCheckQuery(reader, command, statistic, valueColumn);
+        } else if (statistic == null) {
+            query = new InfluxQLCheckQuery(reader, command, cacheTtl);
+        } else {
+            query = new StreamingCheckQuery(reader, command, statistic, valueColumn, chunkSize, preAggregated);
+        }
+        new CheckRunner(evaluator, query, retryPolicy, retryCount, deadline).run(new LoggerUtils(listener.getLogger()));
+        evaluator.archiveShownResult(artifactsDir);
+        return evaluator;
+    }
+
+    /**
+     * Runs the check on the agent of channel. Agents run in their own JVM, so the {@link CircuitBreaker} of the
+     * endpoint is checked on the controller, and each request of the agent takes a {@link ConcurrencyLimiter} slot
+     * of the controller through {@link RequestSlots} exported to the agent, released once InfluxDB answered.
+     * Requests the agent sent are then reported to the circuit breaker.
+     * @param channel channel of the agent
+     * @return {@link CheckEvaluator} sent back by the agent
+     */
+    CheckEvaluator callOn(VirtualChannel channel) throws IOException, InterruptedException {
+        String endpointName = endpoint.getName().isEmpty() ? "default" : endpoint.getName();
+        CircuitBreaker breaker = CircuitBreaker.get();
+        try {
+            breaker.acquire(endpointName, endpoint.getUnavailableOutcome(), System.currentTimeMillis());
+        } catch (CircuitOpenException e) {
+            evaluator.reportError(e, command, 0, retryCount, new LoggerUtils(listener.getLogger()));
+            return evaluator;
+        }
+        ControllerSlots slots = new ControllerSlots(endpointName, buildStart);
+        CheckEvaluator result = null;
+        try {
+            gatedOnController = true;
+            requestSlots = channel.export(RequestSlots.class, slots);
+            result = channel.call(this);
+            return result;
+        } finally {
+            // slots of requests the agent did not release, for example when it disconnected
+            slots.releaseAll();
+            reportRequests(breaker, endpointName, result == null ? null : result.getTiming());
+        }
+    }
+
+    /**
+     * Reports the requests of a check run on an agent to the circuit breaker: its failed requests, then a success if
+     * InfluxDB answered any request
+     * @param timing {@link CheckTiming} sent back by the agent, null if the agent did not answer
+     */
+    static void reportRequests(CircuitBreaker breaker, String endpointName, CheckTiming timing) {
+        if (timing == null || (timing.getFailedRequests() == 0 && timing.getAttempts() == 0)) {
+            breaker.onNotSent(endpointName);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < timing.getFailedRequests(); i++) {
+            breaker.onFailure(endpointName, i < timing.getTimedOutRequests(), now);
+        }
+        // attempts which did not fail on a request got an answer, possibly a query error
+        if (timing.getRequests() > 0 || timing.getAttempts() > timing.getFailedRequests()) {
+            breaker.onSuccess(endpointName);
+        }
+    }
+
+    /**
+     * {@link ConcurrencyLimiter} permits of the controller taken by the agent running a check
+     */
+    private static final class ControllerSlots implements RequestSlots {
+        private final String endpointName;
+        private final long buildStart;
+        private final ConcurrentMap<Long, ConcurrencyLimiter.Permit> permits = new ConcurrentHashMap<Long, ConcurrencyLimiter.Permit>();
+        private final AtomicLong nextSlot = new AtomicLong();
+
+        private ControllerSlots(String endpointName, long buildStart) {
+            this.endpointName = endpointName;
+            this.buildStart = buildStart;
+        }
+
+        @Override
+        public long acquire() throws IOException {
+            ConcurrencyLimiter.Permit permit = ConcurrencyLimiter.get().acquire(endpointName, buildStart);
+            long slot = nextSlot.getAndIncrement();
+            permits.put(slot, permit);
+            return slot;
+        }
+
+        @Override
+        public void onSuccess(long slot, long latencyNanos) {
+            ConcurrencyLimiter.Permit permit = permits.remove(slot);
+            if (permit != null) {
+                permit.onSuccess(latencyNanos);
+            }
+        }
+
+        @Override
+        public void onDropped(long slot) {
+            ConcurrencyLimiter.Permit permit = permits.remove(slot);
+            if (permit != null) {
+                permit.onDropped();
+            }
+        }
+
+        @Override
+        public void onIgnore(long slot) {
+            ConcurrencyLimiter.Permit permit = permits.remove(slot);
+            if (permit != null) {
+                permit.onIgnore();
+            }
+        }
+
+        private void releaseAll() {
+            for (Long slot : permits.keySet()) {
+                onIgnore(slot);
+            }
+        }
+    }
+}
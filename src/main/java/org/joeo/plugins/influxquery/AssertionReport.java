@@ -0,0 +1,117 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Violations of {@link SeriesAssertion}s found in the series of a statement.
+ */
+final class AssertionReport {
+    /**
+     * Messages kept for rows breaking rules, further rows are only counted
+     */
+    static final int MAX_VIOLATIONS = Integer.getInteger(AssertionReport.class.getName() + ".maxViolations", 20);
+
+    private final List<String> violations = new ArrayList<String>();
+    private long violationCount;
+    private final Map<SeriesTable, Boolean> failedSeries = new IdentityHashMap<SeriesTable, Boolean>();
+    private int checkedSeries;
+
+    /**
+     * @param assertions {@link SeriesAssertion}s to check
+     * @param result {@link StatementResult}
+     * @return {@link AssertionReport}
+     */
+    static AssertionReport check(List<SeriesAssertion> assertions, StatementResult result) {
+        AssertionReport report = new AssertionReport();
+        for (SeriesTable series : result.getSeries()) {
+            if (series.getRowCount() > 0) {
+                report.addCheckedSeries();
+            }
+        }
+        for (SeriesAssertion assertion : assertions) {
+            assertion.check(result, report);
+        }
+        return report;
+    }
+
+    /**
+     * Counts a series having rows, whether it breaks assertions or not
+     */
+    void addCheckedSeries() {
+        checkedSeries++;
+    }
+
+    void addViolation(SeriesAssertion assertion, SeriesTable series, int row, double value) {
+        failedSeries.put(series, Boolean.TRUE);
+        if (violationCount++ >= MAX_VIOLATIONS) {
+            return;
+        }
+        StringBuilder violation = new StringBuilder("Series ").append(series.getLabel());
+        if (series.hasTime()) {
+            violation.append(" at time ").append(series.getTime(row));
+        }
+        violation.append(" broke ").append(assertion).append(", ").append(assertion.getColumn()).append('=').append(value);
+        violations.add(violation.toString());
+    }
+
+    /**
+     * @return one message per row breaking a rule, for the first {@link #MAX_VIOLATIONS} rows
+     */
+    List<String> getViolations() {
+        return Collections.unmodifiableList(violations);
+    }
+
+    /**
+     * @return number of rows breaking a rule, counted once per broken rule
+     */
+    long getViolationCount() {
+        return violationCount;
+    }
+
+    /**
+     * @return number of series with at least one row breaking a rule
+     */
+    int getFailedSeriesCount() {
+        return failedSeries.size();
+    }
+
+    /**
+     * @return number of series having rows
+     */
+    int getCheckedSeriesCount() {
+        return checkedSeries;
+    }
+
+    @Override
+    public String toString() {
+        return getFailedSeriesCount() + " of " + checkedSeries + " series broke assertions";
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import java.io.Serializable;
+
+/**
+ * Rolling statistics of the values of a check over previous builds, updated in constant space:
+ * count, mean and variance (Welford), exponentially weighted mean and variance, and a {@link QuantileSketch}.
+ */
+final class Baseline implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** Weight of the newest value in exponentially weighted statistics */
+    static final double ALPHA = 0.1;
+
+    private long count;
+    private double mean;
+    private double m2;
+    private double ewma;
+    private double ewmVariance;
+    private final QuantileSketch sketch = new QuantileSketch();
+
+    void update(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return;
+        }
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        m2 += delta * (value - mean);
+        if (count == 1) {
+            ewma = value;
+            ewmVariance = 0;
+        } else {
+            double ewmDelta = value - ewma;
+            ewma += ALPHA * ewmDelta;
+            ewmVariance = (1 - ALPHA) * (ewmVariance + ALPHA * ewmDelta * ewmDelta);
+        }
+        sketch.add(value);
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    double getMean() {
+        return mean;
+    }
+
+    /**
+     * @return sample standard deviation over all builds, 0 with less than 2 builds
+     */
+    double getStandardDeviation() {
+        return count < 2 ? 0 : Math.sqrt(m2 / (count - 1));
+    }
+
+    double getEwma() {
+        return ewma;
+    }
+
+    double getEwmStandardDeviation() {
+        return Math.sqrt(ewmVariance);
+    }
+
+    /**
+     * @param quantile between 0 and 1
+     * @return estimated value at quantile, NaN if no build was recorded
+     */
+    double quantile(double quantile) {
+        return sketch.quantile(quantile);
+    }
+
+    @Override
+    public String toString() {
+        return "builds:" + count + ", ewma:" + ewma + ", ewm sigma:" + getEwmStandardDeviation() + ", mean:" + mean
+                + ", sigma:" + getStandardDeviation() + ", p50:" + quantile(0.5) + ", p95:" + quantile(0.95);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import java.io.Serializable;
+
+/**
+ * Fails a check whose value is more than a number of standard deviations or a percentage above the
+ * exponentially weighted mean of its {@link Baseline}. Like the threshold, only increases are regressions.
+ */
+final class BaselineGate implements Serializable {
+    private static final long serialVersionUID = 1L;
+    static final int DEFAULT_MIN_BUILDS = 10;
+
+    private final double sigmas;
+    private final double percent;
+    private final int minBuilds;
+
+    private BaselineGate(double sigmas, double percent, int minBuilds) {
+        this.sigmas = sigmas;
+        this.percent = percent;
+        this.minBuilds = minBuilds;
+    }
+
+    /**
+     * @param sigmas allowed standard deviations above baseline, 0 to disable
+     * @param percent allowed percentage above baseline, 0 to disable
+     * @param minBuilds builds recorded before the baseline is used
+     * @return {@link BaselineGate}, null if both limits are disabled
+     */
+    static BaselineGate of(double sigmas, double percent, int minBuilds) {
+        if (sigmas <= 0 && percent <= 0) {
+            return null;
+        }
+        return new BaselineGate(sigmas, percent, minBuilds <= 0 ? DEFAULT_MIN_BUILDS : minBuilds);
+    }
+
+    /**
+     * @param baseline {@link Baseline} of previous builds
+     * @return true if baseline has enough builds to be used
+     */
+    boolean isReady(Baseline baseline) {
+        return baseline.getCount() >= minBuilds;
+    }
+
+    int getMinBuilds() {
+        return minBuilds;
+    }
+
+    /**
+     * @param baseline {@link Baseline} of previous builds
+     * @return highest value which is not a regression, the lowest of the enabled limits
+     */
+    double limit(Baseline baseline) {
+        double center = baseline.getEwma();
+        double limit = Double.POSITIVE_INFINITY;
+        if (sigmas > 0) {
+            limit = center + sigmas * baseline.getEwmStandardDeviation();
+        }
+        if (percent > 0) {
+            limit = Math.min(limit, center + Math.abs(center) * percent / 100);
+        }
+        return limit;
+    }
+
+    /**
+     * @param baseline {@link Baseline} of previous builds
+     * @param value value of the build
+     * @return true if baseline is ready and value is above its limit
+     */
+    boolean isRegression(Baseline baseline, double value) {
+        return isReady(baseline) && value > limit(baseline);
+    }
+
+    @Override
+    public String toString() {
+        return (sigmas > 0 ? sigmas + " sigma" : "") + (sigmas > 0 && percent > 0 ? " or " : "")
+                + (percent > 0 ? percent + "%" : "") + " above baseline after " + minBuilds + " builds";
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import hudson.XmlFile;
+import hudson.model.Job;
+
+/**
+ * Per job {@link Baseline}s of checks by check name, stored in the job directory.
+ */
+final class BaselineStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BaselineStore.class);
+    static final String FILE_NAME = "influxdb-query-baselines.xml";
+
+    private BaselineStore() {
+    }
+
+    private static XmlFile getFile(Job<?, ?> job) {
+        return new XmlFile(new File(job.getRootDir(), FILE_NAME));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Baseline> read(XmlFile file) throws IOException {
+        if (!file.exists()) {
+            return new TreeMap<String, Baseline>();
+        }
+        return (Map<String, Baseline>) file.read();
+    }
+
+    /**
+     * @param job {@link Job}
+     * @param checkName check name, null for checks without name which have no baseline
+     * @return {@link Baseline} of check, empty if none was recorded or it cannot be read
+     */
+    static synchronized Baseline load(Job<?, ?> job, String checkName) {
+        if (checkName == null) {
+            return new Baseline();
+        }
+        try {
+            Baseline baseline = read(getFile(job)).get(checkName);
+            if (baseline != null) {
+                return baseline;
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Cannot read baselines of " + job.getFullName(), e);
+        }
+        return new Baseline();
+    }
+
+    /**
+     * Adds value of a build to the baseline of check, failures are logged as the build result is already known
+     * @param job {@link Job}
+     * @param checkName check name, null for checks without name which have no baseline
+     * @param value value of the build
+     */
+    static synchronized void update(Job<?, ?> job, String checkName, double value) {
+        if (checkName == null) {
+            return;
+        }
+        XmlFile file = getFile(job);
+        try {
+            Map<String, Baseline> baselines = read(file);
+            Baseline baseline = baselines.get(checkName);
+            if (baseline == null) {
+                baseline = new Baseline();
+                baselines.put(checkName, baseline);
+            }
+            baseline.update(value);
+            file.write(baselines);
+        } catch (IOException e) {
+            LOGGER.warn("Cannot update baseline of check " + checkName + " in " + job.getFullName(), e);
+        }
+    }
+}
@@ -0,0 +1,432 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import hudson.FilePath;
+import hudson.model.Result;
+import hudson.model.Run;
+
+/**
+ * Evaluates statement results of a check against its threshold and reports the outcome.
+ * One instance is used per check execution, it records the {@link Result} the build should get.
+ */
+final class CheckEvaluator implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final Logger LOGGER = LoggerFactory.getLogger(CheckEvaluator.class);
+    private final String checkName;
+    private final double expectedThreshold;
+    private final boolean markUnstable;
+    private final boolean showResults;
+    private final List<SeriesAssertion> assertions;
+    private final CheckTiming timing;
+    private BaselineGate baselineGate;
+    private Baseline baseline;
+    private Result buildResult;
+    private transient StatementResult shownResult;
+
+    CheckEvaluator(String checkName, double expectedThreshold, boolean markUnstable, boolean showResults) {
+        this(checkName, expectedThreshold, markUnstable, showResults, Collections.<SeriesAssertion>emptyList());
+    }
+
+    /**
+     * @param assertions {@link SeriesAssertion}s checked on all series, when not empty expectedThreshold is the
+     *  number of series allowed to break them
+     */
+    CheckEvaluator(String checkName, double expectedThreshold, boolean markUnstable, boolean showResults,
+            List<SeriesAssertion> assertions) {
+        this(checkName, expectedThreshold, markUnstable, showResults, assertions, new CheckTiming(checkName));
+    }
+
+    /**
+     * @param timing {@link CheckTiming} kept by callers evaluating a check over several evaluator instances
+     */
+    CheckEvaluator(String checkName, double expectedThreshold, boolean markUnstable, boolean showResults,
+            List<SeriesAssertion> assertions, CheckTiming timing) {
+        this.timing = timing;
+        timing.setThreshold(expectedThreshold);
+        this.checkName = checkName;
+        this.expectedThreshold = expectedThreshold;
+        this.markUnstable = markUnstable;
+        this.showResults = showResults;
+        this.assertions = assertions;
+    }
+
+    String getCheckName() {
+        return checkName;
+    }
+
+    /**
+     * Also fails values which are regressions from the baseline of previous builds, and adds passing values to it.
+     * Not used with assertions.
+     * @param gate {@link BaselineGate}
+     * @param baseline {@link Baseline} of previous builds
+     */
+    void setBaseline(BaselineGate gate, Baseline baseline) {
+        this.baselineGate = gate;
+        this.baseline = baseline;
+    }
+
+    /**
+     * @return {@link SeriesAssertion}s checked on every series, empty to compare the first value with the threshold
+     */
+    List<SeriesAssertion> getAssertions() {
+        return assertions;
+    }
+
+    /**
+     * @return true if rows of the result are shown, queries must then keep them
+     */
+    boolean isShowResults() {
+        return showResults;
+    }
+
+    /**
+     * @return {@link CheckTiming} of the check
+     */
+    CheckTiming getTiming() {
+        return timing;
+    }
+
+    /**
+     * @return {@link Result} to set on the build, null if the check does not change it
+     */
+    Result getBuildResult() {
+        return buildResult;
+    }
+
+    /**
+     * Sets recorded {@link Result} on the build if any, records metrics, result and trend of the completed check
+     * @param run {@link Run}
+     */
+    void complete(Run<?, ?> run) {
+        if (buildResult != null) {
+            run.setResult(buildResult);
+        }
+        timing.finish();
+        if (baselineGate != null && timing.getOutcome() == CheckTiming.Outcome.PASSED) {
+            BaselineStore.update(run.getParent(), checkName, timing.getValue());
+        }
+        QueryMetrics.get().recordCheck(timing);
+        OutcomeWriter.publish(run, timing);
+        CheckResult result = CheckResult.of(timing);
+        QueryResultAction.add(run, result);
+        QueryTrendStore.record(run, result);
+        archiveShownResult(new FilePath(run.getArtifactsDir()));
+    }
+
+    /**
+     * Writes results shown in the console to the artifacts of the build, they are not kept once archived
+     * @param artifactsDir artifacts directory of the build, remote when the check runs on an agent
+     */
+    void archiveShownResult(FilePath artifactsDir) {
+        if (shownResult == null) {
+            return;
+        }
+        FilePath file = artifactsDir.child(ResultRenderer.artifactPath(checkName));
+        try {
+            ResultRenderer.writeCsv(shownResult, file.write());
+        } catch (IOException e) {
+            LOGGER.warn("Cannot archive results of check " + checkName + " to " + file, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        shownResult = null;
+    }
+
+    /**
+     * @param result {@link StatementResult} of the check statement
+     * @return {@link CheckVerdict} computed from first value of first series, or from assertions if any
+     * @throws IllegalStateException if InfluxDB reported an error for the statement
+     * @throws IllegalArgumentException if value is not a number or an assertion column is missing
+     */
+    CheckVerdict evaluate(StatementResult result) {
+        if (result.getError() != null) {
+            throw new IllegalStateException(result.getError());
+        }
+        SeriesTable firstSeries = result.getFirstSeries();
+        if (firstSeries == null) {
+            return CheckVerdict.noData();
+        }
+        if (!assertions.isEmpty()) {
+            return evaluateAssertions(result);
+        }
+        int column = firstSeries.getFirstValueColumn();
+        return evaluateValue(firstSeries.getDouble(column, 0), firstSeries.getString(column, 0), firstSeries.getRowCount(),
+                result);
+    }
+
+    /**
+     * @param summary {@link SummaryResultHandler} which read the response with the assertions of this check
+     * @return {@link CheckVerdict} computed like {@link #evaluate(StatementResult)}, without rows to show
+     * @throws IllegalStateException if InfluxDB reported an error for the statement
+     * @throws IllegalArgumentException if value is not a number or an assertion column is missing
+     */
+    CheckVerdict evaluate(SummaryResultHandler summary) {
+        if (summary.getError() != null) {
+            throw new IllegalStateException(summary.getError());
+        }
+        if (!summary.hasRows()) {
+            return CheckVerdict.noData();
+        }
+        if (!assertions.isEmpty()) {
+            return evaluateAssertions(summary.getReport(), summary.getRowCount(), null);
+        }
+        return evaluateValue(summary.getFirstValue(), summary.getFirstString(), summary.getFirstSeriesRowCount(), null);
+    }
+
+    private CheckVerdict evaluateValue(double value, String string, long rows, Object details) {
+        if (Double.isNaN(value)) {
+            if (string != null) {
+                throw new NumberFormatException("Query returned " + string + " which is not a number");
+            }
+            return CheckVerdict.noData();
+        }
+        return new CheckVerdict(statusOf(value), value, rows, details);
+    }
+
+    private CheckVerdict evaluateAssertions(StatementResult result) {
+        return evaluateAssertions(AssertionReport.check(assertions, result), result.getRowCount(), result);
+    }
+
+    private CheckVerdict evaluateAssertions(AssertionReport report, long rows, Object details) {
+        double failedSeries = report.getFailedSeriesCount();
+        CheckVerdict.Status status = failedSeries > expectedThreshold ? CheckVerdict.Status.EXCEEDED : CheckVerdict.Status.PASSED;
+        return new CheckVerdict(status, failedSeries, rows, details, report.getViolations(), report.getViolationCount());
+    }
+
+    /**
+     * @param statistics {@link StreamingStatistics} computed over all rows
+     * @param statistic {@link Statistic} to compare with threshold
+     * @return {@link CheckVerdict}
+     */
+    CheckVerdict evaluate(StreamingStatistics statistics, Statistic statistic) {
+        if (statistics.getCount() == 0) {
+            return CheckVerdict.noData();
+        }
+        Double value = statistics.get(statistic);
+        return new CheckVerdict(statusOf(value), value, statistics.getCount(), statistics);
+    }
+
+    private CheckVerdict.Status statusOf(double value) {
+        if (value > expectedThreshold || (baselineGate != null && baselineGate.isRegression(baseline, value))) {
+            return CheckVerdict.Status.EXCEEDED;
+        }
+        return CheckVerdict.Status.PASSED;
+    }
+
+    private String limitOf(double value) {
+        if (value > expectedThreshold || baselineGate == null) {
+            return "threshold:" + expectedThreshold;
+        }
+        return "baseline limit:" + baselineGate.limit(baseline);
+    }
+
+    /**
+     * Logs verdict and records if build must be marked unstable
+     * @param verdict {@link CheckVerdict}
+     * @param command Query command that was run
+     * @param loggerUtils {@link LoggerUtils}
+     * @return true if check is complete, false if it should be retried
+     */
+    boolean report(CheckVerdict verdict, String command, LoggerUtils loggerUtils) {
+        timing.addAttempt(outcomeOf(verdict.getStatus()), verdict.getRecordCount(), verdict.getValue());
+        if (verdict.getStatus() == CheckVerdict.Status.NO_DATA) {
+            loggerUtils.warn("Query returned 0 records");
+        } else {
+            loggerUtils.info("Query returned " + verdict.getRecordCount() + " records:");
+            if(showResults) {
+                loggerUtils.info("Results for query:"+command);
+                showDetails(verdict.getDetails(), loggerUtils);
+            }
+        }
+        if (!assertions.isEmpty() && verdict.getStatus() != CheckVerdict.Status.NO_DATA) {
+            loggerUtils.info(verdict.getViolationCount() + " rows in " + verdict.getValue().intValue()
+                    + " series broke assertions " + assertions);
+            for (String violation : verdict.getViolations()) {
+                loggerUtils.warn(violation);
+            }
+            if (verdict.getViolationCount() > verdict.getViolations().size()) {
+                loggerUtils.warn("... " + (verdict.getViolationCount() - verdict.getViolations().size()) + " more rows broke assertions");
+            }
+        }
+        Double result = verdict.getValue();
+        loggerUtils.info("InfluxDB Query "+ command + " returned :"+result);
+        if (baselineGate != null && result != null) {
+            if (baselineGate.isReady(baseline)) {
+                loggerUtils.info("Baseline " + baseline + ", limit:" + baselineGate.limit(baseline) + " (" + baselineGate + ")");
+            } else {
+                loggerUtils.info("Baseline has " + baseline.getCount() + " builds, it is used after " + baselineGate.getMinBuilds() + " builds");
+            }
+        }
+        switch (verdict.getStatus()) {
+        case EXCEEDED:
+            if (markUnstable) {
+                loggerUtils.error("InfluxDB Query returned " + result + " which is more than " + limitOf(result) + ", will mark build Unstable");
+                buildResult = Result.UNSTABLE;
+                return true;
+            } 
+            loggerUtils.warn("InfluxDB Query returned " + result + " which is more than " + limitOf(result) + ", but build will not be marked as Unstable as per your configuration");
+            return false;
+        case PASSED:
+            loggerUtils.info("InfluxDB Query returned " + result + " which is less than " + limitOf(result));
+            return true;
+        default:
+            loggerUtils.warn("InfluxDB Query returned no results");
+            return false;
+        }
+    }
+
+    private void showDetails(Object details, LoggerUtils loggerUtils) {
+        if (!(details instanceof StatementResult)) {
+            loggerUtils.info(String.valueOf(details));
+            return;
+        }
+        shownResult = (StatementResult) details;
+        ResultRenderer.preview(shownResult, loggerUtils);
+        loggerUtils.info("Full results are archived as " + ResultRenderer.artifactPath(checkName));
+    }
+
+    private CheckTiming.Outcome outcomeOf(CheckVerdict.Status status) {
+        switch (status) {
+        case PASSED:
+            return CheckTiming.Outcome.PASSED;
+        case EXCEEDED:
+            return markUnstable ? CheckTiming.Outcome.UNSTABLE : CheckTiming.Outcome.EXCEEDED;
+        default:
+            return CheckTiming.Outcome.NO_DATA;
+        }
+    }
+
+    /**
+     * Logs a failed attempt, failures which will not be fixed by retrying complete the check
+     * @param failure failure of query or evaluation
+     * @param command Query command that was run
+     * @param currentRetry current retry
+     * @param retryCount max retries
+     * @param loggerUtils {@link LoggerUtils}
+     * @return true if check is complete, false if it should be retried
+     */
+    boolean reportError(Exception failure, String command, int currentRetry, int retryCount, LoggerUtils loggerUtils) {
+        FailureClassifier.Category category = FailureClassifier.classify(failure);
+        if (category == FailureClassifier.Category.UNAVAILABLE) {
+            recordFailedAttempt(category);
+            reportUnavailable(failure, loggerUtils);
+            return true;
+        }
+        loggerUtils.error((category == FailureClassifier.Category.TIMEOUT ? "Query timed out:" : "Error running query:")
+                + command + ", current retry:"+currentRetry+", max retries:"+retryCount+", message:" + failure.getMessage());
+        recordFailedAttempt(category);
+        if (category == FailureClassifier.Category.FATAL) {
+            reportFatalError(failure.getMessage(), loggerUtils);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records an attempt which failed before a result could be evaluated
+     * @param category {@link FailureClassifier.Category} of failure
+     */
+    void recordFailedAttempt(FailureClassifier.Category category) {
+        CheckTiming.Outcome outcome;
+        switch (category) {
+        case TIMEOUT:
+            outcome = CheckTiming.Outcome.TIMEOUT;
+            break;
+        case UNAVAILABLE:
+            outcome = CheckTiming.Outcome.UNAVAILABLE;
+            break;
+        default:
+            outcome = CheckTiming.Outcome.ERROR;
+        }
+        timing.addAttempt(outcome, 0, null);
+    }
+
+    /**
+     * Logs that the check is skipped because the circuit breaker of its endpoint is open and records the
+     * {@link UnavailableOutcome} configured on the endpoint
+     * @param failure failure caused by a {@link CircuitOpenException}
+     * @param loggerUtils {@link LoggerUtils}
+     */
+    void reportUnavailable(Exception failure, LoggerUtils loggerUtils) {
+        CircuitOpenException open = CircuitOpenException.find(failure);
+        UnavailableOutcome outcome = open == null ? UnavailableOutcome.ERROR : open.getOutcome();
+        loggerUtils.error("Skipping query, " + failure.getMessage());
+        timing.setOutcome(CheckTiming.Outcome.UNAVAILABLE);
+        switch (outcome) {
+        case UNSTABLE:
+            loggerUtils.error("InfluxDB is unavailable, marking build as unstable");
+            buildResult = Result.UNSTABLE;
+            break;
+        case FAIL:
+            loggerUtils.error("InfluxDB is unavailable, marking build as failed");
+            buildResult = Result.FAILURE;
+            break;
+        case PASS:
+            loggerUtils.warn("InfluxDB is unavailable, check passes without result as configured");
+            break;
+        default:
+            markUnstableIfConfigured(loggerUtils);
+        }
+    }
+
+    /**
+     * Logs that retries are exhausted and records if build must be marked unstable
+     * @param reason why no retry is left
+     * @param loggerUtils {@link LoggerUtils}
+     */
+    void reportRetriesExhausted(String reason, LoggerUtils loggerUtils) {
+        loggerUtils.error(reason+" without being able to compute result");
+        markUnstableIfConfigured(loggerUtils);
+    }
+
+    /**
+     * Logs a failure which is not retried and records if build must be marked unstable
+     * @param message failure message
+     * @param loggerUtils {@link LoggerUtils}
+     */
+    void reportFatalError(String message, LoggerUtils loggerUtils) {
+        loggerUtils.error("Query failed with an error which will not be fixed by retrying, message:"+message);
+        timing.setOutcome(CheckTiming.Outcome.ERROR);
+        markUnstableIfConfigured(loggerUtils);
+    }
+
+    private void markUnstableIfConfigured(LoggerUtils loggerUtils) {
+        if (markUnstable) {
+            loggerUtils.error("Marking build as unstable");
+            buildResult = Result.UNSTABLE;
+        } else {
+            loggerUtils.warn("Not marking build as unstable");
+        }
+    }
+}
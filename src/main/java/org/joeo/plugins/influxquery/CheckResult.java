@@ -0,0 +1,188 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import hudson.Util;
+
+/**
+ * Immutable result of one check in a build: value, threshold, outcome and timings.
+ * Stored in compact binary form by {@link QueryResultAction} and {@link QueryTrendStore}.
+ */
+public final class CheckResult {
+    private static final int FORMAT_VERSION = 1;
+
+    private final String checkName;
+    private final String endpoint;
+    private final CheckTiming.Outcome outcome;
+    private final double value;
+    private final double threshold;
+    private final int attempts;
+    private final int requests;
+    private final long connectMillis;
+    private final long serverMillis;
+    private final long parseMillis;
+    private final long bytes;
+    private final long rows;
+    private final long durationMillis;
+
+    private CheckResult(String checkName, String endpoint, CheckTiming.Outcome outcome, double value, double threshold,
+            int attempts, int requests, long connectMillis, long serverMillis, long parseMillis, long bytes, long rows,
+            long durationMillis) {
+        this.checkName = checkName;
+        this.endpoint = endpoint;
+        this.outcome = outcome;
+        this.value = value;
+        this.threshold = threshold;
+        this.attempts = attempts;
+        this.requests = requests;
+        this.connectMillis = connectMillis;
+        this.serverMillis = serverMillis;
+        this.parseMillis = parseMillis;
+        this.bytes = bytes;
+        this.rows = rows;
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * @param timing {@link CheckTiming} of a completed check
+     * @return {@link CheckResult}, named with an empty string if the check has no name
+     */
+    static CheckResult of(CheckTiming timing) {
+        return new CheckResult(Util.fixNull(timing.getCheckName()), timing.getEndpoint(), timing.getOutcome(), timing.getValue(),
+                timing.getThreshold(), timing.getAttempts(), timing.getRequests(), timing.getConnectMillis(),
+                timing.getServerMillis(), timing.getParseMillis(), timing.getBytes(), timing.getRows(),
+                timing.getDurationMillis());
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        out.writeByte(FORMAT_VERSION);
+        out.writeUTF(checkName);
+        out.writeUTF(endpoint);
+        out.writeByte(outcome.ordinal());
+        out.writeDouble(value);
+        out.writeDouble(threshold);
+        out.writeInt(attempts);
+        out.writeInt(requests);
+        out.writeLong(connectMillis);
+        out.writeLong(serverMillis);
+        out.writeLong(parseMillis);
+        out.writeLong(bytes);
+        out.writeLong(rows);
+        out.writeLong(durationMillis);
+    }
+
+    /**
+     * @param in {@link DataInput} positioned on a result written by {@link #writeTo(DataOutput)}
+     * @return {@link CheckResult}
+     * @throws IOException if input is truncated or was written in an unknown format
+     */
+    static CheckResult readFrom(DataInput in) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unknown check result format version " + version);
+        }
+        String checkName = in.readUTF();
+        String endpoint = in.readUTF();
+        int outcome = in.readUnsignedByte();
+        CheckTiming.Outcome[] outcomes = CheckTiming.Outcome.values();
+        if (outcome >= outcomes.length) {
+            throw new IOException("Unknown check outcome " + outcome);
+        }
+        return new CheckResult(checkName, endpoint, outcomes[outcome], in.readDouble(), in.readDouble(), in.readInt(),
+                in.readInt(), in.readLong(), in.readLong(), in.readLong(), in.readLong(), in.readLong(), in.readLong());
+    }
+
+    public String getCheckName() {
+        return checkName;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public CheckTiming.Outcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * @return value compared with threshold, NaN if the check got no value
+     */
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * @return value for display, empty if the check got no value
+     */
+    public String getDisplayValue() {
+        return Double.isNaN(value) ? "" : String.valueOf(value);
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public int getRequests() {
+        return requests;
+    }
+
+    public long getConnectMillis() {
+        return connectMillis;
+    }
+
+    public long getServerMillis() {
+        return serverMillis;
+    }
+
+    public long getParseMillis() {
+        return parseMillis;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    @Override
+    public String toString() {
+        return checkName + " " + outcome.getLabel() + " value:" + getDisplayValue() + ", threshold:" + threshold;
+    }
+}
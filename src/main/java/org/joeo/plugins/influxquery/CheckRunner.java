@@ -0,0 +1,82 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs one check query until it completes, a non retryable error occurs or retries are exhausted.
+ */
+final class CheckRunner {
+    private final CheckEvaluator evaluator;
+    private final CheckQuery query;
+    private final RetryPolicy retryPolicy;
+    private final int retryCount;
+    private final int deadline;
+
+    CheckRunner(CheckEvaluator evaluator, CheckQuery query, RetryPolicy retryPolicy, int retryCount, int deadline) {
+        this.evaluator = evaluator;
+        this.query = query;
+        this.retryPolicy = retryPolicy;
+        this.retryCount = retryCount;
+        this.deadline = deadline;
+    }
+
+    CheckEvaluator getEvaluator() {
+        return evaluator;
+    }
+
+    /**
+     * Runs the retry loop, outcome is recorded in {@link #getEvaluator()}
+     * @param loggerUtils {@link LoggerUtils}
+     * @throws InterruptedException if interrupted while waiting between retries
+     */
+    void run(LoggerUtils loggerUtils) throws InterruptedException {
+        RetrySchedule retrySchedule = new RetrySchedule(retryPolicy, retryCount, deadline, System.currentTimeMillis());
+        while (true) {
+            loggerUtils.info("==================== Running Check:"+evaluator.getCheckName()+" ====================");
+            loggerUtils.info("Running Influx Query:"+query.getCommand()+", retry:" + retrySchedule.getCurrentRetry() + " from Influx Query Plugin");
+            try {
+                CheckVerdict verdict = query.execute(evaluator);
+                if (evaluator.report(verdict, query.getCommand(), loggerUtils)) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                if (evaluator.reportError(e, query.getCommand(), retrySchedule.getCurrentRetry(), retryCount, loggerUtils)) {
+                    return;
+                }
+            }
+            long delay = retrySchedule.nextRetry(System.currentTimeMillis());
+            if (delay < 0) {
+                evaluator.reportRetriesExhausted(retrySchedule.getExhaustedReason(), loggerUtils);
+                return;
+            }
+            loggerUtils.info("Waiting " + TimeUnit.MILLISECONDS.toSeconds(delay) + " seconds before retry.");
+            TimeUnit.MILLISECONDS.sleep(delay);
+        }
+    }
+}
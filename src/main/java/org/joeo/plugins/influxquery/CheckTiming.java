@@ -0,0 +1,203 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timing breakdown, value and outcome of one check while it runs, recorded as a {@link CheckResult} once complete.
+ */
+public final class CheckTiming implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Final outcome of a check
+     */
+    public enum Outcome {
+        PASSED("pass"), UNSTABLE("unstable"), EXCEEDED("exceeded"), NO_DATA("no-data"), ERROR("error"), TIMEOUT("timeout"), UNAVAILABLE("unavailable");
+
+        private final String label;
+
+        Outcome(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private final String checkName;
+    private final long startMillis = System.currentTimeMillis();
+    private String endpoint = "default";
+    private long durationMillis;
+    private int attempts;
+    private int requests;
+    private int failedRequests;
+    private int timedOutRequests;
+    private long connectNanos;
+    private long serverNanos;
+    private long parseNanos;
+    private long bytes;
+    private long rows;
+    private Outcome outcome = Outcome.ERROR;
+    private double value = Double.NaN;
+    private double threshold;
+
+    CheckTiming(String checkName) {
+        this.checkName = checkName;
+    }
+
+    synchronized void setEndpoint(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    synchronized void addRequest(QueryTiming timing) {
+        requests++;
+        connectNanos += timing.getConnectNanos();
+        serverNanos += timing.getServerNanos();
+        parseNanos += timing.getParseNanos();
+        bytes += timing.getBytes();
+    }
+
+    /**
+     * Records a request which failed because of a network error, a timeout or a server error
+     * @param timeout true if request timed out
+     */
+    synchronized void addFailedRequest(boolean timeout) {
+        failedRequests++;
+        if (timeout) {
+            timedOutRequests++;
+        }
+    }
+
+    synchronized void setThreshold(double threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Records the result of an attempt
+     * @param attemptOutcome {@link Outcome} of attempt
+     * @param attemptRows rows returned by attempt
+     * @param attemptValue value compared with threshold, null if none
+     */
+    synchronized void addAttempt(Outcome attemptOutcome, long attemptRows, Double attemptValue) {
+        attempts++;
+        outcome = attemptOutcome;
+        rows = attemptRows;
+        value = attemptValue == null ? Double.NaN : attemptValue;
+    }
+
+    synchronized void setOutcome(Outcome outcome) {
+        this.outcome = outcome;
+    }
+
+    synchronized void finish() {
+        durationMillis = System.currentTimeMillis() - startMillis;
+    }
+
+    public String getCheckName() {
+        return checkName;
+    }
+
+    public synchronized String getEndpoint() {
+        return endpoint;
+    }
+
+    public synchronized long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public synchronized int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * @return number of attempts after the first one
+     */
+    public synchronized int getRetries() {
+        return Math.max(0, attempts - 1);
+    }
+
+    /**
+     * @return number of requests sent to InfluxDB, lower than attempts when results came from cache
+     */
+    public synchronized int getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return number of requests which failed because of a network error, a timeout or a server error
+     */
+    synchronized int getFailedRequests() {
+        return failedRequests;
+    }
+
+    /**
+     * @return number of failed requests which timed out
+     */
+    synchronized int getTimedOutRequests() {
+        return timedOutRequests;
+    }
+
+    public synchronized long getConnectMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(connectNanos);
+    }
+
+    public synchronized long getServerMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(serverNanos);
+    }
+
+    public synchronized long getParseMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(parseNanos);
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return rows returned by the last attempt
+     */
+    public synchronized long getRows() {
+        return rows;
+    }
+
+    public synchronized Outcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * @return value of the last attempt, NaN if none
+     */
+    public synchronized double getValue() {
+        return value;
+    }
+
+    public synchronized double getThreshold() {
+        return threshold;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of evaluating one InfluxDB statement result against a check threshold.
+ */
+final class CheckVerdict {
+    enum Status {
+        /** Value is less than or equal to threshold */
+        PASSED,
+        /** Value is above threshold */
+        EXCEEDED,
+        /** Statement returned no series */
+        NO_DATA
+    }
+
+    private final Status status;
+    private final Double value;
+    private final long recordCount;
+    private final Object details;
+    private final List<String> violations;
+    private final long violationCount;
+
+    /**
+     * @param details results displayed when showing query results
+     */
+    CheckVerdict(Status status, Double value, long recordCount, Object details) {
+        this(status, value, recordCount, details, Collections.<String>emptyList(), 0);
+    }
+
+    /**
+     * @param details results displayed when showing query results
+     * @param violations first rows breaking assertions, always displayed
+     * @param violationCount number of rows breaking assertions
+     */
+    CheckVerdict(Status status, Double value, long recordCount, Object details, List<String> violations, long violationCount) {
+        this.status = status;
+        this.value = value;
+        this.recordCount = recordCount;
+        this.details = details;
+        this.violations = violations;
+        this.violationCount = violationCount;
+    }
+
+    static CheckVerdict noData() {
+        return new CheckVerdict(Status.NO_DATA, null, 0, null);
+    }
+
+    Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return evaluated value, null if no data
+     */
+    Double getValue() {
+        return value;
+    }
+
+    long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * @return results displayed when showing query results, null if no data
+     */
+    Object getDetails() {
+        return details;
+    }
+
+    /**
+     * @return first rows breaking assertions, empty if none
+     */
+    List<String> getViolations() {
+        return violations;
+    }
+
+    /**
+     * @return number of rows breaking assertions, more than {@link #getViolations()} once they are capped
+     */
+    long getViolationCount() {
+        return violationCount;
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Controller wide circuit breaker per endpoint. It opens when the share of failed or timed out requests among the
+ * last requests is too high; while open, requests are refused without network calls. Once the open duration is
+ * over a single request is let through as a probe: it closes the circuit if it succeeds, otherwise the circuit opens again.
+ * Thresholds can be changed with system properties <code>org.joeo.plugins.influxquery.CircuitBreaker.window</code>,
+ * <code>.minRequests</code>, <code>.failureRate</code> and <code>.timeoutRate</code> (percent), and
+ * <code>.openDuration</code> (milliseconds).
+ */
+final class CircuitBreaker {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    static final int WINDOW = Integer.getInteger(CircuitBreaker.class.getName() + ".window", 20);
+    static final int MIN_REQUESTS = Integer.getInteger(CircuitBreaker.class.getName() + ".minRequests", 5);
+    static final int FAILURE_RATE = Integer.getInteger(CircuitBreaker.class.getName() + ".failureRate", 50);
+    static final int TIMEOUT_RATE = Integer.getInteger(CircuitBreaker.class.getName() + ".timeoutRate", 30);
+    static final long OPEN_DURATION_MILLIS = Long.getLong(CircuitBreaker.class.getName() + ".openDuration", 30000L);
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final CircuitBreaker INSTANCE = new CircuitBreaker(WINDOW, MIN_REQUESTS, FAILURE_RATE, TIMEOUT_RATE,
+            OPEN_DURATION_MILLIS);
+
+    private final ConcurrentMap<String, Circuit> circuits = new ConcurrentSkipListMap<String, Circuit>();
+    private final int window;
+    private final int minRequests;
+    private final int failureRate;
+    private final int timeoutRate;
+    private final long openDurationMillis;
+
+    /**
+     * @param window number of last requests rates are computed on
+     * @param minRequests requests in window before the circuit may open
+     * @param failureRate percentage of failed requests, timeouts included, opening the circuit
+     * @param timeoutRate percentage of timed out requests opening the circuit
+     * @param openDurationMillis time the circuit stays open before a probe is let through
+     */
+    CircuitBreaker(int window, int minRequests, int failureRate, int timeoutRate, long openDurationMillis) {
+        this.window = Math.max(1, window);
+        this.minRequests = Math.max(1, Math.min(this.window, minRequests));
+        this.failureRate = failureRate;
+        this.timeoutRate = timeoutRate;
+        this.openDurationMillis = openDurationMillis;
+    }
+
+    static CircuitBreaker get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Checks whether a request may be sent, its result must then be reported by one of the on methods
+     * @param endpoint endpoint name
+     * @param outcome {@link UnavailableOutcome} of checks if the circuit is open
+     * @param now current time in milliseconds
+     * @throws CircuitOpenException if the circuit is open or its probe is running
+     */
+    void acquire(String endpoint, UnavailableOutcome outcome, long now) throws CircuitOpenException {
+        Circuit circuit = circuit(endpoint);
+        synchronized (circuit) {
+            if (circuit.state == State.OPEN && now - circuit.openedAt >= openDurationMillis) {
+                circuit.state = State.HALF_OPEN;
+                return;
+            }
+            if (circuit.state != State.CLOSED) {
+                long retryIn = Math.max(0, circuit.openedAt + openDurationMillis - now);
+                throw new CircuitOpenException("Circuit breaker of endpoint " + endpoint + " is open after "
+                        + circuit.reason + ", next probe in " + TimeUnit.MILLISECONDS.toSeconds(retryIn) + " seconds", outcome);
+            }
+        }
+    }
+
+    /**
+     * Request got an answer from InfluxDB, including query errors
+     */
+    void onSuccess(String endpoint) {
+        Circuit circuit = circuit(endpoint);
+        synchronized (circuit) {
+            if (circuit.state == State.HALF_OPEN) {
+                LOGGER.info("Closing circuit breaker of endpoint {}, probe succeeded", endpoint);
+                circuit.state = State.CLOSED;
+                circuit.reset();
+            } else {
+                circuit.record(Circuit.SUCCESS);
+            }
+        }
+    }
+
+    /**
+     * Request failed because of a network error, a timeout or a server error
+     * @param timeout true if request timed out
+     * @param now current time in milliseconds
+     */
+    void onFailure(String endpoint, boolean timeout, long now) {
+        Circuit circuit = circuit(endpoint);
+        synchronized (circuit) {
+            if (circuit.state == State.HALF_OPEN) {
+                LOGGER.warn("Circuit breaker of endpoint {} stays open, probe failed", endpoint);
+                circuit.state = State.OPEN;
+                circuit.openedAt = now;
+                return;
+            }
+            circuit.record(timeout ? Circuit.TIMEOUT : Circuit.FAILURE);
+            if (circuit.state != State.CLOSED || circuit.count < minRequests) {
+                return;
+            }
+            if ((circuit.failures + circuit.timeouts) * 100 >= failureRate * circuit.count) {
+                circuit.reason = (circuit.failures + circuit.timeouts) + " failed requests of " + circuit.count;
+            } else if (circuit.timeouts * 100 >= timeoutRate * circuit.count) {
+                circuit.reason = circuit.timeouts + " timed out requests of " + circuit.count;
+            } else {
+                return;
+            }
+            LOGGER.warn("Opening circuit breaker of endpoint {} after {}", endpoint, circuit.reason);
+            circuit.state = State.OPEN;
+            circuit.openedAt = now;
+        }
+    }
+
+    /**
+     * Request was not sent, a probe may be let through again
+     */
+    void onNotSent(String endpoint) {
+        Circuit circuit = circuit(endpoint);
+        synchronized (circuit) {
+            if (circuit.state == State.HALF_OPEN) {
+                circuit.state = State.OPEN;
+            }
+        }
+    }
+
+    Set<String> getEndpoints() {
+        return circuits.keySet();
+    }
+
+    State getState(String endpoint) {
+        Circuit circuit = circuit(endpoint);
+        synchronized (circuit) {
+            return circuit.state;
+        }
+    }
+
+    private Circuit circuit(String endpoint) {
+        Circuit circuit = circuits.get(endpoint);
+        if (circuit == null) {
+            Circuit created = new Circuit(window);
+            circuit = circuits.putIfAbsent(endpoint, created);
+            if (circuit == null) {
+                circuit = created;
+            }
+        }
+        return circuit;
+    }
+
+    /**
+     * Results of the last requests of an endpoint in a ring buffer, guarded by its monitor
+     */
+    private static final class Circuit {
+        private static final byte SUCCESS = 0;
+        private static final byte FAILURE = 1;
+        private static final byte TIMEOUT = 2;
+
+        private final byte[] results;
+        private int next;
+        private int count;
+        private int failures;
+        private int timeouts;
+        private State state = State.CLOSED;
+        private long openedAt;
+        private String reason;
+
+        private Circuit(int window) {
+            this.results = new byte[window];
+        }
+
+        private void record(byte result) {
+            if (count == results.length) {
+                forget(results[next]);
+            } else {
+                count++;
+            }
+            results[next] = result;
+            next = (next + 1) % results.length;
+            if (result == FAILURE) {
+                failures++;
+            } else if (result == TIMEOUT) {
+                timeouts++;
+            }
+        }
+
+        private void forget(byte result) {
+            if (result == FAILURE) {
+                failures--;
+            } else if (result == TIMEOUT) {
+                timeouts--;
+            }
+        }
+
+        private void reset() {
+            next = 0;
+            count = 0;
+            failures = 0;
+            timeouts = 0;
+        }
+    }
+}
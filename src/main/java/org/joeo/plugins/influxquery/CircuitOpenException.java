@@ -0,0 +1,62 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import java.io.IOException;
+
+/**
+ * Raised instead of sending a request while the {@link CircuitBreaker} of an endpoint is open.
+ */
+final class CircuitOpenException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final UnavailableOutcome outcome;
+
+    CircuitOpenException(String message, UnavailableOutcome outcome) {
+        super(message);
+        this.outcome = outcome;
+    }
+
+    /**
+     * @return {@link UnavailableOutcome} configured on the endpoint
+     */
+    UnavailableOutcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * @param failure failure of a query
+     * @return {@link CircuitOpenException} failure was caused by, null if none
+     */
+    static CircuitOpenException find(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof CircuitOpenException) {
+                return (CircuitOpenException) cause;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes query responses into {@link StatementResult}s, series split over several chunks are merged.
+ */
+final class ColumnarResultHandler implements ResultHandler {
+    private final List<StatementResult> results = new ArrayList<StatementResult>();
+    private SeriesTable currentSeries;
+
+    /**
+     * @return results ordered by statement id
+     */
+    List<StatementResult> getResults() {
+        return results;
+    }
+
+    @Override
+    public void onSeries(int statementId, String name, Map<String, String> tags, List<String> columns) {
+        StatementResult statement = statement(statementId);
+        SeriesTable last = statement.getLastSeries();
+        if (last != null && last.isContinuedBy(name, tags, columns)) {
+            currentSeries = last;
+        } else {
+            currentSeries = new SeriesTable(name, tags, columns);
+            statement.addSeries(currentSeries);
+        }
+    }
+
+    @Override
+    public void onCell(int column, ResponseReader reader) throws IOException {
+        decode(currentSeries, column, reader);
+    }
+
+    /**
+     * Sets cell of the current row of series from the value reader is positioned on
+     */
+    static void decode(SeriesTable series, int column, ResponseReader reader) throws IOException {
+        switch (reader.peek()) {
+        case NUMBER:
+            if (series.isTimeColumn(column)) {
+                series.setTime(reader.nextLong());
+            } else {
+                series.setDouble(column, reader.nextDouble());
+            }
+            break;
+        case BOOLEAN:
+            series.setDouble(column, reader.nextBoolean() ? 1 : 0);
+            break;
+        case STRING:
+            series.setString(column, reader.nextString());
+            break;
+        default:
+            reader.skipValue();
+            break;
+        }
+    }
+
+    @Override
+    public void onRowEnd() {
+        currentSeries.endRow();
+    }
+
+    @Override
+    public void onStatementEnd(int statementId) {
+        statement(statementId);
+    }
+
+    @Override
+    public void onStatementError(int statementId, String error) {
+        statement(statementId).setError(error);
+    }
+
+    private StatementResult statement(int statementId) {
+        while (results.size() <= statementId) {
+            results.add(new StatementResult(results.size()));
+        }
+        return results.get(statementId);
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Controller wide limit of concurrent requests per endpoint, adapted to the latency InfluxDB answers with:
+ * the limit grows by one per round trip while latency stays close to the lowest one observed, and shrinks by
+ * {@link #BACKOFF_RATIO} when latency goes above {@link #LATENCY_TOLERANCE} times it or a request fails.
+ * Requests over the limit wait for a slot, the one of the earliest started build first, up to a maximum wait.
+ * Limits can be changed with system properties <code>org.joeo.plugins.influxquery.ConcurrencyLimiter.initialLimit</code>,
+ * <code>org.joeo.plugins.influxquery.ConcurrencyLimiter.maxLimit</code> and
+ * <code>org.joeo.plugins.influxquery.ConcurrencyLimiter.maxWait</code> (milliseconds).
+ */
+final class ConcurrencyLimiter {
+    static final int INITIAL_LIMIT = Integer.getInteger(ConcurrencyLimiter.class.getName() + ".initialLimit", 10);
+    static final int MAX_LIMIT = Integer.getInteger(ConcurrencyLimiter.class.getName() + ".maxLimit", 100);
+    static final long MAX_WAIT_MILLIS = Long.getLong(ConcurrencyLimiter.class.getName() + ".maxWait", 30000L);
+    static final double LATENCY_TOLERANCE = 2;
+    static final double BACKOFF_RATIO = 0.9;
+    /**
+     * Share of the difference with a higher latency the lowest latency moves by, so that it follows lasting changes
+     */
+    private static final double BASELINE_DRIFT = 0.01;
+
+    private static final ConcurrencyLimiter INSTANCE = new ConcurrencyLimiter(INITIAL_LIMIT, MAX_LIMIT, MAX_WAIT_MILLIS);
+
+    private final ConcurrentMap<String, Limit> limits = new ConcurrentSkipListMap<String, Limit>();
+    private final int initialLimit;
+    private final int maxLimit;
+    private final long maxWaitMillis;
+
+    ConcurrencyLimiter(int initialLimit, int maxLimit, long maxWaitMillis) {
+        this.initialLimit = Math.max(1, initialLimit);
+        this.maxLimit = Math.max(this.initialLimit, maxLimit);
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    static ConcurrencyLimiter get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Waits for a slot of endpoint, requests waiting for the same endpoint get slots by start time of their build
+     * @param endpoint endpoint name
+     * @param buildStart start time in milliseconds of the build sending the request
+     * @return {@link Permit} to release once the response is read
+     * @throws InterruptedIOException if interrupted while waiting
+     * @throws IOException if no slot was free within the maximum wait
+     */
+    Permit acquire(String endpoint, long buildStart) throws IOException {
+        return limit(endpoint).acquire(buildStart, maxWaitMillis);
+    }
+
+    Set<String> getEndpoints() {
+        return limits.keySet();
+    }
+
+    /**
+     * @return current limit of concurrent requests of endpoint
+     */
+    int getLimit(String endpoint) {
+        return limit(endpoint).getLimit();
+    }
+
+    int getInFlight(String endpoint) {
+        return limit(endpoint).getInFlight();
+    }
+
+    int getQueued(String endpoint) {
+        return limit(endpoint).getQueued();
+    }
+
+    /**
+     * @return number of requests which waited longer than the maximum wait
+     */
+    long getRejected(String endpoint) {
+        return limit(endpoint).getRejected();
+    }
+
+    private Limit limit(String endpoint) {
+        Limit limit = limits.get(endpoint);
+        if (limit == null) {
+            Limit created = new Limit(endpoint, initialLimit, maxLimit);
+            limit = limits.putIfAbsent(endpoint, created);
+            if (limit == null) {
+                limit = created;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * Slot of a request, released exactly once by one of its methods
+     */
+    static final class Permit {
+        private final Limit limit;
+        private boolean released;
+
+        private Permit(Limit limit) {
+            this.limit = limit;
+        }
+
+        /**
+         * @param latencyNanos time InfluxDB took to answer
+         */
+        void onSuccess(long latencyNanos) {
+            release(latencyNanos, false);
+        }
+
+        /**
+         * Request failed because of a network error, a timeout or a server error
+         */
+        void onDropped() {
+            release(-1, true);
+        }
+
+        /**
+         * Request failed for a reason unrelated to the load of InfluxDB, such as a query error
+         */
+        void onIgnore() {
+            release(-1, false);
+        }
+
+        private void release(long latencyNanos, boolean dropped) {
+            if (!released) {
+                released = true;
+                limit.release(latencyNanos, dropped);
+            }
+        }
+    }
+
+    private static final class Waiter implements Comparable<Waiter> {
+        private final long buildStart;
+        private final long sequence;
+        private final Condition condition;
+        private boolean granted;
+
+        private Waiter(long buildStart, long sequence, Condition condition) {
+            this.buildStart = buildStart;
+            this.sequence = sequence;
+            this.condition = condition;
+        }
+
+        @Override
+        public int compareTo(Waiter other) {
+            int comparison = Long.compare(buildStart, other.buildStart);
+            return comparison != 0 ? comparison : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private static final class Limit {
+        private final String endpoint;
+        private final int maxLimit;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final PriorityQueue<Waiter> waiters = new PriorityQueue<Waiter>();
+        private double limit;
+        private int inFlight;
+        private long sequence;
+        private long rejected;
+        private double baselineNanos;
+
+        private Limit(String endpoint, int initialLimit, int maxLimit) {
+            this.endpoint = endpoint;
+            this.limit = initialLimit;
+            this.maxLimit = maxLimit;
+        }
+
+        private Permit acquire(long buildStart, long maxWaitMillis) throws IOException {
+            lock.lock();
+            try {
+                if (waiters.isEmpty() && inFlight < (int) limit) {
+                    inFlight++;
+                    return new Permit(this);
+                }
+                Waiter waiter = new Waiter(buildStart, sequence++, lock.newCondition());
+                waiters.add(waiter);
+                long remainingNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+                try {
+                    while (!waiter.granted) {
+                        if (remainingNanos <= 0) {
+                            waiters.remove(waiter);
+                            rejected++;
+                            throw new IOException("No request slot of endpoint " + endpoint + " within " + maxWaitMillis
+                                    + " ms, " + inFlight + " requests in flight for a limit of " + (int) limit + ", "
+                                    + waiters.size() + " waiting");
+                        }
+                        remainingNanos = waiter.condition.awaitNanos(remainingNanos);
+                    }
+                } catch (InterruptedException e) {
+                    if (waiter.granted) {
+                        inFlight--;
+                        grant();
+                    } else {
+                        waiters.remove(waiter);
+                    }
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for a request slot of endpoint " + endpoint);
+                }
+                return new Permit(this);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void release(long latencyNanos, boolean dropped) {
+            lock.lock();
+            try {
+                if (dropped) {
+                    limit = Math.max(1, limit * BACKOFF_RATIO);
+                } else if (latencyNanos >= 0) {
+                    if (baselineNanos == 0 || latencyNanos < baselineNanos) {
+                        baselineNanos = latencyNanos;
+                    } else {
+                        baselineNanos += (latencyNanos - baselineNanos) * BASELINE_DRIFT;
+                    }
+                    if (latencyNanos > baselineNanos * LATENCY_TOLERANCE) {
+                        limit = Math.max(1, limit * BACKOFF_RATIO);
+                    } else if (inFlight * 2 >= limit) {
+                        // only grows when the limit is used, one slot per round trip of a full window
+                        limit = Math.min(maxLimit, limit + 1 / limit);
+                    }
+                }
+                inFlight--;
+                grant();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Hands free slots to the first waiters, called with lock held
+         */
+        private void grant() {
+            while (inFlight < (int) limit && !waiters.isEmpty()) {
+                Waiter waiter = waiters.poll();
+                waiter.granted = true;
+                inFlight++;
+                waiter.condition.signal();
+            }
+        }
+
+        private int getLimit() {
+            lock.lock();
+            try {
+                return (int) limit;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private int getInFlight() {
+            lock.lock();
+            try {
+                return inFlight;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private int getQueued() {
+            lock.lock();
+            try {
+                return waiters.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private long getRejected() {
+            lock.lock();
+            try {
+                return rejected;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
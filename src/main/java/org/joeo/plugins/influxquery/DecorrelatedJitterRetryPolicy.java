@@ -0,0 +1,80 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import hudson.Extension;
+
+/**
+ * Decorrelated jitter backoff: each delay is random between base interval and 3 times the previous delay,
+ * the first one between base interval and 3 times base interval, capped at max interval. Spreads retries of builds that started to poll at the same time.
+ */
+public class DecorrelatedJitterRetryPolicy extends RetryPolicy {
+    private static final long serialVersionUID = 1L;
+
+    private final int baseInterval;
+    private final int maxInterval;
+
+    /**
+     * @param baseInterval min seconds to wait before a retry
+     * @param maxInterval max seconds to wait before a retry
+     */
+    @DataBoundConstructor
+    public DecorrelatedJitterRetryPolicy(int baseInterval, int maxInterval) {
+        this.baseInterval = Math.max(0, baseInterval);
+        this.maxInterval = Math.max(this.baseInterval, maxInterval);
+    }
+
+    public int getBaseInterval() {
+        return baseInterval;
+    }
+
+    public int getMaxInterval() {
+        return maxInterval;
+    }
+
+    @Override
+    public long nextDelayMillis(int retry, long previousDelayMillis) {
+        long base = TimeUnit.SECONDS.toMillis(baseInterval);
+        // the first retry starts from base as well, so builds failing together do not retry in lockstep
+        long upper = Math.max(base, Math.max(base, previousDelayMillis) * 3);
+        long delay = upper > base ? base + ThreadLocalRandom.current().nextLong(upper - base + 1) : base;
+        return Math.min(delay, TimeUnit.SECONDS.toMillis(maxInterval));
+    }
+
+    @Extension
+    @Symbol("decorrelatedJitter")
+    public static final class PolicyDescriptorImpl extends RetryPolicyDescriptor {
+        @Override
+        public String getDisplayName() {
+            return "Decorrelated jitter";
+        }
+    }
+}
@@ -24,6 +24,10 @@
 
 package org.joeo.plugins.influxquery;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import org.influxdb.InfluxDB;
 import org.influxdb.dto.Query;
 import org.influxdb.dto.QueryResult;
@@ -35,6 +39,7 @@ import org.kohsuke.stapler.verb.POST;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import hudson.AbortException;
 import hudson.Extension;
 import hudson.Util;
 import hudson.model.AbstractProject;
@@ -42,6 +47,7 @@ import hudson.model.Item;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.Builder;
 import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
 import hudson.util.Secret;
 import jenkins.model.Jenkins;
 import net.sf.json.JSONObject;
@@ -52,10 +58,21 @@ import net.sf.json.JSONObject;
 @Symbol("influxDbQuery")
 public final class DescriptorImpl extends BuildStepDescriptor<Builder> {
     private static final Logger LOGGER = LoggerFactory.getLogger(InfluxDBQuery.class);
+    /**
+     * Baselines are stored by check name
+     */
+    static final String BASELINE_WITHOUT_NAME = "Baseline gating needs a Check Name, the check is only compared with its threshold";
     private String influxDB;
     private String influxURL;
     private String influxUser;
     private Secret influxPWD;
+    private String influxOrg;
+    private Secret influxToken;
+    private List<InfluxDBEndpoint> endpoints;
+    private TransportSettings transport;
+    private ResponseFormat responseFormat;
+    private UnavailableOutcome unavailableOutcome;
+    private OutcomeExport outcomeExport;
 
     public DescriptorImpl() {
         super(InfluxDBQuery.class);
@@ -80,10 +97,107 @@ public final class DescriptorImpl extends BuildStepDescriptor<Builder> {
         influxURL = formData.getString("influxURL");
         influxUser = formData.getString("influxUser");
         influxPWD = Secret.fromString(formData.getString("influxPWD"));
+        influxOrg = Util.fixEmptyAndTrim(formData.optString("influxOrg", null));
+        influxToken = Secret.fromString(formData.optString("influxToken", ""));
+        responseFormat = ResponseFormat.fromName(formData.optString("responseFormat", null));
+        unavailableOutcome = UnavailableOutcome.fromName(formData.optString("unavailableOutcome", null));
+        endpoints = req.bindJSONToList(InfluxDBEndpoint.class, formData.get("endpoints"));
+        transport = formData.has("transport") ? req.bindJSON(TransportSettings.class, formData.getJSONObject("transport"))
+                : null;
+        outcomeExport = formData.has("outcomeExport")
+                ? req.bindJSON(OutcomeExport.class, formData.getJSONObject("outcomeExport")) : null;
         save();
+        // HTTP clients are rebuilt on next use with the new settings
+        InfluxDBUtils.releaseHttpClients();
+        QueryResultCache.get().clear();
         return false;
     }
 
+    /**
+     * @return named endpoints, the default endpoint is made of the InfluxDB settings of this descriptor
+     */
+    public List<InfluxDBEndpoint> getEndpoints() {
+        return endpoints == null ? Collections.<InfluxDBEndpoint>emptyList() : Collections.unmodifiableList(endpoints);
+    }
+
+    public void setEndpoints(List<InfluxDBEndpoint> endpoints) {
+        this.endpoints = new ArrayList<InfluxDBEndpoint>(endpoints);
+    }
+
+    /**
+     * @return global {@link TransportSettings}, used by endpoints not overriding them
+     */
+    public TransportSettings getTransport() {
+        return transport == null ? new TransportSettings() : transport;
+    }
+
+    public void setTransport(TransportSettings transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * @return {@link OutcomeExport} settings, null if outcomes of checks are not written to InfluxDB
+     */
+    public OutcomeExport getOutcomeExport() {
+        return outcomeExport;
+    }
+
+    public void setOutcomeExport(OutcomeExport outcomeExport) {
+        this.outcomeExport = outcomeExport;
+    }
+
+    /**
+     * @param name endpoint name, null or empty for the default endpoint
+     * @return {@link InfluxDBEndpoint}
+     * @throws IllegalArgumentException if no endpoint has this name
+     */
+    InfluxDBEndpoint getEndpoint(String name) {
+        if (Util.fixEmptyAndTrim(name) == null) {
+            return getDefaultEndpoint();
+        }
+        for (InfluxDBEndpoint endpoint : getEndpoints()) {
+            if (endpoint.getName().equals(name.trim())) {
+                return endpoint.withTransport(getTransport());
+            }
+        }
+        throw new IllegalArgumentException("No InfluxDB endpoint named " + name + " in global configuration");
+    }
+
+    /**
+     * @param name endpoint name, null or empty for the default endpoint
+     * @return {@link InfluxDBEndpoint} of global configuration
+     * @throws AbortException if no endpoint has this name
+     */
+    static InfluxDBEndpoint lookupEndpoint(String name) throws AbortException {
+        try {
+            return Jenkins.getInstance().getDescriptorByType(DescriptorImpl.class).getEndpoint(name);
+        } catch (IllegalArgumentException e) {
+            throw new AbortException(e.getMessage());
+        }
+    }
+
+    /**
+     * @return default endpoint followed by named endpoints
+     */
+    List<InfluxDBEndpoint> getAllEndpoints() {
+        List<InfluxDBEndpoint> allEndpoints = new ArrayList<InfluxDBEndpoint>();
+        allEndpoints.add(getDefaultEndpoint());
+        for (InfluxDBEndpoint endpoint : getEndpoints()) {
+            allEndpoints.add(endpoint.withTransport(getTransport()));
+        }
+        return allEndpoints;
+    }
+
+    private InfluxDBEndpoint getDefaultEndpoint() {
+        InfluxDBEndpoint endpoint = new InfluxDBEndpoint("", influxURL, influxDB, influxUser, influxPWD);
+        endpoint.setInfluxOrg(influxOrg);
+        endpoint.setInfluxToken(influxToken);
+        endpoint.setTransport(getTransport());
+        endpoint.setResponseFormat(responseFormat);
+        endpoint.setUnavailableOutcome(unavailableOutcome);
+        return endpoint;
+    }
+
     public String getInfluxDB() {
         return influxDB;
     }
@@ -116,6 +230,57 @@ public final class DescriptorImpl extends BuildStepDescriptor<Builder> {
         this.influxPWD = influxPWD;
     }
 
+    /**
+     * @return organization of default endpoint for Flux queries
+     */
+    public String getInfluxOrg() {
+        return influxOrg;
+    }
+
+    public void setInfluxOrg(String influxOrg) {
+        this.influxOrg = influxOrg;
+    }
+
+    /**
+     * @return API token of default endpoint for Flux queries
+     */
+    public Secret getInfluxToken() {
+        return influxToken;
+    }
+
+    public void setInfluxToken(Secret influxToken) {
+        this.influxToken = influxToken;
+    }
+
+    /**
+     * @return {@link ResponseFormat} of default endpoint
+     */
+    public ResponseFormat getResponseFormat() {
+        return responseFormat == null ? ResponseFormat.JSON : responseFormat;
+    }
+
+    public void setResponseFormat(ResponseFormat responseFormat) {
+        this.responseFormat = responseFormat;
+    }
+
+    /**
+     * @return {@link UnavailableOutcome} of checks of default endpoint while its circuit breaker is open
+     */
+    public UnavailableOutcome getUnavailableOutcome() {
+        return unavailableOutcome == null ? UnavailableOutcome.ERROR : unavailableOutcome;
+    }
+
+    public void setUnavailableOutcome(UnavailableOutcome unavailableOutcome) {
+        this.unavailableOutcome = unavailableOutcome;
+    }
+
+    /**
+     * @return statistics of {@link QueryResultCache}, displayed in global configuration
+     */
+    public String getQueryCacheStatistics() {
+        return QueryResultCache.get().toString();
+    }
+
     // Added @POST to help protect against CSRF
     @POST
     public FormValidation doTestConnection(
@@ -125,14 +290,8 @@ public final class DescriptorImpl extends BuildStepDescriptor<Builder> {
             @QueryParameter("influxPWD") final Secret influxPWD) {
         // Admin permission check
         Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
-        InfluxDB influxDBClient = null;
         try {        
-            influxDBClient = InfluxDBUtils.getConnection(influxURL, influxDB, influxUser, influxPWD);
-            Query query = new Query("show measurements", influxDB);
-            LOGGER.info("Testing query from Jenkins Plugin with url:{}, db:{}", influxURL, influxDB);
-            QueryResult result = influxDBClient.query(query);
-            int numMeasurements = result.getResults().get(0).getSeries().get(0).getValues().size();
-            LOGGER.info("Connection Successful. Found {} measurements", numMeasurements);
+            int numMeasurements = countMeasurements(influxURL, influxDB, influxUser, influxPWD, getTransport());
             return FormValidation.ok("Connection Successful.  Found " + numMeasurements + " Measurements");
 
         } catch (Exception e) {
@@ -142,19 +301,157 @@ public final class DescriptorImpl extends BuildStepDescriptor<Builder> {
                 return FormValidation.error(e, "Client error : " + e.getMessage());
             }
             return FormValidation.error(e, "Client error : Database Error");
-        } finally {
-            if (influxDBClient != null) {
-                try {
-                    influxDBClient.close();
-                } catch (Exception e) {
-                	LOGGER.error(e.getMessage());
-                }
-            }
         }
     }
 
+    /**
+     * @return number of measurements of database, used to test connection settings
+     */
+    static int countMeasurements(String influxURL, String influxDB, String influxUser, Secret influxPWD,
+            TransportSettings transport) {
+        InfluxDB influxDBClient = InfluxDBUtils.getConnection(influxURL, influxDB, influxUser, influxPWD, transport);
+        Query query = new Query("show measurements", influxDB);
+        LOGGER.info("Testing query from Jenkins Plugin with url:{}, db:{}", influxURL, influxDB);
+        QueryResult result = influxDBClient.query(query);
+        int numMeasurements = result.getResults().get(0).getSeries().get(0).getValues().size();
+        LOGGER.info("Connection Successful. Found {} measurements", numMeasurements);
+        return numMeasurements;
+    }
+
     @POST
     public FormValidation doCheckCheckName(@QueryParameter String checkName, @AncestorInPath Item item) {
+        return checkCheckName(checkName, item);
+    }
+
+    @POST
+    public FormValidation doCheckInfluxQuery(@QueryParameter String influxQuery, @QueryParameter boolean scopeToBuild,
+            @AncestorInPath Item item) {
+        return checkInfluxQuery(influxQuery, scopeToBuild, item);
+    }
+
+    @POST
+    public FormValidation doCheckExpectedThreshold(@QueryParameter String expectedThreshold,
+            @AncestorInPath Item item) {
+        return checkExpectedThreshold(expectedThreshold, item);
+    }
+
+    public ListBoxModel doFillEndpointItems() {
+        return fillEndpointItems();
+    }
+
+    static ListBoxModel fillEndpointItems() {
+        ListBoxModel items = new ListBoxModel();
+        items.add("Default", "");
+        for (InfluxDBEndpoint endpoint : Jenkins.getInstance().getDescriptorByType(DescriptorImpl.class).getEndpoints()) {
+            items.add(endpoint.getName());
+        }
+        return items;
+    }
+
+    public ListBoxModel doFillResponseFormatItems() {
+        return fillResponseFormatItems();
+    }
+
+    static ListBoxModel fillResponseFormatItems() {
+        ListBoxModel items = new ListBoxModel();
+        for (ResponseFormat format : ResponseFormat.values()) {
+            items.add(format.getDisplayName(), format.name());
+        }
+        return items;
+    }
+
+    public ListBoxModel doFillUnavailableOutcomeItems() {
+        return fillUnavailableOutcomeItems();
+    }
+
+    static ListBoxModel fillUnavailableOutcomeItems() {
+        ListBoxModel items = new ListBoxModel();
+        for (UnavailableOutcome outcome : UnavailableOutcome.values()) {
+            items.add(outcome.getDisplayName(), outcome.name());
+        }
+        return items;
+    }
+
+    public ListBoxModel doFillQueryLanguageItems() {
+        ListBoxModel items = new ListBoxModel();
+        for (QueryLanguage language : QueryLanguage.values()) {
+            items.add(language.getDisplayName(), language.name());
+        }
+        return items;
+    }
+
+    public ListBoxModel doFillStatisticItems() {
+        ListBoxModel items = new ListBoxModel();
+        items.add("First value", "");
+        for (Statistic statistic : Statistic.values()) {
+            items.add(statistic.getDisplayName(), statistic.name());
+        }
+        return items;
+    }
+
+    @POST
+    public FormValidation doCheckChunkSize(@QueryParameter String chunkSize, @AncestorInPath Item item) {
+        if (item == null) { // no context
+            return FormValidation.ok();
+        }
+        item.checkPermission(Item.CONFIGURE);
+        try {
+            if (Integer.parseInt(chunkSize) >= 0) {
+                return FormValidation.ok();
+            }
+        } catch (NumberFormatException ex) {
+            // handled below
+        }
+        return FormValidation.error("chunkSize must be a positive integer, 0 for default");
+    }
+
+    @POST
+    public FormValidation doCheckBaselineSigma(@QueryParameter String baselineSigma, @QueryParameter String checkName,
+            @AncestorInPath Item item) {
+        return checkBaseline(baselineSigma, "baselineSigma", checkName, item);
+    }
+
+    @POST
+    public FormValidation doCheckBaselinePercent(@QueryParameter String baselinePercent, @QueryParameter String checkName,
+            @AncestorInPath Item item) {
+        return checkBaseline(baselinePercent, "baselinePercent", checkName, item);
+    }
+
+    /**
+     * @param checkName name of the check, baselines of checks without name are not recorded
+     */
+    static FormValidation checkBaseline(String value, String field, String checkName, Item item) {
+        FormValidation validation = checkNonNegativeNumber(value, field, item);
+        if (item == null || validation.kind != FormValidation.Kind.OK) {
+            return validation;
+        }
+        if (Double.parseDouble(value) > 0 && Util.fixEmptyAndTrim(checkName) == null) {
+            return FormValidation.error(BASELINE_WITHOUT_NAME);
+        }
+        return validation;
+    }
+
+    static FormValidation checkNonNegativeNumber(String value, String field, Item item) {
+        if (item == null) { // no context
+            return FormValidation.ok();
+        }
+        item.checkPermission(Item.CONFIGURE);
+        try {
+            if (Double.parseDouble(value) >= 0) {
+                return FormValidation.ok();
+            }
+        } catch (NumberFormatException ex) {
+            // handled below
+        }
+        return FormValidation.error(field + " must be a positive number, 0 to disable");
+    }
+
+    @POST
+    public FormValidation doCheckAssertions(@QueryParameter String assertions, @AncestorInPath Item item) {
+        return checkAssertions(assertions, item);
+    }
+
+    static FormValidation checkCheckName(String checkName, Item item) {
         if (item == null) { // no context
             return FormValidation.ok();
         }
@@ -166,22 +463,41 @@ public final class DescriptorImpl extends BuildStepDescriptor<Builder> {
         }
     }
 
-    @POST
-    public FormValidation doCheckInfluxQuery(@QueryParameter String influxQuery, @AncestorInPath Item item) {
+    static FormValidation checkInfluxQuery(String influxQuery, Item item) {
+        return checkInfluxQuery(influxQuery, false, item);
+    }
+
+    /**
+     * @param scopeToBuild true if query is scoped to build, queries without time condition are then expected
+     */
+    static FormValidation checkInfluxQuery(String influxQuery, boolean scopeToBuild, Item item) {
         if (item == null) { // no context
             return FormValidation.ok();
         }
         item.checkPermission(Item.CONFIGURE);
         if (Util.fixEmptyAndTrim(influxQuery) == null) {
             return FormValidation.error("InfluxDB query must not be empty");
+        } else if (!scopeToBuild && !QueryScope.isBounded(influxQuery)) {
+            return FormValidation.warning(QueryScope.UNBOUNDED_WARNING);
         } else {
             return FormValidation.ok();
         }
     }
 
-    @POST
-    public FormValidation doCheckExpectedThreshold(@QueryParameter String expectedThreshold,
-            @AncestorInPath Item item) {
+    static FormValidation checkAssertions(String assertions, Item item) {
+        if (item == null) { // no context
+            return FormValidation.ok();
+        }
+        item.checkPermission(Item.CONFIGURE);
+        try {
+            SeriesAssertion.parseAll(assertions);
+            return FormValidation.ok();
+        } catch (IllegalArgumentException ex) {
+            return FormValidation.error(ex.getMessage());
+        }
+    }
+
+    static FormValidation checkExpectedThreshold(String expectedThreshold, Item item) {
         if (item == null) { // no context
             return FormValidation.ok();
         }
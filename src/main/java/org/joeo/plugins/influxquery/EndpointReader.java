@@ -0,0 +1,316 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import okhttp3.Response;
+
+/**
+ * Sends the reads of one check to an {@link InfluxDBEndpoint}, each attempt going to the replica chosen by
+ * {@link ReplicaBalancer} and avoiding the replica used by the previous attempt.
+ * Requests are refused while the {@link CircuitBreaker} of the endpoint is open, and wait for a slot of the endpoint
+ * in {@link ConcurrencyLimiter}.
+ */
+final class EndpointReader {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EndpointReader.class);
+
+    /**
+     * URLs which answered with JSON when asked for another format, logged once
+     */
+    private static final Set<String> FORMAT_FALLBACK_URLS = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * Reads a successful response body
+     */
+    interface BodyReader<T> {
+        /**
+         * @param body {@link ResponseReader} of the format InfluxDB answered with
+         */
+        T read(ResponseReader body) throws IOException;
+    }
+
+    private static final BodyReader<List<StatementResult>> COLUMNAR = new BodyReader<List<StatementResult>>() {
+        @Override
+        public List<StatementResult> read(ResponseReader body) throws IOException {
+            ColumnarResultHandler handler = new ColumnarResultHandler();
+            QueryResponseParser.parse(body, handler);
+            return handler.getResults();
+        }
+    };
+
+    private final InfluxDBEndpoint endpoint;
+    private final String endpointName;
+    private final List<CheckTiming> timings;
+    private final long buildStart;
+    private volatile String lastURL;
+    private boolean gatedOnController;
+    private RequestSlots requestSlots;
+
+    /**
+     * @param buildStart start time in milliseconds of the build, requests of earlier builds get slots first
+     */
+    EndpointReader(InfluxDBEndpoint endpoint, CheckTiming timing, long buildStart) {
+        this(endpoint, null, Collections.singletonList(timing), buildStart);
+    }
+
+    /**
+     * @param lastURL URL used by the previous attempt of the check, null if none
+     * @param timings {@link CheckTiming}s of the checks the requests are sent for
+     * @param buildStart start time in milliseconds of the build, requests of earlier builds get slots first
+     */
+    EndpointReader(InfluxDBEndpoint endpoint, String lastURL, List<CheckTiming> timings, long buildStart) {
+        this.endpoint = endpoint;
+        this.buildStart = buildStart;
+        this.endpointName = endpoint.getName().isEmpty() ? "default" : endpoint.getName();
+        this.lastURL = lastURL;
+        this.timings = timings;
+        for (CheckTiming timing : timings) {
+            timing.setEndpoint(endpointName);
+        }
+    }
+
+    /**
+     * @param gatedOnController true if requests are sent from an agent for a check which passed the
+     * {@link CircuitBreaker} of the controller, the circuit breaker and concurrency limiter of the agent JVM are
+     * then not used
+     */
+    void setGatedOnController(boolean gatedOnController) {
+        this.gatedOnController = gatedOnController;
+    }
+
+    /**
+     * @param requestSlots {@link RequestSlots} of the controller taken for each request when gated on the controller,
+     * null if none
+     */
+    void setRequestSlots(RequestSlots requestSlots) {
+        this.requestSlots = requestSlots;
+    }
+
+    InfluxDBEndpoint getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * @return URL used by the last attempt, null if none
+     */
+    String getLastURL() {
+        return lastURL;
+    }
+
+    /**
+     * Runs query and decodes all its statement results
+     * @return {@link StatementResult}s ordered by statement id
+     */
+    List<StatementResult> query(String command) throws IOException {
+        return read(command, 0, COLUMNAR);
+    }
+
+    /**
+     * @param chunkSize number of rows per chunk, 0 to disable chunking
+     * @return value read from response body
+     * @see InfluxQLRequest#execute(String, String, hudson.util.Secret, String, String, int, QueryTiming, TransportSettings, ResponseFormat)
+     */
+    <T> T read(final String command, final int chunkSize, final BodyReader<T> reader) throws IOException {
+        return execute(new Exchange<T>() {
+            @Override
+            public T exchange(String url, QueryTiming timing) throws IOException {
+                Response response = InfluxQLRequest.execute(url, endpoint.getInfluxUser(), endpoint.getInfluxPWD(),
+                        endpoint.getInfluxDB(), command, chunkSize, timing, endpoint.getTransport(), endpoint.getResponseFormat());
+                try {
+                    ResponseFormat format = ResponseFormat.ofContentType(response.header("Content-Type"));
+                    if (format != endpoint.getResponseFormat() && FORMAT_FALLBACK_URLS.add(url)) {
+                        LOGGER.info("{} answered with {} instead of {}, reading responses in the format returned", url,
+                                format.getDisplayName(), endpoint.getResponseFormat().getDisplayName());
+                    }
+                    CountingInputStream body = new CountingInputStream(response.body().byteStream());
+                    T value = reader.read(format.newReader(body));
+                    timing.finished(body.count);
+                    return value;
+                } finally {
+                    response.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs a Flux query and reports its annotated CSV response to handler row by row
+     * @return number of rows read
+     * @see FluxRequest#execute(String, String, hudson.util.Secret, hudson.util.Secret, String, String, QueryTiming, TransportSettings)
+     */
+    long readFlux(final String query, final ResultHandler handler) throws IOException {
+        return execute(new Exchange<Long>() {
+            @Override
+            public Long exchange(String url, QueryTiming timing) throws IOException {
+                Response response = FluxRequest.execute(url, endpoint.getInfluxUser(), endpoint.getInfluxPWD(),
+                        endpoint.getInfluxToken(), endpoint.getInfluxOrg(), query, timing, endpoint.getTransport());
+                try {
+                    CountingInputStream body = new CountingInputStream(response.body().byteStream());
+                    long rows = FluxResponseParser.parse(body, handler);
+                    timing.finished(body.count);
+                    return rows;
+                } finally {
+                    response.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Sends one request and reads its response
+     */
+    private interface Exchange<T> {
+        /**
+         * @param url URL of the replica to send the request to
+         * @param timing {@link QueryTiming} of the request
+         */
+        T exchange(String url, QueryTiming timing) throws IOException;
+    }
+
+    private <T> T execute(Exchange<T> exchange) throws IOException {
+        CircuitBreaker breaker = null;
+        ConcurrencyLimiter.Permit permit = null;
+        long slot = -1;
+        if (!gatedOnController) {
+            breaker = CircuitBreaker.get();
+            breaker.acquire(endpointName, endpoint.getUnavailableOutcome(), System.currentTimeMillis());
+            try {
+                permit = ConcurrencyLimiter.get().acquire(endpointName, buildStart);
+            } catch (IOException e) {
+                breaker.onNotSent(endpointName);
+                throw e;
+            }
+        } else if (requestSlots != null) {
+            slot = requestSlots.acquire();
+        }
+        ReplicaBalancer balancer = ReplicaBalancer.get();
+        String url = null;
+        Throwable failure = null;
+        QueryTiming timing = new QueryTiming();
+        try {
+            url = balancer.acquire(endpoint.getReadURLs(), lastURL);
+            lastURL = url;
+            return exchange.exchange(url, timing);
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            // an aborted build says nothing about the health of the endpoint
+            boolean aborted = isAborted(failure);
+            boolean failed = failure instanceof IOException && !aborted;
+            boolean timedOut = failed && FailureClassifier.classify(failure) == FailureClassifier.Category.TIMEOUT;
+            if (url != null) {
+                balancer.release(url, failed);
+            }
+            if (breaker != null && failed) {
+                breaker.onFailure(endpointName, timedOut, System.currentTimeMillis());
+            } else if (breaker != null && (aborted || url == null)) {
+                breaker.onNotSent(endpointName);
+            } else if (breaker != null) {
+                breaker.onSuccess(endpointName);
+            }
+            if (permit != null && failed) {
+                permit.onDropped();
+            } else if (permit != null && failure != null) {
+                permit.onIgnore();
+            } else if (permit != null) {
+                permit.onSuccess(timing.getServerNanos());
+            }
+            if (slot >= 0 && failed) {
+                requestSlots.onDropped(slot);
+            } else if (slot >= 0 && failure != null) {
+                requestSlots.onIgnore(slot);
+            } else if (slot >= 0) {
+                requestSlots.onSuccess(slot, timing.getServerNanos());
+            }
+            if (failed) {
+                for (CheckTiming checkTiming : timings) {
+                    checkTiming.addFailedRequest(timedOut);
+                }
+            }
+            if (failure != null) {
+                QueryMetrics.get().recordFailedRequest(endpointName, FailureClassifier.classify(failure));
+            } else {
+                QueryMetrics.get().recordRequest(endpointName, timing);
+                for (CheckTiming checkTiming : timings) {
+                    checkTiming.addRequest(timing);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param failure failure of a request, null if it succeeded
+     * @return true if the request was interrupted because the build was aborted, not because it timed out
+     */
+    static boolean isAborted(Throwable failure) {
+        return failure instanceof InterruptedIOException
+                && FailureClassifier.classify(failure) != FailureClassifier.Category.TIMEOUT;
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read >= 0) {
+                count++;
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import hudson.Extension;
+
+/**
+ * Multiplies the interval by {@link #getMultiplier()} after each retry, up to {@link #getMaxInterval()}.
+ */
+public class ExponentialRetryPolicy extends RetryPolicy {
+    private static final long serialVersionUID = 1L;
+
+    private final int initialInterval;
+    private final int maxInterval;
+    private double multiplier = 2;
+
+    /**
+     * @param initialInterval seconds to wait before first retry
+     * @param maxInterval max seconds to wait before a retry
+     */
+    @DataBoundConstructor
+    public ExponentialRetryPolicy(int initialInterval, int maxInterval) {
+        this.initialInterval = Math.max(0, initialInterval);
+        this.maxInterval = Math.max(this.initialInterval, maxInterval);
+    }
+
+    @DataBoundSetter public void setMultiplier(double multiplier) {
+        this.multiplier = multiplier < 1 ? 1 : multiplier;
+    }
+
+    public int getInitialInterval() {
+        return initialInterval;
+    }
+
+    public int getMaxInterval() {
+        return maxInterval;
+    }
+
+    public double getMultiplier() {
+        return multiplier;
+    }
+
+    @Override
+    public long nextDelayMillis(int retry, long previousDelayMillis) {
+        double delay = TimeUnit.SECONDS.toMillis(initialInterval) * Math.pow(multiplier, Math.max(0, retry - 1));
+        return (long) Math.min(delay, TimeUnit.SECONDS.toMillis(maxInterval));
+    }
+
+    @Extension
+    @Symbol("exponential")
+    public static final class PolicyDescriptorImpl extends RetryPolicyDescriptor {
+        @Override
+        public String getDisplayName() {
+            return "Exponential backoff";
+        }
+    }
+}
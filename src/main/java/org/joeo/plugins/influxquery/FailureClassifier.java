@@ -0,0 +1,95 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Locale;
+
+/**
+ * Separates failures worth retrying from the ones which will not change by retrying.
+ */
+final class FailureClassifier {
+    enum Category {
+        /** Query succeeded but data is not there yet or does not meet the threshold yet */
+        NO_DATA,
+        /** Network or server error which may go away */
+        TRANSIENT,
+        /** Connect, read or write timeout of {@link TransportSettings}, retried like transient errors */
+        TIMEOUT,
+        /** Error which will not go away by retrying: authentication, query syntax, unknown database */
+        FATAL,
+        /** Request refused because the {@link CircuitBreaker} of the endpoint is open, not retried */
+        UNAVAILABLE
+    }
+
+    private static final String[] FATAL_MESSAGES = {
+        "error parsing query",
+        "authorization failed",
+        "unable to parse authentication credentials",
+        "not authorized",
+        "user not found",
+        "database not found",
+        "retention policy not found",
+    };
+
+    private FailureClassifier() {
+        super();
+    }
+
+    /**
+     * @param failure Throwable raised by a query or its evaluation
+     * @return {@link Category} of failure
+     */
+    static Category classify(Throwable failure) {
+        if (CircuitOpenException.find(failure) != null) {
+            return Category.UNAVAILABLE;
+        }
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            // invalid value or configuration, such as a non numeric result or an unknown column
+            if (cause instanceof IllegalArgumentException) {
+                return Category.FATAL;
+            }
+            if (cause.getMessage() != null) {
+                String message = cause.getMessage().toLowerCase(Locale.ENGLISH);
+                for (String fatalMessage : FATAL_MESSAGES) {
+                    if (message.contains(fatalMessage)) {
+                        return Category.FATAL;
+                    }
+                }
+            }
+            // OkHttp reports a timeout of the whole call as an InterruptedIOException
+            if (cause instanceof SocketTimeoutException
+                    || (cause instanceof InterruptedIOException && "timeout".equals(cause.getMessage()))) {
+                return Category.TIMEOUT;
+            }
+            if (cause instanceof IOException) {
+                return Category.TRANSIENT;
+            }
+        }
+        return Category.TRANSIENT;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import hudson.Extension;
+
+/**
+ * Waits the same interval before each retry.
+ */
+public class FixedRetryPolicy extends RetryPolicy {
+    private static final long serialVersionUID = 1L;
+
+    private final int interval;
+
+    /**
+     * @param interval seconds to wait before each retry
+     */
+    @DataBoundConstructor
+    public FixedRetryPolicy(int interval) {
+        this.interval = Math.max(0, interval);
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    @Override
+    public long nextDelayMillis(int retry, long previousDelayMillis) {
+        return TimeUnit.SECONDS.toMillis(interval);
+    }
+
+    @Extension
+    @Symbol("fixed")
+    public static final class PolicyDescriptorImpl extends RetryPolicyDescriptor {
+        @Override
+        public String getDisplayName() {
+            return "Fixed interval";
+        }
+    }
+}
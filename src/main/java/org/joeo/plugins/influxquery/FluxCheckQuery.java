@@ -0,0 +1,76 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Runs a Flux query and evaluates its first result like an InfluxQL statement result, or computes a
+ * {@link Statistic} over all its rows keeping only {@link StreamingStatistics} in memory.
+ * Rows are evaluated one at a time by {@link SummaryResultHandler}, unless they must be shown.
+ */
+final class FluxCheckQuery implements CheckQuery {
+    private final EndpointReader reader;
+    private final String command;
+    private final Statistic statistic;
+    private final String valueColumn;
+
+    /**
+     * @param statistic {@link Statistic} computed over all rows, null to evaluate the first value
+     * @param valueColumn name of column to compute statistic on, null for first column after time
+     */
+    FluxCheckQuery(EndpointReader reader, String command, Statistic statistic, String valueColumn) {
+        this.reader = reader;
+        this.command = command;
+        this.statistic = statistic;
+        this.valueColumn = valueColumn;
+    }
+
+    @Override
+    public String getCommand() {
+        return command;
+    }
+
+    @Override
+    public CheckVerdict execute(CheckEvaluator evaluator) throws IOException {
+        if (statistic != null) {
+            StreamingStatistics statistics = new StreamingStatistics();
+            reader.readFlux(command, new StreamingCheckQuery.StatisticsHandler(statistics, valueColumn));
+            return evaluator.evaluate(statistics, statistic);
+        }
+        if (!evaluator.isShowResults()) {
+            SummaryResultHandler summary = new SummaryResultHandler(evaluator.getAssertions());
+            reader.readFlux(command, summary);
+            return evaluator.evaluate(summary);
+        }
+        // rows are kept to be shown and archived
+        ColumnarResultHandler handler = new ColumnarResultHandler();
+        reader.readFlux(command, handler);
+        List<StatementResult> results = handler.getResults();
+        return evaluator.evaluate(results.isEmpty() ? new StatementResult(0) : results.get(0));
+    }
+}
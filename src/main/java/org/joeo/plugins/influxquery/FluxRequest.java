@@ -0,0 +1,173 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import hudson.Util;
+import hudson.util.Secret;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Sends Flux queries to the /api/v2/query API over the shared HTTP clients of {@link InfluxDBUtils} and gives access
+ * to the raw annotated CSV response, so that it can be read row by row by {@link FluxResponseParser}.
+ */
+final class FluxRequest {
+    static final String CSV_CONTENT_TYPE = "application/csv";
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    private FluxRequest() {
+        super();
+    }
+
+    /**
+     * @param influxURL String InfluxDB URL
+     * @param influxUser Login used when no token is set, for the Flux API of InfluxDB 1.8 (null or empty means anonymous)
+     * @param influxPWD Password
+     * @param influxToken API token of InfluxDB 2.x, null or empty to authenticate with influxUser
+     * @param influxOrg organization of InfluxDB 2.x, null or empty for InfluxDB 1.8
+     * @param query Flux query
+     * @param timing {@link QueryTiming} filled while request runs, may be null
+     * @param transport {@link TransportSettings} of request, null for defaults
+     * @return successful {@link Response}, caller must close it
+     * @throws IOException on network error, server error, request timeout (408) or rate limit (429)
+     * @throws IllegalArgumentException if InfluxDB rejected the query with another 4xx status, for example on
+     * authentication or compilation error, which retries would not change
+     */
+    static Response execute(String influxURL, String influxUser, Secret influxPWD, Secret influxToken, String influxOrg,
+            String query, QueryTiming timing, TransportSettings transport) throws IOException {
+        HttpUrl baseUrl = HttpUrl.parse(influxURL);
+        if (baseUrl == null) {
+            throw new IllegalStateException("Invalid InfluxDB url:" + influxURL);
+        }
+        HttpUrl.Builder url = baseUrl.newBuilder().addPathSegments("api/v2/query");
+        if (Util.fixEmpty(influxOrg) != null) {
+            url.addQueryParameter("org", influxOrg);
+        }
+        Request.Builder request = new Request.Builder().url(url.build())
+                .header("Accept", CSV_CONTENT_TYPE)
+                .post(RequestBody.create(JSON, body(query)));
+        if (timing != null) {
+            request.tag(timing);
+        }
+        String authorization = authorization(Secret.toString(influxToken), influxUser, Secret.toString(influxPWD));
+        if (authorization != null) {
+            request.header("Authorization", authorization);
+        }
+        Response response = InfluxDBUtils.getHttpClient(transport).newCall(request.build()).execute();
+        if (!response.isSuccessful()) {
+            String message;
+            try {
+                message = "InfluxDB returned HTTP " + response.code() + ":" + readError(response.body().string());
+            } finally {
+                response.close();
+            }
+            if (response.code() >= 500 || response.code() == 408 || response.code() == 429) {
+                throw new IOException(message);
+            }
+            throw new IllegalArgumentException(message);
+        }
+        return response;
+    }
+
+    /**
+     * @return value of Authorization header, null for anonymous requests
+     */
+    static String authorization(String token, String user, String password) {
+        if (Util.fixEmpty(token) != null) {
+            return "Token " + token;
+        }
+        if (Util.fixEmpty(user) != null) {
+            return "Token " + user + ":" + Util.fixNull(password);
+        }
+        return null;
+    }
+
+    /**
+     * @return request body asking for a CSV response annotated with group, data type and default values
+     */
+    static String body(String query) {
+        StringBuilder body = new StringBuilder(query.length() + 128);
+        body.append("{\"query\":\"");
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            switch (c) {
+            case '"':
+                body.append("\\\"");
+                break;
+            case '\\':
+                body.append("\\\\");
+                break;
+            case '\n':
+                body.append("\\n");
+                break;
+            case '\r':
+                body.append("\\r");
+                break;
+            case '\t':
+                body.append("\\t");
+                break;
+            default:
+                if (c < 0x20) {
+                    body.append(String.format("\\u%04x", (int) c));
+                } else {
+                    body.append(c);
+                }
+                break;
+            }
+        }
+        return body.append("\",\"type\":\"flux\",\"dialect\":{\"header\":true,\"annotations\":[\"group\",\"datatype\",\"default\"]}}")
+                .toString();
+    }
+
+    /**
+     * @param body body of an error response
+     * @return message of a JSON error, the body otherwise
+     */
+    private static String readError(String body) {
+        try {
+            ResponseReader reader = new JsonStreamReader(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+            if (reader.peek() == ResponseReader.Token.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if ("message".equals(reader.nextName())) {
+                        return reader.nextString();
+                    }
+                    reader.skipValue();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // not JSON
+        }
+        return body;
+    }
+}
@@ -0,0 +1,445 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses annotated CSV responses of Flux queries row by row and reports them to a {@link ResultHandler} like InfluxQL
+ * responses, without keeping rows in memory: each result is a statement, each table a series named after its
+ * measurement whose tags are its group key, and <code>_time</code> is the time column in milliseconds.
+ * Cells are handed over through a {@link ResponseReader} holding the single value of the cell, typed by the
+ * <code>#datatype</code> annotation.
+ */
+final class FluxResponseParser {
+    private static final String RESULT = "result";
+    private static final String TABLE = "table";
+    private static final String TIME = "_time";
+    private static final String MEASUREMENT = "_measurement";
+
+    private final Reader in;
+    private final ResultHandler handler;
+    private final char[] buffer = new char[8192];
+    private int pos;
+    private int limit;
+    private final StringBuilder field = new StringBuilder(64);
+    private final Cell cell = new Cell();
+    private final Map<String, Integer> statementIds = new HashMap<String, Integer>();
+
+    /** Annotations and header of the current table schema, null until read */
+    private List<String> datatypes;
+    private List<String> groups;
+    private List<String> defaults;
+    private List<String> header;
+    /** Record indexes of the reported columns */
+    private int[] columnIndexes;
+    private List<String> columns;
+    private int resultIndex;
+    private int tableIndex;
+    private int measurementIndex;
+    private boolean errorTable;
+
+    private int statementId = -1;
+    private String result;
+    private String table;
+
+    private FluxResponseParser(InputStream in, ResultHandler handler) {
+        this.in = new InputStreamReader(in, StandardCharsets.UTF_8);
+        this.handler = handler;
+    }
+
+    /**
+     * @param in annotated CSV response body
+     * @param handler {@link ResultHandler}
+     * @return number of rows read
+     * @throws IOException if response cannot be read
+     * @throws IllegalStateException if InfluxDB reported an error for the query
+     */
+    static long parse(InputStream in, ResultHandler handler) throws IOException {
+        return new FluxResponseParser(in, handler).parse();
+    }
+
+    private long parse() throws IOException {
+        long rows = 0;
+        List<String> record;
+        while ((record = readRecord()) != null) {
+            String first = record.get(0);
+            if (record.size() == 1 && first.isEmpty()) {
+                // Tables of another schema follow a blank line
+                datatypes = null;
+                groups = null;
+                defaults = null;
+                header = null;
+            } else if (first.equals("#datatype")) {
+                datatypes = record;
+            } else if (first.equals("#group")) {
+                groups = record;
+            } else if (first.equals("#default")) {
+                defaults = record;
+            } else if (first.startsWith("#")) {
+                continue;
+            } else if (header == null) {
+                readHeader(record);
+            } else if (errorTable) {
+                throw new IllegalStateException(value(record, 1));
+            } else {
+                readRow(record);
+                rows++;
+            }
+        }
+        if (statementId >= 0) {
+            handler.onStatementEnd(statementId);
+        }
+        return rows;
+    }
+
+    private void readHeader(List<String> record) {
+        header = record;
+        resultIndex = record.indexOf(RESULT);
+        tableIndex = record.indexOf(TABLE);
+        measurementIndex = record.indexOf(MEASUREMENT);
+        errorTable = record.size() > 1 && record.get(1).equals("error") && tableIndex < 0;
+        List<Integer> indexes = new ArrayList<Integer>();
+        columns = new ArrayList<String>();
+        for (int i = 1; i < record.size(); i++) {
+            String name = record.get(i);
+            if (i == resultIndex || i == tableIndex || isGroupKey(i)) {
+                continue;
+            }
+            if (name.equals(TIME)) {
+                indexes.add(0, i);
+                columns.add(0, SeriesTable.TIME_COLUMN);
+            } else {
+                indexes.add(i);
+                columns.add(name);
+            }
+        }
+        columnIndexes = new int[indexes.size()];
+        for (int i = 0; i < columnIndexes.length; i++) {
+            columnIndexes[i] = indexes.get(i);
+        }
+        // Same result and table may go on after a schema change, their series is reported again
+        table = null;
+    }
+
+    private boolean isGroupKey(int index) {
+        return groups != null && index < groups.size() && "true".equals(groups.get(index));
+    }
+
+    private void readRow(List<String> record) throws IOException {
+        String rowResult = resultIndex < 0 ? "" : value(record, resultIndex);
+        if (!rowResult.equals(result)) {
+            if (statementId >= 0) {
+                handler.onStatementEnd(statementId);
+            }
+            result = rowResult;
+            Integer id = statementIds.get(rowResult);
+            if (id == null) {
+                id = statementIds.size();
+                statementIds.put(rowResult, id);
+            }
+            statementId = id;
+            table = null;
+        }
+        String rowTable = tableIndex < 0 ? "" : value(record, tableIndex);
+        if (!rowTable.equals(table)) {
+            table = rowTable;
+            handler.onSeries(statementId, measurementIndex < 0 ? result : value(record, measurementIndex),
+                    tags(record), columns);
+        }
+        for (int column = 0; column < columnIndexes.length; column++) {
+            int index = columnIndexes[column];
+            cell.set(datatypes != null && index < datatypes.size() ? datatypes.get(index) : "string", value(record, index));
+            handler.onCell(column, cell);
+        }
+        handler.onRowEnd();
+    }
+
+    /**
+     * @return group key columns of the table, except start and stop of its range and its measurement
+     */
+    private Map<String, String> tags(List<String> record) {
+        Map<String, String> tags = new LinkedHashMap<String, String>();
+        for (int i = 1; i < header.size(); i++) {
+            String name = header.get(i);
+            if (isGroupKey(i) && i != resultIndex && i != tableIndex && i != measurementIndex
+                    && !name.equals("_start") && !name.equals("_stop")) {
+                tags.put(name, value(record, i));
+            }
+        }
+        return tags;
+    }
+
+    /**
+     * @return value of cell, the default value of its column if it is empty
+     */
+    private String value(List<String> record, int index) {
+        String value = index < record.size() ? record.get(index) : "";
+        if (value.isEmpty() && defaults != null && index < defaults.size()) {
+            return defaults.get(index);
+        }
+        return value;
+    }
+
+    /**
+     * Reads one CSV record, quoted values may contain commas, line breaks and doubled quotes
+     * @return values of record, a single empty value for a blank line, null at end of response
+     */
+    private List<String> readRecord() throws IOException {
+        int c = read();
+        if (c < 0) {
+            return null;
+        }
+        List<String> record = new ArrayList<String>(header == null ? 16 : header.size());
+        while (true) {
+            field.setLength(0);
+            if (c == '"') {
+                while (true) {
+                    c = read();
+                    if (c < 0) {
+                        throw new IOException("Unterminated quoted value in Flux response");
+                    }
+                    if (c == '"') {
+                        c = read();
+                        if (c != '"') {
+                            break;
+                        }
+                    }
+                    field.append((char) c);
+                }
+            } else {
+                while (c >= 0 && c != ',' && c != '\n' && c != '\r') {
+                    field.append((char) c);
+                    c = read();
+                }
+            }
+            record.add(field.toString());
+            if (c != ',') {
+                if (c == '\r' && (pos < limit || fill()) && buffer[pos] == '\n') {
+                    pos++;
+                }
+                return record;
+            }
+            c = read();
+        }
+    }
+
+    private int read() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buffer[pos++];
+    }
+
+    private boolean fill() throws IOException {
+        limit = in.read(buffer, 0, buffer.length);
+        pos = 0;
+        if (limit < 0) {
+            limit = 0;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param value RFC3339 time such as <code>2018-05-22T19:53:26.123456789Z</code> or with an offset
+     * @return milliseconds since epoch, sub-millisecond digits are truncated
+     */
+    static long parseTimeMillis(String value) throws IOException {
+        try {
+            int year = Integer.parseInt(value.substring(0, 4));
+            int month = Integer.parseInt(value.substring(5, 7));
+            int day = Integer.parseInt(value.substring(8, 10));
+            int hour = Integer.parseInt(value.substring(11, 13));
+            int minute = Integer.parseInt(value.substring(14, 16));
+            int second = Integer.parseInt(value.substring(17, 19));
+            int i = 19;
+            int millis = 0;
+            if (i < value.length() && value.charAt(i) == '.') {
+                int digits = 0;
+                for (i++; i < value.length() && Character.isDigit(value.charAt(i)); i++, digits++) {
+                    if (digits < 3) {
+                        millis = millis * 10 + value.charAt(i) - '0';
+                    }
+                }
+                for (; digits < 3; digits++) {
+                    millis *= 10;
+                }
+            }
+            long offsetMinutes = 0;
+            char zone = value.charAt(i);
+            if (zone == '+' || zone == '-') {
+                offsetMinutes = Integer.parseInt(value.substring(i + 1, i + 3)) * 60 + Integer.parseInt(value.substring(i + 4, i + 6));
+                offsetMinutes = zone == '-' ? -offsetMinutes : offsetMinutes;
+            } else if (zone != 'Z' && zone != 'z') {
+                throw new NumberFormatException("Unexpected zone " + zone);
+            }
+            long minutes = (daysFromCivil(year, month, day) * 24 + hour) * 60 + minute - offsetMinutes;
+            return minutes * 60000L + second * 1000L + millis;
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            throw new IOException("Malformed time " + value, e);
+        }
+    }
+
+    /**
+     * @return days since epoch of a date of the proleptic Gregorian calendar
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Single value of a cell, read by {@link ResultHandler#onCell(int, ResponseReader)}
+     */
+    private static final class Cell implements ResponseReader {
+        private Token token;
+        private String datatype;
+        private String value;
+
+        void set(String datatype, String value) {
+            this.datatype = datatype;
+            this.value = value;
+            if (datatype.equals("string")) {
+                token = Token.STRING;
+            } else if (value.isEmpty()) {
+                token = Token.NULL;
+            } else if (datatype.equals("boolean")) {
+                token = Token.BOOLEAN;
+            } else if (datatype.equals("long") || datatype.equals("unsignedLong") || datatype.equals("double")
+                    || datatype.startsWith("dateTime")) {
+                token = Token.NUMBER;
+            } else {
+                // duration and base64Binary
+                token = Token.STRING;
+            }
+        }
+
+        @Override
+        public long getBytesRead() {
+            return 0;
+        }
+
+        @Override
+        public Token peek() {
+            return token;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return false;
+        }
+
+        @Override
+        public void beginObject() {
+            throw new IllegalStateException("Flux cells hold a single value");
+        }
+
+        @Override
+        public void endObject() {
+            throw new IllegalStateException("Flux cells hold a single value");
+        }
+
+        @Override
+        public void beginArray() {
+            throw new IllegalStateException("Flux cells hold a single value");
+        }
+
+        @Override
+        public void endArray() {
+            throw new IllegalStateException("Flux cells hold a single value");
+        }
+
+        @Override
+        public String nextName() {
+            throw new IllegalStateException("Flux cells hold a single value");
+        }
+
+        @Override
+        public String nextString() {
+            return value;
+        }
+
+        @Override
+        public boolean nextBoolean() {
+            return Boolean.parseBoolean(value);
+        }
+
+        @Override
+        public void nextNull() {
+            // NOOP
+        }
+
+        @Override
+        public double nextDouble() throws IOException {
+            if (datatype.startsWith("dateTime")) {
+                return parseTimeMillis(value);
+            }
+            switch (value) {
+            case "+Inf":
+                return Double.POSITIVE_INFINITY;
+            case "-Inf":
+                return Double.NEGATIVE_INFINITY;
+            default:
+                try {
+                    return Double.parseDouble(value);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed number " + value, e);
+                }
+            }
+        }
+
+        @Override
+        public long nextLong() throws IOException {
+            if (datatype.startsWith("dateTime")) {
+                return parseTimeMillis(value);
+            }
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                return (long) nextDouble();
+            }
+        }
+
+        @Override
+        public void skipValue() {
+            // NOOP
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import javax.annotation.CheckForNull;
+
+import org.kohsuke.stapler.AncestorInPath;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.verb.POST;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.model.Item;
+import hudson.util.FormValidation;
+
+/**
+ * One check of a {@link InfluxDBMultiQuery}: a query supposed to return 1 value and its expected threshold.
+ */
+public class InfluxDBCheck extends AbstractDescribableImpl<InfluxDBCheck> {
+    @CheckForNull
+    private String checkName;
+    @CheckForNull
+    private String influxQuery;
+    private double expectedThreshold;
+    private boolean markUnstable;
+    private boolean showResults;
+    @CheckForNull
+    private String assertions;
+
+    @DataBoundConstructor
+    public InfluxDBCheck(@CheckForNull String checkName, @CheckForNull String influxQuery, double expectedThreshold) {
+        this.checkName = Util.fixEmptyAndTrim(checkName);
+        this.influxQuery = Util.fixEmptyAndTrim(influxQuery);
+        this.expectedThreshold = expectedThreshold;
+    }
+
+    @DataBoundSetter public void setMarkUnstable(boolean markUnstable) {
+        this.markUnstable = markUnstable;
+    }
+
+    @DataBoundSetter public void setShowResults(boolean showResults) {
+        this.showResults = showResults;
+    }
+
+    /**
+     * @param assertions rules checked on every series, one per line such as {@code p95 < 800}
+     */
+    @DataBoundSetter public void setAssertions(@CheckForNull String assertions) {
+        this.assertions = Util.fixEmptyAndTrim(assertions);
+    }
+
+    public String getCheckName() {
+        return checkName;
+    }
+
+    public String getInfluxQuery() {
+        return influxQuery;
+    }
+
+    public double getExpectedThreshold() {
+        return expectedThreshold;
+    }
+
+    public boolean getMarkUnstable() {
+        return markUnstable;
+    }
+
+    public boolean getShowResults() {
+        return showResults;
+    }
+
+    @CheckForNull
+    public String getAssertions() {
+        return assertions;
+    }
+
+    CheckEvaluator createEvaluator() {
+        return new CheckEvaluator(checkName, expectedThreshold, markUnstable, showResults,
+                SeriesAssertion.parseAll(assertions));
+    }
+
+    @Extension
+    public static final class CheckDescriptorImpl extends Descriptor<InfluxDBCheck> {
+        @Override
+        public String getDisplayName() {
+            return "InfluxDB Check";
+        }
+
+        @POST
+        public FormValidation doCheckCheckName(@QueryParameter String checkName, @AncestorInPath Item item) {
+            return DescriptorImpl.checkCheckName(checkName, item);
+        }
+
+        @POST
+        public FormValidation doCheckInfluxQuery(@QueryParameter String influxQuery, @AncestorInPath Item item) {
+            return DescriptorImpl.checkInfluxQuery(influxQuery, item);
+        }
+
+        @POST
+        public FormValidation doCheckExpectedThreshold(@QueryParameter String expectedThreshold,
+                @AncestorInPath Item item) {
+            return DescriptorImpl.checkExpectedThreshold(expectedThreshold, item);
+        }
+
+        @POST
+        public FormValidation doCheckAssertions(@QueryParameter String assertions, @AncestorInPath Item item) {
+            return DescriptorImpl.checkAssertions(assertions, item);
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.CheckForNull;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.verb.POST;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+import hudson.util.Secret;
+import jenkins.model.Jenkins;
+
+/**
+ * Named InfluxDB database declared in global configuration, with optional read replicas serving the same data.
+ */
+public class InfluxDBEndpoint extends AbstractDescribableImpl<InfluxDBEndpoint> implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final String name;
+    private final String influxURL;
+    private final String influxDB;
+    @CheckForNull
+    private String influxUser;
+    @CheckForNull
+    private Secret influxPWD;
+    @CheckForNull
+    private String influxOrg;
+    @CheckForNull
+    private Secret influxToken;
+    @CheckForNull
+    private String replicaURLs;
+    @CheckForNull
+    private TransportSettings transport;
+    @CheckForNull
+    private ResponseFormat responseFormat;
+    @CheckForNull
+    private UnavailableOutcome unavailableOutcome;
+
+    @DataBoundConstructor
+    public InfluxDBEndpoint(String name, String influxURL, String influxDB) {
+        this.name = Util.fixNull(Util.fixEmptyAndTrim(name));
+        this.influxURL = Util.fixEmptyAndTrim(influxURL);
+        this.influxDB = Util.fixEmptyAndTrim(influxDB);
+    }
+
+    InfluxDBEndpoint(String name, String influxURL, String influxDB, String influxUser, Secret influxPWD) {
+        this(name, influxURL, influxDB);
+        this.influxUser = Util.fixEmptyAndTrim(influxUser);
+        this.influxPWD = influxPWD;
+    }
+
+    @DataBoundSetter public void setInfluxUser(@CheckForNull String influxUser) {
+        this.influxUser = Util.fixEmptyAndTrim(influxUser);
+    }
+
+    @DataBoundSetter public void setInfluxPWD(@CheckForNull Secret influxPWD) {
+        this.influxPWD = influxPWD;
+    }
+
+    /**
+     * @param influxOrg organization of InfluxDB 2.x Flux queries are sent to, null for InfluxDB 1.8
+     */
+    @DataBoundSetter public void setInfluxOrg(@CheckForNull String influxOrg) {
+        this.influxOrg = Util.fixEmptyAndTrim(influxOrg);
+    }
+
+    /**
+     * @param influxToken API token authenticating Flux queries, null to authenticate with user and password
+     */
+    @DataBoundSetter public void setInfluxToken(@CheckForNull Secret influxToken) {
+        this.influxToken = influxToken;
+    }
+
+    /**
+     * @param replicaURLs URLs of read replicas, one per line
+     */
+    @DataBoundSetter public void setReplicaURLs(@CheckForNull String replicaURLs) {
+        this.replicaURLs = Util.fixEmptyAndTrim(replicaURLs);
+    }
+
+    /**
+     * @param transport {@link TransportSettings} overriding the global ones, null to use global ones
+     */
+    @DataBoundSetter public void setTransport(@CheckForNull TransportSettings transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * @param responseFormat {@link ResponseFormat} to ask InfluxDB for, null for JSON
+     */
+    @DataBoundSetter public void setResponseFormat(@CheckForNull ResponseFormat responseFormat) {
+        this.responseFormat = responseFormat;
+    }
+
+    /**
+     * @param unavailableOutcome {@link UnavailableOutcome} of checks while the circuit breaker of endpoint is open,
+     *  null for the one of query errors
+     */
+    @DataBoundSetter public void setUnavailableOutcome(@CheckForNull UnavailableOutcome unavailableOutcome) {
+        this.unavailableOutcome = unavailableOutcome;
+    }
+
+    /**
+     * @return name of endpoint, empty for the default one
+     */
+    public String getName() {
+        return name;
+    }
+
+    public String getInfluxURL() {
+        return influxURL;
+    }
+
+    public String getInfluxDB() {
+        return influxDB;
+    }
+
+    @CheckForNull
+    public String getInfluxUser() {
+        return influxUser;
+    }
+
+    @CheckForNull
+    public Secret getInfluxPWD() {
+        return influxPWD;
+    }
+
+    @CheckForNull
+    public String getInfluxOrg() {
+        return influxOrg;
+    }
+
+    @CheckForNull
+    public Secret getInfluxToken() {
+        return influxToken;
+    }
+
+    @CheckForNull
+    public String getReplicaURLs() {
+        return replicaURLs;
+    }
+
+    @CheckForNull
+    public TransportSettings getTransport() {
+        return transport;
+    }
+
+    public ResponseFormat getResponseFormat() {
+        return responseFormat == null ? ResponseFormat.JSON : responseFormat;
+    }
+
+    public UnavailableOutcome getUnavailableOutcome() {
+        return unavailableOutcome == null ? UnavailableOutcome.ERROR : unavailableOutcome;
+    }
+
+    /**
+     * @param transport {@link TransportSettings} to use when endpoint does not override them
+     * @return this endpoint if it overrides transport settings, otherwise a copy using transport
+     */
+    InfluxDBEndpoint withTransport(TransportSettings transport) {
+        if (this.transport != null) {
+            return this;
+        }
+        InfluxDBEndpoint endpoint = new InfluxDBEndpoint(name, influxURL, influxDB, influxUser, influxPWD);
+        endpoint.influxOrg = influxOrg;
+        endpoint.influxToken = influxToken;
+        endpoint.replicaURLs = replicaURLs;
+        endpoint.responseFormat = responseFormat;
+        endpoint.unavailableOutcome = unavailableOutcome;
+        endpoint.transport = transport;
+        return endpoint;
+    }
+
+    /**
+     * @return URL of endpoint followed by URLs of its read replicas
+     */
+    List<String> getReadURLs() {
+        if (replicaURLs == null) {
+            return Collections.singletonList(influxURL);
+        }
+        List<String> urls = new ArrayList<String>();
+        urls.add(influxURL);
+        for (String replica : replicaURLs.split("\\s+")) {
+            if (!replica.isEmpty() && !urls.contains(replica)) {
+                urls.add(replica);
+            }
+        }
+        return urls;
+    }
+
+    /**
+     * @return key identifying the data served by endpoint, shared by its replicas, made of url, user, database and a
+     * fingerprint of the password so that the password itself is not kept as a key
+     */
+    String getKey() {
+        return influxURL + '|' + Util.fixEmpty(influxUser) + '|' + fingerprint(Secret.toString(influxPWD)) + '|' + influxDB;
+    }
+
+    private static String fingerprint(String password) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Util.toHexString(digest.digest(password.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return (name.isEmpty() ? "" : name + " ") + "url:" + influxURL + ", db:" + influxDB + ", user:" + influxUser;
+    }
+
+    @Extension
+    public static final class EndpointDescriptorImpl extends Descriptor<InfluxDBEndpoint> {
+        @Override
+        public String getDisplayName() {
+            return "InfluxDB Endpoint";
+        }
+
+        @POST
+        public FormValidation doCheckName(@QueryParameter String name) {
+            Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+            if (Util.fixEmptyAndTrim(name) == null) {
+                return FormValidation.error("Endpoint name must not be empty");
+            }
+            return FormValidation.ok();
+        }
+
+        public ListBoxModel doFillResponseFormatItems() {
+            return DescriptorImpl.fillResponseFormatItems();
+        }
+
+        public ListBoxModel doFillUnavailableOutcomeItems() {
+            return DescriptorImpl.fillUnavailableOutcomeItems();
+        }
+
+        @POST
+        public FormValidation doTestConnection(
+                @QueryParameter("influxURL") final String influxURL,
+                @QueryParameter("influxDB") final String influxDB,
+                @QueryParameter("influxUser") final String influxUser,
+                @QueryParameter("influxPWD") final Secret influxPWD,
+                @QueryParameter("replicaURLs") final String replicaURLs) {
+            Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+            InfluxDBEndpoint endpoint = new InfluxDBEndpoint("", influxURL, influxDB, influxUser, influxPWD);
+            endpoint.setReplicaURLs(replicaURLs);
+            TransportSettings transport = Jenkins.getInstance().getDescriptorByType(DescriptorImpl.class).getTransport();
+            List<String> messages = new ArrayList<String>();
+            for (String url : endpoint.getReadURLs()) {
+                try {
+                    messages.add(url + ": found " + DescriptorImpl.countMeasurements(url, influxDB, influxUser, influxPWD, transport)
+                            + " measurements");
+                } catch (Exception e) {
+                    return FormValidation.error(e, "Client error on " + url + " : " + e.getMessage());
+                }
+            }
+            return FormValidation.ok("Connection Successful.  " + Util.join(messages, ", "));
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import hudson.Extension;
+import hudson.model.PeriodicWork;
+import jenkins.model.Jenkins;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Pings URLs of endpoints having read replicas and takes slow or failing ones out of {@link ReplicaBalancer} rotation.
+ * URLs out of rotation are pinged as well, so a single URL taken out after failed requests is put back once it recovers.
+ */
+@Extension
+public final class InfluxDBHealthProber extends PeriodicWork {
+    private static final Logger LOGGER = LoggerFactory.getLogger(InfluxDBHealthProber.class);
+
+    /**
+     * Ping slower than this takes a URL out of rotation
+     */
+    static final long SLOW_THRESHOLD_MILLIS = Long.getLong(InfluxDBHealthProber.class.getName() + ".slowThresholdMillis", 2000);
+
+    private static final long RECURRENCE_PERIOD_MILLIS = TimeUnit.SECONDS.toMillis(
+            Long.getLong(InfluxDBHealthProber.class.getName() + ".recurrencePeriodSeconds", 30));
+
+    @Override
+    public long getRecurrencePeriod() {
+        return RECURRENCE_PERIOD_MILLIS;
+    }
+
+    @Override
+    protected void doRun() {
+        DescriptorImpl descriptorImpl = Jenkins.getInstance().getDescriptorByType(DescriptorImpl.class);
+        List<InfluxDBEndpoint> endpoints = descriptorImpl.getAllEndpoints();
+        Set<String> configuredURLs = new LinkedHashSet<String>();
+        for (InfluxDBEndpoint endpoint : endpoints) {
+            configuredURLs.addAll(endpoint.getReadURLs());
+        }
+        ReplicaBalancer.get().retain(configuredURLs);
+        Set<String> probedURLs = probedURLs(endpoints, ReplicaBalancer.get());
+        if (probedURLs.isEmpty()) {
+            return;
+        }
+        OkHttpClient client = InfluxDBUtils.getHttpClient(descriptorImpl.getTransport()).newBuilder()
+                .connectTimeout(SLOW_THRESHOLD_MILLIS, TimeUnit.MILLISECONDS)
+                .readTimeout(SLOW_THRESHOLD_MILLIS, TimeUnit.MILLISECONDS)
+                .build();
+        for (String url : probedURLs) {
+            ReplicaBalancer.get().setHealthy(url, probe(client, url));
+        }
+    }
+
+    /**
+     * @return URLs of endpoints having read replicas, and any other URL out of rotation
+     */
+    static Set<String> probedURLs(List<InfluxDBEndpoint> endpoints, ReplicaBalancer balancer) {
+        Set<String> probedURLs = new LinkedHashSet<String>();
+        for (InfluxDBEndpoint endpoint : endpoints) {
+            for (String url : endpoint.getReadURLs()) {
+                if (endpoint.getReadURLs().size() > 1 || !balancer.isHealthy(url)) {
+                    probedURLs.add(url);
+                }
+            }
+        }
+        return probedURLs;
+    }
+
+    /**
+     * @return true if URL answered ping successfully within {@link #SLOW_THRESHOLD_MILLIS}
+     */
+    static boolean probe(OkHttpClient client, String url) {
+        HttpUrl baseUrl = HttpUrl.parse(url);
+        if (baseUrl == null) {
+            return false;
+        }
+        long start = System.nanoTime();
+        try {
+            Response response = client.newCall(new Request.Builder()
+                    .url(baseUrl.newBuilder().addPathSegment("ping").build()).get().build()).execute();
+            try {
+                long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                if (!response.isSuccessful()) {
+                    LOGGER.warn("Ping of {} returned HTTP {}", url, response.code());
+                    return false;
+                }
+                if (elapsedMillis > SLOW_THRESHOLD_MILLIS) {
+                    LOGGER.warn("Ping of {} took {}ms", url, elapsedMillis);
+                    return false;
+                }
+                return true;
+            } finally {
+                response.close();
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Ping of {} failed:{}", url, e.getMessage());
+            return false;
+        }
+    }
+}
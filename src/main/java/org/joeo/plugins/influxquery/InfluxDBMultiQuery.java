@@ -0,0 +1,374 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.CheckForNull;
+
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.model.AbstractProject;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.tasks.BuildStepDescriptor;
+import hudson.tasks.BuildStepMonitor;
+import hudson.tasks.Builder;
+import hudson.util.ListBoxModel;
+import jenkins.tasks.SimpleBuildStep;
+
+/**
+ * Executes several checks as one multi-statement InfluxDB query.
+ * Each statement result is mapped back to its check, only the checks that are not complete are retried.
+ * In parallel mode, each check runs its own query and retry loop concurrently on {@link CheckExecutor}.
+ */
+public class InfluxDBMultiQuery extends Builder implements SimpleBuildStep {
+    private final List<InfluxDBCheck> checks;
+    private int retryCount;
+    private int retryInterval;
+    @CheckForNull
+    private RetryPolicy retryPolicy;
+    private int deadline;
+    @CheckForNull
+    private String endpoint;
+    private boolean parallel;
+    private boolean scopeToBuild;
+    private int scopeMargin = QueryScope.DEFAULT_MARGIN_SECONDS;
+
+    @DataBoundConstructor
+    public InfluxDBMultiQuery(List<InfluxDBCheck> checks) {
+        this.checks = checks != null ? new ArrayList<InfluxDBCheck>(checks) : Collections.<InfluxDBCheck>emptyList();
+    }
+
+    @DataBoundSetter public void setRetryCount(int retryCount) {
+        this.retryCount = retryCount;
+    }
+
+    @DataBoundSetter public void setRetryInterval(int retryInterval) {
+        this.retryInterval = retryInterval;
+    }
+
+    /**
+     * @param retryPolicy {@link RetryPolicy}, null to wait retryInterval seconds between retries
+     */
+    @DataBoundSetter public void setRetryPolicy(@CheckForNull RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * @param endpoint name of {@link InfluxDBEndpoint} of global configuration, empty for the default one
+     */
+    @DataBoundSetter public void setEndpoint(@CheckForNull String endpoint) {
+        this.endpoint = Util.fixEmptyAndTrim(endpoint);
+    }
+
+    /**
+     * @param deadline max number of seconds for the check to complete including retries, 0 for no deadline
+     */
+    @DataBoundSetter public void setDeadline(int deadline) {
+        this.deadline = deadline;
+    }
+
+    @DataBoundSetter public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * @param scopeToBuild true to bound SELECT statements without time condition to the time window of the build
+     */
+    @DataBoundSetter public void setScopeToBuild(boolean scopeToBuild) {
+        this.scopeToBuild = scopeToBuild;
+    }
+
+    /**
+     * @param scopeMargin seconds before start of build included when query is scoped to build
+     */
+    @DataBoundSetter public void setScopeMargin(int scopeMargin) {
+        this.scopeMargin = scopeMargin;
+    }
+
+    public List<InfluxDBCheck> getChecks() {
+        return Collections.unmodifiableList(checks);
+    }
+
+    public int getRetryCount() {
+        return retryCount;
+    }
+
+    public int getRetryInterval() {
+        return retryInterval;
+    }
+
+    @CheckForNull
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    @CheckForNull
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public int getDeadline() {
+        return deadline;
+    }
+
+    public boolean getParallel() {
+        return parallel;
+    }
+
+    public boolean getScopeToBuild() {
+        return scopeToBuild;
+    }
+
+    public int getScopeMargin() {
+        return scopeMargin;
+    }
+
+    public BuildStepMonitor getRequiredMonitorService() {
+        return BuildStepMonitor.NONE;
+    }
+
+    @Override
+    public void perform(Run<?, ?> run, FilePath workspace, Launcher launcher, TaskListener listener)
+            throws InterruptedException, IOException {
+        final EnvVars env = run.getEnvironment(listener);
+        QueryScope.addTokens(env, run);
+        InfluxDBEndpoint influxDBEndpoint = DescriptorImpl.lookupEndpoint(endpoint);
+        LoggerUtils loggerUtils = new LoggerUtils(listener.getLogger());
+        loggerUtils.info("Connecting to " + influxDBEndpoint);
+
+        if (parallel) {
+            performParallel(run, env, influxDBEndpoint, loggerUtils);
+        } else {
+            performBatch(run, env, influxDBEndpoint, loggerUtils);
+        }
+    }
+
+    private void performBatch(Run<?, ?> run, EnvVars env, InfluxDBEndpoint influxDBEndpoint, LoggerUtils loggerUtils)
+            throws InterruptedException {
+        List<PendingCheck> allChecks = new ArrayList<PendingCheck>(checks.size());
+        for (InfluxDBCheck check : checks) {
+            allChecks.add(new PendingCheck(check.createEvaluator(), toStatement(expand(check, env, run, loggerUtils))));
+        }
+        List<PendingCheck> pendingChecks = new ArrayList<PendingCheck>(allChecks);
+
+        String lastURL = null;
+        RetrySchedule retrySchedule = new RetrySchedule(RetrySchedule.resolve(retryPolicy, retryInterval), retryCount, deadline,
+                System.currentTimeMillis());
+        while (!pendingChecks.isEmpty()) {
+            String command = joinStatements(pendingChecks);
+            int currentRetry = retrySchedule.getCurrentRetry();
+            loggerUtils.info("Running " + pendingChecks.size() + " checks as a single Influx Query, retry:" + currentRetry + " from Influx Query Plugin");
+            List<StatementResult> results = null;
+            List<CheckTiming> timings = new ArrayList<CheckTiming>(pendingChecks.size());
+            for (PendingCheck pendingCheck : pendingChecks) {
+                timings.add(pendingCheck.evaluator.getTiming());
+            }
+            // checks of the request share its timing
+            EndpointReader reader = new EndpointReader(influxDBEndpoint, lastURL, timings, run.getStartTimeInMillis());
+            try {
+                results = reader.query(command);
+                if (results.size() != pendingChecks.size()) {
+                    // the query would fail the same way on every retry
+                    throw new IllegalArgumentException("expected " + pendingChecks.size() + " statement results but got "
+                            + results.size() + ", each check query must be a single statement");
+                }
+            } catch (Exception e) {
+                FailureClassifier.Category category = FailureClassifier.classify(e);
+                loggerUtils.error((category == FailureClassifier.Category.TIMEOUT ? "Query timed out:" : "Error running query:")
+                        + command + ", current retry:"+currentRetry+", max retries:"+retryCount+", message:" + e.getMessage());
+                for (PendingCheck pendingCheck : pendingChecks) {
+                    pendingCheck.evaluator.recordFailedAttempt(category);
+                }
+                if (category == FailureClassifier.Category.FATAL || category == FailureClassifier.Category.UNAVAILABLE) {
+                    for (PendingCheck pendingCheck : pendingChecks) {
+                        loggerUtils.info("==================== Running Check:"+pendingCheck.evaluator.getCheckName()+" ====================");
+                        if (category == FailureClassifier.Category.FATAL) {
+                            pendingCheck.evaluator.reportFatalError(e.getMessage(), loggerUtils);
+                        } else {
+                            pendingCheck.evaluator.reportUnavailable(e, loggerUtils);
+                        }
+                    }
+                    pendingChecks.clear();
+                    break;
+                }
+                results = null;
+            } finally {
+                lastURL = reader.getLastURL();
+            }
+            if (results != null) {
+                Iterator<StatementResult> resultIterator = results.iterator();
+                for (Iterator<PendingCheck> it = pendingChecks.iterator(); it.hasNext();) {
+                    PendingCheck pendingCheck = it.next();
+                    StatementResult result = resultIterator.next();
+                    CheckEvaluator evaluator = pendingCheck.evaluator;
+                    loggerUtils.info("==================== Running Check:"+evaluator.getCheckName()+" ====================");
+                    try {
+                        if (evaluator.report(evaluator.evaluate(result), pendingCheck.statement, loggerUtils)) {
+                            it.remove();
+                        }
+                    } catch (Exception e) {
+                        if (evaluator.reportError(e, pendingCheck.statement, currentRetry, retryCount, loggerUtils)) {
+                            it.remove();
+                        }
+                    }
+                }
+            }
+            if (pendingChecks.isEmpty()) {
+                break;
+            }
+            long delay = retrySchedule.nextRetry(System.currentTimeMillis());
+            if (delay < 0) {
+                for (PendingCheck pendingCheck : pendingChecks) {
+                    loggerUtils.info("==================== Running Check:"+pendingCheck.evaluator.getCheckName()+" ====================");
+                    pendingCheck.evaluator.reportRetriesExhausted(retrySchedule.getExhaustedReason(), loggerUtils);
+                }
+                break;
+            }
+            loggerUtils.info("Waiting " + TimeUnit.MILLISECONDS.toSeconds(delay) + " seconds before retry.");
+            TimeUnit.MILLISECONDS.sleep(delay);
+        }
+        for (PendingCheck pendingCheck : allChecks) {
+            pendingCheck.evaluator.complete(run);
+        }
+    }
+
+    /**
+     * Runs each check on {@link CheckExecutor}, output of each check is buffered and written in check order
+     * once it completes so that it is not interleaved.
+     */
+    private void performParallel(Run<?, ?> run, EnvVars env, InfluxDBEndpoint influxDBEndpoint,
+            LoggerUtils loggerUtils) throws InterruptedException, IOException {
+        loggerUtils.info("Running " + checks.size() + " checks in parallel");
+        List<CheckRunner> runners = new ArrayList<CheckRunner>(checks.size());
+        List<Future<byte[]>> outputs = new ArrayList<Future<byte[]>>(checks.size());
+        for (InfluxDBCheck check : checks) {
+            CheckEvaluator evaluator = check.createEvaluator();
+            final CheckRunner runner = new CheckRunner(evaluator,
+                    new InfluxQLCheckQuery(new EndpointReader(influxDBEndpoint, evaluator.getTiming(), run.getStartTimeInMillis()),
+                            expand(check, env, run, loggerUtils)),
+                    RetrySchedule.resolve(retryPolicy, retryInterval),
+                    retryCount, deadline);
+            runners.add(runner);
+            outputs.add(CheckExecutor.get().submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                    PrintStream printStream = new PrintStream(buffer, true, "UTF-8");
+                    runner.run(new LoggerUtils(printStream));
+                    printStream.flush();
+                    return buffer.toByteArray();
+                }
+            }));
+        }
+        PrintStream logger = loggerUtils.getStream();
+        try {
+            for (int i = 0; i < runners.size(); i++) {
+                try {
+                    logger.write(outputs.get(i).get());
+                } catch (ExecutionException e) {
+                    loggerUtils.error("Error running check:" + runners.get(i).getEvaluator().getCheckName() + ", message:" + e.getCause());
+                }
+                runners.get(i).getEvaluator().complete(run);
+            }
+        } finally {
+            for (Future<byte[]> output : outputs) {
+                output.cancel(true);
+            }
+        }
+    }
+
+    private String expand(InfluxDBCheck check, EnvVars env, Run<?, ?> run, LoggerUtils loggerUtils) {
+        return QueryScope.apply(env.expand(check.getInfluxQuery()), scopeToBuild, scopeMargin, run, loggerUtils);
+    }
+
+    /**
+     * @return query without trailing semicolons so that it can be joined with other statements
+     */
+    static String toStatement(String query) {
+        String statement = query.trim();
+        while (statement.endsWith(";")) {
+            statement = statement.substring(0, statement.length() - 1).trim();
+        }
+        return statement;
+    }
+
+    private static String joinStatements(List<PendingCheck> pendingChecks) {
+        StringBuilder command = new StringBuilder();
+        for (PendingCheck pendingCheck : pendingChecks) {
+            if (command.length() > 0) {
+                command.append(';');
+            }
+            command.append(pendingCheck.statement);
+        }
+        return command.toString();
+    }
+
+    private static final class PendingCheck {
+        private final CheckEvaluator evaluator;
+        private final String statement;
+
+        private PendingCheck(CheckEvaluator evaluator, String statement) {
+            this.evaluator = evaluator;
+            this.statement = statement;
+        }
+    }
+
+    @Extension
+    @Symbol("influxDbMultiQuery")
+    public static final class MultiQueryDescriptorImpl extends BuildStepDescriptor<Builder> {
+        @Override
+        public boolean isApplicable(Class<? extends AbstractProject> aClass) {
+            return true;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Query InfluxDB (multiple checks)";
+        }
+
+        public ListBoxModel doFillEndpointItems() {
+            return DescriptorImpl.fillEndpointItems();
+        }
+    }
+}
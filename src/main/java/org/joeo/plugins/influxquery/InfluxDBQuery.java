@@ -26,13 +26,12 @@ package org.joeo.plugins.influxquery;
 
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.CheckForNull;
 
-import org.influxdb.InfluxDB;
-import org.influxdb.dto.Query;
-import org.influxdb.dto.QueryResult;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 
@@ -42,8 +41,8 @@ import hudson.Launcher;
 import hudson.Util;
 import hudson.model.Run;
 import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
 import hudson.tasks.BuildStepMonitor;
-import hudson.util.Secret;
 import jenkins.tasks.SimpleBuildStep;
 
 /**
@@ -57,10 +56,32 @@ public class InfluxDBQuery extends hudson.tasks.Builder implements SimpleBuildSt
     private String influxQuery;
     @CheckForNull
     private double expectedThreshold;
+    @CheckForNull
+    private QueryLanguage queryLanguage;
     private int retryCount;
     private int retryInterval;
+    @CheckForNull
+    private RetryPolicy retryPolicy;
+    private int deadline;
+    @CheckForNull
+    private String endpoint;
+    private int cacheTtl;
     private boolean markUnstable;
     private boolean showResults;
+    @CheckForNull
+    private String assertions;
+    @CheckForNull
+    private String statistic;
+    @CheckForNull
+    private String valueColumn;
+    private int chunkSize;
+    private double baselineSigma;
+    private double baselinePercent;
+    private int baselineMinBuilds = BaselineGate.DEFAULT_MIN_BUILDS;
+    private boolean scopeToBuild;
+    private int scopeMargin = QueryScope.DEFAULT_MARGIN_SECONDS;
+    private boolean runOnAgent;
+    private boolean preEvaluate;
 
     @DataBoundConstructor
     public InfluxDBQuery(@CheckForNull String checkName, @CheckForNull String influxQuery, @CheckForNull double expectedThreshold) {
@@ -84,6 +105,13 @@ public class InfluxDBQuery extends hudson.tasks.Builder implements SimpleBuildSt
         this.expectedThreshold = expectedThreshold;
     }
 
+    /**
+     * @param queryLanguage {@link QueryLanguage} of influxQuery, null for InfluxQL
+     */
+    @DataBoundSetter public void setQueryLanguage(@CheckForNull QueryLanguage queryLanguage) {
+        this.queryLanguage = queryLanguage;
+    }
+
     @DataBoundSetter public void setRetryCount(int retryCount) {
         this.retryCount = retryCount;
     }
@@ -92,6 +120,34 @@ public class InfluxDBQuery extends hudson.tasks.Builder implements SimpleBuildSt
         this.retryInterval = retryInterval;
     }
 
+    /**
+     * @param retryPolicy {@link RetryPolicy}, null to wait retryInterval seconds between retries
+     */
+    @DataBoundSetter public void setRetryPolicy(@CheckForNull RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * @param endpoint name of {@link InfluxDBEndpoint} of global configuration, empty for the default one
+     */
+    @DataBoundSetter public void setEndpoint(@CheckForNull String endpoint) {
+        this.endpoint = Util.fixEmptyAndTrim(endpoint);
+    }
+
+    /**
+     * @param deadline max number of seconds for the check to complete including retries, 0 for no deadline
+     */
+    @DataBoundSetter public void setDeadline(int deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * @param cacheTtl max age in seconds of a result shared with identical queries of other builds, 0 (default) to disable
+     */
+    @DataBoundSetter public void setCacheTtl(int cacheTtl) {
+        this.cacheTtl = cacheTtl;
+    }
+
     @DataBoundSetter public void setMarkUnstable(boolean markUnstable) {
         this.markUnstable = markUnstable;
     }
@@ -99,6 +155,83 @@ public class InfluxDBQuery extends hudson.tasks.Builder implements SimpleBuildSt
     @DataBoundSetter public void setShowResults(boolean showResults) {
         this.showResults = showResults;
     }
+
+    /**
+     * @param assertions rules checked on every series, one per line such as {@code p95 < 800}
+     */
+    @DataBoundSetter public void setAssertions(@CheckForNull String assertions) {
+        this.assertions = Util.fixEmptyAndTrim(assertions);
+    }
+
+    /**
+     * @param statistic name of {@link Statistic} computed over all rows, empty to compare first value returned
+     */
+    @DataBoundSetter public void setStatistic(@CheckForNull String statistic) {
+        this.statistic = Util.fixEmptyAndTrim(statistic);
+    }
+
+    /**
+     * @param valueColumn column the statistic is computed on, empty for first column after time
+     */
+    @DataBoundSetter public void setValueColumn(@CheckForNull String valueColumn) {
+        this.valueColumn = Util.fixEmptyAndTrim(valueColumn);
+    }
+
+    /**
+     * @param chunkSize number of rows per chunk streamed by InfluxDB, 0 for default
+     */
+    @DataBoundSetter public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @param baselineSigma standard deviations above the baseline of previous builds failing the check, 0 to disable
+     */
+    @DataBoundSetter public void setBaselineSigma(double baselineSigma) {
+        this.baselineSigma = baselineSigma;
+    }
+
+    /**
+     * @param baselinePercent percentage above the baseline of previous builds failing the check, 0 to disable
+     */
+    @DataBoundSetter public void setBaselinePercent(double baselinePercent) {
+        this.baselinePercent = baselinePercent;
+    }
+
+    /**
+     * @param baselineMinBuilds builds added to the baseline before it is used
+     */
+    @DataBoundSetter public void setBaselineMinBuilds(int baselineMinBuilds) {
+        this.baselineMinBuilds = baselineMinBuilds;
+    }
+
+    /**
+     * @param scopeToBuild true to bound SELECT statements without time condition to the time window of the build
+     */
+    @DataBoundSetter public void setScopeToBuild(boolean scopeToBuild) {
+        this.scopeToBuild = scopeToBuild;
+    }
+
+    /**
+     * @param scopeMargin seconds before start of build included when query is scoped to build
+     */
+    @DataBoundSetter public void setScopeMargin(int scopeMargin) {
+        this.scopeMargin = scopeMargin;
+    }
+
+    /**
+     * @param runOnAgent true to send the query and evaluate its results from the agent running the build
+     */
+    @DataBoundSetter public void setRunOnAgent(boolean runOnAgent) {
+        this.runOnAgent = runOnAgent;
+    }
+
+    /**
+     * @param preEvaluate true to read points of the statistic slice by slice from the start of the build
+     */
+    @DataBoundSetter public void setPreEvaluate(boolean preEvaluate) {
+        this.preEvaluate = preEvaluate;
+    }
     
     /**
      * @return the checkName
@@ -115,6 +248,10 @@ public class InfluxDBQuery extends hudson.tasks.Builder implements SimpleBuildSt
         return expectedThreshold;
     }
 
+    public QueryLanguage getQueryLanguage() {
+        return queryLanguage == null ? QueryLanguage.INFLUXQL : queryLanguage;
+    }
+
     public int getRetryInterval() {
         return retryInterval;
     }
@@ -123,6 +260,24 @@ public class InfluxDBQuery extends hudson.tasks.Builder implements SimpleBuildSt
         return retryCount;
     }
 
+    @CheckForNull
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    @CheckForNull
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public int getDeadline() {
+        return deadline;
+    }
+
+    public int getCacheTtl() {
+        return cacheTtl;
+    }
+
     public boolean getMarkUnstable() {
         return markUnstable;
     }
@@ -131,6 +286,53 @@ public class InfluxDBQuery extends hudson.tasks.Builder implements SimpleBuildSt
         return showResults;
     }
 
+    @CheckForNull
+    public String getAssertions() {
+        return assertions;
+    }
+
+    @CheckForNull
+    public String getStatistic() {
+        return statistic;
+    }
+
+    @CheckForNull
+    public String getValueColumn() {
+        return valueColumn;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public double getBaselineSigma() {
+        return baselineSigma;
+    }
+
+    public double getBaselinePercent() {
+        return baselinePercent;
+    }
+
+    public int getBaselineMinBuilds() {
+        return baselineMinBuilds;
+    }
+
+    public boolean getScopeToBuild() {
+        return scopeToBuild;
+    }
+
+    public int getScopeMargin() {
+        return scopeMargin;
+    }
+
+    public boolean getRunOnAgent() {
+        return runOnAgent;
+    }
+
+    public boolean getPreEvaluate() {
+        return preEvaluate;
+    }
+
     public BuildStepMonitor getRequiredMonitorService() {
         return BuildStepMonitor.NONE;
     }
@@ -145,91 +347,76 @@ public class InfluxDBQuery extends hudson.tasks.Builder implements SimpleBuildSt
     public void perform(Run<?, ?> run, FilePath workspace, Launcher launcher, TaskListener listener)
             throws InterruptedException, IOException {
         final EnvVars env = run.getEnvironment(listener);
-        DescriptorImpl descriptorImpl = getDescriptor();
-        String influxURL = descriptorImpl.getInfluxURL();
-        String influxDB = descriptorImpl.getInfluxDB();
-        String influxUser = descriptorImpl.getInfluxUser();
-        Secret influxPWD = descriptorImpl.getInfluxPWD();
-
-        int currentRetry = 0;
-        int queryRecordCount = 0;
+        QueryScope.addTokens(env, run);
+        InfluxDBEndpoint influxDBEndpoint = DescriptorImpl.lookupEndpoint(endpoint);
 
         PrintStream logger = listener.getLogger();
         LoggerUtils loggerUtils = new LoggerUtils(logger);
-        loggerUtils.info("Connecting to url:" + influxURL + ", db:" + influxDB+", user:"+ influxUser);
-        InfluxDB influxDBClient = null;
-        try {
-            influxDBClient = InfluxDBUtils.getConnection(influxURL, influxDB, influxUser, influxPWD);
-            String influxQueryEnv = env.expand(influxQuery);
-            Query query = new Query(influxQueryEnv, influxDB);
-
-            while (currentRetry <= retryCount) {
-                loggerUtils.info("==================== Running Check:"+getCheckName()+" ====================");
-                loggerUtils.info("Running Influx Query:"+query.getCommand()+", retry:" + currentRetry + " from Influx Query Plugin");
-                if(currentRetry > 0) {
-                    loggerUtils.info("Waiting " + retryInterval + " seconds before retry.");
-                    TimeUnit.SECONDS.sleep(retryInterval);
-                }
-                try {
-                    QueryResult influxQueryResult = influxDBClient.query(query);
-                    String emptyReturn = influxQueryResult.getResults().toString();
-                    if (emptyReturn.contains("series=null")) {
-                        queryRecordCount = 0;
-                        loggerUtils.warn("Query returned 0 records");
-                    } else {
-                        queryRecordCount = influxQueryResult.getResults().get(0).getSeries().get(0).getValues()
-                                .size();
-                        loggerUtils.info("Query returned " + queryRecordCount + " records:");
-                        if(showResults) {
-                            loggerUtils.info("Results for query:"+influxQueryEnv);
-                            loggerUtils.info(""+influxQueryResult.getResults().get(0).getSeries().get(0));
-                        }
-                    }
-                    Double result = null;
-                    boolean fail = false;
-                    if(queryRecordCount > 0) {
-                        result = Double.valueOf(influxQueryResult.getResults().get(0).getSeries().get(0).getValues().get(0).get(1).toString());
-                        fail = result > expectedThreshold;
-                    } 
-
-                    loggerUtils.info("InfluxDB Query "+ query.getCommand() + " returned :"+result);
-                    if (result == null) {
-                        loggerUtils.warn("InfluxDB Query returned no results");
-                    } else {
-                        if (fail) {
-                            if (markUnstable) {
-                                loggerUtils.error("InfluxDB Query returned " + result + " which is more than threshold:"+expectedThreshold+", will mark build Unstable");
-                                run.setResult(hudson.model.Result.UNSTABLE);
-                                break;
-                            } 
-                            loggerUtils.warn("InfluxDB Query returned " + result + " which is more than threshold:"+expectedThreshold+", but build will not be marked as Unstable as per your configuration");
-                        } else {
-                            loggerUtils.info("InfluxDB Query returned " + result + " which is less than threshold:"+expectedThreshold);
-                            break;
-                        }
-                    }
-                } catch (Exception e) {
-                    loggerUtils.error("Error running query:" + query.getCommand() + ", current retry:"+currentRetry+", max retries:"+retryCount+", message:" + e.getMessage());
-                }
-                currentRetry++;
-            }
-            if(currentRetry>retryCount) {
-                loggerUtils.error("Max number of retries "+retryCount+" reached without being able to compute result");
-                if (markUnstable) {
-                    loggerUtils.error("Marking build as unstable");
-                    run.setResult(hudson.model.Result.UNSTABLE);
-                } else {
-                    loggerUtils.warn("Not marking build as unstable");
-                }
-            }
-        } finally {
-            if (influxDBClient != null) {
-                try {
-                    influxDBClient.close();
-                } catch (Exception e) {
-                    // NOOP
-                }
-            }
+        loggerUtils.info("Connecting to " + influxDBEndpoint);
+        PreEvaluation preEvaluation = preEvaluate ? PreEvaluation.finish(run, this) : null;
+        String influxQueryEnv;
+        if (getQueryLanguage() == QueryLanguage.FLUX) {
+            // Flux queries bound time themselves with range()
+            preEvaluation = null;
+            influxQueryEnv = env.expand(influxQuery);
+        } else if (preEvaluation != null && preEvaluation.getCommand().equals(env.expand(influxQuery))) {
+            influxQueryEnv = QueryScope.slice(preEvaluation.getCommand(), preEvaluation.getFromNanos(), 0);
+            loggerUtils.info("Pre-evaluated " + preEvaluation.getSlices() + " slices ("
+                    + preEvaluation.getStatistics().getCount() + " values), querying last slice:" + influxQueryEnv);
+        } else {
+            preEvaluation = null;
+            influxQueryEnv = QueryScope.apply(env.expand(influxQuery), scopeToBuild, scopeMargin, run, loggerUtils);
+        }
+        List<SeriesAssertion> seriesAssertions = statistic == null ? SeriesAssertion.parseAll(assertions)
+                : Collections.<SeriesAssertion>emptyList();
+        CheckEvaluator evaluator = new CheckEvaluator(checkName, expectedThreshold, markUnstable, showResults,
+                seriesAssertions);
+        BaselineGate baselineGate = BaselineGate.of(baselineSigma, baselinePercent, baselineMinBuilds);
+        if (baselineGate != null && checkName == null) {
+            loggerUtils.warn(DescriptorImpl.BASELINE_WITHOUT_NAME);
+        } else if (baselineGate != null && seriesAssertions.isEmpty()) {
+            evaluator.setBaseline(baselineGate, BaselineStore.load(run.getParent(), checkName));
         }
+        AgentCheck check = new AgentCheck(evaluator, influxDBEndpoint, getQueryLanguage(), influxQueryEnv, cacheTtl,
+                statistic == null ? null : Statistic.valueOf(statistic), valueColumn, chunkSize,
+                preEvaluation == null ? null : preEvaluation.getStatistics(), RetrySchedule.resolve(retryPolicy, retryInterval), retryCount, deadline,
+                run.getStartTimeInMillis(), listener, new FilePath(run.getArtifactsDir()));
+        VirtualChannel channel = runOnAgent ? launcher.getChannel() : null;
+        if (channel != null) {
+            loggerUtils.info("Running check from the build agent");
+            evaluator = check.callOn(channel);
+        } else {
+            evaluator = check.call();
+        }
+        evaluator.complete(run);
+    }
+
+    /**
+     * Starts polling the query while the build runs, if the check computes a statistic of a query which can be
+     * evaluated slice by slice
+     * @param run {@link Run} which just started
+     */
+    void startPreEvaluation(Run<?, ?> run, TaskListener listener) throws IOException, InterruptedException {
+        LoggerUtils loggerUtils = new LoggerUtils(listener.getLogger());
+        EnvVars env = run.getEnvironment(listener);
+        QueryScope.addTokens(env, run);
+        final String command = env.expand(influxQuery);
+        if (statistic == null || getQueryLanguage() != QueryLanguage.INFLUXQL || !QueryScope.isSliceable(command)) {
+            loggerUtils.info("Check " + checkName + " is not pre-evaluated, it needs a Statistic of raw points"
+                    + " selected by InfluxQL without time condition");
+            return;
+        }
+        final EndpointReader reader = new EndpointReader(DescriptorImpl.lookupEndpoint(endpoint), null,
+                Collections.<CheckTiming>emptyList(), run.getStartTimeInMillis());
+        // without Scope to Build the first slice reads all points older than the build, as the whole query would
+        long fromNanos = QueryScope.fromNanos(scopeToBuild, scopeMargin, run.getStartTimeInMillis());
+        PreEvaluation.start(run, this, new PreEvaluation(checkName, command, fromNanos, new PreEvaluation.SliceReader() {
+            @Override
+            public void read(String slice, StreamingStatistics statistics) throws IOException {
+                StreamingCheckQuery.read(reader, slice, valueColumn, chunkSize > 0 ? chunkSize : StreamingCheckQuery.DEFAULT_CHUNK_SIZE,
+                        statistics);
+            }
+        }));
+        loggerUtils.info("Pre-evaluating check " + checkName + " every " + TimeUnit.MILLISECONDS.toSeconds(PreEvaluation.POLL_INTERVAL_MILLIS) + "s");
     }
 }
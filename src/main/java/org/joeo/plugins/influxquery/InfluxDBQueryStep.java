@@ -0,0 +1,256 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.annotation.CheckForNull;
+
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.AncestorInPath;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.verb.POST;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.Item;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+
+/**
+ * Pipeline step equivalent to {@link InfluxDBQuery} which does not hold a thread while waiting between retries.
+ * Retries are scheduled on a timer and the step state survives a controller restart.
+ */
+public class InfluxDBQueryStep extends Step {
+    @CheckForNull
+    private String checkName;
+    @CheckForNull
+    private String influxQuery;
+    private double expectedThreshold;
+    private int retryCount;
+    private int retryInterval;
+    @CheckForNull
+    private RetryPolicy retryPolicy;
+    private int deadline;
+    @CheckForNull
+    private String endpoint;
+    private int cacheTtl;
+    private boolean markUnstable;
+    private boolean showResults;
+    @CheckForNull
+    private String assertions;
+    private boolean scopeToBuild;
+    private int scopeMargin = QueryScope.DEFAULT_MARGIN_SECONDS;
+
+    @DataBoundConstructor
+    public InfluxDBQueryStep(@CheckForNull String checkName, @CheckForNull String influxQuery, double expectedThreshold) {
+        this.checkName = Util.fixEmptyAndTrim(checkName);
+        this.influxQuery = Util.fixEmptyAndTrim(influxQuery);
+        this.expectedThreshold = expectedThreshold;
+    }
+
+    @DataBoundSetter public void setRetryCount(int retryCount) {
+        this.retryCount = retryCount;
+    }
+
+    @DataBoundSetter public void setRetryInterval(int retryInterval) {
+        this.retryInterval = retryInterval;
+    }
+
+    /**
+     * @param retryPolicy {@link RetryPolicy}, null to wait retryInterval seconds between retries
+     */
+    @DataBoundSetter public void setRetryPolicy(@CheckForNull RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * @param endpoint name of {@link InfluxDBEndpoint} of global configuration, empty for the default one
+     */
+    @DataBoundSetter public void setEndpoint(@CheckForNull String endpoint) {
+        this.endpoint = Util.fixEmptyAndTrim(endpoint);
+    }
+
+    /**
+     * @param deadline max number of seconds for the check to complete including retries, 0 for no deadline
+     */
+    @DataBoundSetter public void setDeadline(int deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * @param cacheTtl max age in seconds of a result shared with identical queries of other builds, 0 (default) to disable
+     */
+    @DataBoundSetter public void setCacheTtl(int cacheTtl) {
+        this.cacheTtl = cacheTtl;
+    }
+
+    @DataBoundSetter public void setMarkUnstable(boolean markUnstable) {
+        this.markUnstable = markUnstable;
+    }
+
+    @DataBoundSetter public void setShowResults(boolean showResults) {
+        this.showResults = showResults;
+    }
+
+    /**
+     * @param assertions rules checked on every series, one per line such as {@code p95 < 800}
+     */
+    @DataBoundSetter public void setAssertions(@CheckForNull String assertions) {
+        this.assertions = Util.fixEmptyAndTrim(assertions);
+    }
+
+    /**
+     * @param scopeToBuild true to bound SELECT statements without time condition to the time window of the build
+     */
+    @DataBoundSetter public void setScopeToBuild(boolean scopeToBuild) {
+        this.scopeToBuild = scopeToBuild;
+    }
+
+    /**
+     * @param scopeMargin seconds before start of build included when query is scoped to build
+     */
+    @DataBoundSetter public void setScopeMargin(int scopeMargin) {
+        this.scopeMargin = scopeMargin;
+    }
+
+    public String getCheckName() {
+        return checkName;
+    }
+
+    public String getInfluxQuery() {
+        return influxQuery;
+    }
+
+    public double getExpectedThreshold() {
+        return expectedThreshold;
+    }
+
+    public int getRetryCount() {
+        return retryCount;
+    }
+
+    public int getRetryInterval() {
+        return retryInterval;
+    }
+
+    @CheckForNull
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    @CheckForNull
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public int getDeadline() {
+        return deadline;
+    }
+
+    public int getCacheTtl() {
+        return cacheTtl;
+    }
+
+    public boolean getMarkUnstable() {
+        return markUnstable;
+    }
+
+    public boolean getShowResults() {
+        return showResults;
+    }
+
+    @CheckForNull
+    public String getAssertions() {
+        return assertions;
+    }
+
+    public boolean getScopeToBuild() {
+        return scopeToBuild;
+    }
+
+    public int getScopeMargin() {
+        return scopeMargin;
+    }
+
+    @Override
+    public StepExecution start(StepContext context) throws Exception {
+        return new InfluxDBQueryStepExecution(this, context);
+    }
+
+    @Extension
+    public static final class StepDescriptorImpl extends StepDescriptor {
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return new HashSet<Class<?>>(Arrays.<Class<?>>asList(Run.class, TaskListener.class, EnvVars.class));
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "influxDbQueryAsync";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Query InfluxDB without holding an executor between retries";
+        }
+
+        @POST
+        public FormValidation doCheckCheckName(@QueryParameter String checkName, @AncestorInPath Item item) {
+            return DescriptorImpl.checkCheckName(checkName, item);
+        }
+
+        @POST
+        public FormValidation doCheckInfluxQuery(@QueryParameter String influxQuery, @QueryParameter boolean scopeToBuild,
+                @AncestorInPath Item item) {
+            return DescriptorImpl.checkInfluxQuery(influxQuery, scopeToBuild, item);
+        }
+
+        @POST
+        public FormValidation doCheckExpectedThreshold(@QueryParameter String expectedThreshold,
+                @AncestorInPath Item item) {
+            return DescriptorImpl.checkExpectedThreshold(expectedThreshold, item);
+        }
+
+        @POST
+        public FormValidation doCheckAssertions(@QueryParameter String assertions, @AncestorInPath Item item) {
+            return DescriptorImpl.checkAssertions(assertions, item);
+        }
+
+        public ListBoxModel doFillEndpointItems() {
+            return DescriptorImpl.fillEndpointItems();
+        }
+    }
+}
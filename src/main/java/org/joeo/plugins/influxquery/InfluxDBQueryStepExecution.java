@@ -0,0 +1,202 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import java.util.Collections;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.jenkinsci.plugins.workflow.steps.AbstractStepExecutionImpl;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+
+import hudson.EnvVars;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import jenkins.util.Timer;
+
+/**
+ * Runs each attempt of a {@link InfluxDBQueryStep} on {@link CheckExecutor} and schedules the next one on {@link Timer},
+ * so no thread is held between attempts.
+ * Retry counter and time of next attempt are persisted with the program, the pending attempt is rescheduled on resume.
+ */
+final class InfluxDBQueryStepExecution extends AbstractStepExecutionImpl {
+    private static final long serialVersionUID = 1L;
+
+    private final String checkName;
+    private final double expectedThreshold;
+    private final int retryCount;
+    private final RetrySchedule retrySchedule;
+    private final boolean markUnstable;
+    private final boolean showResults;
+    private final String assertions;
+    private final int cacheTtl;
+    private final String endpoint;
+    private final boolean scopeToBuild;
+    private final int scopeMargin;
+    private volatile String lastURL;
+    private final CheckTiming timing;
+    private final String influxQuery;
+    private volatile String command;
+    private volatile long buildStart;
+    private volatile long nextAttemptTime;
+    /** Set once by the first of the last attempt and {@link #stop(Throwable)}, guarded by this */
+    private boolean completed;
+    private transient volatile Future<?> pendingAttempt;
+
+    InfluxDBQueryStepExecution(InfluxDBQueryStep step, StepContext context) {
+        super(context);
+        this.checkName = step.getCheckName();
+        this.influxQuery = step.getInfluxQuery();
+        this.expectedThreshold = step.getExpectedThreshold();
+        this.retryCount = step.getRetryCount();
+        this.retrySchedule = new RetrySchedule(RetrySchedule.resolve(step.getRetryPolicy(), step.getRetryInterval()),
+                step.getRetryCount(), step.getDeadline(), System.currentTimeMillis());
+        this.markUnstable = step.getMarkUnstable();
+        this.showResults = step.getShowResults();
+        this.assertions = step.getAssertions();
+        this.cacheTtl = step.getCacheTtl();
+        this.timing = new CheckTiming(checkName);
+        this.endpoint = step.getEndpoint();
+        this.scopeToBuild = step.getScopeToBuild();
+        this.scopeMargin = step.getScopeMargin();
+    }
+
+    @Override
+    public boolean start() throws Exception {
+        EnvVars env = new EnvVars(getContext().get(EnvVars.class));
+        Run<?, ?> run = getContext().get(Run.class);
+        QueryScope.addTokens(env, run);
+        buildStart = run.getStartTimeInMillis();
+        LoggerUtils loggerUtils = new LoggerUtils(getContext().get(TaskListener.class).getLogger());
+        loggerUtils.info("Connecting to " + DescriptorImpl.lookupEndpoint(endpoint));
+        command = QueryScope.apply(env.expand(influxQuery), scopeToBuild, scopeMargin, run, loggerUtils);
+        scheduleAttempt(0);
+        return false;
+    }
+
+    @Override
+    public void stop(Throwable cause) throws Exception {
+        if (!complete()) {
+            return;
+        }
+        Future<?> attempt = pendingAttempt;
+        if (attempt != null) {
+            attempt.cancel(true);
+        }
+        getContext().onFailure(cause);
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        if (!isCompleted()) {
+            scheduleAttempt(Math.max(0, nextAttemptTime - System.currentTimeMillis()));
+        }
+    }
+
+    @Override
+    public String getStatus() {
+        return "Check " + checkName + ", retry " + retrySchedule.getCurrentRetry() + " of " + retryCount
+                + (nextAttemptTime > System.currentTimeMillis() ? ", next attempt in " + TimeUnit.MILLISECONDS.toSeconds(nextAttemptTime - System.currentTimeMillis()) + "s" : "");
+    }
+
+    private synchronized boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * Completes the step once: an attempt finishing while the step is stopped must not report its result
+     * @return true if the caller completed the step and must notify its context
+     */
+    private synchronized boolean complete() {
+        if (completed) {
+            return false;
+        }
+        completed = true;
+        return true;
+    }
+
+    private void scheduleAttempt(long delayMillis) {
+        nextAttemptTime = System.currentTimeMillis() + delayMillis;
+        pendingAttempt = Timer.get().schedule(new Runnable() {
+            @Override
+            public void run() {
+                pendingAttempt = CheckExecutor.get().submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        attempt();
+                    }
+                });
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void attempt() {
+        if (isCompleted()) {
+            return;
+        }
+        boolean completedHere = false;
+        try {
+            LoggerUtils loggerUtils = new LoggerUtils(getContext().get(TaskListener.class).getLogger());
+            CheckEvaluator evaluator = new CheckEvaluator(checkName, expectedThreshold, markUnstable, showResults,
+                    SeriesAssertion.parseAll(assertions), timing);
+            loggerUtils.info("==================== Running Check:"+checkName+" ====================");
+            int currentRetry = retrySchedule.getCurrentRetry();
+            loggerUtils.info("Running Influx Query:"+command+", retry:" + currentRetry + " from Influx Query Plugin");
+            boolean checkComplete = false;
+            try {
+                EndpointReader reader = new EndpointReader(DescriptorImpl.lookupEndpoint(endpoint), lastURL,
+                        Collections.singletonList(timing), buildStart);
+                try {
+                    checkComplete = evaluator.report(new InfluxQLCheckQuery(reader, command, cacheTtl).execute(evaluator),
+                            command, loggerUtils);
+                } finally {
+                    lastURL = reader.getLastURL();
+                }
+            } catch (Exception e) {
+                checkComplete = evaluator.reportError(e, command, currentRetry, retryCount, loggerUtils);
+            }
+            if (!checkComplete) {
+                long delay = retrySchedule.nextRetry(System.currentTimeMillis());
+                if (delay >= 0) {
+                    loggerUtils.info("Waiting " + TimeUnit.MILLISECONDS.toSeconds(delay) + " seconds before retry.");
+                    scheduleAttempt(delay);
+                    return;
+                }
+                evaluator.reportRetriesExhausted(retrySchedule.getExhaustedReason(), loggerUtils);
+            }
+            if (!complete()) {
+                return;
+            }
+            completedHere = true;
+            evaluator.complete(getContext().get(Run.class));
+            getContext().onSuccess(null);
+        } catch (Exception e) {
+            if (completedHere || complete()) {
+                getContext().onFailure(e);
+            }
+        }
+    }
+}
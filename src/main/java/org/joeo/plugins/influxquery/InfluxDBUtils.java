@@ -24,42 +24,99 @@
 
 package org.joeo.plugins.influxquery;
 
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.influxdb.InfluxDB;
 import org.influxdb.InfluxDBFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import hudson.init.Terminator;
 import hudson.util.Secret;
+import okhttp3.OkHttpClient;
 
 /**
- *
+ * Process wide registry of HTTP clients.
+ * Clients are keyed by {@link TransportSettings} and keep the keep-alive connection pool of their settings, all
+ * requests to InfluxDB go through them. Public for {@link #shutdown()} to be called by Jenkins.
  */
-class InfluxDBUtils {
+public class InfluxDBUtils {
     private static final Logger LOGGER = LoggerFactory.getLogger(InfluxDBUtils.class);
 
+    private static final TransportSettings DEFAULT_TRANSPORT = new TransportSettings();
+
+    private static final ConcurrentMap<TransportSettings, OkHttpClient> HTTP_CLIENTS = new ConcurrentHashMap<TransportSettings, OkHttpClient>();
+
     private  InfluxDBUtils() {
         super();
     }
     
     /**
-     * 
+     * Returns an InfluxDB client for the given URL and credentials, sending its requests through the HTTP client of
+     * transport settings. It holds no connection of its own and needs no closing.
      * @param influxURL String InfluxDB URL
      * @param influxDB Database name
      * @param influxUser Login (null or empty means anonymous connection)
      * @param influxPWD Password
+     * @param transport {@link TransportSettings}, null for defaults
      * @return {@link InfluxDB}
      */
     public static final InfluxDB getConnection(String influxURL, String influxDB, 
             String influxUser,
-            Secret influxPWD) {
+            Secret influxPWD, TransportSettings transport) {
+        OkHttpClient.Builder httpClient = getHttpClient(transport).newBuilder();
         InfluxDB influxDBClient = null;
         if(influxUser == null || influxUser.length()==0) {
             LOGGER.info("Using anonymous connection with url:{} and db:{}", influxURL, influxDB);
-            influxDBClient = InfluxDBFactory.connect(influxURL);
+            influxDBClient = InfluxDBFactory.connect(influxURL, httpClient);
         } else {
             LOGGER.info("Using authenticated connection with url:{}, user:{}, db:{}", influxURL, influxUser, influxDB);
-            influxDBClient = InfluxDBFactory.connect(influxURL, influxUser, Secret.toString(influxPWD));
+            influxDBClient = InfluxDBFactory.connect(influxURL, influxUser, Secret.toString(influxPWD), httpClient);
         } 
         return influxDBClient;
     }
+
+    /**
+     * @param transport {@link TransportSettings}, null for defaults
+     * @return HTTP client of transport settings, sharing its connection pool with all requests using the same settings
+     */
+    static OkHttpClient getHttpClient(TransportSettings transport) {
+        TransportSettings settings = resolve(transport);
+        OkHttpClient client = HTTP_CLIENTS.get(settings);
+        if (client == null) {
+            OkHttpClient created = settings.newClientBuilder().addNetworkInterceptor(new TimingInterceptor()).build();
+            client = HTTP_CLIENTS.putIfAbsent(settings, created);
+            if (client == null) {
+                client = created;
+            }
+        }
+        return client;
+    }
+
+    private static TransportSettings resolve(TransportSettings transport) {
+        return transport == null ? DEFAULT_TRANSPORT : transport;
+    }
+
+    /**
+     * Forgets all HTTP clients, they are rebuilt on next use.
+     * Only idle connections are closed: requests in flight keep the client they got and release their connection
+     * when they complete. Called when global configuration changes and when Jenkins stops.
+     */
+    static void releaseHttpClients() {
+        for (Iterator<OkHttpClient> it = HTTP_CLIENTS.values().iterator(); it.hasNext();) {
+            OkHttpClient client = it.next();
+            it.remove();
+            client.connectionPool().evictAll();
+        }
+    }
+
+    /**
+     * Releases the HTTP clients and their idle connections when Jenkins stops
+     */
+    @Terminator
+    public static void shutdown() {
+        releaseHttpClients();
+    }
 }
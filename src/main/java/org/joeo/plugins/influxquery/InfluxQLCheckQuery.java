@@ -0,0 +1,59 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import java.io.IOException;
+
+/**
+ * Runs the query and evaluates its first statement result decoded as {@link StatementResult}.
+ */
+final class InfluxQLCheckQuery implements CheckQuery {
+    private final EndpointReader reader;
+    private final String command;
+    private final int cacheTtl;
+
+    InfluxQLCheckQuery(EndpointReader reader, String command) {
+        this(reader, command, 0);
+    }
+
+    /**
+     * @param cacheTtl max age in seconds of a result shared through {@link QueryResultCache}, 0 to disable caching
+     */
+    InfluxQLCheckQuery(EndpointReader reader, String command, int cacheTtl) {
+        this.reader = reader;
+        this.command = command;
+        this.cacheTtl = cacheTtl;
+    }
+
+    @Override
+    public String getCommand() {
+        return command;
+    }
+
+    @Override
+    public CheckVerdict execute(CheckEvaluator evaluator) throws IOException, InterruptedException {
+        return evaluator.evaluate(QueryResultCache.get().query(reader, command, cacheTtl).get(0));
+    }
+}
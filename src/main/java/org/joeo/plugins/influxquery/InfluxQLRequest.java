@@ -0,0 +1,117 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import java.io.IOException;
+
+import hudson.Util;
+import hudson.util.Secret;
+import okhttp3.Credentials;
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Sends InfluxQL queries over the shared HTTP clients of {@link InfluxDBUtils} and gives access to the raw response,
+ * so that large results can be read as a stream.
+ */
+final class InfluxQLRequest {
+
+    private InfluxQLRequest() {
+        super();
+    }
+
+    /**
+     * @param influxURL String InfluxDB URL
+     * @param influxUser Login (null or empty means anonymous connection)
+     * @param influxPWD Password
+     * @param database Database name
+     * @param command InfluxQL query
+     * @param chunkSize number of rows per chunk, 0 to disable chunking
+     * @param timing {@link QueryTiming} filled while request runs, may be null
+     * @param transport {@link TransportSettings} of request, null for defaults
+     * @param format {@link ResponseFormat} to ask for, InfluxDB may answer with JSON anyway
+     * @return successful {@link Response}, caller must close it
+     * @throws IOException on network error or server error
+     * @throws IllegalStateException if InfluxDB rejected the query, for example on authentication or syntax error
+     */
+    static Response execute(String influxURL, String influxUser, Secret influxPWD, String database, String command,
+            int chunkSize, QueryTiming timing, TransportSettings transport, ResponseFormat format) throws IOException {
+        HttpUrl baseUrl = HttpUrl.parse(influxURL);
+        if (baseUrl == null) {
+            throw new IllegalStateException("Invalid InfluxDB url:" + influxURL);
+        }
+        HttpUrl.Builder url = baseUrl.newBuilder()
+                .addPathSegment("query")
+                .addQueryParameter("db", database)
+                .addQueryParameter("q", command)
+                .addQueryParameter("epoch", "ms");
+        if (chunkSize > 0) {
+            url.addQueryParameter("chunked", "true").addQueryParameter("chunk_size", Integer.toString(chunkSize));
+        }
+        Request.Builder request = new Request.Builder().url(url.build()).get().header("Accept", format.getContentType());
+        if (timing != null) {
+            request.tag(timing);
+        }
+        if (Util.fixEmpty(influxUser) != null) {
+            request.header("Authorization", Credentials.basic(influxUser, Secret.toString(influxPWD)));
+        }
+        Response response = InfluxDBUtils.getHttpClient(transport).newCall(request.build()).execute();
+        if (!response.isSuccessful()) {
+            String body;
+            try {
+                body = readError(response);
+            } finally {
+                response.close();
+            }
+            String message = "InfluxDB returned HTTP " + response.code() + ":" + body;
+            if (response.code() >= 500) {
+                throw new IOException(message);
+            }
+            throw new IllegalStateException(message);
+        }
+        return response;
+    }
+
+    /**
+     * @return body of an error response, the error message for MessagePack
+     */
+    private static String readError(Response response) throws IOException {
+        if (ResponseFormat.ofContentType(response.header("Content-Type")) != ResponseFormat.MSGPACK) {
+            return response.body().string();
+        }
+        ResponseReader reader = ResponseFormat.MSGPACK.newReader(response.body().byteStream());
+        if (reader.peek() == ResponseReader.Token.BEGIN_OBJECT) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("error".equals(reader.nextName())) {
+                    return reader.nextString();
+                }
+                reader.skipValue();
+            }
+        }
+        return "";
+    }
+}
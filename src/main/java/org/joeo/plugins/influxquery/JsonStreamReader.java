@@ -0,0 +1,493 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Minimal pull parser for JSON documents read from a stream.
+ * Accepts several top level values one after the other, as sent by InfluxDB chunked responses.
+ * Numbers are parsed directly from bytes to avoid creating a String per value.
+ */
+final class JsonStreamReader implements ResponseReader {
+
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[8192];
+    private int pos;
+    private int limit;
+    private long bytesRead;
+
+    /** Object (true) or array (false) for each nesting level */
+    private boolean[] objectStack = new boolean[32];
+    private boolean[] expectNameStack = new boolean[32];
+    private int depth;
+    private Token peeked;
+
+    private byte[] stringBuffer = new byte[64];
+    private byte[] numberBuffer = new byte[32];
+
+    JsonStreamReader(InputStream in) {
+        this.in = in;
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    @Override
+    public Token peek() throws IOException {
+        if (peeked != null) {
+            return peeked;
+        }
+        while (true) {
+            int c = nextNonWhitespace();
+            switch (c) {
+            case -1:
+                peeked = Token.END_DOCUMENT;
+                return peeked;
+            case ',':
+                pos++;
+                if (depth > 0 && objectStack[depth - 1]) {
+                    expectNameStack[depth - 1] = true;
+                }
+                continue;
+            case ':':
+                pos++;
+                continue;
+            case '{':
+                peeked = Token.BEGIN_OBJECT;
+                return peeked;
+            case '}':
+                peeked = Token.END_OBJECT;
+                return peeked;
+            case '[':
+                peeked = Token.BEGIN_ARRAY;
+                return peeked;
+            case ']':
+                peeked = Token.END_ARRAY;
+                return peeked;
+            case '"':
+                peeked = depth > 0 && objectStack[depth - 1] && expectNameStack[depth - 1] ? Token.NAME : Token.STRING;
+                return peeked;
+            case 't':
+            case 'f':
+                peeked = Token.BOOLEAN;
+                return peeked;
+            case 'n':
+                peeked = Token.NULL;
+                return peeked;
+            default:
+                peeked = Token.NUMBER;
+                return peeked;
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    @Override
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        pos++;
+        push(true);
+    }
+
+    @Override
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        pos++;
+        depth--;
+    }
+
+    @Override
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        pos++;
+        push(false);
+    }
+
+    @Override
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        pos++;
+        depth--;
+    }
+
+    @Override
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        expectNameStack[depth - 1] = false;
+        return readString();
+    }
+
+    @Override
+    public String nextString() throws IOException {
+        Token token = peek();
+        if (token == Token.NUMBER || token == Token.BOOLEAN) {
+            return readLiteral();
+        }
+        expect(Token.STRING);
+        return readString();
+    }
+
+    @Override
+    public boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        boolean value = buffer[pos] == 't';
+        skipLiteral(value ? 4 : 5);
+        return value;
+    }
+
+    @Override
+    public void nextNull() throws IOException {
+        expect(Token.NULL);
+        skipLiteral(4);
+    }
+
+    @Override
+    public double nextDouble() throws IOException {
+        Token token = peek();
+        if (token == Token.STRING) {
+            return Double.parseDouble(readString());
+        }
+        expect(Token.NUMBER);
+        int length = readNumber();
+        byte[] number = numberBuffer;
+        int i = 0;
+        boolean negative = number[0] == '-';
+        if (negative) {
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean exact = true;
+        for (; i < length && number[i] >= '0' && number[i] <= '9'; i++) {
+            if (digits < 18) {
+                mantissa = mantissa * 10 + (number[i] - '0');
+                if (mantissa != 0) {
+                    digits++;
+                }
+            } else {
+                exponent++;
+                exact = false;
+            }
+        }
+        if (i < length && number[i] == '.') {
+            for (i++; i < length && number[i] >= '0' && number[i] <= '9'; i++) {
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (number[i] - '0');
+                    if (mantissa != 0) {
+                        digits++;
+                    }
+                    exponent--;
+                } else if (number[i] != '0') {
+                    exact = false;
+                }
+            }
+        }
+        if (i < length && (number[i] == 'e' || number[i] == 'E')) {
+            exact = false;
+        }
+        if (exact && mantissa < MAX_EXACT_MANTISSA && exponent >= -22 && exponent <= 22) {
+            double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+            return negative ? -value : value;
+        }
+        // more than 18 significant digits or explicit exponent
+        try {
+            return Double.parseDouble(new String(number, 0, length, StandardCharsets.US_ASCII));
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed number " + new String(number, 0, length, StandardCharsets.US_ASCII), e);
+        }
+    }
+
+    @Override
+    public long nextLong() throws IOException {
+        Token token = peek();
+        if (token == Token.STRING) {
+            return Long.parseLong(readString());
+        }
+        expect(Token.NUMBER);
+        int length = readNumber();
+        byte[] number = numberBuffer;
+        int i = number[0] == '-' ? 1 : 0;
+        long value = 0;
+        for (; i < length; i++) {
+            byte c = number[i];
+            if (c < '0' || c > '9') {
+                // not an integer
+                try {
+                    return (long) Double.parseDouble(new String(number, 0, length, StandardCharsets.US_ASCII));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed number " + new String(number, 0, length, StandardCharsets.US_ASCII), e);
+                }
+            }
+            value = value * 10 + (c - '0');
+        }
+        return number[0] == '-' ? -value : value;
+    }
+
+    @Override
+    public void skipValue() throws IOException {
+        int skipDepth = 0;
+        do {
+            switch (peek()) {
+            case BEGIN_OBJECT:
+                beginObject();
+                skipDepth++;
+                break;
+            case BEGIN_ARRAY:
+                beginArray();
+                skipDepth++;
+                break;
+            case END_OBJECT:
+                endObject();
+                skipDepth--;
+                break;
+            case END_ARRAY:
+                endArray();
+                skipDepth--;
+                break;
+            case NAME:
+                nextName();
+                break;
+            case STRING:
+                readString();
+                break;
+            case NUMBER:
+                nextDouble();
+                break;
+            case BOOLEAN:
+                nextBoolean();
+                break;
+            case NULL:
+                nextNull();
+                break;
+            default:
+                throw new IOException("Unexpected end of document");
+            }
+        } while (skipDepth > 0);
+    }
+
+    private void push(boolean object) {
+        if (depth == objectStack.length) {
+            objectStack = Arrays.copyOf(objectStack, depth * 2);
+            expectNameStack = Arrays.copyOf(expectNameStack, depth * 2);
+        }
+        objectStack[depth] = object;
+        expectNameStack[depth] = object;
+        depth++;
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) {
+            throw new IOException("Expected " + expected + " but was " + token + " at byte " + (bytesRead - limit + pos));
+        }
+        peeked = null;
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        while (true) {
+            int c = current();
+            if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                pos++;
+            } else {
+                return c;
+            }
+        }
+    }
+
+    /**
+     * @return byte at current position without consuming it, -1 at end of stream
+     */
+    private int current() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buffer[pos] & 0xff;
+    }
+
+    private boolean fill() throws IOException {
+        pos = 0;
+        limit = 0;
+        int read = in.read(buffer, 0, buffer.length);
+        if (read <= 0) {
+            return false;
+        }
+        limit = read;
+        bytesRead += read;
+        return true;
+    }
+
+    /**
+     * Copies the number literal at current position to {@link #numberBuffer}
+     * @return length of the literal
+     */
+    private int readNumber() throws IOException {
+        int length = 0;
+        int c;
+        while ((c = current()) != -1 && ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E')) {
+            if (length == numberBuffer.length) {
+                numberBuffer = Arrays.copyOf(numberBuffer, length * 2);
+            }
+            numberBuffer[length++] = (byte) c;
+            pos++;
+        }
+        if (length == 0) {
+            throw new IOException("Malformed number at byte " + (bytesRead - limit + pos));
+        }
+        return length;
+    }
+
+    private void skipLiteral(int length) throws IOException {
+        for (int i = 0; i < length; i++) {
+            if (current() == -1) {
+                throw new IOException("Unexpected end of document in literal");
+            }
+            pos++;
+        }
+        peeked = null;
+    }
+
+    private String readLiteral() throws IOException {
+        peeked = null;
+        int length = 0;
+        int c;
+        while ((c = current()) != -1 && c != ',' && c != '}' && c != ']' && c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+            appendByte(length++, (byte) c);
+            pos++;
+        }
+        return new String(stringBuffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private String readString() throws IOException {
+        peeked = null;
+        pos++; // opening quote
+        int length = 0;
+        while (true) {
+            int c = current();
+            if (c == -1) {
+                throw new IOException("Unterminated string");
+            }
+            pos++;
+            if (c == '"') {
+                return new String(stringBuffer, 0, length, StandardCharsets.UTF_8);
+            }
+            if (c != '\\') {
+                appendByte(length++, (byte) c);
+                continue;
+            }
+            c = current();
+            pos++;
+            switch (c) {
+            case 'n':
+                appendByte(length++, (byte) '\n');
+                break;
+            case 't':
+                appendByte(length++, (byte) '\t');
+                break;
+            case 'r':
+                appendByte(length++, (byte) '\r');
+                break;
+            case 'b':
+                appendByte(length++, (byte) '\b');
+                break;
+            case 'f':
+                appendByte(length++, (byte) '\f');
+                break;
+            case 'u':
+                int codePoint = readHex4();
+                if (Character.isHighSurrogate((char) codePoint) && current() == '\\') {
+                    pos++;
+                    if (current() == 'u') {
+                        pos++;
+                        codePoint = Character.toCodePoint((char) codePoint, (char) readHex4());
+                    }
+                }
+                length = appendCodePoint(length, codePoint);
+                break;
+            default:
+                // \" \\ \/
+                appendByte(length++, (byte) c);
+                break;
+            }
+        }
+    }
+
+    private int readHex4() throws IOException {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int c = current();
+            pos++;
+            int digit = Character.digit(c, 16);
+            if (digit < 0) {
+                throw new IOException("Malformed unicode escape");
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    private int appendCodePoint(int length, int codePoint) {
+        if (codePoint < 0x80) {
+            appendByte(length++, (byte) codePoint);
+        } else if (codePoint < 0x800) {
+            appendByte(length++, (byte) (0xc0 | (codePoint >> 6)));
+            appendByte(length++, (byte) (0x80 | (codePoint & 0x3f)));
+        } else if (codePoint < 0x10000) {
+            appendByte(length++, (byte) (0xe0 | (codePoint >> 12)));
+            appendByte(length++, (byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+            appendByte(length++, (byte) (0x80 | (codePoint & 0x3f)));
+        } else {
+            appendByte(length++, (byte) (0xf0 | (codePoint >> 18)));
+            appendByte(length++, (byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+            appendByte(length++, (byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+            appendByte(length++, (byte) (0x80 | (codePoint & 0x3f)));
+        }
+        return length;
+    }
+
+    private void appendByte(int index, byte b) {
+        if (index == stringBuffer.length) {
+            stringBuffer = Arrays.copyOf(stringBuffer, index * 2);
+        }
+        stringBuffer[index] = b;
+    }
+}
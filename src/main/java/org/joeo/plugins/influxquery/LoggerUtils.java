@@ -37,12 +37,19 @@ public class LoggerUtils {
         this.stream = logger;
     }
 
+    /**
+     * @return underlying {@link PrintStream}
+     */
+    PrintStream getStream() {
+        return stream;
+    }
+
     /**
      * Prefix with INFO:
      * @param message String
      */
     public void info(String message) {
-        stream.println("INFO:"+message);
+        log("INFO:", message);
     }
     
     /**
@@ -50,7 +57,7 @@ public class LoggerUtils {
      * @param message String
      */
     public void debug(String message) {
-        stream.println("DEBUG:"+message);
+        log("DEBUG:", message);
     }
     
     /**
@@ -58,7 +65,7 @@ public class LoggerUtils {
      * @param message String 
      */
     public void warn(String message) {
-        stream.println("WARN:"+message);
+        log("WARN:", message);
     }
     
     /**
@@ -66,6 +73,13 @@ public class LoggerUtils {
      * @param message String
      */
     public void error(String message) {
-        stream.println("ERROR:"+message);
+        log("ERROR:", message);
+    }
+
+    private void log(String level, String message) {
+        synchronized (stream) {
+            stream.print(level);
+            stream.println(message);
+        }
     }
 }
@@ -0,0 +1,523 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Minimal pull parser for MessagePack documents read from a stream, as sent by InfluxDB 1.4 and later when
+ * asked for <code>application/x-msgpack</code>.
+ * Accepts several top level values one after the other, as sent by InfluxDB chunked responses.
+ * Times encoded with extension type 5 are read as milliseconds since epoch.
+ */
+final class MessagePackReader implements ResponseReader {
+    static final String CONTENT_TYPE = "application/x-msgpack";
+
+    private static final int TIME_EXTENSION = 5;
+
+    private final InputStream in;
+    private byte[] buffer = new byte[8192];
+    private int pos;
+    private int limit;
+    private long bytesRead;
+
+    /** Object (true) or array (false) for each nesting level */
+    private boolean[] objectStack = new boolean[32];
+    /** Elements left to read for each nesting level, keys and values both count in maps */
+    private long[] remainingStack = new long[32];
+    private int depth;
+    private Token peeked;
+
+    MessagePackReader(InputStream in) {
+        this.in = in;
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    @Override
+    public Token peek() throws IOException {
+        if (peeked != null) {
+            return peeked;
+        }
+        if (depth > 0 && remainingStack[depth - 1] == 0) {
+            peeked = objectStack[depth - 1] ? Token.END_OBJECT : Token.END_ARRAY;
+            return peeked;
+        }
+        if (!request(1)) {
+            if (depth > 0) {
+                throw new EOFException("Unexpected end of document");
+            }
+            peeked = Token.END_DOCUMENT;
+            return peeked;
+        }
+        peeked = tokenOf(buffer[pos] & 0xff);
+        // keys come first in each pair of map elements
+        if (depth > 0 && objectStack[depth - 1] && remainingStack[depth - 1] % 2 == 0) {
+            if (peeked != Token.STRING) {
+                throw new IOException("Expected a string key but was " + peeked + " at byte " + position());
+            }
+            peeked = Token.NAME;
+        }
+        return peeked;
+    }
+
+    private static Token tokenOf(int format) throws IOException {
+        if (format <= 0x7f || format >= 0xe0) {
+            return Token.NUMBER;
+        }
+        if (format <= 0x8f) {
+            return Token.BEGIN_OBJECT;
+        }
+        if (format <= 0x9f) {
+            return Token.BEGIN_ARRAY;
+        }
+        if (format <= 0xbf) {
+            return Token.STRING;
+        }
+        switch (format) {
+        case 0xc0:
+            return Token.NULL;
+        case 0xc2:
+        case 0xc3:
+            return Token.BOOLEAN;
+        case 0xc4: // bin
+        case 0xc5:
+        case 0xc6:
+        case 0xd9: // str
+        case 0xda:
+        case 0xdb:
+            return Token.STRING;
+        case 0xdc:
+        case 0xdd:
+            return Token.BEGIN_ARRAY;
+        case 0xde:
+        case 0xdf:
+            return Token.BEGIN_OBJECT;
+        case 0xc1:
+            throw new IOException("Invalid MessagePack format byte 0xc1");
+        default:
+            // numbers and extensions
+            return Token.NUMBER;
+        }
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    @Override
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        int format = readByte();
+        long size = format <= 0x8f ? format & 0x0f : format == 0xde ? readUnsignedShort() : readUnsignedInt();
+        push(true, size * 2);
+    }
+
+    @Override
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        depth--;
+    }
+
+    @Override
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        int format = readByte();
+        long size = format <= 0x9f ? format & 0x0f : format == 0xdc ? readUnsignedShort() : readUnsignedInt();
+        push(false, size);
+    }
+
+    @Override
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        depth--;
+    }
+
+    @Override
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        return readString();
+    }
+
+    @Override
+    public String nextString() throws IOException {
+        Token token = peek();
+        if (token == Token.BOOLEAN) {
+            return Boolean.toString(nextBoolean());
+        }
+        if (token == Token.NUMBER) {
+            int format = buffer[pos] & 0xff;
+            return format == 0xca || format == 0xcb ? Double.toString(nextDouble()) : Long.toString(nextLong());
+        }
+        expect(Token.STRING);
+        return readString();
+    }
+
+    @Override
+    public boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        return readByte() == 0xc3;
+    }
+
+    @Override
+    public void nextNull() throws IOException {
+        expect(Token.NULL);
+        readByte();
+    }
+
+    @Override
+    public double nextDouble() throws IOException {
+        Token token = peek();
+        if (token == Token.STRING) {
+            return Double.parseDouble(nextString());
+        }
+        expect(Token.NUMBER);
+        int format = readByte();
+        switch (format) {
+        case 0xca:
+            return Float.intBitsToFloat((int) readUnsignedInt());
+        case 0xcb:
+            return Double.longBitsToDouble(readLong());
+        case 0xcf:
+            long value = readLong();
+            // unsigned 64 bits
+            return value >= 0 ? value : (value >>> 1) * 2.0 + (value & 1);
+        default:
+            return readInteger(format);
+        }
+    }
+
+    @Override
+    public long nextLong() throws IOException {
+        Token token = peek();
+        if (token == Token.STRING) {
+            return Long.parseLong(nextString());
+        }
+        expect(Token.NUMBER);
+        int format = readByte();
+        switch (format) {
+        case 0xca:
+            return (long) Float.intBitsToFloat((int) readUnsignedInt());
+        case 0xcb:
+            return (long) Double.longBitsToDouble(readLong());
+        default:
+            return readInteger(format);
+        }
+    }
+
+    @Override
+    public void skipValue() throws IOException {
+        Token token = peek();
+        if (token == Token.END_OBJECT || token == Token.END_ARRAY || token == Token.END_DOCUMENT) {
+            throw new IOException("Expected a value but was " + token + " at byte " + position());
+        }
+        peeked = null;
+        consumed();
+        long values = 1;
+        while (values > 0) {
+            values--;
+            int format = readByte();
+            if (format <= 0x7f || format >= 0xe0 || format == 0xc0 || format == 0xc2 || format == 0xc3) {
+                continue;
+            }
+            if (format <= 0x8f) {
+                values += (format & 0x0f) * 2;
+            } else if (format <= 0x9f) {
+                values += format & 0x0f;
+            } else if (format <= 0xbf) {
+                skip(format & 0x1f);
+            } else {
+                switch (format) {
+                case 0xc4:
+                case 0xd9:
+                    skip(readByte());
+                    break;
+                case 0xc5:
+                case 0xda:
+                    skip(readUnsignedShort());
+                    break;
+                case 0xc6:
+                case 0xdb:
+                    skip(readUnsignedInt());
+                    break;
+                case 0xc7:
+                    skip(readByte() + 1L);
+                    break;
+                case 0xc8:
+                    skip(readUnsignedShort() + 1L);
+                    break;
+                case 0xc9:
+                    skip(readUnsignedInt() + 1L);
+                    break;
+                case 0xcc:
+                case 0xd0:
+                    skip(1);
+                    break;
+                case 0xcd:
+                case 0xd1:
+                    skip(2);
+                    break;
+                case 0xca:
+                case 0xce:
+                case 0xd2:
+                    skip(4);
+                    break;
+                case 0xcb:
+                case 0xcf:
+                case 0xd3:
+                    skip(8);
+                    break;
+                case 0xd4:
+                    skip(2);
+                    break;
+                case 0xd5:
+                    skip(3);
+                    break;
+                case 0xd6:
+                    skip(5);
+                    break;
+                case 0xd7:
+                    skip(9);
+                    break;
+                case 0xd8:
+                    skip(17);
+                    break;
+                case 0xdc:
+                    values += readUnsignedShort();
+                    break;
+                case 0xdd:
+                    values += readUnsignedInt();
+                    break;
+                case 0xde:
+                    values += readUnsignedShort() * 2L;
+                    break;
+                case 0xdf:
+                    values += readUnsignedInt() * 2;
+                    break;
+                default:
+                    throw new IOException("Invalid MessagePack format byte 0x" + Integer.toHexString(format));
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads an integer or a time extension, the format byte being already consumed
+     */
+    private long readInteger(int format) throws IOException {
+        if (format <= 0x7f) {
+            return format;
+        }
+        if (format >= 0xe0) {
+            return (byte) format;
+        }
+        switch (format) {
+        case 0xcc:
+            return readByte();
+        case 0xcd:
+            return readUnsignedShort();
+        case 0xce:
+            return readUnsignedInt();
+        case 0xcf:
+        case 0xd3:
+            return readLong();
+        case 0xd0:
+            return (byte) readByte();
+        case 0xd1:
+            return (short) readUnsignedShort();
+        case 0xd2:
+            return (int) readUnsignedInt();
+        case 0xc7:
+            return readTime(readByte());
+        case 0xc8:
+            return readTime(readUnsignedShort());
+        case 0xc9:
+            return readTime(readUnsignedInt());
+        case 0xd4:
+            return readTime(1);
+        case 0xd5:
+            return readTime(2);
+        case 0xd6:
+            return readTime(4);
+        case 0xd7:
+            return readTime(8);
+        case 0xd8:
+            return readTime(16);
+        default:
+            throw new IOException("Expected a number but was format byte 0x" + Integer.toHexString(format));
+        }
+    }
+
+    /**
+     * Reads time extension of InfluxDB: seconds on 8 bytes followed by nanoseconds on 4 bytes
+     * @param length length of extension data, following the extension type
+     * @return milliseconds since epoch
+     */
+    private long readTime(long length) throws IOException {
+        int type = (byte) readByte();
+        if (type != TIME_EXTENSION || length != 12) {
+            throw new IOException("Unsupported MessagePack extension type " + type + " of " + length + " bytes");
+        }
+        long seconds = readLong();
+        long nanos = readUnsignedInt();
+        return seconds * 1000 + nanos / 1000000;
+    }
+
+    private String readString() throws IOException {
+        int format = readByte();
+        long length;
+        if (format >= 0xa0 && format <= 0xbf) {
+            length = format & 0x1f;
+        } else if (format == 0xd9 || format == 0xc4) {
+            length = readByte();
+        } else if (format == 0xda || format == 0xc5) {
+            length = readUnsignedShort();
+        } else {
+            length = readUnsignedInt();
+        }
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IOException("String of " + length + " bytes is too large");
+        }
+        require((int) length);
+        String value = new String(buffer, pos, (int) length, StandardCharsets.UTF_8);
+        pos += length;
+        return value;
+    }
+
+    private void push(boolean object, long size) {
+        consumed();
+        if (depth == objectStack.length) {
+            objectStack = Arrays.copyOf(objectStack, depth * 2);
+            remainingStack = Arrays.copyOf(remainingStack, depth * 2);
+        }
+        objectStack[depth] = object;
+        remainingStack[depth] = size;
+        depth++;
+    }
+
+    /**
+     * Counts a value read from the current object or array
+     */
+    private void consumed() {
+        if (depth > 0) {
+            remainingStack[depth - 1]--;
+        }
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) {
+            throw new IOException("Expected " + expected + " but was " + token + " at byte " + position());
+        }
+        peeked = null;
+        if (token != Token.BEGIN_OBJECT && token != Token.BEGIN_ARRAY
+                && token != Token.END_OBJECT && token != Token.END_ARRAY) {
+            consumed();
+        }
+    }
+
+    private long position() {
+        return bytesRead - limit + pos;
+    }
+
+    private int readByte() throws IOException {
+        require(1);
+        return buffer[pos++] & 0xff;
+    }
+
+    private int readUnsignedShort() throws IOException {
+        require(2);
+        int value = (buffer[pos] & 0xff) << 8 | buffer[pos + 1] & 0xff;
+        pos += 2;
+        return value;
+    }
+
+    private long readUnsignedInt() throws IOException {
+        require(4);
+        long value = ((long) (buffer[pos] & 0xff) << 24) | (buffer[pos + 1] & 0xff) << 16
+                | (buffer[pos + 2] & 0xff) << 8 | buffer[pos + 3] & 0xff;
+        pos += 4;
+        return value;
+    }
+
+    private long readLong() throws IOException {
+        return readUnsignedInt() << 32 | readUnsignedInt();
+    }
+
+    private void skip(long length) throws IOException {
+        long left = length;
+        while (left > 0) {
+            if (pos == limit) {
+                require(1);
+            }
+            int skipped = (int) Math.min(left, limit - pos);
+            pos += skipped;
+            left -= skipped;
+        }
+    }
+
+    private void require(int length) throws IOException {
+        if (!request(length)) {
+            throw new EOFException("Unexpected end of document at byte " + position());
+        }
+    }
+
+    /**
+     * Makes at least length bytes available from {@link #pos}, growing buffer if needed
+     * @return false if stream ends before
+     */
+    private boolean request(int length) throws IOException {
+        if (limit - pos >= length) {
+            return true;
+        }
+        if (length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(length, buffer.length * 2));
+        }
+        if (buffer.length - pos < length) {
+            System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        while (limit - pos < length) {
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read <= 0) {
+                return false;
+            }
+            limit += read;
+            bytesRead += read;
+        }
+        return true;
+    }
+}
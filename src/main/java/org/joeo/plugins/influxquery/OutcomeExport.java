@@ -0,0 +1,89 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import javax.annotation.CheckForNull;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import hudson.util.ListBoxModel;
+
+/**
+ * Global settings of the publication of check outcomes to InfluxDB by {@link OutcomeWriter}.
+ */
+public class OutcomeExport extends AbstractDescribableImpl<OutcomeExport> {
+    static final String DEFAULT_MEASUREMENT = "influxdb_query_check";
+
+    @CheckForNull
+    private String endpoint;
+    private String measurement = DEFAULT_MEASUREMENT;
+
+    @DataBoundConstructor
+    public OutcomeExport() {
+        super();
+    }
+
+    /**
+     * @param endpoint name of the endpoint outcomes are written to, null or empty for the default endpoint
+     */
+    @DataBoundSetter public void setEndpoint(@CheckForNull String endpoint) {
+        this.endpoint = Util.fixEmptyAndTrim(endpoint);
+    }
+
+    /**
+     * @param measurement measurement of outcome points, null or empty for the default one
+     */
+    @DataBoundSetter public void setMeasurement(@CheckForNull String measurement) {
+        String trimmed = Util.fixEmptyAndTrim(measurement);
+        this.measurement = trimmed == null ? DEFAULT_MEASUREMENT : trimmed;
+    }
+
+    @CheckForNull
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public String getMeasurement() {
+        return measurement;
+    }
+
+    @Extension
+    public static final class OutcomeExportDescriptorImpl extends Descriptor<OutcomeExport> {
+        @Override
+        public String getDisplayName() {
+            return "Check Outcome Export";
+        }
+
+        public ListBoxModel doFillEndpointItems() {
+            return DescriptorImpl.fillEndpointItems();
+        }
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import hudson.Util;
+import hudson.init.Terminator;
+import hudson.model.Run;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import hudson.util.Secret;
+import jenkins.model.Jenkins;
+import okhttp3.Credentials;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Controller wide writer publishing outcomes of completed checks to InfluxDB as line protocol points.
+ * Points are queued without blocking the build and written in batches, as soon as a batch is full and
+ * every flush interval. When the queue is full new points are dropped and counted.
+ * Sizes can be changed with system properties <code>org.joeo.plugins.influxquery.OutcomeWriter.queueCapacity</code>,
+ * <code>org.joeo.plugins.influxquery.OutcomeWriter.batchSize</code>,
+ * <code>org.joeo.plugins.influxquery.OutcomeWriter.flushInterval</code> and
+ * <code>org.joeo.plugins.influxquery.OutcomeWriter.shutdownFlushTimeout</code> (milliseconds).
+ */
+public final class OutcomeWriter {
+    static final int QUEUE_CAPACITY = Integer.getInteger(OutcomeWriter.class.getName() + ".queueCapacity", 10000);
+    static final int BATCH_SIZE = Integer.getInteger(OutcomeWriter.class.getName() + ".batchSize", 500);
+    static final long FLUSH_INTERVAL_MILLIS = Long.getLong(OutcomeWriter.class.getName() + ".flushInterval", 5000L);
+    /**
+     * No batch is started after this time when flushing at shutdown, remaining points are discarded
+     */
+    static final long SHUTDOWN_FLUSH_TIMEOUT_MILLIS = Long.getLong(OutcomeWriter.class.getName() + ".shutdownFlushTimeout", 5000L);
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OutcomeWriter.class);
+    private static final MediaType LINE_PROTOCOL = MediaType.parse("text/plain; charset=utf-8");
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), "InfluxDBQuery.OutcomeWriter"));
+    private static final OutcomeWriter INSTANCE = new OutcomeWriter(QUEUE_CAPACITY, BATCH_SIZE, new ExportSender(), FLUSHER);
+
+    static {
+        FLUSHER.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                INSTANCE.flush();
+            }
+        }, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes a batch of line protocol points
+     */
+    interface Sender {
+        void send(List<String> lines) throws IOException;
+    }
+
+    private final BlockingQueue<String> queue;
+    private final int batchSize;
+    private final Sender sender;
+    private final Executor flusher;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushScheduled.set(false);
+            flush();
+        }
+    };
+
+    /**
+     * @param flusher {@link Executor} running flushes of full batches
+     */
+    OutcomeWriter(int capacity, int batchSize, Sender sender, Executor flusher) {
+        this.queue = new ArrayBlockingQueue<String>(capacity);
+        this.batchSize = batchSize;
+        this.sender = sender;
+        this.flusher = flusher;
+    }
+
+    static OutcomeWriter get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Queues outcome of a completed check if outcomes are exported, never blocks
+     * @param run {@link Run} the check ran in
+     * @param timing {@link CheckTiming} of the completed check
+     */
+    static void publish(Run<?, ?> run, CheckTiming timing) {
+        OutcomeExport export = Jenkins.getInstance().getDescriptorByType(DescriptorImpl.class).getOutcomeExport();
+        if (export != null) {
+            INSTANCE.offer(toLine(export.getMeasurement(), run.getParent().getFullName(), run.getNumber(), timing,
+                    System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * @return line protocol point of check outcome, timestamp in milliseconds
+     */
+    static String toLine(String measurement, String job, int build, CheckTiming timing, long timeMillis) {
+        StringBuilder line = new StringBuilder(256);
+        escape(line, measurement, false);
+        appendTag(line, "check", timing.getCheckName());
+        appendTag(line, "endpoint", timing.getEndpoint());
+        appendTag(line, "job", job);
+        appendTag(line, "outcome", timing.getOutcome().getLabel());
+        line.append(" build=").append(build).append('i');
+        if (isFinite(timing.getValue())) {
+            line.append(",value=").append(timing.getValue());
+        }
+        if (isFinite(timing.getThreshold())) {
+            line.append(",threshold=").append(timing.getThreshold());
+        }
+        line.append(",duration_ms=").append(timing.getDurationMillis()).append('i')
+            .append(",attempts=").append(timing.getAttempts()).append('i')
+            .append(",rows=").append(timing.getRows()).append('i')
+            .append(' ').append(timeMillis);
+        return line.toString();
+    }
+
+    /**
+     * Line protocol has no literal for NaN and infinities, such fields are left out
+     */
+    private static boolean isFinite(double value) {
+        return !Double.isNaN(value) && !Double.isInfinite(value);
+    }
+
+    private static void appendTag(StringBuilder line, String key, String value) {
+        if (Util.fixEmpty(value) != null) {
+            line.append(',').append(key).append('=');
+            escape(line, value, true);
+        }
+    }
+
+    /**
+     * Escapes commas and spaces, and equal signs of tags, with a backslash, line breaks are written as spaces
+     */
+    private static void escape(StringBuilder line, String value, boolean tag) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\n' || c == '\r') {
+                c = ' ';
+            }
+            if (c == ',' || c == ' ' || (tag && c == '=')) {
+                line.append('\\');
+            }
+            line.append(c);
+        }
+    }
+
+    /**
+     * Queues a point, a flush is requested as soon as a batch is full
+     * @param line line protocol point
+     * @return false if point was dropped because the queue is full
+     */
+    boolean offer(String line) {
+        if (!queue.offer(line)) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        if (queue.size() >= batchSize && flushScheduled.compareAndSet(false, true)) {
+            try {
+                flusher.execute(flushTask);
+            } catch (RejectedExecutionException e) {
+                flushScheduled.set(false);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes queued points in batches until the queue is empty. A failed batch is dropped and counted,
+     * remaining points are left for the next flush.
+     */
+    void flush() {
+        flush(-1);
+    }
+
+    /**
+     * Writes queued points in batches until the queue is empty or the timeout elapsed. Each batch is taken
+     * from the queue before it is sent, so concurrent flushes never send the same points and offers never wait
+     * for a write.
+     * @param timeoutMillis no batch is started after this many milliseconds, negative for no limit
+     */
+    void flush(long timeoutMillis) {
+        long start = System.nanoTime();
+        List<String> batch = new ArrayList<String>(batchSize);
+        while ((timeoutMillis < 0 || System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(timeoutMillis))
+                && queue.drainTo(batch, batchSize) > 0) {
+            try {
+                sender.send(batch);
+                written.addAndGet(batch.size());
+            } catch (IOException | RuntimeException e) {
+                failed.addAndGet(batch.size());
+                LOGGER.warn("Cannot write {} check outcomes to InfluxDB: {}", batch.size(), e.getMessage());
+                return;
+            }
+            batch.clear();
+        }
+    }
+
+    int getQueued() {
+        return queue.size();
+    }
+
+    long getWritten() {
+        return written.get();
+    }
+
+    long getDropped() {
+        return dropped.get();
+    }
+
+    long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Stops periodic flushes and writes points still queued for at most {@link #SHUTDOWN_FLUSH_TIMEOUT_MILLIS}
+     */
+    @Terminator
+    public static void shutdown() {
+        FLUSHER.shutdownNow();
+        INSTANCE.flush(SHUTDOWN_FLUSH_TIMEOUT_MILLIS);
+        int discarded = INSTANCE.getQueued();
+        if (discarded > 0) {
+            LOGGER.warn("Discarding {} check outcomes not written within {}ms of shutdown", discarded,
+                    SHUTDOWN_FLUSH_TIMEOUT_MILLIS);
+        }
+    }
+
+    /**
+     * Writes to the endpoint of the global {@link OutcomeExport}, points queued before it was removed are discarded
+     */
+    private static final class ExportSender implements Sender {
+        @Override
+        public void send(List<String> lines) throws IOException {
+            OutcomeExport export = Jenkins.getInstance().getDescriptorByType(DescriptorImpl.class).getOutcomeExport();
+            if (export == null) {
+                return;
+            }
+            InfluxDBEndpoint endpoint = DescriptorImpl.lookupEndpoint(export.getEndpoint());
+            HttpUrl baseUrl = HttpUrl.parse(endpoint.getInfluxURL());
+            if (baseUrl == null) {
+                throw new IOException("Invalid InfluxDB url:" + endpoint.getInfluxURL());
+            }
+            StringBuilder body = new StringBuilder(lines.size() * 200);
+            for (String line : lines) {
+                body.append(line).append('\n');
+            }
+            HttpUrl url = baseUrl.newBuilder()
+                    .addPathSegment("write")
+                    .addQueryParameter("db", endpoint.getInfluxDB())
+                    .addQueryParameter("precision", "ms")
+                    .build();
+            Request.Builder request = new Request.Builder().url(url).post(RequestBody.create(LINE_PROTOCOL, body.toString()));
+            if (Util.fixEmpty(endpoint.getInfluxUser()) != null) {
+                request.header("Authorization", Credentials.basic(endpoint.getInfluxUser(), Secret.toString(endpoint.getInfluxPWD())));
+            }
+            Response response = InfluxDBUtils.getHttpClient(endpoint.getTransport()).newCall(request.build()).execute();
+            try {
+                if (!response.isSuccessful()) {
+                    throw new IOException("InfluxDB returned HTTP " + response.code() + ":" + response.body().string());
+                }
+            } finally {
+                response.close();
+            }
+        }
+    }
+}
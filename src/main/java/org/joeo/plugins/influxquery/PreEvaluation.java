@@ -0,0 +1,213 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import hudson.init.Terminator;
+import hudson.model.Run;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+/**
+ * Evaluates a check incrementally while its build runs: every poll interval only the points written since the
+ * previous poll are read, and merged into {@link StreamingStatistics}. The build step then only reads points of the
+ * last slice. Slices end a settle delay before the poll, so that points still being written are read by a later
+ * slice. Intervals can be changed with system properties
+ * <code>org.joeo.plugins.influxquery.PreEvaluation.pollInterval</code> and
+ * <code>org.joeo.plugins.influxquery.PreEvaluation.settle</code> (milliseconds).
+ */
+public final class PreEvaluation {
+    static final long POLL_INTERVAL_MILLIS = Long.getLong(PreEvaluation.class.getName() + ".pollInterval", 60000L);
+    static final long SETTLE_MILLIS = Long.getLong(PreEvaluation.class.getName() + ".settle", 30000L);
+    static final int THREADS = Integer.getInteger(PreEvaluation.class.getName() + ".threads", 2);
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PreEvaluation.class);
+    private static final ScheduledExecutorService POLLER = Executors.newScheduledThreadPool(THREADS,
+            new NamingThreadFactory(new DaemonThreadFactory(), "InfluxDBQuery.PreEvaluation"));
+
+    /**
+     * Pre-evaluations of running builds by externalizable id of the build, then by build step
+     */
+    private static final ConcurrentMap<String, Map<InfluxDBQuery, PreEvaluation>> RUNS = new ConcurrentHashMap<String, Map<InfluxDBQuery, PreEvaluation>>();
+
+    /**
+     * Reads rows of one slice
+     */
+    interface SliceReader {
+        /**
+         * @param command query bounded to the slice
+         * @param statistics {@link StreamingStatistics} rows are added to
+         */
+        void read(String command, StreamingStatistics statistics) throws IOException;
+    }
+
+    private final String checkName;
+    private final String command;
+    private final SliceReader reader;
+    private final StreamingStatistics statistics = new StreamingStatistics();
+    private long fromNanos;
+    private int slices;
+    private boolean finished;
+    private ScheduledFuture<?> future;
+
+    /**
+     * @param command expanded query accepted by {@link QueryScope#isSliceable(String)}
+     * @param fromNanos start of the first slice in nanoseconds since epoch, {@link QueryScope#UNBOUNDED} to read all older points
+     */
+    PreEvaluation(String checkName, String command, long fromNanos, SliceReader reader) {
+        this.checkName = checkName;
+        this.command = command;
+        this.fromNanos = fromNanos;
+        this.reader = reader;
+    }
+
+    /**
+     * Polls a pre-evaluation until its build step finishes it or the build completes
+     * @param step build step the pre-evaluation is for
+     */
+    static void start(Run<?, ?> run, InfluxDBQuery step, final PreEvaluation preEvaluation) {
+        Map<InfluxDBQuery, PreEvaluation> steps = RUNS.get(run.getExternalizableId());
+        if (steps == null) {
+            Map<InfluxDBQuery, PreEvaluation> created = Collections.synchronizedMap(new IdentityHashMap<InfluxDBQuery, PreEvaluation>());
+            steps = RUNS.putIfAbsent(run.getExternalizableId(), created);
+            if (steps == null) {
+                steps = created;
+            }
+        }
+        steps.put(step, preEvaluation);
+        preEvaluation.schedule(POLLER.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                preEvaluation.poll(TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - SETTLE_MILLIS));
+            }
+        }, POLL_INTERVAL_MILLIS, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Stops polling of the pre-evaluation of a build step, waiting for a poll in progress
+     * @param step build step the pre-evaluation was started for
+     * @return finished pre-evaluation, null if none was started
+     */
+    static PreEvaluation finish(Run<?, ?> run, InfluxDBQuery step) {
+        Map<InfluxDBQuery, PreEvaluation> steps = RUNS.get(run.getExternalizableId());
+        PreEvaluation preEvaluation = steps == null ? null : steps.remove(step);
+        if (preEvaluation != null) {
+            preEvaluation.finish();
+        }
+        return preEvaluation;
+    }
+
+    /**
+     * Stops pre-evaluations of a completed build whose build steps did not run
+     */
+    static void finishAll(Run<?, ?> run) {
+        Map<InfluxDBQuery, PreEvaluation> steps = RUNS.remove(run.getExternalizableId());
+        if (steps != null) {
+            synchronized (steps) {
+                for (PreEvaluation preEvaluation : steps.values()) {
+                    preEvaluation.finish();
+                }
+            }
+        }
+    }
+
+    private synchronized void schedule(ScheduledFuture<?> future) {
+        if (finished) {
+            future.cancel(false);
+        }
+        this.future = future;
+    }
+
+    /**
+     * Reads the slice from the end of the previous one to toNanos and merges its rows.
+     * The slice is read again by the next poll if it fails.
+     * @param toNanos end of the slice, excluded, in nanoseconds since epoch
+     * @return true if rows of the slice were merged
+     */
+    synchronized boolean poll(long toNanos) {
+        if (finished || toNanos <= fromNanos) {
+            return false;
+        }
+        StreamingStatistics slice = new StreamingStatistics();
+        try {
+            reader.read(QueryScope.slice(command, fromNanos, toNanos), slice);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("Pre-evaluation of check {} failed, slice will be read again: {}", checkName, e.toString());
+            return false;
+        }
+        statistics.merge(slice);
+        fromNanos = toNanos;
+        slices++;
+        return true;
+    }
+
+    synchronized void finish() {
+        finished = true;
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    String getCommand() {
+        return command;
+    }
+
+    /**
+     * @return statistics of the slices read
+     */
+    synchronized StreamingStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @return end of the last slice read, in nanoseconds since epoch
+     */
+    synchronized long getFromNanos() {
+        return fromNanos;
+    }
+
+    synchronized int getSlices() {
+        return slices;
+    }
+
+    @Terminator
+    public static void shutdown() {
+        POLLER.shutdownNow();
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Mergeable quantile sketch with bounded memory and relative accuracy, using logarithmic buckets.
+ * Values are mapped to bucket <code>ceil(log(v) / log(gamma))</code>, so that the estimated quantile is within
+ * {@link #RELATIVE_ACCURACY} of the exact value. When more than {@link #MAX_BUCKETS} buckets are needed, lowest
+ * magnitude buckets are collapsed, which keeps upper quantiles accurate.
+ */
+final class QuantileSketch implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    static final double RELATIVE_ACCURACY = 0.01;
+    static final int MAX_BUCKETS = 2048;
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+
+    private final Store positive = new Store();
+    private final Store negative = new Store();
+    private long zeroCount;
+
+    void add(double value) {
+        if (value > Double.MIN_NORMAL) {
+            positive.add(index(value), 1);
+        } else if (value < -Double.MIN_NORMAL) {
+            negative.add(index(-value), 1);
+        } else if (!Double.isNaN(value)) {
+            zeroCount++;
+        }
+    }
+
+    void merge(QuantileSketch other) {
+        positive.merge(other.positive);
+        negative.merge(other.negative);
+        zeroCount += other.zeroCount;
+    }
+
+    long getCount() {
+        return positive.total + negative.total + zeroCount;
+    }
+
+    /**
+     * @param quantile between 0 and 1
+     * @return estimated value at quantile, NaN if sketch is empty
+     */
+    double quantile(double quantile) {
+        long count = getCount();
+        if (count == 0) {
+            return Double.NaN;
+        }
+        long rank = (long) Math.floor(Math.max(0, Math.min(1, quantile)) * (count - 1));
+        if (rank < negative.total) {
+            // negative values, from highest magnitude to lowest
+            return -negative.valueAtRankFromTop(rank);
+        }
+        rank -= negative.total;
+        if (rank < zeroCount) {
+            return 0;
+        }
+        return positive.valueAtRank(rank - zeroCount);
+    }
+
+    private static int index(double value) {
+        return (int) Math.ceil(Math.log(value) / LOG_GAMMA);
+    }
+
+    private static double value(int index) {
+        return 2 * Math.pow(GAMMA, index) / (GAMMA + 1);
+    }
+
+    /**
+     * Contiguous range of bucket counters starting at bucket {@link #offset}
+     */
+    private static final class Store implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private static final int GROWTH = 32;
+
+        private long[] counts;
+        private int offset;
+        private long total;
+
+        void add(int index, long count) {
+            if (counts == null) {
+                counts = new long[GROWTH];
+                offset = index - GROWTH / 2;
+            }
+            int top = offset + counts.length - 1;
+            if (index > top) {
+                int newTop = Math.max(index, Math.min(index + GROWTH, offset + MAX_BUCKETS - 1));
+                resize(Math.max(offset, newTop - MAX_BUCKETS + 1), newTop);
+            } else if (index < offset) {
+                resize(Math.max(top - MAX_BUCKETS + 1, index - GROWTH), top);
+            }
+            counts[Math.max(index, offset) - offset] += count;
+            total += count;
+        }
+
+        /**
+         * Moves counters to range [newOffset, newTop], counters below newOffset are collapsed in lowest bucket
+         */
+        private void resize(int newOffset, int newTop) {
+            int length = Math.min(MAX_BUCKETS, newTop - newOffset + 1);
+            long[] newCounts = new long[length];
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) {
+                    int index = offset + i;
+                    newCounts[Math.min(length - 1, Math.max(index, newOffset) - newOffset)] += counts[i];
+                }
+            }
+            counts = newCounts;
+            offset = newOffset;
+        }
+
+        void merge(Store other) {
+            if (other.counts == null) {
+                return;
+            }
+            for (int i = 0; i < other.counts.length; i++) {
+                if (other.counts[i] != 0) {
+                    add(other.offset + i, other.counts[i]);
+                }
+            }
+        }
+
+        double valueAtRank(long rank) {
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen > rank) {
+                    return value(offset + i);
+                }
+            }
+            return value(offset + counts.length - 1);
+        }
+
+        double valueAtRankFromTop(long rank) {
+            long seen = 0;
+            for (int i = counts.length - 1; i >= 0; i--) {
+                seen += counts[i];
+                if (seen > rank) {
+                    return value(offset + i);
+                }
+            }
+            return value(offset);
+        }
+
+        @Override
+        public String toString() {
+            return counts == null ? "[]" : offset + ":" + Arrays.toString(counts);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+/**
+ * Language of check queries: InfluxQL sent to the /query API of InfluxDB 1.x, or Flux sent to the /api/v2/query API
+ * of InfluxDB 2.x and 1.8 and answered with annotated CSV.
+ */
+public enum QueryLanguage {
+    INFLUXQL("InfluxQL"),
+    FLUX("Flux");
+
+    private final String displayName;
+
+    QueryLanguage(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * @param name name of a {@link QueryLanguage}, may be null or empty
+     * @return {@link QueryLanguage} of name, INFLUXQL if none matches
+     */
+    static QueryLanguage fromName(String name) {
+        for (QueryLanguage language : values()) {
+            if (language.name().equals(name)) {
+                return language;
+            }
+        }
+        return INFLUXQL;
+    }
+}
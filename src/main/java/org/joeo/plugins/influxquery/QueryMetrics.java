@@ -0,0 +1,231 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Controller wide metrics of queries per endpoint and of checks per check name,
+ * exposed in Prometheus text format by {@link QueryMetricsAction}.
+ */
+final class QueryMetrics {
+    private static final String PREFIX = "influxdb_query_";
+    private static final QueryMetrics INSTANCE = new QueryMetrics();
+
+    private final ConcurrentMap<String, Histogram> phaseSeconds = new ConcurrentSkipListMap<String, Histogram>();
+    private final ConcurrentMap<String, AtomicLong> requests = new ConcurrentSkipListMap<String, AtomicLong>();
+    private final ConcurrentMap<String, AtomicLong> responseBytes = new ConcurrentSkipListMap<String, AtomicLong>();
+    private final ConcurrentMap<String, Histogram> checkSeconds = new ConcurrentSkipListMap<String, Histogram>();
+    private final ConcurrentMap<String, AtomicLong> checkRows = new ConcurrentSkipListMap<String, AtomicLong>();
+    private final ConcurrentMap<String, AtomicLong> checkRetries = new ConcurrentSkipListMap<String, AtomicLong>();
+    private final ConcurrentMap<String, AtomicLong> checkOutcomes = new ConcurrentSkipListMap<String, AtomicLong>();
+
+    static QueryMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param endpoint endpoint name
+     * @param timing {@link QueryTiming} of a successful request
+     */
+    void recordRequest(String endpoint, QueryTiming timing) {
+        String endpointLabel = label("endpoint", endpoint);
+        counter(requests, endpointLabel + "," + label("status", "ok")).incrementAndGet();
+        histogram(phaseSeconds, endpointLabel + "," + label("phase", "connect")).observe(timing.getConnectNanos());
+        histogram(phaseSeconds, endpointLabel + "," + label("phase", "server")).observe(timing.getServerNanos());
+        histogram(phaseSeconds, endpointLabel + "," + label("phase", "parse")).observe(timing.getParseNanos());
+        counter(responseBytes, endpointLabel).addAndGet(timing.getBytes());
+    }
+
+    /**
+     * @param endpoint endpoint name
+     * @param category {@link FailureClassifier.Category} of failure, timeouts are counted apart from other errors
+     */
+    void recordFailedRequest(String endpoint, FailureClassifier.Category category) {
+        String status = category == FailureClassifier.Category.TIMEOUT ? "timeout" : "error";
+        counter(requests, label("endpoint", endpoint) + "," + label("status", status)).incrementAndGet();
+    }
+
+    /**
+     * @param timing {@link CheckTiming} of a completed check
+     */
+    void recordCheck(CheckTiming timing) {
+        String checkLabel = label("check", timing.getCheckName()) + "," + label("endpoint", timing.getEndpoint());
+        histogram(checkSeconds, checkLabel).observe(TimeUnit.MILLISECONDS.toNanos(timing.getDurationMillis()));
+        counter(checkRows, checkLabel).addAndGet(timing.getRows());
+        counter(checkRetries, checkLabel).addAndGet(timing.getRetries());
+        counter(checkOutcomes, checkLabel + "," + label("outcome", timing.getOutcome().getLabel())).incrementAndGet();
+    }
+
+    /**
+     * Writes all metrics in Prometheus text exposition format
+     * @param writer {@link PrintWriter}
+     */
+    void write(PrintWriter writer) {
+        writeHistograms(writer, "request_phase_seconds", "Duration of InfluxDB requests by phase: connect, server, parse", phaseSeconds);
+        writeCounters(writer, "requests_total", "InfluxDB requests by status", requests);
+        writeCounters(writer, "response_bytes_total", "Bytes read from InfluxDB responses", responseBytes);
+        writeHistograms(writer, "check_duration_seconds", "Duration of checks including retries", checkSeconds);
+        writeCounters(writer, "check_rows_total", "Rows returned by the last attempt of checks", checkRows);
+        writeCounters(writer, "check_retries_total", "Retries of checks", checkRetries);
+        writeCounters(writer, "check_outcomes_total", "Completed checks by outcome", checkOutcomes);
+        QueryResultCache cache = QueryResultCache.get();
+        writeCounter(writer, "cache_hits_total", "Queries answered from cache", cache.getHits());
+        writeCounter(writer, "cache_misses_total", "Queries sent to InfluxDB through cache", cache.getMisses());
+        writeCounter(writer, "cache_shared_calls_total", "Queries which waited for an identical running query", cache.getSharedCalls());
+        writeLimiter(writer, ConcurrencyLimiter.get());
+        writeCircuits(writer, CircuitBreaker.get());
+        OutcomeWriter outcomes = OutcomeWriter.get();
+        writeCounter(writer, "outcome_points_written_total", "Check outcomes written to InfluxDB", outcomes.getWritten());
+        writeCounter(writer, "outcome_points_dropped_total", "Check outcomes dropped because the queue was full", outcomes.getDropped());
+        writeCounter(writer, "outcome_points_failed_total", "Check outcomes lost in failed writes", outcomes.getFailed());
+    }
+
+    private static void writeCounter(PrintWriter writer, String name, String help, long value) {
+        writer.print("# HELP " + PREFIX + name + " " + help + "\n# TYPE " + PREFIX + name + " counter\n");
+        writer.print(PREFIX + name + " " + value + "\n");
+    }
+
+    private static void writeLimiter(PrintWriter writer, ConcurrencyLimiter limiter) {
+        Map<String, Long> limits = new TreeMap<String, Long>();
+        Map<String, Long> inFlight = new TreeMap<String, Long>();
+        Map<String, Long> queued = new TreeMap<String, Long>();
+        Map<String, Long> rejected = new TreeMap<String, Long>();
+        for (String endpoint : limiter.getEndpoints()) {
+            String endpointLabel = label("endpoint", endpoint);
+            limits.put(endpointLabel, (long) limiter.getLimit(endpoint));
+            inFlight.put(endpointLabel, (long) limiter.getInFlight(endpoint));
+            queued.put(endpointLabel, (long) limiter.getQueued(endpoint));
+            rejected.put(endpointLabel, limiter.getRejected(endpoint));
+        }
+        writeValues(writer, "limiter_limit", "Adaptive limit of concurrent requests per endpoint", "gauge", limits);
+        writeValues(writer, "limiter_in_flight", "Requests sent and not answered yet per endpoint", "gauge", inFlight);
+        writeValues(writer, "limiter_queued", "Requests waiting for a slot per endpoint", "gauge", queued);
+        writeValues(writer, "limiter_rejected_total", "Requests which waited longer than the maximum wait", "counter", rejected);
+    }
+
+    private static void writeCircuits(PrintWriter writer, CircuitBreaker breaker) {
+        Map<String, Long> open = new TreeMap<String, Long>();
+        for (String endpoint : breaker.getEndpoints()) {
+            open.put(label("endpoint", endpoint), breaker.getState(endpoint) == CircuitBreaker.State.CLOSED ? 0L : 1L);
+        }
+        writeValues(writer, "circuit_open", "1 while the circuit breaker of the endpoint refuses requests", "gauge", open);
+    }
+
+    private static void writeValues(PrintWriter writer, String name, String help, String type, Map<String, Long> values) {
+        writer.print("# HELP " + PREFIX + name + " " + help + "\n# TYPE " + PREFIX + name + " " + type + "\n");
+        for (Map.Entry<String, Long> value : values.entrySet()) {
+            writer.print(PREFIX + name + "{" + value.getKey() + "} " + value.getValue() + "\n");
+        }
+    }
+
+    private static void writeCounters(PrintWriter writer, String name, String help, Map<String, AtomicLong> counters) {
+        writer.print("# HELP " + PREFIX + name + " " + help + "\n# TYPE " + PREFIX + name + " counter\n");
+        for (Map.Entry<String, AtomicLong> counter : counters.entrySet()) {
+            writer.print(PREFIX + name + "{" + counter.getKey() + "} " + counter.getValue().get() + "\n");
+        }
+    }
+
+    private static void writeHistograms(PrintWriter writer, String name, String help, Map<String, Histogram> histograms) {
+        writer.print("# HELP " + PREFIX + name + " " + help + "\n# TYPE " + PREFIX + name + " histogram\n");
+        for (Map.Entry<String, Histogram> histogram : histograms.entrySet()) {
+            histogram.getValue().write(writer, PREFIX + name, histogram.getKey());
+        }
+    }
+
+    private static AtomicLong counter(ConcurrentMap<String, AtomicLong> counters, String labels) {
+        AtomicLong counter = counters.get(labels);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = counters.putIfAbsent(labels, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    private static Histogram histogram(ConcurrentMap<String, Histogram> histograms, String labels) {
+        Histogram histogram = histograms.get(labels);
+        if (histogram == null) {
+            Histogram created = new Histogram();
+            histogram = histograms.putIfAbsent(labels, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    static String label(String name, String value) {
+        String escaped = String.valueOf(value).replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        return name + "=\"" + escaped + "\"";
+    }
+
+    /**
+     * Cumulative histogram with fixed buckets from 5ms to 60s
+     */
+    static final class Histogram {
+        private static final double[] BOUNDS = {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60};
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+        private final AtomicLong sumNanos = new AtomicLong();
+        private final AtomicLong count = new AtomicLong();
+
+        void observe(long nanos) {
+            double seconds = nanos / 1e9;
+            int bucket = 0;
+            while (bucket < BOUNDS.length && seconds > BOUNDS[bucket]) {
+                bucket++;
+            }
+            buckets.incrementAndGet(bucket);
+            sumNanos.addAndGet(nanos);
+            count.incrementAndGet();
+        }
+
+        long getCount() {
+            return count.get();
+        }
+
+        void write(PrintWriter writer, String name, String labels) {
+            long cumulative = 0;
+            for (int i = 0; i < BOUNDS.length; i++) {
+                cumulative += buckets.get(i);
+                writer.print(name + "_bucket{" + labels + ",le=\"" + BOUNDS[i] + "\"} " + cumulative + "\n");
+            }
+            cumulative += buckets.get(BOUNDS.length);
+            writer.print(name + "_bucket{" + labels + ",le=\"+Inf\"} " + cumulative + "\n");
+            writer.print(name + "_sum{" + labels + "} " + sumNanos.get() / 1e9 + "\n");
+            writer.print(name + "_count{" + labels + "} " + count.get() + "\n");
+        }
+    }
+}
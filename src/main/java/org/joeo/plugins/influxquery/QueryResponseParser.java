@@ -0,0 +1,167 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses InfluxDB query responses, including chunked ones, and reports their content to a {@link ResultHandler}
+ * without keeping rows in memory. JSON and MessagePack responses have the same structure and are read alike
+ * through a {@link ResponseReader}.
+ */
+final class QueryResponseParser {
+
+    private QueryResponseParser() {
+        super();
+    }
+
+    /**
+     * @param in JSON response body
+     * @param handler {@link ResultHandler}
+     * @return number of bytes read
+     * @throws IOException if response cannot be read
+     * @throws IllegalStateException if InfluxDB reported an error for the whole query
+     */
+    static long parse(InputStream in, ResultHandler handler) throws IOException {
+        return parse(new JsonStreamReader(in), handler);
+    }
+
+    /**
+     * @param reader {@link ResponseReader} of response body
+     * @param handler {@link ResultHandler}
+     * @return number of bytes read
+     * @throws IOException if response cannot be read
+     * @throws IllegalStateException if InfluxDB reported an error for the whole query
+     */
+    static long parse(ResponseReader reader, ResultHandler handler) throws IOException {
+        while (reader.peek() != ResponseReader.Token.END_DOCUMENT) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if ("results".equals(name)) {
+                    parseResults(reader, handler);
+                } else if ("error".equals(name)) {
+                    throw new IllegalStateException(reader.nextString());
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        return reader.getBytesRead();
+    }
+
+    private static void parseResults(ResponseReader reader, ResultHandler handler) throws IOException {
+        reader.beginArray();
+        int position = 0;
+        while (reader.hasNext()) {
+            parseStatement(reader, handler, position++);
+        }
+        reader.endArray();
+    }
+
+    private static void parseStatement(ResponseReader reader, ResultHandler handler, int position) throws IOException {
+        int statementId = position;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("statement_id".equals(name)) {
+                statementId = (int) reader.nextLong();
+            } else if ("series".equals(name)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    parseSeries(reader, handler, statementId);
+                }
+                reader.endArray();
+            } else if ("error".equals(name)) {
+                handler.onStatementError(statementId, reader.nextString());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        handler.onStatementEnd(statementId);
+    }
+
+    private static void parseSeries(ResponseReader reader, ResultHandler handler, int statementId) throws IOException {
+        String seriesName = null;
+        Map<String, String> tags = Collections.emptyMap();
+        List<String> columns = Collections.emptyList();
+        boolean started = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("name".equals(name)) {
+                seriesName = reader.nextString();
+            } else if ("tags".equals(name)) {
+                tags = new LinkedHashMap<String, String>();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String tag = reader.nextName();
+                    tags.put(tag, reader.peek() == ResponseReader.Token.NULL ? skipNull(reader) : reader.nextString());
+                }
+                reader.endObject();
+            } else if ("columns".equals(name)) {
+                columns = new ArrayList<String>();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    columns.add(reader.nextString());
+                }
+                reader.endArray();
+            } else if ("values".equals(name)) {
+                handler.onSeries(statementId, seriesName, tags, columns);
+                started = true;
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    reader.beginArray();
+                    int column = 0;
+                    while (reader.hasNext()) {
+                        handler.onCell(column++, reader);
+                    }
+                    reader.endArray();
+                    handler.onRowEnd();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (!started) {
+            handler.onSeries(statementId, seriesName, tags, columns);
+        }
+    }
+
+    private static String skipNull(ResponseReader reader) throws IOException {
+        reader.nextNull();
+        return "";
+    }
+}
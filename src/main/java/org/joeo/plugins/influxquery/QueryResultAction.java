@@ -0,0 +1,111 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import hudson.model.Action;
+import hudson.model.Run;
+
+/**
+ * Results of the checks of a build. Results are kept encoded as {@link CheckResult}s
+ * so that build.xml stores a single base64 value per build.
+ */
+public final class QueryResultAction implements Action {
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryResultAction.class);
+
+    private byte[] results = new byte[0];
+    private transient List<CheckResult> decoded;
+
+    /**
+     * Adds result of a completed check to the action of the build, creating it if needed
+     * @param run {@link Run}
+     * @param result {@link CheckResult}
+     */
+    static void add(Run<?, ?> run, CheckResult result) {
+        synchronized (run) {
+            QueryResultAction action = run.getAction(QueryResultAction.class);
+            if (action == null) {
+                action = new QueryResultAction();
+                run.addAction(action);
+            }
+            action.addResult(result);
+        }
+    }
+
+    private synchronized void addResult(CheckResult result) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(results.length + 128);
+        try {
+            bytes.write(results);
+            result.writeTo(new DataOutputStream(bytes));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        results = bytes.toByteArray();
+        decoded = null;
+    }
+
+    public synchronized List<CheckResult> getResults() {
+        if (decoded == null) {
+            List<CheckResult> list = new ArrayList<CheckResult>();
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(results));
+            try {
+                while (in.available() > 0) {
+                    list.add(CheckResult.readFrom(in));
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Cannot decode check results, ignoring the remaining ones", e);
+            }
+            decoded = Collections.unmodifiableList(list);
+        }
+        return decoded;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return "clock.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "InfluxDB Query Results";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "influxdb-query-results";
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Controller wide cache of query results keyed by endpoint and expanded query, replicas of an endpoint share entries.
+ * Concurrent identical queries share a single request to InfluxDB.
+ * Results without data and failures are not cached, so checks waiting for data keep querying InfluxDB.
+ * Entries are bounded in number and in cells (rows times columns), results above a quarter of the cell budget are not
+ * cached so that one large result does not evict all others.
+ */
+final class QueryResultCache {
+    /**
+     * Cells of all cached results, a cell taking 8 to 16 bytes
+     */
+    static final long DEFAULT_MAX_CELLS = 1000000;
+
+    private static final QueryResultCache INSTANCE = new QueryResultCache(
+            Integer.getInteger(QueryResultCache.class.getName() + ".maxEntries", 256),
+            Long.getLong(QueryResultCache.class.getName() + ".maxCells", DEFAULT_MAX_CELLS));
+
+    private final int maxEntries;
+    private final long maxCells;
+    /** Entries in access order, guarded by itself */
+    private final Map<String, CachedResult> entries = new LinkedHashMap<String, CachedResult>(16, 0.75f, true);
+    private long cells;
+    private final ConcurrentMap<String, FutureTask<List<StatementResult>>> inFlight =
+            new ConcurrentHashMap<String, FutureTask<List<StatementResult>>>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong sharedCalls = new AtomicLong();
+
+    QueryResultCache(int maxEntries) {
+        this(maxEntries, DEFAULT_MAX_CELLS);
+    }
+
+    /**
+     * @param maxEntries maximum number of cached results
+     * @param maxCells maximum number of cells of all cached results
+     */
+    QueryResultCache(int maxEntries, long maxCells) {
+        this.maxEntries = maxEntries;
+        this.maxCells = maxCells;
+    }
+
+    static QueryResultCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param ttlSeconds max age of a cached result, 0 to always query InfluxDB
+     * @return {@link StatementResult}s of query, from cache if a result younger than ttlSeconds exists
+     * @see EndpointReader#query(String)
+     */
+    List<StatementResult> query(final EndpointReader reader, final String command, int ttlSeconds)
+            throws IOException, InterruptedException {
+        Callable<List<StatementResult>> loader = new Callable<List<StatementResult>>() {
+            @Override
+            public List<StatementResult> call() throws IOException {
+                return reader.query(command);
+            }
+        };
+        if (ttlSeconds <= 0) {
+            return call(loader);
+        }
+        return get(reader.getEndpoint().getKey() + '|' + command, TimeUnit.SECONDS.toMillis(ttlSeconds), loader);
+    }
+
+    List<StatementResult> get(String key, long ttlMillis, Callable<List<StatementResult>> loader)
+            throws IOException, InterruptedException {
+        synchronized (entries) {
+            CachedResult cached = entries.get(key);
+            if (cached != null && System.currentTimeMillis() - cached.time < ttlMillis) {
+                hits.incrementAndGet();
+                return cached.results;
+            }
+        }
+        FutureTask<List<StatementResult>> task = new FutureTask<List<StatementResult>>(loader);
+        FutureTask<List<StatementResult>> running = inFlight.putIfAbsent(key, task);
+        if (running != null) {
+            sharedCalls.incrementAndGet();
+            return await(running);
+        }
+        misses.incrementAndGet();
+        try {
+            task.run();
+            List<StatementResult> results = await(task);
+            if (hasData(results)) {
+                put(key, new CachedResult(results, System.currentTimeMillis()));
+            }
+            return results;
+        } finally {
+            inFlight.remove(key, task);
+        }
+    }
+
+    private void put(String key, CachedResult result) {
+        if (result.cells > maxCells / 4) {
+            return;
+        }
+        synchronized (entries) {
+            CachedResult replaced = entries.put(key, result);
+            cells += result.cells - (replaced == null ? 0 : replaced.cells);
+            // least recently used first
+            for (Iterator<CachedResult> it = entries.values().iterator(); it.hasNext()
+                    && (entries.size() > maxEntries || cells > maxCells);) {
+                cells -= it.next().cells;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all cached results, called when global configuration changes
+     */
+    void clear() {
+        synchronized (entries) {
+            entries.clear();
+            cells = 0;
+        }
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return number of cells of all cached results
+     */
+    long getCells() {
+        synchronized (entries) {
+            return cells;
+        }
+    }
+
+    /**
+     * @return number of queries answered from cache
+     */
+    long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of queries sent to InfluxDB
+     */
+    long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return number of queries which waited for an identical query already running
+     */
+    long getSharedCalls() {
+        return sharedCalls.get();
+    }
+
+    @Override
+    public String toString() {
+        return size() + " cached results, " + hits + " hits, " + misses + " misses, " + sharedCalls + " shared calls";
+    }
+
+    private static boolean hasData(List<StatementResult> results) {
+        for (StatementResult result : results) {
+            if (result.getError() != null || result.getFirstSeries() == null) {
+                return false;
+            }
+        }
+        return !results.isEmpty();
+    }
+
+    private static List<StatementResult> call(Callable<List<StatementResult>> loader) throws IOException {
+        try {
+            return loader.call();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static List<StatementResult> await(FutureTask<List<StatementResult>> task)
+            throws IOException, InterruptedException {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static final class CachedResult {
+        private final List<StatementResult> results;
+        private final long time;
+        private final long cells;
+
+        CachedResult(List<StatementResult> results, long time) {
+            this.results = results;
+            this.time = time;
+            long resultCells = 0;
+            for (StatementResult result : results) {
+                for (SeriesTable series : result.getSeries()) {
+                    resultCells += (long) series.getRowCount() * series.getColumns().size();
+                }
+            }
+            this.cells = resultCells;
+        }
+    }
+}
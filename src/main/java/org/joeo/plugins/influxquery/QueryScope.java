@@ -0,0 +1,408 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import hudson.EnvVars;
+import hudson.model.Run;
+
+/**
+ * Bounds InfluxQL queries to the time window of a build, so that InfluxDB does not scan every shard of the
+ * retention policy for queries selecting data of the build by tag only.
+ * Exposes <code>$BUILD_START_NS</code> and <code>$BUILD_END_NS</code> to queries, and on request adds
+ * <code>time &gt;= &lt;build start - margin&gt; AND time &lt;= now()</code> to SELECT statements without time condition.
+ */
+final class QueryScope {
+    static final String BUILD_START_NS = "BUILD_START_NS";
+    static final String BUILD_END_NS = "BUILD_END_NS";
+    static final int DEFAULT_MARGIN_SECONDS = 60;
+
+    private static final String[] UNSLICEABLE_CLAUSES = {"LIMIT", "OFFSET", "SLIMIT", "SOFFSET", "INTO"};
+
+    /**
+     * Lower time bound of queries which are not scoped to the build
+     */
+    static final long UNBOUNDED = Long.MIN_VALUE;
+
+    /**
+     * Console warning for queries without time condition
+     */
+    static final String UNBOUNDED_WARNING = "Query has no time condition, InfluxDB will scan all shards of the retention policy."
+            + " Enable Scope to Build or add a condition such as time >= $" + BUILD_START_NS;
+
+    private QueryScope() {
+        super();
+    }
+
+    /**
+     * Adds <code>BUILD_START_NS</code>, start of build, and <code>BUILD_END_NS</code>, current time, in nanoseconds
+     * since epoch as expected by InfluxQL time conditions
+     * @param env {@link EnvVars} used to expand queries
+     * @param run {@link Run}
+     */
+    static void addTokens(EnvVars env, Run<?, ?> run) {
+        env.put(BUILD_START_NS, Long.toString(TimeUnit.MILLISECONDS.toNanos(run.getStartTimeInMillis())));
+        env.put(BUILD_END_NS, Long.toString(TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis())));
+    }
+
+    /**
+     * @param query expanded query
+     * @param scopeToBuild true to bound SELECT statements without time condition to the build
+     * @param marginSeconds seconds before start of build included in the bound
+     * @param run {@link Run}
+     * @param loggerUtils {@link LoggerUtils}
+     * @return query to run
+     */
+    static String apply(String query, boolean scopeToBuild, int marginSeconds, Run<?, ?> run, LoggerUtils loggerUtils) {
+        if (!scopeToBuild) {
+            if (!isBounded(query)) {
+                loggerUtils.warn(UNBOUNDED_WARNING);
+            }
+            return query;
+        }
+        String scoped = scope(query, fromNanos(true, marginSeconds, run.getStartTimeInMillis()));
+        if (!scoped.equals(query)) {
+            loggerUtils.info("Scoped query to build:" + scoped);
+        }
+        return scoped;
+    }
+
+    /**
+     * @param scopeToBuild true if SELECT statements without time condition are bounded to the build
+     * @param marginSeconds seconds before start of build included in the bound
+     * @param buildStartMillis start time in milliseconds of the build
+     * @return lower time bound in nanoseconds since epoch of queries of the build, {@link #UNBOUNDED} if not scoped
+     */
+    static long fromNanos(boolean scopeToBuild, int marginSeconds, long buildStartMillis) {
+        if (!scopeToBuild) {
+            return UNBOUNDED;
+        }
+        return TimeUnit.MILLISECONDS.toNanos(buildStartMillis - TimeUnit.SECONDS.toMillis(Math.max(0, marginSeconds)));
+    }
+
+    /**
+     * @param query one or several statements separated by semicolons
+     * @return true if every SELECT statement of query has a time condition
+     */
+    static boolean isBounded(String query) {
+        for (String statement : split(query)) {
+            List<Token> tokens = tokenize(statement);
+            if (isSelect(tokens) && !hasTimeCondition(tokens)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param query one or several statements separated by semicolons
+     * @param fromNanos lower time bound in nanoseconds since epoch
+     * @return query whose SELECT statements without time condition are bounded from fromNanos to now()
+     */
+    static String scope(String query, long fromNanos) {
+        return bound(query, "time >= " + fromNanos + " AND time <= now()");
+    }
+
+    /**
+     * @param query one or several statements accepted by {@link #isSliceable(String)}
+     * @param fromNanos lower time bound, included, in nanoseconds since epoch, {@link #UNBOUNDED} for none
+     * @param toNanos upper time bound, excluded, in nanoseconds since epoch, 0 for now() included
+     * @return query whose SELECT statements only read points from fromNanos to toNanos
+     */
+    static String slice(String query, long fromNanos, long toNanos) {
+        String upper = toNanos > 0 ? "time < " + toNanos : "time <= now()";
+        return bound(query, fromNanos == UNBOUNDED ? upper : "time >= " + fromNanos + " AND " + upper);
+    }
+
+    /**
+     * Queries can be evaluated slice by slice when every statement selects raw fields without time condition:
+     * rows of consecutive slices are then exactly the rows of the whole time range.
+     * @param query one or several statements separated by semicolons
+     * @return true if every statement is a SELECT without time condition, function call, GROUP BY time, subquery,
+     * LIMIT, OFFSET, SLIMIT, SOFFSET nor INTO clause
+     */
+    static boolean isSliceable(String query) {
+        List<String> statements = split(query);
+        if (statements.isEmpty()) {
+            return false;
+        }
+        for (String statement : statements) {
+            List<Token> tokens = tokenize(statement);
+            if (!isSelect(tokens) || indexOf(tokens, "FROM", 0) < 0 || hasTimeCondition(tokens)) {
+                return false;
+            }
+            // Limits would apply to each slice, INTO would write the points again for each slice
+            for (String keyword : UNSLICEABLE_CLAUSES) {
+                if (indexOf(tokens, keyword, 0) >= 0) {
+                    return false;
+                }
+            }
+            for (int i = 0; i + 1 < tokens.size(); i++) {
+                // Functions, GROUP BY time() and subqueries return values that cannot be merged
+                Token token = tokens.get(i);
+                if (tokens.get(i + 1).text.equals("(") && isWord(token)
+                        && !token.is("WHERE") && !token.is("AND") && !token.is("OR") && !token.is("TZ")) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static String bound(String query, String bound) {
+        List<String> statements = split(query);
+        StringBuilder scoped = new StringBuilder(query.length() + 64 * statements.size());
+        boolean changed = false;
+        for (String statement : statements) {
+            if (scoped.length() > 0) {
+                scoped.append(';');
+            }
+            String scopedStatement = scopeStatement(statement, bound);
+            changed |= scopedStatement != statement;
+            scoped.append(scopedStatement);
+        }
+        return changed ? scoped.toString() : query;
+    }
+
+    private static String scopeStatement(String statement, String bound) {
+        List<Token> tokens = tokenize(statement);
+        if (!isSelect(tokens) || hasTimeCondition(tokens)) {
+            return statement;
+        }
+        int from = indexOf(tokens, "FROM", 0);
+        if (from < 0) {
+            return statement;
+        }
+        int where = indexOf(tokens, "WHERE", from);
+        int clause = clauseAfter(tokens, where < 0 ? from : where);
+        int clauseStart = clause < 0 ? statement.length() : tokens.get(clause).start;
+        String rest = statement.substring(clauseStart);
+        String head = trimEnd(statement.substring(0, clauseStart));
+        if (where < 0) {
+            return head + " WHERE " + bound + (rest.isEmpty() ? "" : " " + rest);
+        }
+        int conditionStart = tokens.get(where).end;
+        String condition = head.substring(conditionStart).trim();
+        return head.substring(0, conditionStart) + " (" + condition + ") AND " + bound + (rest.isEmpty() ? "" : " " + rest);
+    }
+
+    private static boolean isSelect(List<Token> tokens) {
+        return !tokens.isEmpty() && tokens.get(0).is("SELECT");
+    }
+
+    private static boolean isWord(Token token) {
+        return !token.operator && (token.quoted || Character.isLetterOrDigit(token.text.charAt(0)) || token.text.charAt(0) == '_');
+    }
+
+    /**
+     * @return true if time is compared to anything, in the statement or its subqueries
+     */
+    private static boolean hasTimeCondition(List<Token> tokens) {
+        for (int i = 0; i + 1 < tokens.size(); i++) {
+            Token token = tokens.get(i);
+            Token next = tokens.get(i + 1);
+            if ((token.is("TIME") || token.isQuoted("time")) && next.operator
+                    && (next.text.startsWith("<") || next.text.startsWith(">") || next.text.equals("=") || next.text.equals("!="))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return index of first keyword at top level from index start, -1 if none
+     */
+    private static int indexOf(List<Token> tokens, String keyword, int start) {
+        for (int i = start; i < tokens.size(); i++) {
+            if (tokens.get(i).depth == 0 && tokens.get(i).is(keyword)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return index of first clause following a WHERE clause after index start, -1 if none
+     */
+    private static int clauseAfter(List<Token> tokens, int start) {
+        for (int i = start + 1; i < tokens.size(); i++) {
+            Token token = tokens.get(i);
+            if (token.depth != 0) {
+                continue;
+            }
+            Token next = i + 1 < tokens.size() ? tokens.get(i + 1) : null;
+            if ((token.is("GROUP") || token.is("ORDER")) && next != null && next.is("BY")) {
+                return i;
+            }
+            if ((token.is("LIMIT") || token.is("OFFSET") || token.is("SLIMIT") || token.is("SOFFSET"))
+                    && next != null && Character.isDigit(next.text.charAt(0))) {
+                return i;
+            }
+            if (token.is("TZ") && next != null && next.text.equals("(")) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Splits query on semicolons which are not part of a string, identifier, regular expression or comment
+     */
+    static List<String> split(String query) {
+        List<String> statements = new ArrayList<String>();
+        int start = 0;
+        for (Token token : tokenize(query)) {
+            if (token.text.equals(";")) {
+                addStatement(statements, query.substring(start, token.start));
+                start = token.end;
+            }
+        }
+        addStatement(statements, query.substring(start));
+        return statements;
+    }
+
+    private static void addStatement(List<String> statements, String statement) {
+        if (!statement.trim().isEmpty()) {
+            statements.add(statement.trim());
+        }
+    }
+
+    private static String trimEnd(String value) {
+        int end = value.length();
+        while (end > 0 && Character.isWhitespace(value.charAt(end - 1))) {
+            end--;
+        }
+        return value.substring(0, end);
+    }
+
+    /**
+     * Splits InfluxQL text in words, numbers, quoted identifiers, operators and punctuation,
+     * skipping strings, regular expressions and comments
+     */
+    static List<Token> tokenize(String text) {
+        List<Token> tokens = new ArrayList<Token>();
+        int depth = 0;
+        int i = 0;
+        int length = text.length();
+        while (i < length) {
+            char c = text.charAt(i);
+            int start = i;
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '-' && i + 1 < length && text.charAt(i + 1) == '-') {
+                while (i < length && text.charAt(i) != '\n') {
+                    i++;
+                }
+            } else if (c == '/' && i + 1 < length && text.charAt(i + 1) == '*') {
+                int end = text.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 2;
+            } else if (c == '\'' || c == '"' || (c == '/' && afterRegexOperator(tokens))) {
+                i = skipQuoted(text, i, c);
+                if (c == '"') {
+                    tokens.add(new Token(text.substring(start + 1, Math.max(start + 1, i - 1)), start, i, depth, false, true));
+                }
+            } else if (Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '.') {
+                while (i < length && (Character.isLetterOrDigit(text.charAt(i)) || text.charAt(i) == '_'
+                        || text.charAt(i) == '$' || text.charAt(i) == '.' || text.charAt(i) == '{' || text.charAt(i) == '}')) {
+                    i++;
+                }
+                tokens.add(new Token(text.substring(start, i), start, i, depth, false, false));
+            } else if ("<>=!~".indexOf(c) >= 0) {
+                while (i < length && "<>=!~".indexOf(text.charAt(i)) >= 0) {
+                    i++;
+                }
+                tokens.add(new Token(text.substring(start, i), start, i, depth, true, false));
+            } else {
+                i++;
+                if (c == ')') {
+                    depth = Math.max(0, depth - 1);
+                }
+                tokens.add(new Token(String.valueOf(c), start, i, depth, false, false));
+                if (c == '(') {
+                    depth++;
+                }
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean afterRegexOperator(List<Token> tokens) {
+        if (tokens.isEmpty()) {
+            return false;
+        }
+        Token last = tokens.get(tokens.size() - 1);
+        return last.operator && (last.text.equals("=~") || last.text.equals("!~"));
+    }
+
+    /**
+     * @return index following closing quote, or end of text
+     */
+    private static int skipQuoted(String text, int start, char quote) {
+        int i = start + 1;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == quote) {
+                return i + 1;
+            } else {
+                i++;
+            }
+        }
+        return text.length();
+    }
+
+    static final class Token {
+        private final String text;
+        private final int start;
+        private final int end;
+        /** Parenthesis nesting level */
+        private final int depth;
+        private final boolean operator;
+        private final boolean quoted;
+
+        Token(String text, int start, int end, int depth, boolean operator, boolean quoted) {
+            this.text = text;
+            this.start = start;
+            this.end = end;
+            this.depth = depth;
+            this.operator = operator;
+            this.quoted = quoted;
+        }
+
+        boolean is(String keyword) {
+            return !quoted && !operator && text.toUpperCase(Locale.ENGLISH).equals(keyword);
+        }
+
+        boolean isQuoted(String identifier) {
+            return quoted && text.equals(identifier);
+        }
+    }
+}
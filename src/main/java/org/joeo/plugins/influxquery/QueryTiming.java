@@ -0,0 +1,68 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+/**
+ * Timestamps of one HTTP request to InfluxDB, filled by {@link TimingInterceptor} and {@link EndpointReader}.
+ * Connect is the time until a connection is ready, server the time until response headers, parse the time
+ * to read and decode the body.
+ */
+final class QueryTiming {
+    private final long startNanos = System.nanoTime();
+    private volatile long connectedNanos;
+    private volatile long headersNanos;
+    private volatile long endNanos;
+    private volatile long bytes;
+
+    void connected() {
+        connectedNanos = System.nanoTime();
+    }
+
+    void headersReceived() {
+        headersNanos = System.nanoTime();
+    }
+
+    void finished(long bytesRead) {
+        endNanos = System.nanoTime();
+        bytes = bytesRead;
+    }
+
+    long getConnectNanos() {
+        return connectedNanos == 0 ? 0 : connectedNanos - startNanos;
+    }
+
+    long getServerNanos() {
+        return connectedNanos == 0 || headersNanos == 0 ? 0 : headersNanos - connectedNanos;
+    }
+
+    long getParseNanos() {
+        long headers = headersNanos != 0 ? headersNanos : startNanos;
+        return endNanos == 0 ? 0 : endNanos - headers;
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.axis.CategoryAxis;
+import org.jfree.chart.axis.CategoryLabelPositions;
+import org.jfree.chart.plot.CategoryPlot;
+import org.jfree.chart.plot.PlotOrientation;
+import org.jfree.chart.renderer.category.CategoryItemRenderer;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import hudson.Extension;
+import hudson.model.Action;
+import hudson.model.Job;
+import hudson.util.DataSetBuilder;
+import hudson.util.Graph;
+import jenkins.model.TransientActionFactory;
+
+/**
+ * Trend of check values over the last builds of a job, read from {@link QueryTrendStore}.
+ */
+public final class QueryTrendAction implements Action {
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryTrendAction.class);
+    private static final String VALUE_ROW = "value";
+    private static final String THRESHOLD_ROW = "threshold";
+
+    private final Job<?, ?> job;
+
+    QueryTrendAction(Job<?, ?> job) {
+        this.job = job;
+    }
+
+    public Job<?, ?> getJob() {
+        return job;
+    }
+
+    private List<QueryTrendStore.Entry> readEntries() {
+        try {
+            return QueryTrendStore.readLast(QueryTrendStore.getFile(job), QueryTrendStore.MAX_BUILDS);
+        } catch (IOException e) {
+            LOGGER.warn("Cannot read check trend of " + job.getFullName(), e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * @return names of checks in the last builds
+     */
+    public List<String> getCheckNames() {
+        Set<String> names = new LinkedHashSet<String>();
+        for (QueryTrendStore.Entry entry : readEntries()) {
+            names.add(entry.getResult().getCheckName());
+        }
+        return new ArrayList<String>(names);
+    }
+
+    /**
+     * @param checkName check name
+     * @return URL of the graph of check relative to this action
+     * @throws UnsupportedEncodingException never as UTF-8 is always supported
+     */
+    public String getGraphUrl(String checkName) throws UnsupportedEncodingException {
+        return "graph?check=" + URLEncoder.encode(checkName, "UTF-8");
+    }
+
+    /**
+     * Renders value and threshold of check given by parameter check over the last builds
+     */
+    public void doGraph(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        final String checkName = req.getParameter("check");
+        File file = QueryTrendStore.getFile(job);
+        final List<QueryTrendStore.Entry> entries = readEntries();
+        new Graph(file.lastModified(), 500, 200) {
+            @Override
+            protected JFreeChart createGraph() {
+                DataSetBuilder<String, Integer> dataSet = new DataSetBuilder<String, Integer>();
+                for (QueryTrendStore.Entry entry : entries) {
+                    CheckResult result = entry.getResult();
+                    if (!result.getCheckName().equals(checkName)) {
+                        continue;
+                    }
+                    if (!Double.isNaN(result.getValue())) {
+                        dataSet.add(result.getValue(), VALUE_ROW, entry.getBuildNumber());
+                    }
+                    dataSet.add(result.getThreshold(), THRESHOLD_ROW, entry.getBuildNumber());
+                }
+                return createChart(dataSet);
+            }
+        }.doPng(req, rsp);
+    }
+
+    private static JFreeChart createChart(DataSetBuilder<String, Integer> dataSet) {
+        JFreeChart chart = ChartFactory.createLineChart(null, null, VALUE_ROW, dataSet.build(),
+                PlotOrientation.VERTICAL, true, true, false);
+        chart.setBackgroundPaint(Color.WHITE);
+        CategoryPlot plot = chart.getCategoryPlot();
+        plot.setBackgroundPaint(Color.WHITE);
+        plot.setRangeGridlinesVisible(true);
+        plot.setRangeGridlinePaint(Color.LIGHT_GRAY);
+        CategoryAxis domainAxis = plot.getDomainAxis();
+        domainAxis.setCategoryLabelPositions(CategoryLabelPositions.UP_90);
+        domainAxis.setLowerMargin(0.0);
+        domainAxis.setUpperMargin(0.0);
+        domainAxis.setCategoryMargin(0.0);
+        // rows are sorted by name: threshold then value
+        CategoryItemRenderer renderer = plot.getRenderer();
+        renderer.setSeriesPaint(0, Color.RED);
+        renderer.setSeriesPaint(1, Color.BLUE);
+        return chart;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return "graph.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "InfluxDB Query Trend";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "influxdb-query-trend";
+    }
+
+    /**
+     * Adds {@link QueryTrendAction} to jobs which recorded check results
+     */
+    @Extension
+    public static final class Factory extends TransientActionFactory<Job> {
+        @Override
+        public Class<Job> type() {
+            return Job.class;
+        }
+
+        @Override
+        public Collection<? extends Action> createFor(Job job) {
+            if (!QueryTrendStore.getFile(job).isFile()) {
+                return Collections.emptyList();
+            }
+            return Collections.singletonList(new QueryTrendAction(job));
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import hudson.model.Job;
+import hudson.model.Run;
+
+/**
+ * Per job file of check results appended as builds complete checks.
+ * Each entry is followed by its length so that the last builds are read from the end of the file
+ * without reading older entries or loading builds. Once the file spans twice {@link #MAX_BUILDS} build numbers,
+ * it is rewritten with the entries of the last {@link #MAX_BUILDS} builds.
+ */
+final class QueryTrendStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryTrendStore.class);
+    static final String FILE_NAME = "influxdb-query-trend.bin";
+    static final int MAX_BUILDS = Integer.getInteger(QueryTrendStore.class.getName() + ".maxBuilds", 500);
+
+    /**
+     * Check result of a build
+     */
+    static final class Entry {
+        private final int buildNumber;
+        private final long timestamp;
+        private final CheckResult result;
+
+        Entry(int buildNumber, long timestamp, CheckResult result) {
+            this.buildNumber = buildNumber;
+            this.timestamp = timestamp;
+            this.result = result;
+        }
+
+        int getBuildNumber() {
+            return buildNumber;
+        }
+
+        long getTimestamp() {
+            return timestamp;
+        }
+
+        CheckResult getResult() {
+            return result;
+        }
+    }
+
+    private QueryTrendStore() {
+    }
+
+    static File getFile(Job<?, ?> job) {
+        return new File(job.getRootDir(), FILE_NAME);
+    }
+
+    /**
+     * Appends result to the trend of the job of the build, failures are logged as trend is not needed by the build
+     * @param run {@link Run}
+     * @param result {@link CheckResult}
+     */
+    static void record(Run<?, ?> run, CheckResult result) {
+        try {
+            append(getFile(run.getParent()), run.getNumber(), run.getTimeInMillis(), result);
+        } catch (IOException e) {
+            LOGGER.warn("Cannot record trend of check " + result.getCheckName() + " for " + run.getFullDisplayName(), e);
+        }
+    }
+
+    static void append(File file, int buildNumber, long timestamp, CheckResult result) throws IOException {
+        append(file, buildNumber, timestamp, result, MAX_BUILDS);
+    }
+
+    /**
+     * @param maxBuilds number of builds kept when the file spans twice as many build numbers
+     */
+    static synchronized void append(File file, int buildNumber, long timestamp, CheckResult result, int maxBuilds)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(160);
+        writeEntry(bytes, buildNumber, timestamp, result);
+        // single write so a reader never sees a partial entry followed by a valid length
+        OutputStream out = new FileOutputStream(file, true);
+        try {
+            bytes.writeTo(out);
+        } finally {
+            out.close();
+        }
+        if (buildNumber - firstBuildNumber(file) >= 2 * maxBuilds) {
+            compact(file, maxBuilds);
+        }
+    }
+
+    private static void writeEntry(ByteArrayOutputStream bytes, int buildNumber, long timestamp, CheckResult result)
+            throws IOException {
+        DataOutputStream entry = new DataOutputStream(bytes);
+        entry.writeInt(buildNumber);
+        entry.writeLong(timestamp);
+        result.writeTo(entry);
+        entry.writeInt(entry.size());
+    }
+
+    /**
+     * @return build number of the first entry of file, which starts with it
+     */
+    private static int firstBuildNumber(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            return in.readInt();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Rewrites file with the entries of its last builds, replacing it once written
+     * @param maxBuilds number of builds to keep
+     */
+    static synchronized void compact(File file, int maxBuilds) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (Entry entry : readLast(file, maxBuilds)) {
+            writeEntry(bytes, entry.getBuildNumber(), entry.getTimestamp(), entry.getResult());
+        }
+        File compacted = new File(file.getPath() + ".tmp");
+        OutputStream out = new FileOutputStream(compacted);
+        try {
+            bytes.writeTo(out);
+        } finally {
+            out.close();
+        }
+        Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param file trend file
+     * @param maxBuilds maximum number of builds to read
+     * @return entries of the last builds, oldest first, empty if file does not exist
+     * @throws IOException if file cannot be read
+     */
+    static synchronized List<Entry> readLast(File file, int maxBuilds) throws IOException {
+        List<Entry> entries = new ArrayList<Entry>();
+        if (!file.isFile()) {
+            return entries;
+        }
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            Set<Integer> builds = new HashSet<Integer>();
+            long position = in.length();
+            while (position >= 4) {
+                in.seek(position - 4);
+                int length = in.readInt();
+                if (length <= 0 || length > position - 4) {
+                    LOGGER.warn("Ignoring trend entries before offset " + position + " of " + file + ", length " + length + " is invalid");
+                    break;
+                }
+                position -= 4 + length;
+                byte[] bytes = new byte[length];
+                in.seek(position);
+                in.readFully(bytes);
+                DataInputStream entry = new DataInputStream(new ByteArrayInputStream(bytes));
+                int buildNumber = entry.readInt();
+                if (!builds.contains(buildNumber)) {
+                    if (builds.size() == maxBuilds) {
+                        break;
+                    }
+                    builds.add(buildNumber);
+                }
+                entries.add(new Entry(buildNumber, entry.readLong(), CheckResult.readFrom(entry)));
+            }
+        } finally {
+            in.close();
+        }
+        Collections.reverse(entries);
+        return entries;
+    }
+}
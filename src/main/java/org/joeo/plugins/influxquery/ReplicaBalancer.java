@@ -0,0 +1,164 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Spreads reads over the URLs of an endpoint, picking the healthy URL with the least outstanding requests.
+ * A URL is taken out of rotation by {@link InfluxDBHealthProber} or after consecutive request failures,
+ * and put back once the prober finds it healthy again.
+ */
+final class ReplicaBalancer {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplicaBalancer.class);
+
+    /**
+     * Number of consecutive failed requests taking a URL out of rotation
+     */
+    static final int MAX_CONSECUTIVE_FAILURES = Integer.getInteger(ReplicaBalancer.class.getName() + ".maxConsecutiveFailures", 3);
+
+    private static final ReplicaBalancer INSTANCE = new ReplicaBalancer();
+
+    private final ConcurrentMap<String, Replica> replicas = new ConcurrentHashMap<String, Replica>();
+
+    static ReplicaBalancer get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Picks the URL to send a read to and counts it as outstanding until {@link #release(String, boolean)}
+     * @param urls URLs serving the same data
+     * @param avoidURL URL used by the previous attempt, only picked if no other healthy URL exists, may be null
+     * @return chosen URL
+     */
+    String acquire(List<String> urls, String avoidURL) {
+        Replica best = null;
+        int ties = 0;
+        for (int pass = 0; pass < 3 && best == null; pass++) {
+            for (String url : urls) {
+                Replica replica = replica(url);
+                // pass 0: healthy and not avoided, pass 1: healthy, pass 2: any
+                if ((pass < 2 && !replica.healthy) || (pass == 0 && url.equals(avoidURL))) {
+                    continue;
+                }
+                int comparison = best == null ? -1 : Integer.compare(replica.outstanding.get(), best.outstanding.get());
+                if (comparison < 0) {
+                    best = replica;
+                    ties = 1;
+                } else if (comparison == 0 && ThreadLocalRandom.current().nextInt(++ties) == 0) {
+                    best = replica;
+                }
+            }
+        }
+        best.outstanding.incrementAndGet();
+        return best.url;
+    }
+
+    /**
+     * @param url URL returned by {@link #acquire(List, String)}
+     * @param failed true if request failed because of network or server error
+     */
+    void release(String url, boolean failed) {
+        Replica replica = replica(url);
+        replica.outstanding.decrementAndGet();
+        if (!failed) {
+            replica.consecutiveFailures.set(0);
+        } else if (replica.consecutiveFailures.incrementAndGet() >= MAX_CONSECUTIVE_FAILURES && replica.healthy) {
+            LOGGER.warn("Taking {} out of rotation after {} consecutive failures", url, MAX_CONSECUTIVE_FAILURES);
+            replica.healthy = false;
+        }
+    }
+
+    /**
+     * Records result of a health probe
+     * @param url probed URL
+     * @param healthy true if URL answered in time
+     */
+    void setHealthy(String url, boolean healthy) {
+        Replica replica = replica(url);
+        if (replica.healthy && !healthy) {
+            LOGGER.warn("Taking {} out of rotation", url);
+        } else if (!replica.healthy && healthy) {
+            LOGGER.info("Putting {} back in rotation", url);
+        }
+        if (healthy) {
+            replica.consecutiveFailures.set(0);
+        }
+        replica.healthy = healthy;
+    }
+
+    boolean isHealthy(String url) {
+        return replica(url).healthy;
+    }
+
+    int getOutstanding(String url) {
+        return replica(url).outstanding.get();
+    }
+
+    /**
+     * Forgets state of URLs no longer configured
+     * @param urls configured URLs
+     */
+    void retain(Collection<String> urls) {
+        for (Iterator<Replica> it = replicas.values().iterator(); it.hasNext();) {
+            Replica replica = it.next();
+            if (!urls.contains(replica.url) && replica.outstanding.get() == 0) {
+                it.remove();
+            }
+        }
+    }
+
+    private Replica replica(String url) {
+        Replica replica = replicas.get(url);
+        if (replica == null) {
+            Replica created = new Replica(url);
+            replica = replicas.putIfAbsent(url, created);
+            if (replica == null) {
+                replica = created;
+            }
+        }
+        return replica;
+    }
+
+    private static final class Replica {
+        private final String url;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private volatile boolean healthy = true;
+
+        private Replica(String url) {
+            this.url = url;
+        }
+    }
+}
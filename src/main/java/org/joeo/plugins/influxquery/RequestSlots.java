@@ -0,0 +1,61 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import java.io.IOException;
+
+/**
+ * {@link ConcurrencyLimiter} slots of the controller taken by an agent for each request it sends, so that a check
+ * run on an agent only holds a slot while a request is in flight. Exported to the agent through its channel, which
+ * requires the interface to be public.
+ */
+public interface RequestSlots {
+    /**
+     * Waits for a slot of the endpoint of the check
+     * @return id of the slot, to release exactly once
+     * @throws java.io.InterruptedIOException if interrupted while waiting
+     * @throws IOException if no slot was free within the maximum wait
+     */
+    long acquire() throws IOException;
+
+    /**
+     * @param slot id returned by {@link #acquire()}
+     * @param latencyNanos time InfluxDB took to answer
+     * @see ConcurrencyLimiter.Permit#onSuccess(long)
+     */
+    void onSuccess(long slot, long latencyNanos);
+
+    /**
+     * @param slot id returned by {@link #acquire()}
+     * @see ConcurrencyLimiter.Permit#onDropped()
+     */
+    void onDropped(long slot);
+
+    /**
+     * @param slot id returned by {@link #acquire()}
+     * @see ConcurrencyLimiter.Permit#onIgnore()
+     */
+    void onIgnore(long slot);
+}
@@ -0,0 +1,83 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import java.io.InputStream;
+import java.util.Locale;
+
+/**
+ * Encoding of query responses requested from InfluxDB.
+ * InfluxDB versions which do not support the requested encoding answer with JSON, the encoding of each response
+ * is therefore read from its content type.
+ */
+public enum ResponseFormat {
+    JSON("JSON", "application/json"),
+    MSGPACK("MessagePack", MessagePackReader.CONTENT_TYPE);
+
+    private final String displayName;
+    private final String contentType;
+
+    ResponseFormat(String displayName, String contentType) {
+        this.displayName = displayName;
+        this.contentType = contentType;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    String getContentType() {
+        return contentType;
+    }
+
+    ResponseReader newReader(InputStream in) {
+        return this == MSGPACK ? new MessagePackReader(in) : new JsonStreamReader(in);
+    }
+
+    /**
+     * @param contentType content type of a response, may be null
+     * @return {@link ResponseFormat} of response, JSON unless response is MessagePack
+     */
+    static ResponseFormat ofContentType(String contentType) {
+        if (contentType != null && contentType.toLowerCase(Locale.ENGLISH).startsWith(MSGPACK.contentType)) {
+            return MSGPACK;
+        }
+        return JSON;
+    }
+
+    /**
+     * @param name name of a {@link ResponseFormat}, may be null or empty
+     * @return {@link ResponseFormat} of name, JSON if none matches
+     */
+    static ResponseFormat fromName(String name) {
+        for (ResponseFormat format : values()) {
+            if (format.name().equals(name)) {
+                return format;
+            }
+        }
+        return JSON;
+    }
+}
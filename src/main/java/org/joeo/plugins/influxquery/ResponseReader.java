@@ -0,0 +1,84 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import java.io.IOException;
+
+/**
+ * Pull reader of a query response body, implemented for each {@link ResponseFormat}.
+ * Maps are read as objects whose keys are names, so that {@link QueryResponseParser} handles all formats alike.
+ */
+interface ResponseReader {
+    enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    /**
+     * @return number of bytes consumed from the stream so far
+     */
+    long getBytesRead();
+
+    /**
+     * @return {@link Token} of next value without consuming it
+     */
+    Token peek() throws IOException;
+
+    /**
+     * @return true if current object or array has another element
+     */
+    boolean hasNext() throws IOException;
+
+    void beginObject() throws IOException;
+
+    void endObject() throws IOException;
+
+    void beginArray() throws IOException;
+
+    void endArray() throws IOException;
+
+    String nextName() throws IOException;
+
+    /**
+     * @return string value, numbers and booleans are returned as their literal
+     */
+    String nextString() throws IOException;
+
+    boolean nextBoolean() throws IOException;
+
+    void nextNull() throws IOException;
+
+    /**
+     * @return number value, strings holding a number are parsed too
+     */
+    double nextDouble() throws IOException;
+
+    long nextLong() throws IOException;
+
+    /**
+     * Skips next value, including all its elements if it is an object or an array
+     */
+    void skipValue() throws IOException;
+}
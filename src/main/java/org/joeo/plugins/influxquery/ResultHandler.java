@@ -0,0 +1,68 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Receives the content of an InfluxDB query response as it is parsed, row by row.
+ */
+interface ResultHandler {
+    /**
+     * Called when a series starts, a series split over several chunks is reported once per chunk
+     * @param statementId index of the statement in the query
+     * @param name measurement name
+     * @param tags tags of the series, empty if none
+     * @param columns column names
+     */
+    void onSeries(int statementId, String name, Map<String, String> tags, List<String> columns) throws IOException;
+
+    /**
+     * Called for each cell of a row, implementations must consume exactly one value from reader
+     * @param column index of the column
+     * @param reader {@link ResponseReader} positioned on the value
+     */
+    void onCell(int column, ResponseReader reader) throws IOException;
+
+    /**
+     * Called once all cells of a row were reported
+     */
+    void onRowEnd() throws IOException;
+
+    /**
+     * Called once a statement result was read, a statement split over several chunks is reported once per chunk
+     * @param statementId index of the statement in the query
+     */
+    void onStatementEnd(int statementId) throws IOException;
+
+    /**
+     * Called when InfluxDB reports an error for a statement
+     * @param statementId index of the statement in the query
+     * @param error error message
+     */
+    void onStatementError(int statementId, String error) throws IOException;
+}
@@ -0,0 +1,221 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Renders query results shown by checks: a bounded table of the first rows of each series on the console,
+ * and all rows as a gzip compressed CSV build artifact written row by row.
+ */
+final class ResultRenderer {
+    /**
+     * Directory of result artifacts, relative to the artifacts of the build
+     */
+    static final String ARTIFACT_DIRECTORY = "influxdb-query";
+
+    static final int PREVIEW_ROWS = Integer.getInteger(ResultRenderer.class.getName() + ".previewRows", 10);
+    static final int PREVIEW_SERIES = Integer.getInteger(ResultRenderer.class.getName() + ".previewSeries", 10);
+    private static final int MAX_CELL_WIDTH = 40;
+    private static final String COLUMN_SEPARATOR = " | ";
+
+    private ResultRenderer() {
+        super();
+    }
+
+    /**
+     * Logs the first {@link #PREVIEW_ROWS} rows of the first {@link #PREVIEW_SERIES} series of result, and totals
+     * @param result {@link StatementResult}
+     * @param loggerUtils {@link LoggerUtils}
+     */
+    static void preview(StatementResult result, LoggerUtils loggerUtils) {
+        List<SeriesTable> series = result.getSeries();
+        long shownRows = 0;
+        int shownSeries = Math.min(series.size(), PREVIEW_SERIES);
+        for (int i = 0; i < shownSeries; i++) {
+            shownRows += preview(series.get(i), loggerUtils);
+        }
+        if (shownSeries < series.size()) {
+            loggerUtils.info("... " + (series.size() - shownSeries) + " more series");
+        }
+        loggerUtils.info("Showed " + shownRows + " of " + result.getRowCount() + " rows in " + shownSeries + " of "
+                + series.size() + " series");
+    }
+
+    /**
+     * @return number of rows logged
+     */
+    private static int preview(SeriesTable table, LoggerUtils loggerUtils) {
+        List<String> columns = table.getColumns();
+        int rows = Math.min(table.getRowCount(), PREVIEW_ROWS);
+        String[][] cells = new String[rows + 1][];
+        cells[0] = columns.toArray(new String[columns.size()]);
+        int[] widths = new int[columns.size()];
+        StringBuilder cell = new StringBuilder();
+        for (int row = 0; row < rows; row++) {
+            cells[row + 1] = new String[columns.size()];
+            for (int column = 0; column < columns.size(); column++) {
+                cell.setLength(0);
+                table.appendCell(cell, column, row);
+                cells[row + 1][column] = cell.toString();
+            }
+        }
+        for (String[] line : cells) {
+            for (int column = 0; column < line.length; column++) {
+                widths[column] = Math.max(widths[column], Math.min(line[column].length(), MAX_CELL_WIDTH));
+            }
+        }
+        loggerUtils.info("Series " + table.getLabel() + ": " + table.getRowCount() + " rows");
+        StringBuilder line = new StringBuilder();
+        for (String[] values : cells) {
+            line.setLength(0);
+            line.append("  ");
+            for (int column = 0; column < values.length; column++) {
+                if (column > 0) {
+                    line.append(COLUMN_SEPARATOR);
+                }
+                appendPadded(line, values[column], widths[column]);
+            }
+            loggerUtils.info(line.toString());
+        }
+        if (rows < table.getRowCount()) {
+            loggerUtils.info("  ... " + (table.getRowCount() - rows) + " more rows");
+        }
+        return rows;
+    }
+
+    private static void appendPadded(StringBuilder line, String value, int width) {
+        if (value.length() > width) {
+            line.append(value, 0, width - 3).append("...");
+            return;
+        }
+        line.append(value);
+        for (int i = value.length(); i < width; i++) {
+            line.append(' ');
+        }
+    }
+
+    /**
+     * @param checkName name of check
+     * @return path of the results of check, relative to the artifacts of the build
+     */
+    static String artifactPath(String checkName) {
+        return ARTIFACT_DIRECTORY + "/" + String.valueOf(checkName).replaceAll("[^A-Za-z0-9._-]", "_") + ".csv.gz";
+    }
+
+    /**
+     * Writes all series of result to a gzip compressed CSV stream, in the CSV format of InfluxDB:
+     * columns <code>name,tags</code> followed by the columns of the series, a header being written each time they change
+     * @param result {@link StatementResult}
+     * @param out destination stream, closed when written
+     * @throws IOException if stream cannot be written
+     */
+    static void writeCsv(StatementResult result, OutputStream out) throws IOException {
+        OutputStream gzip = new GZIPOutputStream(new BufferedOutputStream(out), 8192);
+        try {
+            writeCsv(result, new OutputStreamWriter(gzip, StandardCharsets.UTF_8));
+        } finally {
+            gzip.close();
+        }
+    }
+
+    static void writeCsv(StatementResult result, Writer writer) throws IOException {
+        List<String> header = null;
+        StringBuilder line = new StringBuilder();
+        for (SeriesTable table : result.getSeries()) {
+            if (!table.getColumns().equals(header)) {
+                header = table.getColumns();
+                line.setLength(0);
+                line.append("name,tags");
+                for (String column : header) {
+                    line.append(',');
+                    appendCsv(line, column);
+                }
+                writer.append(line.append('\n'));
+            }
+            line.setLength(0);
+            appendCsv(line, String.valueOf(table.getName()));
+            line.append(',');
+            appendCsv(line, formatTags(table.getTags()));
+            int prefixLength = line.length();
+            StringBuilder cell = new StringBuilder();
+            for (int row = 0; row < table.getRowCount(); row++) {
+                line.setLength(prefixLength);
+                for (int column = 0; column < header.size(); column++) {
+                    line.append(',');
+                    if (table.isNull(column, row)) {
+                        continue;
+                    }
+                    cell.setLength(0);
+                    table.appendCell(cell, column, row);
+                    appendCsv(line, cell);
+                }
+                writer.append(line.append('\n'));
+            }
+        }
+        writer.flush();
+    }
+
+    private static String formatTags(Map<String, String> tags) {
+        StringBuilder formatted = new StringBuilder();
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            if (formatted.length() > 0) {
+                formatted.append(',');
+            }
+            formatted.append(tag.getKey()).append('=').append(tag.getValue());
+        }
+        return formatted.toString();
+    }
+
+    private static void appendCsv(StringBuilder line, CharSequence value) {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            line.append(value);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                line.append('"');
+            }
+            line.append(c);
+        }
+        line.append('"');
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the retries of one check against its {@link RetryPolicy}, and its deadline if any or else its max number of
+ * retries.
+ */
+final class RetrySchedule implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Min delay in milliseconds between retries when a deadline is set, so a deadline with no retry interval
+     * does not query InfluxDB in a tight loop
+     */
+    static final long MIN_DEADLINE_DELAY_MILLIS = Long.getLong(RetrySchedule.class.getName() + ".minDeadlineDelay", 1000L);
+
+    private final RetryPolicy retryPolicy;
+    private final int retryCount;
+    private final int deadline;
+    private final long deadlineTime;
+    private int currentRetry;
+    private long previousDelayMillis;
+    private String exhaustedReason;
+
+    /**
+     * @param retryPolicy {@link RetryPolicy}
+     * @param retryCount max number of retries, ignored when a deadline is set
+     * @param deadline max number of seconds from now for the check to complete, 0 for no deadline
+     * @param startTime time the check started in milliseconds
+     */
+    RetrySchedule(RetryPolicy retryPolicy, int retryCount, int deadline, long startTime) {
+        this.retryPolicy = retryPolicy;
+        this.retryCount = retryCount;
+        this.deadline = deadline;
+        this.deadlineTime = deadline > 0 ? startTime + TimeUnit.SECONDS.toMillis(deadline) : 0;
+    }
+
+    /**
+     * @param retryPolicy configured {@link RetryPolicy}, may be null
+     * @param retryInterval seconds between retries used when no policy is configured
+     * @return {@link RetryPolicy} to use
+     */
+    static RetryPolicy resolve(RetryPolicy retryPolicy, int retryInterval) {
+        return retryPolicy != null ? retryPolicy : new FixedRetryPolicy(retryInterval);
+    }
+
+    int getCurrentRetry() {
+        return currentRetry;
+    }
+
+    int getRetryCount() {
+        return retryCount;
+    }
+
+    /**
+     * Moves to next retry if any is left
+     * @param now current time in milliseconds
+     * @return delay in milliseconds to wait before next retry, -1 if no retry is left
+     */
+    long nextRetry(long now) {
+        // a deadline is a budget of time replacing the number of retries
+        if (deadlineTime == 0 && currentRetry >= retryCount) {
+            exhaustedReason = "Max number of retries "+retryCount+" reached";
+            return -1;
+        }
+        long delay = retryPolicy.nextDelayMillis(currentRetry + 1, previousDelayMillis);
+        if (deadlineTime > 0) {
+            delay = Math.max(delay, MIN_DEADLINE_DELAY_MILLIS);
+        }
+        if (deadlineTime > 0 && now + delay > deadlineTime) {
+            exhaustedReason = "Deadline of "+deadline+" seconds reached after "+currentRetry+" retries";
+            return -1;
+        }
+        currentRetry++;
+        previousDelayMillis = delay;
+        return delay;
+    }
+
+    /**
+     * @return why no retry is left, null if {@link #nextRetry(long)} did not return -1
+     */
+    String getExhaustedReason() {
+        return exhaustedReason;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rule on a named column which must hold for every row of every series of a statement,
+ * for example {@code p95 < 800} on a query grouped by transaction.
+ * A rule is written as {@code column operator number}, column may be double quoted.
+ */
+final class SeriesAssertion implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final Pattern RULE = Pattern.compile("\\s*(\"[^\"]+\"|[^\\s<>=!]+)\\s*(<=|>=|==|!=|<|>)\\s*(\\S+)\\s*");
+
+    enum Operator {
+        LT("<"), LE("<="), GT(">"), GE(">="), EQ("=="), NE("!=");
+
+        private final String symbol;
+
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+
+        String getSymbol() {
+            return symbol;
+        }
+
+        boolean test(double value, double threshold) {
+            switch (this) {
+            case LT:
+                return value < threshold;
+            case LE:
+                return value <= threshold;
+            case GT:
+                return value > threshold;
+            case GE:
+                return value >= threshold;
+            case EQ:
+                return value == threshold;
+            default:
+                return value != threshold;
+            }
+        }
+
+        static Operator of(String symbol) {
+            for (Operator operator : values()) {
+                if (operator.symbol.equals(symbol)) {
+                    return operator;
+                }
+            }
+            throw new IllegalArgumentException("Unknown operator " + symbol);
+        }
+    }
+
+    private final String column;
+    private final Operator operator;
+    private final double threshold;
+
+    SeriesAssertion(String column, Operator operator, double threshold) {
+        this.column = column;
+        this.operator = operator;
+        this.threshold = threshold;
+    }
+
+    /**
+     * @param rule rule such as {@code p95 < 800}
+     * @return {@link SeriesAssertion}
+     * @throws IllegalArgumentException if rule is not valid
+     */
+    static SeriesAssertion parse(String rule) {
+        Matcher matcher = RULE.matcher(rule);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid assertion '" + rule.trim() + "', expected: column operator number, for example p95 < 800");
+        }
+        String column = matcher.group(1);
+        if (column.startsWith("\"")) {
+            column = column.substring(1, column.length() - 1);
+        }
+        double threshold;
+        try {
+            threshold = Double.parseDouble(matcher.group(3));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid assertion '" + rule.trim() + "', " + matcher.group(3) + " is not a number");
+        }
+        return new SeriesAssertion(column, Operator.of(matcher.group(2)), threshold);
+    }
+
+    /**
+     * @param rules one rule per line, blank lines and lines starting with # are ignored
+     * @return {@link SeriesAssertion}s, empty if rules is null
+     * @throws IllegalArgumentException if a rule is not valid
+     */
+    static List<SeriesAssertion> parseAll(String rules) {
+        if (rules == null) {
+            return Collections.emptyList();
+        }
+        List<SeriesAssertion> assertions = new ArrayList<SeriesAssertion>();
+        for (String line : rules.split("\\r?\\n")) {
+            String trimmed = line.trim();
+            if (!trimmed.isEmpty() && !trimmed.startsWith("#")) {
+                assertions.add(parse(trimmed));
+            }
+        }
+        return assertions;
+    }
+
+    String getColumn() {
+        return column;
+    }
+
+    Operator getOperator() {
+        return operator;
+    }
+
+    double getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Checks every row of every series, null values are ignored
+     * @param result {@link StatementResult}
+     * @param report {@link AssertionReport} receiving violations
+     * @throws IllegalArgumentException if a series has no such column
+     */
+    void check(StatementResult result, AssertionReport report) {
+        for (SeriesTable series : result.getSeries()) {
+            if (series.getRowCount() == 0) {
+                continue;
+            }
+            int columnIndex = columnIndex(series);
+            for (int row = 0; row < series.getRowCount(); row++) {
+                check(series, columnIndex, row, report);
+            }
+        }
+    }
+
+    /**
+     * @param series {@link SeriesTable} having rows
+     * @return index of the column of the assertion in series
+     * @throws IllegalArgumentException if series has no such column
+     */
+    int columnIndex(SeriesTable series) {
+        int columnIndex = series.getColumnIndex(column);
+        if (columnIndex < 0) {
+            throw new IllegalArgumentException("Column " + column + " of assertion " + this + " not found in "
+                    + series.getColumns());
+        }
+        return columnIndex;
+    }
+
+    /**
+     * Checks one row of series, rows without value in the column are ignored
+     * @param columnIndex index returned by {@link #columnIndex(SeriesTable)}
+     */
+    void check(SeriesTable series, int columnIndex, int row, AssertionReport report) {
+        double value = series.getDouble(columnIndex, row);
+        if (!Double.isNaN(value) && !operator.test(value, threshold)) {
+            report.addViolation(this, series, row, value);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return column + " " + operator.getSymbol() + " " + threshold;
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Series of a query result decoded into primitive columns: time as long[] and values as double[].
+ * String values are kept aside in a column allocated only when the column contains strings,
+ * their numeric value is NaN as for null values.
+ */
+final class SeriesTable {
+    static final String TIME_COLUMN = "time";
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final String name;
+    private final Map<String, String> tags;
+    private final List<String> columns;
+    private final int timeColumn;
+    private long[] times;
+    private final double[][] values;
+    private final String[][] strings;
+    private int rowCount;
+
+    SeriesTable(String name, Map<String, String> tags, List<String> columns) {
+        this.name = name;
+        this.tags = Collections.unmodifiableMap(tags);
+        this.columns = Collections.unmodifiableList(columns);
+        this.timeColumn = columns.indexOf(TIME_COLUMN);
+        this.values = new double[columns.size()][];
+        this.strings = new String[columns.size()][];
+        this.times = new long[timeColumn >= 0 ? INITIAL_CAPACITY : 0];
+        for (int i = 0; i < values.length; i++) {
+            if (i != timeColumn) {
+                values[i] = newValues(INITIAL_CAPACITY);
+            }
+        }
+    }
+
+    String getName() {
+        return name;
+    }
+
+    Map<String, String> getTags() {
+        return tags;
+    }
+
+    List<String> getColumns() {
+        return columns;
+    }
+
+    /**
+     * @param column column name
+     * @return index of column, -1 if series has no such column
+     */
+    int getColumnIndex(String column) {
+        return columns.indexOf(column);
+    }
+
+    /**
+     * @return index of first value column, the first column after time
+     */
+    int getFirstValueColumn() {
+        return timeColumn == 0 && columns.size() > 1 ? 1 : 0;
+    }
+
+    int getRowCount() {
+        return rowCount;
+    }
+
+    boolean hasTime() {
+        return timeColumn >= 0;
+    }
+
+    /**
+     * @return epoch in milliseconds of row
+     */
+    long getTime(int row) {
+        checkRow(row);
+        return times[row];
+    }
+
+    /**
+     * @return numeric value of cell, NaN if null or not a number
+     */
+    double getDouble(int column, int row) {
+        checkRow(row);
+        double[] columnValues = values[column];
+        return columnValues == null ? Double.NaN : columnValues[row];
+    }
+
+    /**
+     * @return string value of cell, null if value is not a string
+     */
+    String getString(int column, int row) {
+        checkRow(row);
+        String[] columnStrings = strings[column];
+        return columnStrings == null ? null : columnStrings[row];
+    }
+
+    /**
+     * @return copy of numeric values of column, NaN for null or non numeric values
+     */
+    double[] getDoubles(int column) {
+        return values[column] == null ? newValues(rowCount) : Arrays.copyOf(values[column], rowCount);
+    }
+
+    /**
+     * @return copy of time column, empty if series has no time
+     */
+    long[] getTimes() {
+        return Arrays.copyOf(times, timeColumn >= 0 ? rowCount : 0);
+    }
+
+    boolean isTimeColumn(int column) {
+        return column == timeColumn;
+    }
+
+    void setTime(long time) {
+        times[rowCount] = time;
+    }
+
+    void setDouble(int column, double value) {
+        if (column < values.length && values[column] != null) {
+            values[column][rowCount] = value;
+        }
+    }
+
+    void setString(int column, String value) {
+        if (column >= strings.length || column == timeColumn) {
+            return;
+        }
+        if (strings[column] == null) {
+            strings[column] = new String[values[column].length];
+        }
+        strings[column][rowCount] = value;
+    }
+
+    /**
+     * Commits current row and makes room for the next one
+     */
+    void endRow() {
+        rowCount++;
+        if (rowCount == capacity()) {
+            int newCapacity = rowCount * 2;
+            if (timeColumn >= 0) {
+                times = Arrays.copyOf(times, newCapacity);
+            }
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) {
+                    double[] grown = Arrays.copyOf(values[i], newCapacity);
+                    Arrays.fill(grown, rowCount, newCapacity, Double.NaN);
+                    values[i] = grown;
+                }
+                if (strings[i] != null) {
+                    strings[i] = Arrays.copyOf(strings[i], newCapacity);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all rows, keeping the allocated columns for the next ones
+     */
+    void clear() {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                Arrays.fill(values[i], 0, rowCount, Double.NaN);
+            }
+            if (strings[i] != null) {
+                Arrays.fill(strings[i], 0, rowCount, null);
+            }
+        }
+        rowCount = 0;
+    }
+
+    /**
+     * @return true if a chunk with these properties continues this series
+     */
+    boolean isContinuedBy(String otherName, Map<String, String> otherTags, List<String> otherColumns) {
+        return (name == null ? otherName == null : name.equals(otherName)) && tags.equals(otherTags)
+                && columns.equals(otherColumns);
+    }
+
+    private int capacity() {
+        for (double[] columnValues : values) {
+            if (columnValues != null) {
+                return columnValues.length;
+            }
+        }
+        return times.length > 0 ? times.length : Integer.MAX_VALUE;
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("row " + row + " of " + rowCount);
+        }
+    }
+
+    private static double[] newValues(int capacity) {
+        double[] newValues = new double[capacity];
+        Arrays.fill(newValues, Double.NaN);
+        return newValues;
+    }
+
+    /**
+     * @param row row index
+     * @return cell values of row separated by commas
+     */
+    String rowToString(int row) {
+        StringBuilder builder = new StringBuilder();
+        for (int column = 0; column < columns.size(); column++) {
+            if (column > 0) {
+                builder.append(", ");
+            }
+            appendCell(builder, column, row);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return true if cell has neither a numeric nor a string value
+     */
+    boolean isNull(int column, int row) {
+        return column != timeColumn && getString(column, row) == null && Double.isNaN(getDouble(column, row));
+    }
+
+    /**
+     * Appends value of cell to builder, null if cell has no value
+     */
+    void appendCell(StringBuilder builder, int column, int row) {
+        if (column == timeColumn) {
+            builder.append(times[row]);
+            return;
+        }
+        String string = getString(column, row);
+        if (string != null) {
+            builder.append(string);
+            return;
+        }
+        double value = values[column][row];
+        if (Double.isNaN(value)) {
+            builder.append("null");
+        } else {
+            builder.append(value);
+        }
+    }
+
+    /**
+     * @return name and tags of series
+     */
+    String getLabel() {
+        return tags.isEmpty() ? String.valueOf(name) : name + " " + tags;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("Series [name=").append(name)
+                .append(", tags=").append(tags)
+                .append(", columns=").append(columns)
+                .append(", values=[");
+        for (int row = 0; row < rowCount; row++) {
+            if (row > 0) {
+                builder.append(", ");
+            }
+            builder.append('[').append(rowToString(row)).append(']');
+        }
+        return builder.append("]]").toString();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of one statement of a query: its series decoded as {@link SeriesTable} or the error reported by InfluxDB.
+ */
+final class StatementResult {
+    private final int statementId;
+    private final List<SeriesTable> series = new ArrayList<SeriesTable>();
+    private String error;
+
+    StatementResult(int statementId) {
+        this.statementId = statementId;
+    }
+
+    int getStatementId() {
+        return statementId;
+    }
+
+    /**
+     * @return error reported by InfluxDB for the statement, null if none
+     */
+    String getError() {
+        return error;
+    }
+
+    void setError(String error) {
+        this.error = error;
+    }
+
+    List<SeriesTable> getSeries() {
+        return Collections.unmodifiableList(series);
+    }
+
+    /**
+     * @return first series having rows, null if none
+     */
+    SeriesTable getFirstSeries() {
+        for (SeriesTable table : series) {
+            if (table.getRowCount() > 0) {
+                return table;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return number of rows of all series
+     */
+    long getRowCount() {
+        long rowCount = 0;
+        for (SeriesTable table : series) {
+            rowCount += table.getRowCount();
+        }
+        return rowCount;
+    }
+
+    SeriesTable getLastSeries() {
+        return series.isEmpty() ? null : series.get(series.size() - 1);
+    }
+
+    void addSeries(SeriesTable table) {
+        series.add(table);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (SeriesTable table : series) {
+            if (builder.length() > 0) {
+                builder.append('\n');
+            }
+            builder.append(table);
+        }
+        return builder.toString();
+    }
+}
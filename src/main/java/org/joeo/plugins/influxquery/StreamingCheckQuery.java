@@ -0,0 +1,149 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams a chunked query response and computes a {@link Statistic} over all rows of a column,
+ * keeping only {@link StreamingStatistics} in memory whatever the number of rows.
+ */
+final class StreamingCheckQuery implements CheckQuery {
+    static final int DEFAULT_CHUNK_SIZE = 10000;
+
+    private final EndpointReader reader;
+    private final String command;
+    private final Statistic statistic;
+    private final String valueColumn;
+    private final int chunkSize;
+    private final StreamingStatistics preAggregated;
+
+    /**
+     * @param valueColumn name of column to compute statistic on, null for first column after time
+     * @param chunkSize number of rows per chunk, 0 for default
+     * @param preAggregated statistics of rows read before, merged with rows returned by command, null if none
+     */
+    StreamingCheckQuery(EndpointReader reader, String command, Statistic statistic, String valueColumn, int chunkSize,
+            StreamingStatistics preAggregated) {
+        this.reader = reader;
+        this.command = command;
+        this.statistic = statistic;
+        this.valueColumn = valueColumn;
+        this.chunkSize = chunkSize > 0 ? chunkSize : DEFAULT_CHUNK_SIZE;
+        this.preAggregated = preAggregated;
+    }
+
+    @Override
+    public String getCommand() {
+        return command;
+    }
+
+    @Override
+    public CheckVerdict execute(CheckEvaluator evaluator) throws IOException {
+        StreamingStatistics statistics = new StreamingStatistics();
+        read(reader, command, valueColumn, chunkSize, statistics);
+        if (preAggregated != null) {
+            statistics.merge(preAggregated);
+        }
+        return evaluator.evaluate(statistics, statistic);
+    }
+
+    /**
+     * Streams rows returned by command into statistics
+     * @param chunkSize number of rows per chunk
+     */
+    static void read(EndpointReader reader, String command, final String valueColumn, int chunkSize,
+            final StreamingStatistics statistics) throws IOException {
+        reader.read(command, chunkSize, new EndpointReader.BodyReader<Long>() {
+            @Override
+            public Long read(ResponseReader body) throws IOException {
+                return QueryResponseParser.parse(body, new StatisticsHandler(statistics, valueColumn));
+            }
+        });
+    }
+
+    /**
+     * Adds values of the selected column of every series to {@link StreamingStatistics}
+     */
+    static final class StatisticsHandler implements ResultHandler {
+        private final StreamingStatistics statistics;
+        private final String valueColumn;
+        private int valueIndex = -1;
+
+        StatisticsHandler(StreamingStatistics statistics, String valueColumn) {
+            this.statistics = statistics;
+            this.valueColumn = valueColumn;
+        }
+
+        @Override
+        public void onSeries(int statementId, String name, Map<String, String> tags, List<String> columns) {
+            if (valueColumn != null) {
+                valueIndex = columns.indexOf(valueColumn);
+                if (valueIndex < 0 && !columns.isEmpty()) {
+                    throw new IllegalArgumentException("Column " + valueColumn + " not found in " + columns);
+                }
+            } else {
+                valueIndex = columns.size() > 1 && "time".equals(columns.get(0)) ? 1 : 0;
+            }
+        }
+
+        @Override
+        public void onCell(int column, ResponseReader reader) throws IOException {
+            if (column != valueIndex) {
+                reader.skipValue();
+                return;
+            }
+            switch (reader.peek()) {
+            case NUMBER:
+                statistics.add(reader.nextDouble());
+                break;
+            case BOOLEAN:
+                statistics.add(reader.nextBoolean() ? 1 : 0);
+                break;
+            default:
+                // null or string values are not part of statistics
+                reader.skipValue();
+                break;
+            }
+        }
+
+        @Override
+        public void onRowEnd() {
+            // NOOP
+        }
+
+        @Override
+        public void onStatementEnd(int statementId) {
+            // NOOP
+        }
+
+        @Override
+        public void onStatementError(int statementId, String error) {
+            throw new IllegalStateException(error);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import java.io.Serializable;
+
+/**
+ * Constant memory statistics over a stream of values: count, sum, min, max, error rate and approximate percentiles.
+ * Instances can be merged, so that partial results computed separately can be combined.
+ */
+final class StreamingStatistics implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private long count;
+    private double sum;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private long nonZeroCount;
+    private final QuantileSketch sketch = new QuantileSketch();
+
+    void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        count++;
+        sum += value;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+        if (value != 0) {
+            nonZeroCount++;
+        }
+        sketch.add(value);
+    }
+
+    void merge(StreamingStatistics other) {
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        nonZeroCount += other.nonZeroCount;
+        sketch.merge(other.sketch);
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    /**
+     * @param statistic {@link Statistic}
+     * @return value of statistic, NaN if no value was added
+     */
+    double get(Statistic statistic) {
+        if (count == 0) {
+            return statistic == Statistic.COUNT || statistic == Statistic.SUM ? 0 : Double.NaN;
+        }
+        switch (statistic) {
+        case MAX:
+            return max;
+        case MIN:
+            return min;
+        case MEAN:
+            return sum / count;
+        case SUM:
+            return sum;
+        case COUNT:
+            return count;
+        case ERROR_RATE:
+            return 100.0 * nonZeroCount / count;
+        case P50:
+            return quantile(0.5);
+        case P90:
+            return quantile(0.9);
+        case P95:
+            return quantile(0.95);
+        case P99:
+            return quantile(0.99);
+        default:
+            throw new IllegalArgumentException("Unsupported statistic:" + statistic);
+        }
+    }
+
+    private double quantile(double quantile) {
+        // Sketch estimate may be slightly outside of observed range
+        return Math.max(min, Math.min(max, sketch.quantile(quantile)));
+    }
+
+    @Override
+    public String toString() {
+        if (count == 0) {
+            return "count=0";
+        }
+        return "count=" + count + ", min=" + min + ", max=" + max + ", mean=" + get(Statistic.MEAN)
+                + ", errorRate=" + get(Statistic.ERROR_RATE) + "%, p50=" + get(Statistic.P50)
+                + ", p90=" + get(Statistic.P90) + ", p95=" + get(Statistic.P95) + ", p99=" + get(Statistic.P99);
+    }
+}
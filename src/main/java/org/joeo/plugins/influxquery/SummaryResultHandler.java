@@ -0,0 +1,171 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates the first statement of a query response row by row, keeping only what {@link CheckEvaluator} needs:
+ * the first value of the first series with rows, row counts and the {@link AssertionReport}.
+ * Each series holds a single row at a time, so memory does not grow with the response.
+ */
+final class SummaryResultHandler implements ResultHandler {
+    private final List<SeriesAssertion> assertions;
+    private final AssertionReport report = new AssertionReport();
+    private SeriesTable currentSeries;
+    private int[] assertionColumns;
+    private long seriesRows;
+    private long rowCount;
+    private SeriesTable firstSeries;
+    private long firstSeriesRows;
+    private double firstValue = Double.NaN;
+    private String firstString;
+    private String error;
+
+    /**
+     * @param assertions {@link SeriesAssertion}s checked on every row
+     */
+    SummaryResultHandler(List<SeriesAssertion> assertions) {
+        this.assertions = assertions;
+    }
+
+    @Override
+    public void onSeries(int statementId, String name, Map<String, String> tags, List<String> columns) {
+        if (statementId != 0) {
+            currentSeries = null;
+            return;
+        }
+        SeriesTable last = currentSeries;
+        if (last == null || !last.isContinuedBy(name, tags, columns)) {
+            currentSeries = new SeriesTable(name, tags, columns);
+            assertionColumns = null;
+            seriesRows = 0;
+        }
+    }
+
+    @Override
+    public void onCell(int column, ResponseReader reader) throws IOException {
+        if (currentSeries == null) {
+            reader.skipValue();
+        } else {
+            ColumnarResultHandler.decode(currentSeries, column, reader);
+        }
+    }
+
+    @Override
+    public void onRowEnd() {
+        if (currentSeries == null) {
+            return;
+        }
+        currentSeries.endRow();
+        rowCount++;
+        if (seriesRows++ == 0) {
+            report.addCheckedSeries();
+            if (firstSeries == null) {
+                firstSeries = currentSeries;
+                int column = currentSeries.getFirstValueColumn();
+                firstValue = currentSeries.getDouble(column, 0);
+                firstString = currentSeries.getString(column, 0);
+            }
+        }
+        if (currentSeries == firstSeries) {
+            firstSeriesRows++;
+        }
+        if (assertionColumns == null) {
+            assertionColumns = new int[assertions.size()];
+            for (int i = 0; i < assertionColumns.length; i++) {
+                assertionColumns[i] = assertions.get(i).columnIndex(currentSeries);
+            }
+        }
+        for (int i = 0; i < assertionColumns.length; i++) {
+            assertions.get(i).check(currentSeries, assertionColumns[i], 0, report);
+        }
+        currentSeries.clear();
+    }
+
+    @Override
+    public void onStatementEnd(int statementId) {
+        // series of the next statement are skipped
+    }
+
+    @Override
+    public void onStatementError(int statementId, String error) {
+        if (statementId == 0) {
+            this.error = error;
+        }
+    }
+
+    /**
+     * @return error reported by InfluxDB for the first statement, null if none
+     */
+    String getError() {
+        return error;
+    }
+
+    /**
+     * @return number of rows of the first statement
+     */
+    long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return true if the first statement returned at least one row
+     */
+    boolean hasRows() {
+        return firstSeries != null;
+    }
+
+    /**
+     * @return first value after time of the first series with rows, NaN if null or not a number
+     */
+    double getFirstValue() {
+        return firstValue;
+    }
+
+    /**
+     * @return first value after time of the first series with rows if it is a string, null otherwise
+     */
+    String getFirstString() {
+        return firstString;
+    }
+
+    /**
+     * @return number of rows of the first series with rows
+     */
+    long getFirstSeriesRowCount() {
+        return firstSeriesRows;
+    }
+
+    /**
+     * @return {@link AssertionReport} of all rows read
+     */
+    AssertionReport getReport() {
+        return report;
+    }
+}
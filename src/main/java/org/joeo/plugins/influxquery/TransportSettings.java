@@ -0,0 +1,195 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import okhttp3.ConnectionPool;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+
+/**
+ * HTTP transport settings of InfluxDB requests: timeouts, connection pool and compression of responses.
+ * Configured globally and optionally overridden per {@link InfluxDBEndpoint}.
+ */
+public class TransportSettings extends AbstractDescribableImpl<TransportSettings> implements Serializable {
+    private static final long serialVersionUID = 1L;
+    static final int DEFAULT_CONNECT_TIMEOUT_SECONDS = 10;
+    static final int DEFAULT_READ_TIMEOUT_SECONDS = 60;
+    static final int DEFAULT_WRITE_TIMEOUT_SECONDS = 30;
+    static final int DEFAULT_MAX_IDLE_CONNECTIONS = Integer.getInteger(InfluxDBUtils.class.getName() + ".maxIdleConnections", 10);
+    static final int DEFAULT_KEEP_ALIVE_SECONDS = 300;
+
+    /**
+     * Disables compression which OkHttp otherwise requests and decodes transparently
+     */
+    private static final Interceptor IDENTITY_ENCODING = new Interceptor() {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            return chain.proceed(chain.request().newBuilder().header("Accept-Encoding", "identity").build());
+        }
+    };
+
+    private int connectTimeout = DEFAULT_CONNECT_TIMEOUT_SECONDS;
+    private int readTimeout = DEFAULT_READ_TIMEOUT_SECONDS;
+    private int writeTimeout = DEFAULT_WRITE_TIMEOUT_SECONDS;
+    private int maxIdleConnections = DEFAULT_MAX_IDLE_CONNECTIONS;
+    private int keepAlive = DEFAULT_KEEP_ALIVE_SECONDS;
+    private boolean gzip = true;
+
+    @DataBoundConstructor
+    public TransportSettings() {
+        super();
+    }
+
+    /**
+     * @param connectTimeout seconds to establish a connection, 0 for no timeout
+     */
+    @DataBoundSetter public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * @param readTimeout seconds without receiving data from InfluxDB, 0 for no timeout
+     */
+    @DataBoundSetter public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * @param writeTimeout seconds without sending data to InfluxDB, 0 for no timeout
+     */
+    @DataBoundSetter public void setWriteTimeout(int writeTimeout) {
+        this.writeTimeout = writeTimeout;
+    }
+
+    /**
+     * @param maxIdleConnections idle connections kept open per pool
+     */
+    @DataBoundSetter public void setMaxIdleConnections(int maxIdleConnections) {
+        this.maxIdleConnections = maxIdleConnections;
+    }
+
+    /**
+     * @param keepAlive seconds an idle connection is kept open
+     */
+    @DataBoundSetter public void setKeepAlive(int keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * @param gzip true to request compressed responses
+     */
+    @DataBoundSetter public void setGzip(boolean gzip) {
+        this.gzip = gzip;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    public int getWriteTimeout() {
+        return writeTimeout;
+    }
+
+    public int getMaxIdleConnections() {
+        return maxIdleConnections;
+    }
+
+    public int getKeepAlive() {
+        return keepAlive;
+    }
+
+    public boolean getGzip() {
+        return gzip;
+    }
+
+    /**
+     * @return new HTTP client builder with a connection pool of its own and these settings
+     */
+    OkHttpClient.Builder newClientBuilder() {
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(Math.max(0, maxIdleConnections), Math.max(1, keepAlive), TimeUnit.SECONDS))
+                .connectTimeout(Math.max(0, connectTimeout), TimeUnit.SECONDS)
+                .readTimeout(Math.max(0, readTimeout), TimeUnit.SECONDS)
+                .writeTimeout(Math.max(0, writeTimeout), TimeUnit.SECONDS);
+        if (!gzip) {
+            builder.addInterceptor(IDENTITY_ENCODING);
+        }
+        return builder;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof TransportSettings)) {
+            return false;
+        }
+        TransportSettings other = (TransportSettings) obj;
+        return connectTimeout == other.connectTimeout && readTimeout == other.readTimeout
+                && writeTimeout == other.writeTimeout && maxIdleConnections == other.maxIdleConnections
+                && keepAlive == other.keepAlive && gzip == other.gzip;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = connectTimeout;
+        hash = 31 * hash + readTimeout;
+        hash = 31 * hash + writeTimeout;
+        hash = 31 * hash + maxIdleConnections;
+        hash = 31 * hash + keepAlive;
+        return 31 * hash + (gzip ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return "connect:" + connectTimeout + "s, read:" + readTimeout + "s, write:" + writeTimeout + "s, idle connections:"
+                + maxIdleConnections + ", keep alive:" + keepAlive + "s, gzip:" + gzip;
+    }
+
+    @Extension
+    public static final class TransportDescriptorImpl extends Descriptor<TransportSettings> {
+        @Override
+        public String getDisplayName() {
+            return "Transport Settings";
+        }
+    }
+}
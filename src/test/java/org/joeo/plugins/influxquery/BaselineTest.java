@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class BaselineTest {
+
+    @Test public void computesMeanAndVarianceIncrementally() {
+        Baseline baseline = new Baseline();
+        double[] values = {10, 12, 9, 11, 13, 10, 12};
+        double sum = 0;
+        for (double value : values) {
+            baseline.update(value);
+            sum += value;
+        }
+        double mean = sum / values.length;
+        double squares = 0;
+        for (double value : values) {
+            squares += (value - mean) * (value - mean);
+        }
+        assertEquals(values.length, baseline.getCount());
+        assertEquals(mean, baseline.getMean(), 1e-9);
+        assertEquals(Math.sqrt(squares / (values.length - 1)), baseline.getStandardDeviation(), 1e-9);
+        assertEquals(11, baseline.quantile(0.5), 0.2);
+    }
+
+    @Test public void ewmaFollowsRecentValues() {
+        Baseline baseline = new Baseline();
+        for (int i = 0; i < 50; i++) {
+            baseline.update(100);
+        }
+        for (int i = 0; i < 50; i++) {
+            baseline.update(200);
+        }
+        assertEquals(150, baseline.getMean(), 1e-9);
+        assertTrue(baseline.getEwma() > 199);
+        baseline.update(Double.NaN);
+        assertEquals(100, baseline.getCount());
+    }
+
+    @Test public void gateNeedsALimit() {
+        assertNull(BaselineGate.of(0, 0, 5));
+        assertEquals(BaselineGate.DEFAULT_MIN_BUILDS, BaselineGate.of(3, 0, 0).getMinBuilds());
+    }
+
+    @Test public void gateFailsRegressionsOnceReady() {
+        Baseline baseline = new Baseline();
+        BaselineGate gate = BaselineGate.of(3, 0, 4);
+        for (int i = 0; i < 3; i++) {
+            baseline.update(i % 2 == 0 ? 90 : 110);
+        }
+        assertFalse(gate.isRegression(baseline, 1000));
+        baseline.update(110);
+        assertTrue(gate.isReady(baseline));
+        double limit = gate.limit(baseline);
+        assertEquals(baseline.getEwma() + 3 * baseline.getEwmStandardDeviation(), limit, 1e-9);
+        assertFalse(gate.isRegression(baseline, limit));
+        assertTrue(gate.isRegression(baseline, limit + 1));
+    }
+
+    @Test public void lowestLimitApplies() {
+        Baseline baseline = new Baseline();
+        for (int i = 0; i < 10; i++) {
+            baseline.update(i % 2 == 0 ? 50 : 150);
+        }
+        BaselineGate gate = BaselineGate.of(3, 10, 10);
+        assertEquals(baseline.getEwma() * 1.1, gate.limit(baseline), 1e-9);
+        assertTrue(gate.isRegression(baseline, baseline.getEwma() * 1.2));
+    }
+}
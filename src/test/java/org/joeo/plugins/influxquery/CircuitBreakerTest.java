@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.net.SocketTimeoutException;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+    private static void assertRefused(CircuitBreaker breaker, long now) {
+        try {
+            breaker.acquire("default", UnavailableOutcome.PASS, now);
+            fail("expected circuit to be open");
+        } catch (CircuitOpenException e) {
+            assertEquals(UnavailableOutcome.PASS, e.getOutcome());
+        }
+    }
+
+    @Test public void opensOnFailureRateAndClosesAfterSuccessfulProbe() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(10, 4, 50, 30, 1000);
+        for (int i = 0; i < 3; i++) {
+            breaker.acquire("default", UnavailableOutcome.PASS, 0);
+            breaker.onFailure("default", false, 0);
+        }
+        // not enough requests yet
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState("default"));
+        breaker.onSuccess("default");
+        breaker.onFailure("default", false, 100);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState("default"));
+        assertRefused(breaker, 500);
+        // single probe once open duration is over
+        breaker.acquire("default", UnavailableOutcome.PASS, 1100);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState("default"));
+        assertRefused(breaker, 1100);
+        breaker.onSuccess("default");
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState("default"));
+        // window was reset
+        breaker.onFailure("default", false, 1200);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState("default"));
+    }
+
+    @Test public void opensOnTimeoutRateAndStaysOpenAfterFailedProbe() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(10, 10, 50, 30, 1000);
+        for (int i = 0; i < 7; i++) {
+            breaker.onSuccess("default");
+        }
+        for (int i = 0; i < 3; i++) {
+            breaker.onFailure("default", true, 0);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState("default"));
+        breaker.acquire("default", UnavailableOutcome.PASS, 1000);
+        breaker.onFailure("default", true, 1000);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState("default"));
+        assertRefused(breaker, 1500);
+        // a probe which could not be sent lets the next request probe
+        breaker.acquire("default", UnavailableOutcome.PASS, 2000);
+        breaker.onNotSent("default");
+        breaker.acquire("default", UnavailableOutcome.PASS, 2000);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState("default"));
+    }
+
+    @Test public void oldResultsLeaveTheWindow() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(4, 4, 75, 100, 1000);
+        breaker.onFailure("default", false, 0);
+        breaker.onFailure("default", false, 0);
+        for (int i = 0; i < 4; i++) {
+            breaker.onSuccess("default");
+        }
+        breaker.onFailure("default", false, 0);
+        breaker.onFailure("default", false, 0);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState("default"));
+        breaker.onFailure("default", false, 0);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState("default"));
+    }
+
+    @Test public void skippedCheckGetsConfiguredOutcome() throws Exception {
+        ByteArrayOutputStream console = new ByteArrayOutputStream();
+        LoggerUtils loggerUtils = new LoggerUtils(new PrintStream(console, true, "UTF-8"));
+        CheckEvaluator evaluator = new CheckEvaluator("latency", 100, false, false);
+        assertTrue(evaluator.reportError(new CircuitOpenException("open", UnavailableOutcome.PASS), "select", 0, 3, loggerUtils));
+        assertEquals(CheckTiming.Outcome.UNAVAILABLE, evaluator.getTiming().getOutcome());
+        assertEquals(1, evaluator.getTiming().getAttempts());
+        assertTrue(new String(console.toByteArray(), "UTF-8").contains("passes without result"));
+    }
+
+    @Test public void abortedRequestIsNotTimeout() {
+        assertTrue(EndpointReader.isAborted(new InterruptedIOException()));
+        assertFalse(EndpointReader.isAborted(new InterruptedIOException("timeout")));
+        assertFalse(EndpointReader.isAborted(new SocketTimeoutException("Read timed out")));
+        assertFalse(EndpointReader.isAborted(new IOException("Connection refused")));
+        assertFalse(EndpointReader.isAborted(null));
+    }
+
+    @Test public void agentRequestsAreReportedToControllerCircuit() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(10, 2, 50, 30, 1000);
+        CheckTiming failing = new CheckTiming("agent");
+        for (int i = 0; i < 2; i++) {
+            failing.addFailedRequest(false);
+            failing.addAttempt(CheckTiming.Outcome.ERROR, 0, null);
+        }
+        AgentCheck.reportRequests(breaker, "agent", failing);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState("agent"));
+        long probe = System.currentTimeMillis() + 1000;
+        // agent did not answer, probe is let through again
+        breaker.acquire("agent", UnavailableOutcome.PASS, probe);
+        AgentCheck.reportRequests(breaker, "agent", null);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState("agent"));
+        breaker.acquire("agent", UnavailableOutcome.PASS, probe);
+        CheckTiming passing = new CheckTiming("agent");
+        passing.addRequest(new QueryTiming());
+        passing.addAttempt(CheckTiming.Outcome.PASSED, 1, 1.0);
+        AgentCheck.reportRequests(breaker, "agent", passing);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState("agent"));
+    }
+}
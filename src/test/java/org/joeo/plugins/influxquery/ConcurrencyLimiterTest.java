@@ -0,0 +1,179 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import hudson.remoting.Callable;
+import hudson.remoting.LocalChannel;
+import hudson.remoting.VirtualChannel;
+import hudson.util.StreamTaskListener;
+
+public class ConcurrencyLimiterTest {
+
+    private static Thread acquireAndRecord(final ConcurrencyLimiter limiter, final long buildStart, final List<Long> order) {
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    ConcurrencyLimiter.Permit permit = limiter.acquire("default", buildStart);
+                    order.add(buildStart);
+                    permit.onIgnore();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    private static void awaitQueued(ConcurrencyLimiter limiter, int queued) throws InterruptedException {
+        for (int i = 0; i < 500 && limiter.getQueued("default") < queued; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(queued, limiter.getQueued("default"));
+    }
+
+    @Test public void queuedRequestsOfEarlierBuildsGoFirst() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 10000);
+        ConcurrencyLimiter.Permit permit = limiter.acquire("default", 0);
+        List<Long> order = Collections.synchronizedList(new ArrayList<Long>());
+        Thread late = acquireAndRecord(limiter, 300, order);
+        awaitQueued(limiter, 1);
+        Thread early = acquireAndRecord(limiter, 100, order);
+        awaitQueued(limiter, 2);
+        assertEquals(1, limiter.getInFlight("default"));
+        permit.onIgnore();
+        late.join(5000);
+        early.join(5000);
+        assertEquals(Long.valueOf(100), order.get(0));
+        assertEquals(Long.valueOf(300), order.get(1));
+        assertEquals(0, limiter.getInFlight("default"));
+    }
+
+    @Test public void rejectsAfterMaximumWait() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 50);
+        ConcurrencyLimiter.Permit permit = limiter.acquire("default", 0);
+        try {
+            limiter.acquire("default", 0);
+            fail("expected no free slot");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("1 requests in flight"));
+        }
+        assertEquals(1, limiter.getRejected("default"));
+        assertEquals(0, limiter.getQueued("default"));
+        permit.onSuccess(1000);
+        limiter.acquire("default", 0).onIgnore();
+    }
+
+    @Test public void limitFollowsLatency() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 10, 0);
+        // fast responses with the limit in use raise it by one per window
+        for (int round = 0; round < 20; round++) {
+            List<ConcurrencyLimiter.Permit> permits = new ArrayList<ConcurrencyLimiter.Permit>();
+            for (int i = 0; i < limiter.getLimit("default"); i++) {
+                permits.add(limiter.acquire("default", 0));
+            }
+            for (ConcurrencyLimiter.Permit permit : permits) {
+                permit.onSuccess(1000000);
+            }
+        }
+        assertEquals(10, limiter.getLimit("default"));
+        // slow responses and failures shrink it
+        for (int i = 0; i < 5; i++) {
+            limiter.acquire("default", 0).onSuccess(5000000);
+        }
+        int afterSlow = limiter.getLimit("default");
+        assertTrue("limit " + afterSlow, afterSlow < 10);
+        for (int i = 0; i < 3; i++) {
+            limiter.acquire("default", 0).onDropped();
+        }
+        assertTrue(limiter.getLimit("default") < afterSlow);
+        // released permits are not counted twice
+        ConcurrencyLimiter.Permit permit = limiter.acquire("default", 0);
+        permit.onIgnore();
+        permit.onIgnore();
+        assertEquals(0, limiter.getInFlight("default"));
+    }
+
+    @Test public void agentRequestsTakeControllerSlots() throws Exception {
+        final ConcurrencyLimiter limiter = ConcurrencyLimiter.get();
+        final CheckEvaluator evaluator = new CheckEvaluator("agent", 1, false, false);
+        AgentCheck check = new AgentCheck(evaluator, new InfluxDBEndpoint("agent-slot", "http://a:8086", "perf"),
+                QueryLanguage.INFLUXQL, "SELECT 1", 0, null, null, 0, null, null, 0, 0, 0,
+                new StreamTaskListener(new ByteArrayOutputStream()), null);
+        final List<Integer> inFlight = new ArrayList<Integer>();
+        final List<RequestSlots> exported = new ArrayList<RequestSlots>();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        VirtualChannel agent = new LocalChannel(executor) {
+            @Override
+            public <T> T export(Class<T> type, T instance) {
+                exported.add((RequestSlots) instance);
+                return instance;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public <V, T extends Throwable> V call(Callable<V, T> callable) {
+                // no slot is held outside requests, such as while waiting for a retry
+                inFlight.add(limiter.getInFlight("agent-slot"));
+                try {
+                    RequestSlots slots = exported.get(0);
+                    long slot = slots.acquire();
+                    inFlight.add(limiter.getInFlight("agent-slot"));
+                    slots.onSuccess(slot, 1000000);
+                    inFlight.add(limiter.getInFlight("agent-slot"));
+                    // left to the controller, as if the agent disconnected during the request
+                    slots.acquire();
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+                return (V) evaluator;
+            }
+        };
+        try {
+            assertEquals(evaluator, check.callOn(agent));
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(Arrays.asList(0, 1, 0), inFlight);
+        assertEquals(0, limiter.getInFlight("agent-slot"));
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.Test;
+
+public class FluxRequestTest {
+
+    @Test public void escapesQueryInBody() {
+        assertEquals("{\"query\":\"from(bucket: \\\"perf\\\")\\n  |> range(start: -1h)\",\"type\":\"flux\","
+                + "\"dialect\":{\"header\":true,\"annotations\":[\"group\",\"datatype\",\"default\"]}}",
+                FluxRequest.body("from(bucket: \"perf\")\n  |> range(start: -1h)"));
+    }
+
+    @Test public void authenticatesWithTokenOrUser() {
+        assertEquals("Token s3cr3t", FluxRequest.authorization("s3cr3t", "jenkins", "pwd"));
+        assertEquals("Token jenkins:pwd", FluxRequest.authorization("", "jenkins", "pwd"));
+        assertNull(FluxRequest.authorization(null, null, null));
+    }
+
+    @Test public void evaluatesStandInResponse() throws Exception {
+        StandInInfluxDB influxDB = new StandInInfluxDB().rows(3).value(42);
+        try {
+            InfluxDBEndpoint endpoint = new InfluxDBEndpoint("flux", influxDB.getURL(), null);
+            endpoint.setInfluxOrg("perf-team");
+            CheckEvaluator evaluator = new CheckEvaluator("mean", 40, true, false);
+            String query = "from(bucket: \"jmeter\") |> range(start: -1h) |> mean()";
+            CheckVerdict verdict = new FluxCheckQuery(new EndpointReader(endpoint, evaluator.getTiming(), 0L), query,
+                    Statistic.MAX, null).execute(evaluator);
+            assertEquals(CheckVerdict.Status.EXCEEDED, verdict.getStatus());
+            assertEquals(42, verdict.getValue(), 0);
+            assertEquals(1, influxDB.getQueries());
+            assertTrue(influxDB.getLastFluxRequest(), influxDB.getLastFluxRequest().startsWith("/api/v2/query?org=perf-team {\"query\":"));
+            assertNull(influxDB.getLastAuthorization());
+        } finally {
+            influxDB.close();
+        }
+    }
+
+    @Test public void rejectedQueryIsNotRetried() throws Exception {
+        StandInInfluxDB influxDB = new StandInInfluxDB().errorRate(1).errorStatus(400);
+        try {
+            ByteArrayOutputStream console = new ByteArrayOutputStream();
+            CheckEvaluator evaluator = runCheck(influxDB, console);
+            assertEquals(1, influxDB.getQueries());
+            assertEquals(CheckTiming.Outcome.ERROR, evaluator.getTiming().getOutcome());
+            assertTrue(new String(console.toByteArray(), "UTF-8").contains("compilation failed: stand-in"));
+            influxDB.errorStatus(429);
+            runCheck(influxDB, console);
+            assertEquals(1 + 3, influxDB.getQueries());
+        } finally {
+            influxDB.close();
+        }
+    }
+
+    private static CheckEvaluator runCheck(StandInInfluxDB influxDB, ByteArrayOutputStream console) throws Exception {
+        InfluxDBEndpoint endpoint = new InfluxDBEndpoint("flux-" + influxDB.getQueries(), influxDB.getURL(), null);
+        CheckEvaluator evaluator = new CheckEvaluator("mean", 40, true, false);
+        FluxCheckQuery query = new FluxCheckQuery(new EndpointReader(endpoint, evaluator.getTiming(), 0L),
+                "from(bucket: \"jmeter\") |> range(start: -1h) |> mean()", Statistic.MAX, null);
+        new CheckRunner(evaluator, query, new FixedRetryPolicy(0), 2, 0)
+                .run(new LoggerUtils(new PrintStream(console, true, "UTF-8")));
+        return evaluator;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FluxResponseParserTest {
+    private static final String RAW_POINTS = "#group,false,false,true,true,false,false,true,true,true\r\n"
+            + "#datatype,string,long,dateTime:RFC3339,dateTime:RFC3339,dateTime:RFC3339Nano,double,string,string,string\r\n"
+            + "#default,_result,,,,,,,,\r\n"
+            + ",result,table,_start,_stop,_time,_value,_field,_measurement,transaction\r\n"
+            + ",,0,2018-05-22T19:53:00Z,2018-05-22T19:54:00Z,2018-05-22T19:53:26.123456789Z,100,elapsed,jmeter,login\r\n"
+            + ",,0,2018-05-22T19:53:00Z,2018-05-22T19:54:00Z,2018-05-22T19:53:27Z,300,elapsed,jmeter,login\r\n"
+            + ",,1,2018-05-22T19:53:00Z,2018-05-22T19:54:00Z,2018-05-22T19:53:26Z,,elapsed,jmeter,\"search, \"\"all\"\"\"\r\n"
+            + ",,1,2018-05-22T19:53:00Z,2018-05-22T19:54:00Z,2018-05-22T21:53:28+02:00,200,elapsed,jmeter,\"search, \"\"all\"\"\"\r\n"
+            + "\r\n";
+
+    private static List<StatementResult> parse(String csv) throws Exception {
+        ColumnarResultHandler handler = new ColumnarResultHandler();
+        FluxResponseParser.parse(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), handler);
+        return handler.getResults();
+    }
+
+    @Test public void readsTablesAsSeries() throws Exception {
+        List<StatementResult> results = parse(RAW_POINTS);
+        assertEquals(1, results.size());
+        List<SeriesTable> series = results.get(0).getSeries();
+        assertEquals(2, series.size());
+        SeriesTable login = series.get(0);
+        assertEquals("jmeter", login.getName());
+        assertEquals(2, login.getTags().size());
+        assertEquals("elapsed", login.getTags().get("_field"));
+        assertEquals("login", login.getTags().get("transaction"));
+        assertEquals(Arrays.asList("time", "_value"), login.getColumns());
+        assertEquals(1527018806123L, login.getTime(0));
+        assertEquals(300, login.getDouble(1, 1), 0);
+        SeriesTable search = series.get(1);
+        assertEquals("search, \"all\"", search.getTags().get("transaction"));
+        assertEquals(Double.NaN, search.getDouble(1, 0), 0);
+        assertEquals(1527018808000L, search.getTime(1));
+    }
+
+    @Test public void evaluatesFirstValueOfAggregate() throws Exception {
+        String csv = "#group,false,false,true,true,false,true\n"
+                + "#datatype,string,long,dateTime:RFC3339,dateTime:RFC3339,double,string\n"
+                + "#default,_result,,,,,\n"
+                + ",result,table,_start,_stop,_value,_field\n"
+                + ",,0,2018-05-22T19:53:00Z,2018-05-22T19:54:00Z,812.5,elapsed\n";
+        CheckEvaluator evaluator = new CheckEvaluator("p95", 800, true, false);
+        CheckVerdict verdict = evaluator.evaluate(parse(csv).get(0));
+        assertEquals(CheckVerdict.Status.EXCEEDED, verdict.getStatus());
+        assertEquals(812.5, verdict.getValue(), 0);
+    }
+
+    @Test public void reportsEachResultAsStatement() throws Exception {
+        String csv = "#group,false,false,false\n#datatype,string,long,long\n#default,,,\n"
+                + ",result,table,_value\n,errors,0,3\n\n"
+                + "#group,false,false,false\n#datatype,string,long,boolean\n#default,,,\n"
+                + ",result,table,ok\n,checks,0,true\n,checks,0,false\n";
+        List<StatementResult> results = parse(csv);
+        assertEquals(2, results.size());
+        assertEquals(3, results.get(0).getFirstSeries().getDouble(0, 0), 0);
+        assertEquals("checks", results.get(1).getFirstSeries().getName());
+        assertEquals(2, results.get(1).getRowCount());
+    }
+
+    @Test public void streamsStatisticOverRows() throws Exception {
+        StreamingStatistics statistics = new StreamingStatistics();
+        long rows = FluxResponseParser.parse(new ByteArrayInputStream(RAW_POINTS.getBytes(StandardCharsets.UTF_8)),
+                new StreamingCheckQuery.StatisticsHandler(statistics, null));
+        assertEquals(4, rows);
+        assertEquals(3, statistics.getCount());
+        assertEquals(600, statistics.get(Statistic.SUM), 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void errorTableFails() throws Exception {
+        parse("#datatype,string,string\n#group,true,true\n#default,,\n,error,reference\n"
+                + ",\"error calling function \"\"filter\"\": missing required argument fn\",897\n");
+    }
+
+    private static CheckVerdict evaluateStreaming(CheckEvaluator evaluator, String csv) throws Exception {
+        SummaryResultHandler summary = new SummaryResultHandler(evaluator.getAssertions());
+        FluxResponseParser.parse(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), summary);
+        return evaluator.evaluate(summary);
+    }
+
+    @Test public void streamingEvaluationMatchesBufferedOne() throws Exception {
+        CheckEvaluator threshold = new CheckEvaluator("first", 150, true, false);
+        CheckVerdict buffered = threshold.evaluate(parse(RAW_POINTS).get(0));
+        CheckVerdict streamed = evaluateStreaming(threshold, RAW_POINTS);
+        assertEquals(CheckVerdict.Status.PASSED, streamed.getStatus());
+        assertEquals(buffered.getValue(), streamed.getValue());
+        assertEquals(buffered.getRecordCount(), streamed.getRecordCount());
+
+        CheckEvaluator assertions = new CheckEvaluator("assertions", 0, true, false, SeriesAssertion.parseAll("_value < 250"));
+        buffered = assertions.evaluate(parse(RAW_POINTS).get(0));
+        streamed = evaluateStreaming(assertions, RAW_POINTS);
+        assertEquals(CheckVerdict.Status.EXCEEDED, streamed.getStatus());
+        assertEquals(1, streamed.getValue(), 0);
+        assertEquals(buffered.getRecordCount(), streamed.getRecordCount());
+        assertEquals(buffered.getViolations(), streamed.getViolations());
+    }
+
+    @Test public void parsesRfc3339Times() throws Exception {
+        assertEquals(0, FluxResponseParser.parseTimeMillis("1970-01-01T00:00:00Z"));
+        assertEquals(951782400500L, FluxResponseParser.parseTimeMillis("2000-02-29T00:00:00.5Z"));
+        assertEquals(951782400000L, FluxResponseParser.parseTimeMillis("2000-02-28T19:00:00-05:00"));
+    }
+}
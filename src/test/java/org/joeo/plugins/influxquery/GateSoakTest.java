@@ -0,0 +1,169 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.queue.QueueTaskFuture;
+
+/**
+ * Runs many builds gating at once against {@link StandInInfluxDB} and reports throughput, gate latency
+ * and resource usage. Skipped unless <code>influxdb.soak.builds</code> is set; sizes are set with system properties,
+ * for example
+ * <code>mvn test -Dtest=GateSoakTest -Dinfluxdb.soak.builds=200 -Dinfluxdb.soak.latencyMillis=100</code>.
+ */
+public class GateSoakTest {
+    private static final int BUILDS = Integer.getInteger("influxdb.soak.builds", 20);
+    private static final int LATENCY_MILLIS = Integer.getInteger("influxdb.soak.latencyMillis", 50);
+    private static final int ROWS = Integer.getInteger("influxdb.soak.rows", 100);
+    private static final double ERROR_RATE = Double.parseDouble(System.getProperty("influxdb.soak.errorRate", "0.05"));
+    private static final double EMPTY_RATE = Double.parseDouble(System.getProperty("influxdb.soak.emptyRate", "0.05"));
+    /** Threads and sockets which may remain after the run: idle pooled connections on both ends, Jenkins timers */
+    private static final int MAX_THREAD_GROWTH = Integer.getInteger("influxdb.soak.maxThreadGrowth", 50);
+    private static final int MAX_SOCKET_GROWTH = Integer.getInteger("influxdb.soak.maxSocketGrowth", 40);
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private StandInInfluxDB influxDB;
+
+    public GateSoakTest() {
+        j.timeout = (int) TimeUnit.MINUTES.toSeconds(30);
+    }
+
+    @BeforeClass
+    public static void requireSoakRun() {
+        Assume.assumeTrue("Soak test runs when influxdb.soak.builds is set", System.getProperty("influxdb.soak.builds") != null);
+    }
+
+    @Before
+    public void startStandIn() throws Exception {
+        influxDB = new StandInInfluxDB().latency(LATENCY_MILLIS).errorRate(ERROR_RATE).emptyRate(EMPTY_RATE)
+                .rows(ROWS).value(10);
+        DescriptorImpl descriptor = j.jenkins.getDescriptorByType(DescriptorImpl.class);
+        descriptor.setInfluxURL(influxDB.getURL());
+        descriptor.setInfluxDB("jmeter");
+        j.jenkins.setNumExecutors(BUILDS);
+        QueryResultCache.get().clear();
+    }
+
+    @After
+    public void stopStandIn() {
+        influxDB.close();
+    }
+
+    private static String query() {
+        return "select value from jmeter where buildTag = '${BUILD_TAG}'";
+    }
+
+    @Test
+    public void freestyleGates() throws Exception {
+        List<QueueTaskFuture<? extends Run<?, ?>>> builds = new ArrayList<QueueTaskFuture<? extends Run<?, ?>>>();
+        List<FreeStyleProject> projects = new ArrayList<FreeStyleProject>();
+        for (int i = 0; i < BUILDS; i++) {
+            FreeStyleProject project = j.createFreeStyleProject("freestyle-" + i);
+            InfluxDBQuery gate = new InfluxDBQuery("gate", query(), 100);
+            gate.setRetryCount(3);
+            gate.setRetryPolicy(new FixedRetryPolicy(0));
+            gate.setCacheTtl(0);
+            gate.setMarkUnstable(true);
+            project.getBuildersList().add(gate);
+            projects.add(project);
+        }
+        SoakReport report = new SoakReport("freestyle");
+        report.start();
+        for (FreeStyleProject project : projects) {
+            builds.add(project.scheduleBuild2(0));
+        }
+        waitFor(builds, report);
+    }
+
+    @Test
+    public void pipelineGates() throws Exception {
+        runPipelines("pipeline", "node { influxDbQuery checkName: 'gate', influxQuery: \"" + query().replace("$", "\\$")
+                + "\", expectedThreshold: 100, retryCount: 3, retryPolicy: fixed(interval: 0), cacheTtl: 0, markUnstable: true }");
+    }
+
+    @Test
+    public void asyncPipelineGates() throws Exception {
+        runPipelines("async-pipeline", "influxDbQueryAsync checkName: 'gate', influxQuery: \"" + query().replace("$", "\\$")
+                + "\", expectedThreshold: 100, retryCount: 3, retryPolicy: fixed(interval: 0), cacheTtl: 0, markUnstable: true");
+    }
+
+    private void runPipelines(String name, String script) throws Exception {
+        List<QueueTaskFuture<? extends Run<?, ?>>> builds = new ArrayList<QueueTaskFuture<? extends Run<?, ?>>>();
+        List<WorkflowJob> jobs = new ArrayList<WorkflowJob>();
+        for (int i = 0; i < BUILDS; i++) {
+            WorkflowJob job = j.jenkins.createProject(WorkflowJob.class, name + "-" + i);
+            job.setDefinition(new CpsFlowDefinition(script, true));
+            jobs.add(job);
+        }
+        SoakReport report = new SoakReport(name);
+        report.start();
+        for (WorkflowJob job : jobs) {
+            builds.add(job.scheduleBuild2(0));
+        }
+        waitFor(builds, report);
+    }
+
+    private void waitFor(List<QueueTaskFuture<? extends Run<?, ?>>> builds, SoakReport report) throws Exception {
+        for (QueueTaskFuture<? extends Run<?, ?>> future : builds) {
+            Run<?, ?> run = future.get(j.timeout, TimeUnit.SECONDS);
+            assertTrue(run.getFullDisplayName() + " " + run.getResult(), run.getResult().isBetterOrEqualTo(Result.UNSTABLE));
+            QueryResultAction action = run.getAction(QueryResultAction.class);
+            assertNotNull(run.getFullDisplayName() + " has no query results", action);
+            assertEquals(1, action.getResults().size());
+            report.addBuild(action.getResults());
+        }
+        report.finish();
+        report.write();
+        assertEquals(BUILDS, report.getGates());
+        assertTrue("queries " + influxDB.getQueries(), influxDB.getQueries() >= BUILDS);
+        if (report.getBefore().sockets >= 0) {
+            assertTrue("socket leak: " + report, report.getAfter().sockets - report.getBefore().sockets <= MAX_SOCKET_GROWTH);
+        }
+        assertTrue("thread leak: " + report, report.getAfter().threads - report.getBefore().threads <= MAX_THREAD_GROWTH);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+
+/**
+ * Runs {@link InfluxDBMultiQuery} against {@link StandInInfluxDB}, whose measurements answer each statement
+ * with their own value or error.
+ */
+public class InfluxDBMultiQueryTest {
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private StandInInfluxDB influxDB;
+
+    @Before
+    public void startStandIn() throws Exception {
+        influxDB = new StandInInfluxDB().rows(2);
+        DescriptorImpl descriptor = j.jenkins.getDescriptorByType(DescriptorImpl.class);
+        descriptor.setInfluxURL(influxDB.getURL());
+        descriptor.setInfluxDB("jmeter");
+        QueryResultCache.get().clear();
+    }
+
+    @After
+    public void stopStandIn() {
+        influxDB.close();
+    }
+
+    private static InfluxDBCheck check(String measurement) {
+        InfluxDBCheck check = new InfluxDBCheck(measurement, "select value from " + measurement, 100);
+        check.setMarkUnstable(true);
+        return check;
+    }
+
+    @Test
+    public void mapsStatementResultsToChecks() throws Exception {
+        influxDB.value("login", 10).value("search", 500).value("checkout", 20);
+        FreeStyleProject project = j.createFreeStyleProject("batch");
+        project.getBuildersList().add(new InfluxDBMultiQuery(Arrays.asList(check("login"), check("search"), check("checkout"))));
+        FreeStyleBuild build = j.assertBuildStatus(Result.UNSTABLE, project.scheduleBuild2(0));
+        j.assertLogContains("Running 3 checks as a single Influx Query, retry:0", build);
+        j.assertLogContains("InfluxDB Query select value from login returned :10.0", build);
+        j.assertLogContains("InfluxDB Query select value from search returned :500.0", build);
+        j.assertLogContains("InfluxDB Query select value from checkout returned :20.0", build);
+        assertEquals(1, influxDB.getQueries());
+    }
+
+    @Test
+    public void retriesOnlyFailedChecks() throws Exception {
+        influxDB.value("login", 10).value("search", 30).failures("search", 1).value("checkout", 20);
+        FreeStyleProject project = j.createFreeStyleProject("retry");
+        InfluxDBMultiQuery multiQuery = new InfluxDBMultiQuery(Arrays.asList(check("login"), check("search"), check("checkout")));
+        multiQuery.setRetryCount(2);
+        multiQuery.setRetryPolicy(new FixedRetryPolicy(0));
+        project.getBuildersList().add(multiQuery);
+        FreeStyleBuild build = j.buildAndAssertSuccess(project);
+        j.assertLogContains("stand-in statement failure", build);
+        j.assertLogContains("Running 1 checks as a single Influx Query, retry:1", build);
+        j.assertLogContains("InfluxDB Query select value from search returned :30.0", build);
+        assertEquals(2, influxDB.getQueries());
+        assertEquals(1, influxDB.getStatements("login"));
+        assertEquals(2, influxDB.getStatements("search"));
+        assertEquals(1, influxDB.getStatements("checkout"));
+    }
+
+    @Test
+    public void statementCountMismatchIsNotRetried() throws Exception {
+        FreeStyleProject project = j.createFreeStyleProject("mismatch");
+        InfluxDBMultiQuery multiQuery = new InfluxDBMultiQuery(Arrays.asList(
+                new InfluxDBCheck("two statements", "select value from login; select value from search", 100)));
+        multiQuery.setRetryCount(3);
+        multiQuery.setRetryPolicy(new FixedRetryPolicy(0));
+        project.getBuildersList().add(multiQuery);
+        FreeStyleBuild build = j.buildAndAssertSuccess(project);
+        j.assertLogContains("expected 1 statement results but got 2", build);
+        j.assertLogContains("will not be fixed by retrying", build);
+        assertEquals(1, influxDB.getQueries());
+    }
+
+    @Test
+    public void parallelOutputFollowsCheckOrder() throws Exception {
+        // the first check completes last, the last one before the second
+        influxDB.value("login", 10).latency("login", 1500).value("search", 500).value("checkout", 20).latency("checkout", 500);
+        FreeStyleProject project = j.createFreeStyleProject("parallel");
+        InfluxDBMultiQuery multiQuery = new InfluxDBMultiQuery(Arrays.asList(check("login"), check("search"), check("checkout")));
+        multiQuery.setParallel(true);
+        project.getBuildersList().add(multiQuery);
+        FreeStyleBuild build = j.assertBuildStatus(Result.UNSTABLE, project.scheduleBuild2(0));
+        String log = JenkinsRule.getLog(build);
+        int login = log.indexOf("Running Check:login ");
+        int search = log.indexOf("Running Check:search ");
+        int checkout = log.indexOf("Running Check:checkout ");
+        assertTrue(log, 0 <= login && login < search && search < checkout);
+        assertBetween(log, "select value from login returned :10.0", login, search);
+        assertBetween(log, "which is less than threshold:100.0", login, search);
+        assertBetween(log, "select value from search returned :500.0", search, checkout);
+        assertBetween(log, "will mark build Unstable", search, checkout);
+        assertBetween(log, "select value from checkout returned :20.0", checkout, log.length());
+        assertEquals(3, influxDB.getQueries());
+    }
+
+    /**
+     * Asserts that message is logged once, in the output of the check logged from start to end
+     */
+    private static void assertBetween(String log, String message, int start, int end) {
+        int index = log.indexOf(message, start);
+        assertTrue(message + " in " + log, index >= 0 && index < end);
+        assertEquals(log, index, log.lastIndexOf(message, end));
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import static org.junit.Assert.assertEquals;
+
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runners.model.Statement;
+import org.jvnet.hudson.test.RestartableJenkinsRule;
+
+/**
+ * Restarts Jenkins while an {@link InfluxDBQueryStep} waits between retries: the pending attempt must be
+ * rescheduled by {@link InfluxDBQueryStepExecution#onResume()} and the build complete with its result.
+ */
+public class InfluxDBQueryStepRestartTest {
+    @Rule
+    public RestartableJenkinsRule story = new RestartableJenkinsRule();
+
+    private StandInInfluxDB influxDB;
+
+    @After
+    public void stopStandIn() {
+        if (influxDB != null) {
+            influxDB.close();
+        }
+    }
+
+    @Test
+    public void retriesAfterRestart() {
+        story.addStep(new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                influxDB = new StandInInfluxDB().errorRate(1).value(10);
+                DescriptorImpl descriptor = story.j.jenkins.getDescriptorByType(DescriptorImpl.class);
+                descriptor.setInfluxURL(influxDB.getURL());
+                descriptor.setInfluxDB("jmeter");
+                WorkflowJob job = story.j.jenkins.createProject(WorkflowJob.class, "async");
+                job.setDefinition(new CpsFlowDefinition("influxDbQueryAsync checkName: 'gate', influxQuery: 'select value from jmeter',"
+                        + " expectedThreshold: 100, retryCount: 3, retryPolicy: fixed(interval: 20), cacheTtl: 0", true));
+                WorkflowRun run = job.scheduleBuild2(0).waitForStart();
+                story.j.waitForMessage("Waiting 20 seconds before retry.", run);
+            }
+        });
+        story.addStep(new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                WorkflowRun run = story.j.jenkins.getItemByFullName("async", WorkflowJob.class).getBuildByNumber(1);
+                long errors = influxDB.getErrors();
+                influxDB.errorRate(0);
+                story.j.assertBuildStatusSuccess(story.j.waitForCompletion(run));
+                story.j.assertLogContains("retry:1", run);
+                assertEquals(errors, influxDB.getErrors());
+            }
+        });
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.After;
+import org.junit.Test;
+
+import okhttp3.OkHttpClient;
+
+public class InfluxDBUtilsTest {
+
+    @After
+    public void release() {
+        InfluxDBUtils.releaseHttpClients();
+    }
+
+    @Test public void reusesClientOfEqualSettings() {
+        OkHttpClient client = InfluxDBUtils.getHttpClient(null);
+        assertSame(client, InfluxDBUtils.getHttpClient(new TransportSettings()));
+        TransportSettings slow = new TransportSettings();
+        slow.setReadTimeout(300);
+        OkHttpClient slowClient = InfluxDBUtils.getHttpClient(slow);
+        assertNotSame(client, slowClient);
+        TransportSettings sameSlow = new TransportSettings();
+        sameSlow.setReadTimeout(300);
+        assertSame(slowClient, InfluxDBUtils.getHttpClient(sameSlow));
+    }
+
+    @Test public void rebuildsClientsAfterConfigure() {
+        OkHttpClient client = InfluxDBUtils.getHttpClient(null);
+        InfluxDBUtils.releaseHttpClients();
+        OkHttpClient rebuilt = InfluxDBUtils.getHttpClient(null);
+        assertNotSame(client, rebuilt);
+        assertNotSame(client.connectionPool(), rebuilt.connectionPool());
+        assertSame(rebuilt, InfluxDBUtils.getHttpClient(null));
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes JSON documents as MessagePack the way InfluxDB does, to build MessagePack responses in tests and benchmarks.
+ */
+final class MessagePackEncoder {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(bytes);
+
+    /**
+     * @param json one or several JSON documents, as sent by chunked responses
+     * @return MessagePack documents in the same order
+     */
+    static byte[] fromJson(byte[] json) throws IOException {
+        JsonStreamReader reader = new JsonStreamReader(new ByteArrayInputStream(json));
+        MessagePackEncoder encoder = new MessagePackEncoder();
+        while (reader.peek() != ResponseReader.Token.END_DOCUMENT) {
+            encoder.write(read(reader));
+        }
+        return encoder.toByteArray();
+    }
+
+    private static Object read(JsonStreamReader reader) throws IOException {
+        switch (reader.peek()) {
+        case BEGIN_OBJECT:
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                map.put(name, read(reader));
+            }
+            reader.endObject();
+            return map;
+        case BEGIN_ARRAY:
+            List<Object> list = new ArrayList<Object>();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                list.add(read(reader));
+            }
+            reader.endArray();
+            return list;
+        case NUMBER:
+            String literal = reader.nextString();
+            if (literal.indexOf('.') >= 0 || literal.indexOf('e') >= 0 || literal.indexOf('E') >= 0) {
+                return Double.valueOf(literal);
+            }
+            return Long.valueOf(literal);
+        case BOOLEAN:
+            return reader.nextBoolean();
+        case NULL:
+            reader.nextNull();
+            return null;
+        default:
+            return reader.nextString();
+        }
+    }
+
+    MessagePackEncoder write(Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(0xc0);
+        } else if (value instanceof Boolean) {
+            out.writeByte((Boolean) value ? 0xc3 : 0xc2);
+        } else if (value instanceof Double) {
+            out.writeByte(0xcb);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Number) {
+            writeLong(((Number) value).longValue());
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            writeHeader(map.size(), 0x80, 0xde);
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                write(entry.getKey());
+                write(entry.getValue());
+            }
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            writeHeader(list.size(), 0x90, 0xdc);
+            for (Object element : list) {
+                write(element);
+            }
+        } else {
+            byte[] string = value.toString().getBytes(StandardCharsets.UTF_8);
+            if (string.length < 32) {
+                out.writeByte(0xa0 | string.length);
+            } else if (string.length < 256) {
+                out.writeByte(0xd9);
+                out.writeByte(string.length);
+            } else {
+                writeHeader(string.length, 0xa0, 0xda);
+            }
+            out.write(string);
+        }
+        return this;
+    }
+
+    /**
+     * Writes a time as the extension type 5 of InfluxDB
+     */
+    MessagePackEncoder writeTime(long seconds, int nanos) throws IOException {
+        out.writeByte(0xc7);
+        out.writeByte(12);
+        out.writeByte(5);
+        out.writeLong(seconds);
+        out.writeInt(nanos);
+        return this;
+    }
+
+    private void writeLong(long value) throws IOException {
+        if (value >= -32 && value <= 127) {
+            out.writeByte((int) value);
+        } else if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+            out.writeByte(0xd2);
+            out.writeInt((int) value);
+        } else {
+            out.writeByte(0xd3);
+            out.writeLong(value);
+        }
+    }
+
+    /**
+     * @param fixFormat format of sizes up to 15 (31 for strings), 16 bits format otherwise, 32 bits format follows it
+     */
+    private void writeHeader(int size, int fixFormat, int format16) throws IOException {
+        if (size < (fixFormat == 0xa0 ? 32 : 16)) {
+            out.writeByte(fixFormat | size);
+        } else if (size < 65536) {
+            out.writeByte(format16);
+            out.writeShort(size);
+        } else {
+            out.writeByte(format16 + 1);
+            out.writeInt(size);
+        }
+    }
+
+    byte[] toByteArray() throws IOException {
+        out.flush();
+        return bytes.toByteArray();
+    }
+}
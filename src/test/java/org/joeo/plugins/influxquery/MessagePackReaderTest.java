@@ -0,0 +1,140 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class MessagePackReaderTest {
+
+    private static List<StatementResult> decode(byte[] msgpack) throws Exception {
+        ColumnarResultHandler handler = new ColumnarResultHandler();
+        QueryResponseParser.parse(ResponseFormat.MSGPACK.newReader(new ByteArrayInputStream(msgpack)), handler);
+        return handler.getResults();
+    }
+
+    private static byte[] fromJson(String json) throws Exception {
+        return MessagePackEncoder.fromJson(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test public void decodesLikeJson() throws Exception {
+        StringBuilder json = new StringBuilder();
+        for (int chunk = 0; chunk < 3; chunk++) {
+            json.append("{\"results\":[{\"statement_id\":0,\"series\":[{\"name\":\"cpu\",\"tags\":{\"host\":\"a\"},")
+                    .append("\"columns\":[\"time\",\"value\",\"host\",\"ok\"],\"values\":[");
+            for (int i = 0; i < 300; i++) {
+                int row = chunk * 300 + i;
+                json.append(i > 0 ? "," : "").append('[').append(1500000000000L + row).append(',')
+                        .append(row % 7 == 0 ? "null" : row + ".5").append(",\"h").append(row).append("\",")
+                        .append(row % 2 == 0).append(']');
+            }
+            json.append("],\"partial\":").append(chunk < 2).append("}],\"partial\":").append(chunk < 2).append("}]}\n");
+        }
+        List<StatementResult> results = decode(fromJson(json.toString()));
+        assertEquals(1, results.size());
+        SeriesTable series = results.get(0).getFirstSeries();
+        assertEquals(900, series.getRowCount());
+        assertEquals(Collections.singletonMap("host", "a"), series.getTags());
+        assertEquals(1500000000899L, series.getTime(899));
+        assertEquals(898.5, series.getDouble(1, 898), 0);
+        assertTrue(Double.isNaN(series.getDouble(1, 896)));
+        assertEquals("h41", series.getString(2, 41));
+        assertEquals(1, series.getDouble(3, 40), 0);
+        assertEquals(0, series.getDouble(3, 41), 0);
+    }
+
+    @Test public void keepsEmptyAndFailedStatements() throws Exception {
+        List<StatementResult> results = decode(fromJson("{\"results\":[{\"statement_id\":0},"
+                + "{\"statement_id\":1,\"error\":\"error parsing query\"}]}"));
+        assertEquals(2, results.size());
+        assertNull(results.get(0).getFirstSeries());
+        assertEquals("error parsing query", results.get(1).getError());
+    }
+
+    @Test public void readsTimeExtension() throws Exception {
+        Map<String, Object> series = new LinkedHashMap<String, Object>();
+        series.put("name", "cpu");
+        series.put("columns", Arrays.asList("time", "value"));
+        series.put("values", Collections.singletonList(Arrays.asList(0L, 42L)));
+        Map<String, Object> statement = new LinkedHashMap<String, Object>();
+        statement.put("statement_id", 0L);
+        statement.put("series", Collections.singletonList(series));
+        byte[] encoded = new MessagePackEncoder()
+                .write(Collections.singletonMap("results", Collections.singletonList(statement))).toByteArray();
+        // replace time 0 (positive fixint, second to last byte) by an extension of 1500000000s and 250ms
+        byte[] time = new MessagePackEncoder().writeTime(1500000000L, 250000000).toByteArray();
+        byte[] msgpack = new byte[encoded.length - 1 + time.length];
+        System.arraycopy(encoded, 0, msgpack, 0, encoded.length - 2);
+        System.arraycopy(time, 0, msgpack, encoded.length - 2, time.length);
+        msgpack[msgpack.length - 1] = encoded[encoded.length - 1];
+        SeriesTable table = decode(msgpack).get(0).getFirstSeries();
+        assertEquals(1500000000250L, table.getTime(0));
+        assertEquals(42, table.getDouble(1, 0), 0);
+    }
+
+    @Test public void skipsUnknownValues() throws Exception {
+        byte[] msgpack = fromJson("{\"messages\":[{\"level\":\"warning\",\"text\":\"deprecated\",\"nested\":{\"a\":[1,2.5,null,true]}}],"
+                + "\"results\":[{\"statement_id\":0,\"series\":[{\"name\":\"cpu\",\"columns\":[\"time\",\"value\"],\"values\":[[1,2]]}]}]}");
+        assertEquals(2, decode(msgpack).get(0).getFirstSeries().getDouble(1, 0), 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void failsOnQueryError() throws Exception {
+        decode(fromJson("{\"error\":\"database not found: perf\"}"));
+    }
+
+    @Test public void readsLongStrings() throws Exception {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            value.append((char) ('a' + i % 26));
+        }
+        ResponseReader reader = ResponseFormat.MSGPACK.newReader(new ByteArrayInputStream(
+                new MessagePackEncoder().write(Arrays.asList(value.toString(), -5L, 3000000000L)).toByteArray()));
+        reader.beginArray();
+        assertEquals(value.toString(), reader.nextString());
+        assertEquals(-5, reader.nextLong());
+        assertEquals("3000000000", reader.nextString());
+        reader.endArray();
+        assertEquals(ResponseReader.Token.END_DOCUMENT, reader.peek());
+    }
+
+    @Test public void detectsFormatOfResponse() {
+        assertEquals(ResponseFormat.MSGPACK, ResponseFormat.ofContentType("application/x-msgpack"));
+        assertEquals(ResponseFormat.JSON, ResponseFormat.ofContentType("application/json"));
+        assertEquals(ResponseFormat.JSON, ResponseFormat.ofContentType(null));
+    }
+}
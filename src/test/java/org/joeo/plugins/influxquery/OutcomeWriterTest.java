@@ -0,0 +1,151 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+
+public class OutcomeWriterTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final class RecordingSender implements OutcomeWriter.Sender {
+        private final List<List<String>> batches = new ArrayList<List<String>>();
+        private boolean failing;
+
+        @Override
+        public void send(List<String> lines) throws IOException {
+            if (failing) {
+                throw new IOException("connection refused");
+            }
+            batches.add(new ArrayList<String>(lines));
+        }
+    }
+
+    @Test public void formatsLineProtocolPoint() {
+        CheckTiming timing = new CheckTiming("p95, login=ok");
+        timing.setThreshold(800);
+        timing.addAttempt(CheckTiming.Outcome.UNSTABLE, 3, 950.5);
+        assertEquals("influxdb_query_check,check=p95\\,\\ login\\=ok,endpoint=default,job=folder/my\\ job,outcome=unstable"
+                + " build=42i,value=950.5,threshold=800.0,duration_ms=0i,attempts=1i,rows=3i 1500000000000",
+                OutcomeWriter.toLine(OutcomeExport.DEFAULT_MEASUREMENT, "folder/my job", 42, timing, 1500000000000L));
+        CheckTiming noData = new CheckTiming("errors");
+        noData.addAttempt(CheckTiming.Outcome.NO_DATA, 0, null);
+        assertFalse(OutcomeWriter.toLine("gates", "job", 1, noData, 0).contains("value="));
+        CheckTiming noThreshold = new CheckTiming("errors");
+        noThreshold.setThreshold(Double.NaN);
+        noThreshold.addAttempt(CheckTiming.Outcome.PASSED, 1, 2.0);
+        assertEquals("gates,check=errors,endpoint=default,job=job,outcome=pass build=1i,value=2.0,duration_ms=0i,"
+                + "attempts=1i,rows=1i 0", OutcomeWriter.toLine("gates", "job", 1, noThreshold, 0));
+        noThreshold.setThreshold(Double.POSITIVE_INFINITY);
+        assertFalse(OutcomeWriter.toLine("gates", "job", 1, noThreshold, 0).contains("threshold="));
+    }
+
+    @Test public void flushesFullBatches() {
+        RecordingSender sender = new RecordingSender();
+        OutcomeWriter writer = new OutcomeWriter(100, 10, sender, DIRECT);
+        for (int i = 0; i < 25; i++) {
+            assertTrue(writer.offer("point" + i));
+        }
+        assertEquals(2, sender.batches.size());
+        assertEquals(10, sender.batches.get(0).size());
+        assertEquals(5, writer.getQueued());
+        writer.flush();
+        assertEquals(3, sender.batches.size());
+        assertEquals("point24", sender.batches.get(2).get(4));
+        assertEquals(25, writer.getWritten());
+    }
+
+    @Test public void dropsPointsWhenQueueIsFull() {
+        RecordingSender sender = new RecordingSender();
+        OutcomeWriter writer = new OutcomeWriter(5, 10, sender, DIRECT);
+        for (int i = 0; i < 8; i++) {
+            writer.offer("point" + i);
+        }
+        assertEquals(3, writer.getDropped());
+        assertEquals(0, sender.batches.size());
+        writer.flush();
+        assertEquals(5, writer.getWritten());
+    }
+
+    @Test public void countsFailedBatchesAndKeepsTheRest() {
+        RecordingSender sender = new RecordingSender();
+        OutcomeWriter writer = new OutcomeWriter(100, 10, sender, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                // flushed explicitly
+            }
+        });
+        for (int i = 0; i < 25; i++) {
+            writer.offer("point" + i);
+        }
+        sender.failing = true;
+        writer.flush();
+        assertEquals(10, writer.getFailed());
+        assertEquals(15, writer.getQueued());
+        sender.failing = false;
+        writer.flush();
+        assertEquals(15, writer.getWritten());
+        assertEquals(0, writer.getQueued());
+    }
+
+    @Test public void stopsStartingBatchesAfterTimeout() {
+        OutcomeWriter writer = new OutcomeWriter(100, 10, new OutcomeWriter.Sender() {
+            @Override
+            public void send(List<String> lines) throws IOException {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        }, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                // flushed explicitly
+            }
+        });
+        for (int i = 0; i < 45; i++) {
+            writer.offer("point" + i);
+        }
+        writer.flush(75);
+        assertEquals(20, writer.getWritten());
+        assertEquals(25, writer.getQueued());
+    }
+}
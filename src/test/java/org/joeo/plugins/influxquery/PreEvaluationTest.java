@@ -0,0 +1,139 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class PreEvaluationTest {
+    /**
+     * Adds one value per slice, fails while failures remain
+     */
+    private static final class FakeReader implements PreEvaluation.SliceReader {
+        private final List<String> commands = new ArrayList<String>();
+        private int failures;
+
+        @Override
+        public void read(String command, StreamingStatistics statistics) throws IOException {
+            commands.add(command);
+            statistics.add(commands.size() * 100);
+            if (failures > 0) {
+                failures--;
+                throw new IOException("timeout");
+            }
+        }
+    }
+
+    /**
+     * Sums the values of points whose time matches the bounds of the command
+     */
+    private static final class PointsReader implements PreEvaluation.SliceReader {
+        private static final Pattern FROM = Pattern.compile("time >= (\\d+)");
+        private static final Pattern TO = Pattern.compile("time < (\\d+)");
+        private final long[] times;
+
+        PointsReader(long... times) {
+            this.times = times;
+        }
+
+        @Override
+        public void read(String command, StreamingStatistics statistics) {
+            Matcher from = FROM.matcher(command);
+            Matcher to = TO.matcher(command);
+            long fromNanos = from.find() ? Long.parseLong(from.group(1)) : Long.MIN_VALUE;
+            long toNanos = to.find() ? Long.parseLong(to.group(1)) : Long.MAX_VALUE;
+            for (long time : times) {
+                if (time >= fromNanos && time < toNanos) {
+                    statistics.add(time);
+                }
+            }
+        }
+    }
+
+    @Test public void firstSliceFollowsScopeToBuild() {
+        // build started at 2s with a 1s margin, one point before the margin, one within, one during the build
+        PointsReader reader = new PointsReader(500000000L, 1500000000L, 2500000000L);
+        long scopedFrom = QueryScope.fromNanos(true, 1, 2000);
+        long unscopedFrom = QueryScope.fromNanos(false, 1, 2000);
+        PreEvaluation scoped = new PreEvaluation("sum", "select elapsed from jmeter", scopedFrom, reader);
+        PreEvaluation unscoped = new PreEvaluation("sum", "select elapsed from jmeter", unscopedFrom, reader);
+        assertTrue(scoped.poll(3000000000L));
+        assertTrue(unscoped.poll(3000000000L));
+        // same values as the query run once at the end of the build
+        StreamingStatistics scopedQuery = new StreamingStatistics();
+        reader.read(QueryScope.scope("select elapsed from jmeter", scopedFrom), scopedQuery);
+        StreamingStatistics unscopedQuery = new StreamingStatistics();
+        reader.read("select elapsed from jmeter", unscopedQuery);
+        assertEquals(2, scoped.getStatistics().getCount());
+        assertEquals(scopedQuery.get(Statistic.SUM), scoped.getStatistics().get(Statistic.SUM), 0);
+        assertEquals(3, unscoped.getStatistics().getCount());
+        assertEquals(unscopedQuery.get(Statistic.SUM), unscoped.getStatistics().get(Statistic.SUM), 0);
+        assertEquals("select elapsed from jmeter WHERE time < 3000000000",
+                QueryScope.slice("select elapsed from jmeter", unscopedFrom, 3000000000L));
+    }
+
+    @Test public void mergesConsecutiveSlices() {
+        FakeReader reader = new FakeReader();
+        PreEvaluation preEvaluation = new PreEvaluation("p95", "select elapsed from jmeter", 100, reader);
+        assertTrue(preEvaluation.poll(200));
+        assertFalse(preEvaluation.poll(200));
+        assertTrue(preEvaluation.poll(300));
+        assertEquals("select elapsed from jmeter WHERE time >= 100 AND time < 200", reader.commands.get(0));
+        assertEquals("select elapsed from jmeter WHERE time >= 200 AND time < 300", reader.commands.get(1));
+        assertEquals(2, preEvaluation.getSlices());
+        assertEquals(300, preEvaluation.getFromNanos());
+        assertEquals(300.0, preEvaluation.getStatistics().get(Statistic.SUM), 0);
+    }
+
+    @Test public void readsFailedSliceAgain() {
+        FakeReader reader = new FakeReader();
+        reader.failures = 1;
+        PreEvaluation preEvaluation = new PreEvaluation("p95", "select elapsed from jmeter", 100, reader);
+        assertFalse(preEvaluation.poll(200));
+        assertEquals(0, preEvaluation.getStatistics().getCount());
+        assertTrue(preEvaluation.poll(250));
+        assertEquals("select elapsed from jmeter WHERE time >= 100 AND time < 250", reader.commands.get(1));
+        assertEquals(1, preEvaluation.getStatistics().getCount());
+    }
+
+    @Test public void stopsPollingOnceFinished() {
+        FakeReader reader = new FakeReader();
+        PreEvaluation preEvaluation = new PreEvaluation("p95", "select elapsed from jmeter", 100, reader);
+        preEvaluation.finish();
+        assertFalse(preEvaluation.poll(200));
+        assertTrue(reader.commands.isEmpty());
+        assertEquals(100, preEvaluation.getFromNanos());
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+public class QueryMetricsTest {
+
+    @Test public void escapesLabelValues() {
+        assertEquals("check=\"a \\\"b\\\" \\\\ c\\n\"", QueryMetrics.label("check", "a \"b\" \\ c\n"));
+    }
+
+    @Test public void histogramBucketsAreCumulative() {
+        QueryMetrics.Histogram histogram = new QueryMetrics.Histogram();
+        histogram.observe(1000000L);
+        histogram.observe(200000000L);
+        histogram.observe(120000000000L);
+        StringWriter out = new StringWriter();
+        histogram.write(new PrintWriter(out), "h", "x=\"1\"");
+        String text = out.toString();
+        assertTrue(text, text.contains("h_bucket{x=\"1\",le=\"0.005\"} 1\n"));
+        assertTrue(text, text.contains("h_bucket{x=\"1\",le=\"0.25\"} 2\n"));
+        assertTrue(text, text.contains("h_bucket{x=\"1\",le=\"60.0\"} 2\n"));
+        assertTrue(text, text.contains("h_bucket{x=\"1\",le=\"+Inf\"} 3\n"));
+        assertTrue(text, text.contains("h_count{x=\"1\"} 3\n"));
+    }
+
+    @Test public void recordsChecksByOutcome() {
+        QueryMetrics metrics = new QueryMetrics();
+        CheckTiming timing = new CheckTiming("latency");
+        timing.setEndpoint("main");
+        timing.addAttempt(CheckTiming.Outcome.ERROR, 0, null);
+        timing.addAttempt(CheckTiming.Outcome.PASSED, 12, 3.5);
+        timing.finish();
+        metrics.recordCheck(timing);
+        metrics.recordFailedRequest("main", FailureClassifier.Category.TRANSIENT);
+        metrics.recordFailedRequest("main", FailureClassifier.Category.TIMEOUT);
+        StringWriter out = new StringWriter();
+        metrics.write(new PrintWriter(out));
+        String text = out.toString();
+        String labels = "check=\"latency\",endpoint=\"main\"";
+        assertTrue(text, text.contains("influxdb_query_check_outcomes_total{" + labels + ",outcome=\"pass\"} 1\n"));
+        assertTrue(text, text.contains("influxdb_query_check_retries_total{" + labels + "} 1\n"));
+        assertTrue(text, text.contains("influxdb_query_check_rows_total{" + labels + "} 12\n"));
+        assertTrue(text, text.contains("influxdb_query_requests_total{endpoint=\"main\",status=\"error\"} 1\n"));
+        assertTrue(text, text.contains("influxdb_query_requests_total{endpoint=\"main\",status=\"timeout\"} 1\n"));
+        assertTrue(text, text.contains("# TYPE influxdb_query_check_duration_seconds histogram\n"));
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class QueryResultCacheTest {
+
+    private static List<StatementResult> withData() {
+        return withRows(1);
+    }
+
+    private static List<StatementResult> withRows(int rows) {
+        StatementResult result = new StatementResult(0);
+        SeriesTable series = new SeriesTable("m", Collections.<String, String>emptyMap(), Arrays.asList("time", "value"));
+        for (int row = 0; row < rows; row++) {
+            series.setTime(row);
+            series.setDouble(1, row);
+            series.endRow();
+        }
+        result.addSeries(series);
+        return Collections.singletonList(result);
+    }
+
+    private static final class CountingLoader implements Callable<List<StatementResult>> {
+        final AtomicInteger calls = new AtomicInteger();
+        final List<StatementResult> results;
+
+        CountingLoader(List<StatementResult> results) {
+            this.results = results;
+        }
+
+        @Override
+        public List<StatementResult> call() throws Exception {
+            calls.incrementAndGet();
+            return results;
+        }
+    }
+
+    @Test public void servesFreshResultsFromCache() throws Exception {
+        QueryResultCache cache = new QueryResultCache(10);
+        CountingLoader loader = new CountingLoader(withData());
+        assertSame(loader.results, cache.get("q", 60000, loader));
+        assertSame(loader.results, cache.get("q", 60000, loader));
+        assertEquals(1, loader.calls.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        cache.get("q", 0, loader);
+        assertEquals(2, loader.calls.get());
+    }
+
+    @Test public void doesNotCacheEmptyResults() throws Exception {
+        QueryResultCache cache = new QueryResultCache(10);
+        CountingLoader loader = new CountingLoader(Collections.singletonList(new StatementResult(0)));
+        cache.get("q", 60000, loader);
+        cache.get("q", 60000, loader);
+        assertEquals(2, loader.calls.get());
+        assertEquals(0, cache.size());
+    }
+
+    @Test public void evictsLeastRecentlyUsed() throws Exception {
+        QueryResultCache cache = new QueryResultCache(2);
+        CountingLoader loader = new CountingLoader(withData());
+        cache.get("a", 60000, loader);
+        cache.get("b", 60000, loader);
+        cache.get("a", 60000, loader);
+        cache.get("c", 60000, loader);
+        assertEquals(2, cache.size());
+        cache.get("a", 60000, loader);
+        assertEquals(3, loader.calls.get());
+        cache.get("b", 60000, loader);
+        assertEquals(4, loader.calls.get());
+    }
+
+    @Test public void evictsByCells() throws Exception {
+        // 2 columns of 5 rows per result, a budget of 4 results
+        QueryResultCache cache = new QueryResultCache(10, 40);
+        CountingLoader loader = new CountingLoader(withRows(5));
+        for (String key : Arrays.asList("a", "b", "c", "d", "a", "e")) {
+            cache.get(key, 60000, loader);
+        }
+        assertEquals(4, cache.size());
+        assertEquals(40, cache.getCells());
+        cache.get("a", 60000, loader);
+        assertEquals(5, loader.calls.get());
+        cache.get("b", 60000, loader);
+        assertEquals(6, loader.calls.get());
+    }
+
+    @Test public void doesNotCacheLargeResults() throws Exception {
+        QueryResultCache cache = new QueryResultCache(10, 40);
+        CountingLoader loader = new CountingLoader(withRows(6));
+        cache.get("large", 60000, loader);
+        cache.get("large", 60000, loader);
+        assertEquals(2, loader.calls.get());
+        assertEquals(0, cache.size());
+        cache.clear();
+        assertEquals(0, cache.getCells());
+    }
+
+    @Test public void sharesInFlightCall() throws Exception {
+        final QueryResultCache cache = new QueryResultCache(10);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final Callable<List<StatementResult>> loader = new Callable<List<StatementResult>>() {
+            @Override
+            public List<StatementResult> call() throws Exception {
+                calls.incrementAndGet();
+                started.countDown();
+                release.await();
+                throw new IOException("connection refused");
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Callable<String> query = new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    try {
+                        cache.get("q", 60000, loader);
+                        return "no error";
+                    } catch (IOException e) {
+                        return e.getMessage();
+                    }
+                }
+            };
+            Future<String> first = executor.submit(query);
+            started.await(10, TimeUnit.SECONDS);
+            Future<String> second = executor.submit(query);
+            while (cache.getSharedCalls() == 0) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+            assertEquals("connection refused", first.get(10, TimeUnit.SECONDS));
+            assertEquals("connection refused", second.get(10, TimeUnit.SECONDS));
+            assertEquals(1, calls.get());
+            assertEquals(0, cache.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test public void cachingIsOptIn() {
+        // same default as checks saved before Cache TTL existed
+        assertEquals(0, new InfluxDBQuery("latency", "select value from m", 100).getCacheTtl());
+        assertEquals(0, new InfluxDBQueryStep("latency", "select value from m", 100).getCacheTtl());
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class QueryScopeTest {
+    private static final String BOUND = "time >= 1500000000000000000 AND time <= now()";
+
+    private static String scope(String query) {
+        return QueryScope.scope(query, 1500000000000000000L);
+    }
+
+    @Test public void addsConditionToWhereClause() {
+        assertEquals("select count(errors) from DevOps where (deployment = '2-1-42') AND " + BOUND,
+                scope("select count(errors) from DevOps where deployment = '2-1-42'"));
+        assertEquals("SELECT mean(value) FROM cpu WHERE (host = 'a' OR host = 'b') AND " + BOUND
+                + " GROUP BY time(1m), host fill(none) LIMIT 10",
+                scope("SELECT mean(value) FROM cpu WHERE host = 'a' OR host = 'b' GROUP BY time(1m), host fill(none) LIMIT 10"));
+    }
+
+    @Test public void addsWhereClause() {
+        assertEquals("select max(p95) from jmeter WHERE " + BOUND, scope("select max(p95) from jmeter"));
+        assertEquals("select max(p95) from jmeter WHERE " + BOUND + " group by transaction tz('Europe/Paris')",
+                scope("select max(p95) from jmeter group by transaction tz('Europe/Paris')"));
+        assertEquals("select max(p) from (select percentile(v, 95) as p from m where a = 'x') WHERE " + BOUND,
+                scope("select max(p) from (select percentile(v, 95) as p from m where a = 'x')"));
+    }
+
+    @Test public void keepsBoundedAndOtherStatements() {
+        String bounded = "select count(errors) from DevOps where time > now() - 1h and deployment = 'x'";
+        assertEquals(bounded, scope(bounded));
+        assertEquals("show measurements", scope("show measurements"));
+        assertEquals("select * from m where \"time\" >= $BUILD_START_NS",
+                scope("select * from m where \"time\" >= $BUILD_START_NS"));
+    }
+
+    @Test public void ignoresKeywordsInStringsAndRegexes() {
+        assertEquals("select v from m where (tag = 'group by; time > 0' AND host =~ /limit 1;/) AND " + BOUND,
+                scope("select v from m where tag = 'group by; time > 0' AND host =~ /limit 1;/"));
+    }
+
+    @Test public void scopesEachStatement() {
+        assertEquals("select a from m WHERE " + BOUND + ";select b from m where time > now() - 5m",
+                scope("select a from m; select b from m where time > now() - 5m;"));
+        assertEquals(Arrays.asList("select 'a;b' from m", "select c from m"), QueryScope.split("select 'a;b' from m;select c from m"));
+    }
+
+    @Test public void detectsUnboundedQueries() {
+        assertFalse(QueryScope.isBounded("select count(errors) from DevOps where deployment = '2-1-$BUILD_NUMBER'"));
+        assertFalse(QueryScope.isBounded("select a from m where time > now() - 1h; select b from m"));
+        assertTrue(QueryScope.isBounded("select a from m where time > now() - 1h"));
+        assertTrue(QueryScope.isBounded("select a from m where time >= $BUILD_START_NS and time <= $BUILD_END_NS"));
+        assertTrue(QueryScope.isBounded("show tag keys from m"));
+        assertFalse(QueryScope.isBounded("select time from m where times > 3"));
+    }
+
+    @Test public void slicesRawQueries() {
+        assertEquals("select elapsed from jmeter where (build = '42') AND time >= 100 AND time < 200",
+                QueryScope.slice("select elapsed from jmeter where build = '42'", 100, 200));
+        assertEquals("select elapsed from jmeter WHERE time >= 200 AND time <= now() group by transaction",
+                QueryScope.slice("select elapsed from jmeter group by transaction", 200, 0));
+        assertTrue(QueryScope.isSliceable("select elapsed, \"error\" from jmeter where (build = '42' or build = '43') group by transaction"));
+        assertTrue(QueryScope.isSliceable("select a from m; select b from n tz('Europe/Paris')"));
+    }
+
+    @Test public void refusesQueriesWhichCannotBeMerged() {
+        assertFalse(QueryScope.isSliceable("select max(elapsed) from jmeter"));
+        assertFalse(QueryScope.isSliceable("select elapsed from jmeter where time > now() - 1h"));
+        assertFalse(QueryScope.isSliceable("select a from m group by time(1m)"));
+        assertFalse(QueryScope.isSliceable("select p from (select percentile(v, 95) as p from m)"));
+        assertFalse(QueryScope.isSliceable("select a from m; show measurements"));
+        assertFalse(QueryScope.isSliceable(""));
+        assertFalse(QueryScope.isSliceable("select v from m limit 10"));
+        assertFalse(QueryScope.isSliceable("select v from m where build = '42' limit 10 offset 5"));
+        assertFalse(QueryScope.isSliceable("select v from m group by host slimit 2 soffset 1"));
+        assertFalse(QueryScope.isSliceable("select v into copy from m"));
+        assertFalse(QueryScope.isSliceable("select a from m; select b from n LIMIT 1"));
+        assertTrue(QueryScope.isSliceable("select \"limit\" from m where \"into\" = 'offset'"));
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueryTrendStoreTest {
+    private File file;
+
+    @Before public void createFile() throws IOException {
+        file = File.createTempFile("trend", ".bin");
+        assertTrue(file.delete());
+    }
+
+    @After public void deleteFile() {
+        file.delete();
+    }
+
+    private static CheckResult result(String checkName, CheckTiming.Outcome outcome, Double value) {
+        CheckTiming timing = new CheckTiming(checkName);
+        timing.setThreshold(100);
+        timing.addAttempt(outcome, 3, value);
+        timing.finish();
+        return CheckResult.of(timing);
+    }
+
+    @Test public void missingFileHasNoEntries() throws IOException {
+        assertTrue(QueryTrendStore.readLast(file, 10).isEmpty());
+    }
+
+    @Test public void readsLastBuildsOldestFirst() throws IOException {
+        for (int build = 1; build <= 5; build++) {
+            QueryTrendStore.append(file, build, 1000L * build, result("latency", CheckTiming.Outcome.PASSED, build * 10.0));
+            QueryTrendStore.append(file, build, 1000L * build, result("errors", CheckTiming.Outcome.NO_DATA, null));
+        }
+        List<QueryTrendStore.Entry> entries = QueryTrendStore.readLast(file, 2);
+        assertEquals(4, entries.size());
+        assertEquals(4, entries.get(0).getBuildNumber());
+        assertEquals(4000L, entries.get(0).getTimestamp());
+        assertEquals("latency", entries.get(0).getResult().getCheckName());
+        assertEquals(40.0, entries.get(0).getResult().getValue(), 0);
+        assertEquals(100.0, entries.get(0).getResult().getThreshold(), 0);
+        assertEquals(3, entries.get(0).getResult().getRows());
+        assertEquals(5, entries.get(3).getBuildNumber());
+        assertEquals(CheckTiming.Outcome.NO_DATA, entries.get(3).getResult().getOutcome());
+        assertTrue(Double.isNaN(entries.get(3).getResult().getValue()));
+        assertEquals(10, QueryTrendStore.readLast(file, 500).size());
+    }
+
+    @Test public void storesCheckWithoutName() throws IOException {
+        QueryTrendStore.append(file, 1, 1000L, result(null, CheckTiming.Outcome.PASSED, 1.0));
+        List<QueryTrendStore.Entry> entries = QueryTrendStore.readLast(file, 10);
+        assertEquals(1, entries.size());
+        assertEquals("", entries.get(0).getResult().getCheckName());
+    }
+
+    @Test public void stopsAtTruncatedEntry() throws IOException {
+        QueryTrendStore.append(file, 1, 1000L, result("latency", CheckTiming.Outcome.PASSED, 1.0));
+        QueryTrendStore.append(file, 2, 2000L, result("latency", CheckTiming.Outcome.EXCEEDED, 200.0));
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() - 2);
+        } finally {
+            raf.close();
+        }
+        assertTrue(QueryTrendStore.readLast(file, 10).isEmpty());
+        QueryTrendStore.append(file, 3, 3000L, result("latency", CheckTiming.Outcome.PASSED, 3.0));
+        List<QueryTrendStore.Entry> entries = QueryTrendStore.readLast(file, 10);
+        assertEquals(1, entries.size());
+        assertEquals(3, entries.get(0).getBuildNumber());
+    }
+
+    @Test public void compactsToLastBuilds() throws IOException {
+        for (int build = 1; build <= 6; build++) {
+            QueryTrendStore.append(file, build, 1000L * build, result("latency", CheckTiming.Outcome.PASSED, build * 10.0), 3);
+            QueryTrendStore.append(file, build, 1000L * build, result("errors", CheckTiming.Outcome.PASSED, 0.0), 3);
+        }
+        assertEquals(12, QueryTrendStore.readLast(file, 500).size());
+        long length = file.length();
+        QueryTrendStore.append(file, 7, 7000L, result("latency", CheckTiming.Outcome.PASSED, 70.0), 3);
+        assertTrue(file.length() < length);
+        QueryTrendStore.append(file, 7, 7000L, result("errors", CheckTiming.Outcome.PASSED, 0.0), 3);
+        List<QueryTrendStore.Entry> entries = QueryTrendStore.readLast(file, 500);
+        assertEquals(6, entries.size());
+        assertEquals(5, entries.get(0).getBuildNumber());
+        assertEquals("latency", entries.get(0).getResult().getCheckName());
+        assertEquals(50.0, entries.get(0).getResult().getValue(), 0);
+        assertEquals(7, entries.get(5).getBuildNumber());
+        assertEquals("errors", entries.get(5).getResult().getCheckName());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ReplicaBalancerTest {
+    private static final List<String> URLS = Arrays.asList("http://a:8086", "http://b:8086", "http://c:8086");
+
+    @Test public void picksLeastOutstanding() {
+        ReplicaBalancer balancer = new ReplicaBalancer();
+        String first = balancer.acquire(URLS, null);
+        String second = balancer.acquire(URLS, null);
+        String third = balancer.acquire(URLS, null);
+        assertEquals(3, new java.util.HashSet<String>(Arrays.asList(first, second, third)).size());
+        balancer.release(second, false);
+        assertEquals(second, balancer.acquire(URLS, null));
+    }
+
+    @Test public void retryAvoidsPreviousURL() {
+        ReplicaBalancer balancer = new ReplicaBalancer();
+        for (int i = 0; i < 20; i++) {
+            String url = balancer.acquire(URLS, "http://a:8086");
+            assertFalse(url.equals("http://a:8086"));
+            balancer.release(url, false);
+        }
+        List<String> single = Arrays.asList("http://a:8086");
+        assertEquals("http://a:8086", balancer.acquire(single, "http://a:8086"));
+    }
+
+    @Test public void skipsUnhealthyUntilProbedHealthy() {
+        ReplicaBalancer balancer = new ReplicaBalancer();
+        for (int i = 0; i < ReplicaBalancer.MAX_CONSECUTIVE_FAILURES; i++) {
+            balancer.release(balancer.acquire(Arrays.asList("http://b:8086"), null), true);
+        }
+        assertFalse(balancer.isHealthy("http://b:8086"));
+        balancer.setHealthy("http://c:8086", false);
+        for (int i = 0; i < 20; i++) {
+            String url = balancer.acquire(URLS, null);
+            assertEquals("http://a:8086", url);
+            balancer.release(url, false);
+        }
+        balancer.setHealthy("http://a:8086", false);
+        // all unhealthy, still answers with one of them
+        String url = balancer.acquire(URLS, null);
+        assertTrue(URLS.contains(url));
+        balancer.release(url, false);
+        balancer.setHealthy("http://b:8086", true);
+        assertEquals("http://b:8086", balancer.acquire(URLS, null));
+    }
+
+    @Test public void probesSingleURLOutOfRotation() {
+        ReplicaBalancer balancer = new ReplicaBalancer();
+        InfluxDBEndpoint replicated = new InfluxDBEndpoint("perf", "http://a:8086", "perf");
+        replicated.setReplicaURLs("http://b:8086");
+        InfluxDBEndpoint single = new InfluxDBEndpoint("single", "http://c:8086", "perf");
+        List<InfluxDBEndpoint> endpoints = Arrays.asList(replicated, single);
+        assertEquals(Arrays.asList("http://a:8086", "http://b:8086"),
+                new ArrayList<String>(InfluxDBHealthProber.probedURLs(endpoints, balancer)));
+        for (int i = 0; i < ReplicaBalancer.MAX_CONSECUTIVE_FAILURES; i++) {
+            balancer.release(balancer.acquire(single.getReadURLs(), null), true);
+        }
+        assertEquals(Arrays.asList("http://a:8086", "http://b:8086", "http://c:8086"),
+                new ArrayList<String>(InfluxDBHealthProber.probedURLs(endpoints, balancer)));
+        balancer.setHealthy("http://c:8086", true);
+        assertEquals(Arrays.asList("http://a:8086", "http://b:8086"),
+                new ArrayList<String>(InfluxDBHealthProber.probedURLs(endpoints, balancer)));
+    }
+
+    @Test public void endpointListsReplicasAfterURL() {
+        InfluxDBEndpoint endpoint = new InfluxDBEndpoint("perf", "http://a:8086", "perf");
+        endpoint.setReplicaURLs("http://b:8086\n\n  http://c:8086 http://a:8086\n");
+        assertEquals(URLS, endpoint.getReadURLs());
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+public class ResultRendererTest {
+
+    private static StatementResult decode(int seriesCount, int rowCount) throws Exception {
+        StringBuilder json = new StringBuilder("{\"results\":[{\"statement_id\":0,\"series\":[");
+        for (int series = 0; series < seriesCount; series++) {
+            json.append(series > 0 ? "," : "").append("{\"name\":\"jmeter\",\"tags\":{\"transaction\":\"t")
+                    .append(series).append("\"},\"columns\":[\"time\",\"avg\",\"label\"],\"values\":[");
+            for (int row = 0; row < rowCount; row++) {
+                json.append(row > 0 ? "," : "").append('[').append(row).append(',')
+                        .append(row % 5 == 0 ? "null" : Integer.toString(row)).append(",\"a, \\\"b\\\"\"]");
+            }
+            json.append("]}");
+        }
+        json.append("]}]}");
+        ColumnarResultHandler handler = new ColumnarResultHandler();
+        QueryResponseParser.parse(new ByteArrayInputStream(json.toString().getBytes(StandardCharsets.UTF_8)), handler);
+        return handler.getResults().get(0);
+    }
+
+    @Test public void previewIsBounded() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResultRenderer.preview(decode(ResultRenderer.PREVIEW_SERIES + 2, 1000), new LoggerUtils(new PrintStream(out, true, "UTF-8")));
+        String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        // per series: label, header, rows and remaining rows, then remaining series and totals
+        assertEquals(ResultRenderer.PREVIEW_SERIES * (ResultRenderer.PREVIEW_ROWS + 3) + 2, lines.length);
+        assertEquals("INFO:Series jmeter {transaction=t0}: 1000 rows", lines[0]);
+        assertTrue(lines[1], lines[1].startsWith("INFO:  time | avg "));
+        assertEquals("INFO:  ... " + (1000 - ResultRenderer.PREVIEW_ROWS) + " more rows", lines[ResultRenderer.PREVIEW_ROWS + 2]);
+        assertEquals("INFO:... 2 more series", lines[lines.length - 2]);
+        assertEquals("INFO:Showed " + ResultRenderer.PREVIEW_SERIES * ResultRenderer.PREVIEW_ROWS + " of "
+                + (ResultRenderer.PREVIEW_SERIES + 2) * 1000 + " rows in " + ResultRenderer.PREVIEW_SERIES + " of "
+                + (ResultRenderer.PREVIEW_SERIES + 2) + " series", lines[lines.length - 1]);
+    }
+
+    @Test public void archivesAllRowsAsGzipCsv() throws Exception {
+        assertEquals("influxdb-query/p95___login.csv.gz", ResultRenderer.artifactPath("p95 / login"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResultRenderer.writeCsv(decode(3, 500), out);
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())), StandardCharsets.UTF_8));
+        try {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        assertEquals(1 + 3 * 500, lines.size());
+        assertEquals("name,tags,time,avg,label", lines.get(0));
+        assertEquals("jmeter,transaction=t0,0,,\"a, \"\"b\"\"\"", lines.get(1));
+        assertEquals("jmeter,transaction=t2,499,499.0,\"a, \"\"b\"\"\"", lines.get(lines.size() - 1));
+    }
+}
@@ -0,0 +1,106 @@
+package org.joeo.plugins.influxquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class RetryScheduleTest {
+
+    @Test public void fixedPolicyStopsAfterRetryCount() {
+        RetrySchedule schedule = new RetrySchedule(new FixedRetryPolicy(30), 2, 0, 0);
+        assertEquals(30000, schedule.nextRetry(0));
+        assertEquals(30000, schedule.nextRetry(30000));
+        assertEquals(-1, schedule.nextRetry(60000));
+        assertEquals(2, schedule.getCurrentRetry());
+        assertNotNull(schedule.getExhaustedReason());
+    }
+
+    @Test public void exponentialPolicyIsCapped() {
+        ExponentialRetryPolicy policy = new ExponentialRetryPolicy(5, 30);
+        assertEquals(5000, policy.nextDelayMillis(1, 0));
+        assertEquals(10000, policy.nextDelayMillis(2, 5000));
+        assertEquals(20000, policy.nextDelayMillis(3, 10000));
+        assertEquals(30000, policy.nextDelayMillis(4, 20000));
+        assertEquals(30000, policy.nextDelayMillis(50, 30000));
+    }
+
+    @Test public void decorrelatedJitterStaysWithinBounds() {
+        DecorrelatedJitterRetryPolicy policy = new DecorrelatedJitterRetryPolicy(2, 60);
+        long previous = 0;
+        for (int retry = 1; retry < 100; retry++) {
+            long delay = policy.nextDelayMillis(retry, previous);
+            assertTrue(delay >= 2000);
+            assertTrue(delay <= 60000);
+            assertTrue(delay <= Math.max(2000, previous) * 3);
+            previous = delay;
+        }
+    }
+
+    @Test public void decorrelatedJitterSpreadsFirstRetry() {
+        DecorrelatedJitterRetryPolicy policy = new DecorrelatedJitterRetryPolicy(2, 60);
+        Set<Long> delays = new HashSet<Long>();
+        for (int i = 0; i < 50; i++) {
+            long delay = policy.nextDelayMillis(1, 0);
+            assertTrue(delay >= 2000);
+            assertTrue(delay <= 6000);
+            delays.add(delay);
+        }
+        assertTrue(delays.size() > 1);
+    }
+
+    @Test public void deadlineStopsBeforeRetryCount() {
+        RetrySchedule schedule = new RetrySchedule(new FixedRetryPolicy(30), 10, 70, 0);
+        assertEquals(30000, schedule.nextRetry(1000));
+        assertEquals(30000, schedule.nextRetry(31000));
+        assertEquals(-1, schedule.nextRetry(61000));
+        assertTrue(schedule.getExhaustedReason().startsWith("Deadline"));
+    }
+
+    @Test public void deadlineReplacesRetryCount() {
+        RetrySchedule schedule = new RetrySchedule(new FixedRetryPolicy(10), 1, 35, 0);
+        assertEquals(10000, schedule.nextRetry(0));
+        assertEquals(10000, schedule.nextRetry(10000));
+        assertEquals(10000, schedule.nextRetry(20000));
+        assertEquals(-1, schedule.nextRetry(30000));
+        assertEquals(3, schedule.getCurrentRetry());
+        assertTrue(schedule.getExhaustedReason().startsWith("Deadline"));
+    }
+
+    @Test public void deadlineWithoutIntervalWaitsMinDelay() {
+        RetrySchedule schedule = new RetrySchedule(RetrySchedule.resolve(null, 0), 0, 3, 0);
+        long now = 0;
+        for (long delay = schedule.nextRetry(now); delay != -1; delay = schedule.nextRetry(now)) {
+            assertEquals(RetrySchedule.MIN_DEADLINE_DELAY_MILLIS, delay);
+            now += delay;
+        }
+        assertEquals(3000 / RetrySchedule.MIN_DEADLINE_DELAY_MILLIS, schedule.getCurrentRetry());
+        assertEquals(0, new RetrySchedule(RetrySchedule.resolve(null, 0), 1, 0, 0).nextRetry(0));
+    }
+
+    @Test public void classifiesFailures() {
+        assertEquals(FailureClassifier.Category.FATAL,
+                FailureClassifier.classify(new RuntimeException("{\"error\":\"error parsing query: found EOF\"}")));
+        assertEquals(FailureClassifier.Category.FATAL,
+                FailureClassifier.classify(new RuntimeException(new IOException("authorization failed"))));
+        assertEquals(FailureClassifier.Category.FATAL,
+                FailureClassifier.classify(new IllegalStateException("database not found: perf")));
+        assertEquals(FailureClassifier.Category.TIMEOUT,
+                FailureClassifier.classify(new RuntimeException(new SocketTimeoutException("timeout"))));
+        assertEquals(FailureClassifier.Category.TIMEOUT,
+                FailureClassifier.classify(new InterruptedIOException("timeout")));
+        assertEquals(FailureClassifier.Category.TRANSIENT,
+                FailureClassifier.classify(new InterruptedIOException("interrupted")));
+        assertEquals(FailureClassifier.Category.TRANSIENT,
+                FailureClassifier.classify(new RuntimeException("{\"error\":\"timeout\"}")));
+        assertEquals(FailureClassifier.Category.UNAVAILABLE,
+                FailureClassifier.classify(new RuntimeException(new CircuitOpenException("open", UnavailableOutcome.PASS))));
+    }
+}
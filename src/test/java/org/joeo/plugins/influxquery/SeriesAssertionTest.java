@@ -0,0 +1,155 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SeriesAssertionTest {
+
+    private static final String GROUPED = "{\"results\":[{\"statement_id\":0,\"series\":["
+            + "{\"name\":\"jmeter\",\"tags\":{\"transaction\":\"login\"},\"columns\":[\"time\",\"p95\",\"max\"],\"values\":[[0,750,1200]]},"
+            + "{\"name\":\"jmeter\",\"tags\":{\"transaction\":\"search\"},\"columns\":[\"time\",\"p95\",\"max\"],\"values\":[[0,920.5,6000]]},"
+            + "{\"name\":\"jmeter\",\"tags\":{\"transaction\":\"logout\"},\"columns\":[\"time\",\"p95\",\"max\"],\"values\":[[0,null,10]]}]}]}";
+
+    private static List<StatementResult> decode(String json) throws Exception {
+        ColumnarResultHandler handler = new ColumnarResultHandler();
+        QueryResponseParser.parse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), handler);
+        return handler.getResults();
+    }
+
+    @Test public void decodesColumnsAndMergesChunks() throws Exception {
+        StringBuilder json = new StringBuilder();
+        for (int chunk = 0; chunk < 3; chunk++) {
+            json.append("{\"results\":[{\"statement_id\":0,\"series\":[{\"name\":\"cpu\",\"columns\":[\"time\",\"value\",\"host\"],\"values\":[");
+            for (int i = 0; i < 20; i++) {
+                int row = chunk * 20 + i;
+                json.append(i > 0 ? "," : "").append('[').append(row).append(',').append(row % 7 == 0 ? "null" : Integer.toString(row))
+                        .append(",\"h").append(row).append("\"]");
+            }
+            json.append("],\"partial\":").append(chunk < 2).append("}],\"partial\":").append(chunk < 2).append("}]}\n");
+        }
+        List<StatementResult> results = decode(json.toString());
+        assertEquals(1, results.size());
+        assertEquals(1, results.get(0).getSeries().size());
+        SeriesTable series = results.get(0).getSeries().get(0);
+        assertEquals(60, series.getRowCount());
+        assertEquals(59, series.getTime(59));
+        assertEquals(58, series.getDouble(1, 58), 0);
+        assertTrue(Double.isNaN(series.getDouble(1, 56)));
+        assertTrue(Double.isNaN(series.getDouble(2, 3)));
+        assertEquals("h41", series.getString(2, 41));
+        assertNull(series.getString(1, 41));
+        assertEquals(60, series.getDoubles(1).length);
+    }
+
+    @Test public void keepsEmptyAndFailedStatements() throws Exception {
+        List<StatementResult> results = decode("{\"results\":[{\"statement_id\":0},"
+                + "{\"statement_id\":1,\"error\":\"error parsing query\"}]}");
+        assertEquals(2, results.size());
+        assertNull(results.get(0).getFirstSeries());
+        assertEquals("error parsing query", results.get(1).getError());
+    }
+
+    @Test public void reportsSeriesBreakingRules() throws Exception {
+        StatementResult result = decode(GROUPED).get(0);
+        AssertionReport report = AssertionReport.check(SeriesAssertion.parseAll("p95 < 800\n# comment\n\nmax <= 5000"), result);
+        assertEquals(3, report.getCheckedSeriesCount());
+        assertEquals(1, report.getFailedSeriesCount());
+        assertEquals(2, report.getViolations().size());
+        assertTrue(report.getViolations().get(0).contains("transaction=search"));
+    }
+
+    @Test public void countsViolationsBeyondKeptMessages() throws Exception {
+        StatementResult result = new StatementResult(0);
+        SeriesTable series = new SeriesTable("jmeter", Collections.<String, String>emptyMap(), Arrays.asList("time", "elapsed"));
+        int rows = AssertionReport.MAX_VIOLATIONS + 5;
+        for (int row = 0; row < rows; row++) {
+            series.setTime(row);
+            series.setDouble(1, 1000 + row);
+            series.endRow();
+        }
+        result.addSeries(series);
+        CheckVerdict verdict = new CheckEvaluator("latency", 0, true, false, SeriesAssertion.parseAll("elapsed < 800"))
+                .evaluate(result);
+        assertEquals(rows, verdict.getViolationCount());
+        assertEquals(AssertionReport.MAX_VIOLATIONS, verdict.getViolations().size());
+        assertEquals(1, verdict.getValue(), 0);
+    }
+
+    @Test public void evaluatorUsesFailedSeriesCount() throws Exception {
+        StatementResult result = decode(GROUPED).get(0);
+        CheckEvaluator evaluator = new CheckEvaluator("latency", 0, true, false, SeriesAssertion.parseAll("p95 < 1000"));
+        assertEquals(CheckVerdict.Status.PASSED, evaluator.evaluate(result).getStatus());
+        evaluator = new CheckEvaluator("latency", 0, true, false, SeriesAssertion.parseAll("\"p95\" < 900"));
+        CheckVerdict verdict = evaluator.evaluate(result);
+        assertEquals(CheckVerdict.Status.EXCEEDED, verdict.getStatus());
+        assertEquals(1, verdict.getValue(), 0);
+    }
+
+    @Test public void evaluatorComparesFirstValueWithoutAssertions() throws Exception {
+        CheckVerdict verdict = new CheckEvaluator("latency", 800, true, false).evaluate(decode(GROUPED).get(0));
+        assertEquals(CheckVerdict.Status.PASSED, verdict.getStatus());
+        assertEquals(750, verdict.getValue(), 0);
+    }
+
+    @Test public void evaluatorIsSentBackWithVerdictAndTiming() throws Exception {
+        CheckEvaluator evaluator = new CheckEvaluator("latency", 0, false, true, SeriesAssertion.parseAll("p95 < 900"));
+        ByteArrayOutputStream console = new ByteArrayOutputStream();
+        evaluator.report(evaluator.evaluate(decode(GROUPED).get(0)), "select", new LoggerUtils(new PrintStream(console, true, "UTF-8")));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(evaluator);
+        out.close();
+        CheckEvaluator copy = (CheckEvaluator) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertEquals(1, copy.getTiming().getAttempts());
+        assertEquals(CheckTiming.Outcome.EXCEEDED, copy.getTiming().getOutcome());
+        assertEquals(1, copy.getTiming().getValue(), 0);
+        assertEquals(CheckVerdict.Status.EXCEEDED, copy.evaluate(decode(GROUPED).get(0)).getStatus());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidRule() {
+        SeriesAssertion.parse("p95 less than 800");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void failsOnUnknownColumn() throws Exception {
+        AssertionReport.check(SeriesAssertion.parseAll("p99 < 800"), decode(GROUPED).get(0));
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Throughput, gate latency percentiles and resource usage of a soak run, written to target/soak-reports.
+ * Sockets include both ends of connections to {@link StandInInfluxDB}.
+ */
+final class SoakReport {
+    /**
+     * Threads, open sockets and used heap at a point in time
+     */
+    static final class Resources {
+        final int threads;
+        final int sockets;
+        final long heapBytes;
+
+        private Resources(int threads, int sockets, long heapBytes) {
+            this.threads = threads;
+            this.sockets = sockets;
+            this.heapBytes = heapBytes;
+        }
+
+        static Resources snapshot() {
+            System.gc();
+            return new Resources(countThreads(), countSockets(),
+                    ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+        }
+
+        /**
+         * @return live threads, except request threads of {@link StandInInfluxDB}
+         */
+        private static int countThreads() {
+            int threads = 0;
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (!thread.getName().startsWith(StandInInfluxDB.THREAD_NAME_PREFIX)) {
+                    threads++;
+                }
+            }
+            return threads;
+        }
+
+        /**
+         * @return sockets open by this JVM, -1 where /proc is not available
+         */
+        private static int countSockets() {
+            Path fds = Paths.get("/proc/self/fd");
+            if (!Files.isDirectory(fds)) {
+                return -1;
+            }
+            int sockets = 0;
+            try {
+                DirectoryStream<Path> stream = Files.newDirectoryStream(fds);
+                try {
+                    for (Path fd : stream) {
+                        try {
+                            if (Files.readSymbolicLink(fd).toString().startsWith("socket:")) {
+                                sockets++;
+                            }
+                        } catch (IOException e) {
+                            // closed while listing
+                        }
+                    }
+                } finally {
+                    stream.close();
+                }
+            } catch (IOException e) {
+                return -1;
+            }
+            return sockets;
+        }
+    }
+
+    private final String name;
+    private final List<Long> gateMillis = new ArrayList<Long>();
+    private int builds;
+    private long wallMillis;
+    private Resources before;
+    private Resources after;
+
+    SoakReport(String name) {
+        this.name = name;
+    }
+
+    void start() {
+        before = Resources.snapshot();
+        wallMillis = System.currentTimeMillis();
+    }
+
+    synchronized void addBuild(List<CheckResult> results) {
+        builds++;
+        for (CheckResult result : results) {
+            gateMillis.add(result.getDurationMillis());
+        }
+    }
+
+    void finish() {
+        wallMillis = System.currentTimeMillis() - wallMillis;
+        after = Resources.snapshot();
+    }
+
+    Resources getBefore() {
+        return before;
+    }
+
+    Resources getAfter() {
+        return after;
+    }
+
+    synchronized int getGates() {
+        return gateMillis.size();
+    }
+
+    synchronized long percentile(double percentile) {
+        if (gateMillis.isEmpty()) {
+            return -1;
+        }
+        List<Long> sorted = new ArrayList<Long>(gateMillis);
+        Collections.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index)));
+    }
+
+    double getThroughput() {
+        return wallMillis == 0 ? 0 : builds * 1000.0 / wallMillis;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.ROOT,
+                "%s: %d builds, %d gates in %d ms, %.1f builds/s, gate latency p50 %d ms, p99 %d ms%n"
+                + "  threads %d -> %d, sockets %d -> %d, heap %d MB -> %d MB%n",
+                name, builds, gateMillis.size(), wallMillis, getThroughput(), percentile(50), percentile(99),
+                before.threads, after.threads, before.sockets, after.sockets,
+                before.heapBytes >> 20, after.heapBytes >> 20);
+    }
+
+    /**
+     * Prints report and writes it to target/soak-reports/name.txt
+     */
+    void write() throws IOException {
+        String report = toString();
+        System.out.print(report);
+        File directory = new File("target", "soak-reports");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        Writer out = new OutputStreamWriter(new FileOutputStream(new File(directory, name + ".txt")),
+                Charset.forName("UTF-8"));
+        try {
+            out.write(report);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,420 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package org.joeo.plugins.influxquery;
+
+import java.io.Closeable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in for the InfluxDB 1.x /query and /ping API, and the Flux /api/v2/query API, with configurable latency,
+ * error rate, rate of responses without series and number of rows, answering every statement with one series
+ * whose rows all have the configured value. Statements reading a measurement set up with
+ * {@link #value(String, double)}, {@link #failures(String, int)} or {@link #latency(String, long)} get its own value,
+ * statement error or latency.
+ */
+final class StandInInfluxDB implements Closeable {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Pattern MEASUREMENT = Pattern.compile("(?i)\\bfrom\\s+\"?(\\w+)");
+    /** Prefix of the names of request threads, which are not threads of the plugin */
+    static final String THREAD_NAME_PREFIX = "stand-in-influxdb-";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private volatile long latencyMillis;
+    private volatile double errorRate;
+    private volatile int errorStatus = 500;
+    private volatile double emptyRate;
+    private volatile int rows = 1;
+    private volatile double value;
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong empties = new AtomicLong();
+    private volatile String lastAuthorization;
+    private volatile String lastFluxRequest;
+    private final ConcurrentMap<String, Measurement> measurements = new ConcurrentHashMap<String, Measurement>();
+
+    StandInInfluxDB() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger threads = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, THREAD_NAME_PREFIX + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+        server.createContext("/query", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                query(exchange);
+            }
+        });
+        server.createContext("/api/v2/query", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                fluxQuery(exchange);
+            }
+        });
+        server.createContext("/ping", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().set("X-Influxdb-Version", "stand-in");
+                exchange.sendResponseHeaders(204, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    String getURL() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * @param latencyMillis delay before each query response
+     */
+    StandInInfluxDB latency(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+        return this;
+    }
+
+    /**
+     * @param errorRate ratio of queries answered with HTTP 500, between 0 and 1
+     */
+    StandInInfluxDB errorRate(double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    /**
+     * @param errorStatus HTTP status of Flux error responses, 500 by default
+     */
+    StandInInfluxDB errorStatus(int errorStatus) {
+        this.errorStatus = errorStatus;
+        return this;
+    }
+
+    /**
+     * @param emptyRate ratio of queries answered without series, between 0 and 1
+     */
+    StandInInfluxDB emptyRate(double emptyRate) {
+        this.emptyRate = emptyRate;
+        return this;
+    }
+
+    /**
+     * @param rows number of rows of the series
+     */
+    StandInInfluxDB rows(int rows) {
+        this.rows = rows;
+        return this;
+    }
+
+    /**
+     * @param value value of every row
+     */
+    StandInInfluxDB value(double value) {
+        this.value = value;
+        return this;
+    }
+
+    /**
+     * @param measurement measurement read by statements
+     * @param value value of every row of statements reading measurement
+     */
+    StandInInfluxDB value(String measurement, double value) {
+        measurement(measurement).value = value;
+        return this;
+    }
+
+    /**
+     * @param measurement measurement read by statements
+     * @param latencyMillis delay added to responses of queries reading measurement
+     */
+    StandInInfluxDB latency(String measurement, long latencyMillis) {
+        measurement(measurement).latencyMillis = latencyMillis;
+        return this;
+    }
+
+    /**
+     * @param measurement measurement read by statements
+     * @param failures number of statements reading measurement answered with a statement error before it has data
+     */
+    StandInInfluxDB failures(String measurement, int failures) {
+        measurement(measurement).failures.set(failures);
+        return this;
+    }
+
+    /**
+     * @return number of statements which read measurement
+     */
+    int getStatements(String measurement) {
+        return measurement(measurement).statements.get();
+    }
+
+    long getQueries() {
+        return queries.get();
+    }
+
+    long getErrors() {
+        return errors.get();
+    }
+
+    long getEmpties() {
+        return empties.get();
+    }
+
+    /**
+     * @return Authorization header of the last Flux request, null if none
+     */
+    String getLastAuthorization() {
+        return lastAuthorization;
+    }
+
+    /**
+     * @return URI and body of the last Flux request
+     */
+    String getLastFluxRequest() {
+        return lastFluxRequest;
+    }
+
+    private void query(HttpExchange exchange) throws IOException {
+        queries.incrementAndGet();
+        List<String> statements = statements(exchange.getRequestURI().getRawQuery());
+        delay();
+        for (String statement : statements) {
+            Measurement measurement = measurementOf(statement);
+            if (measurement != null && measurement.latencyMillis > 0) {
+                sleep(measurement.latencyMillis);
+            }
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < errorRate) {
+            errors.incrementAndGet();
+            respond(exchange, 500, "application/json", "{\"error\":\"stand-in failure\"}");
+        } else if (random.nextDouble() < emptyRate) {
+            empties.incrementAndGet();
+            respond(exchange, 200, "application/json", results(statements, true));
+        } else {
+            respond(exchange, 200, "application/json", results(statements, false));
+        }
+    }
+
+    /**
+     * @return statements of the q parameter of the query string
+     */
+    private static List<String> statements(String rawQuery) throws IOException {
+        List<String> statements = new ArrayList<String>();
+        if (rawQuery != null) {
+            for (String parameter : rawQuery.split("&")) {
+                if (parameter.startsWith("q=")) {
+                    for (String statement : URLDecoder.decode(parameter.substring(2), "UTF-8").split(";")) {
+                        statements.add(statement.trim());
+                    }
+                }
+            }
+        }
+        if (statements.isEmpty()) {
+            statements.add("");
+        }
+        return statements;
+    }
+
+    private Measurement measurement(String name) {
+        Measurement measurement = measurements.get(name);
+        if (measurement == null) {
+            Measurement created = new Measurement();
+            measurement = measurements.putIfAbsent(name, created);
+            if (measurement == null) {
+                measurement = created;
+            }
+        }
+        return measurement;
+    }
+
+    /**
+     * @return set up measurement read by statement, null if none
+     */
+    private Measurement measurementOf(String statement) {
+        Matcher matcher = MEASUREMENT.matcher(statement);
+        return matcher.find() ? measurements.get(matcher.group(1)) : null;
+    }
+
+    private void fluxQuery(HttpExchange exchange) throws IOException {
+        queries.incrementAndGet();
+        lastAuthorization = exchange.getRequestHeaders().getFirst("Authorization");
+        lastFluxRequest = exchange.getRequestURI() + " " + read(exchange.getRequestBody());
+        delay();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < errorRate) {
+            errors.incrementAndGet();
+            if (errorStatus >= 500) {
+                respond(exchange, errorStatus, "application/json", "{\"code\":\"internal error\",\"message\":\"stand-in failure\"}");
+            } else {
+                respond(exchange, errorStatus, "application/json", "{\"code\":\"invalid\",\"message\":\"compilation failed: stand-in\"}");
+            }
+        } else if (random.nextDouble() < emptyRate) {
+            empties.incrementAndGet();
+            respond(exchange, 200, "text/csv; charset=utf-8", "\r\n");
+        } else {
+            respond(exchange, 200, "text/csv; charset=utf-8", table());
+        }
+    }
+
+    private void delay() {
+        if (latencyMillis > 0) {
+            sleep(latencyMillis);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @param empty true to answer every statement without series
+     * @return JSON response with one result per statement
+     */
+    private String results(List<String> statements, boolean empty) {
+        StringBuilder json = new StringBuilder(64 + statements.size() * (64 + rows * 24));
+        json.append("{\"results\":[");
+        long time = System.currentTimeMillis();
+        for (int i = 0; i < statements.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"statement_id\":").append(i);
+            Measurement measurement = measurementOf(statements.get(i));
+            double statementValue = value;
+            if (measurement != null) {
+                measurement.statements.incrementAndGet();
+                if (measurement.failures.get() > 0 && measurement.failures.getAndDecrement() > 0) {
+                    json.append(",\"error\":\"stand-in statement failure\"}");
+                    continue;
+                }
+                statementValue = measurement.value;
+            }
+            if (!empty) {
+                json.append(",\"series\":[{\"name\":\"jmeter\",\"columns\":[\"time\",\"value\"],\"values\":[");
+                for (int row = 0; row < rows; row++) {
+                    if (row > 0) {
+                        json.append(',');
+                    }
+                    json.append('[').append(time + row).append(',').append(statementValue).append(']');
+                }
+                json.append("]}]");
+            }
+            json.append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * @return annotated CSV table of rows, as returned by Flux
+     */
+    private String table() {
+        StringBuilder csv = new StringBuilder(256 + rows * 48);
+        csv.append("#group,false,false,false,false,true,true\r\n")
+            .append("#datatype,string,long,dateTime:RFC3339,double,string,string\r\n")
+            .append("#default,_result,,,,,\r\n")
+            .append(",result,table,_time,_value,_field,_measurement\r\n");
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ENGLISH);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        long time = System.currentTimeMillis();
+        for (int row = 0; row < rows; row++) {
+            csv.append(",,0,").append(format.format(new Date(time + row))).append(',').append(value).append(",value,jmeter\r\n");
+        }
+        return csv.append("\r\n").toString();
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), UTF_8);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private static final class Measurement {
+        private volatile double value;
+        private volatile long latencyMillis;
+        private final AtomicInteger failures = new AtomicInteger();
+        private final AtomicInteger statements = new AtomicInteger();
+    }
+}
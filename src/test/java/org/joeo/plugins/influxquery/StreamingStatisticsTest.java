@@ -0,0 +1,94 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2018 Joe Offenberg
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.joeo.plugins.influxquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class StreamingStatisticsTest {
+
+    private static StreamingStatistics parse(String json, String valueColumn) throws Exception {
+        StreamingStatistics statistics = new StreamingStatistics();
+        QueryResponseParser.parse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)),
+                new StreamingCheckQuery.StatisticsHandler(statistics, valueColumn));
+        return statistics;
+    }
+
+    @Test public void aggregatesChunkedResponse() throws Exception {
+        String chunks = "{\"results\":[{\"statement_id\":0,\"series\":[{\"name\":\"jmeter\",\"columns\":[\"time\",\"elapsed\",\"label\"],"
+                + "\"values\":[[1,10,\"a\"],[2,20.5,\"b\"],[3,null,\"c\"]],\"partial\":true}],\"partial\":true}]}\n"
+                + "{\"results\":[{\"statement_id\":0,\"series\":[{\"name\":\"jmeter\",\"columns\":[\"time\",\"elapsed\",\"label\"],"
+                + "\"values\":[[4,-1.5e1,\"d\"],[5,0,\"e\"]]}]}]}\n";
+        StreamingStatistics statistics = parse(chunks, null);
+        assertEquals(4, statistics.getCount());
+        assertEquals(20.5, statistics.get(Statistic.MAX), 0);
+        assertEquals(-15, statistics.get(Statistic.MIN), 0);
+        assertEquals(15.5, statistics.get(Statistic.SUM), 0);
+        assertEquals(75, statistics.get(Statistic.ERROR_RATE), 0);
+    }
+
+    @Test public void selectsValueColumnByName() throws Exception {
+        String json = "{\"results\":[{\"statement_id\":0,\"series\":[{\"name\":\"m\",\"columns\":[\"time\",\"a\",\"b\"],"
+                + "\"values\":[[1,1,true],[2,2,false]]}]}]}";
+        StreamingStatistics statistics = parse(json, "b");
+        assertEquals(2, statistics.getCount());
+        assertEquals(0.5, statistics.get(Statistic.MEAN), 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void statementErrorFails() throws Exception {
+        parse("{\"results\":[{\"statement_id\":0,\"error\":\"database not found: perf\"}]}", null);
+    }
+
+    @Test public void percentilesWithinRelativeAccuracy() {
+        StreamingStatistics statistics = new StreamingStatistics();
+        for (int i = 1; i <= 100000; i++) {
+            statistics.add(i);
+        }
+        assertTrue(Math.abs(statistics.get(Statistic.P50) - 50000) <= 50000 * 0.02);
+        assertTrue(Math.abs(statistics.get(Statistic.P99) - 99000) <= 99000 * 0.02);
+        assertEquals(100000, statistics.get(Statistic.MAX), 0);
+    }
+
+    @Test public void mergeEqualsSingleAggregate() {
+        StreamingStatistics left = new StreamingStatistics();
+        StreamingStatistics right = new StreamingStatistics();
+        StreamingStatistics all = new StreamingStatistics();
+        for (int i = 0; i < 1000; i++) {
+            double value = (i * 7919) % 1000 + 0.5;
+            (i % 2 == 0 ? left : right).add(value);
+            all.add(value);
+        }
+        left.merge(right);
+        assertEquals(all.getCount(), left.getCount());
+        assertEquals(all.get(Statistic.SUM), left.get(Statistic.SUM), 1e-6);
+        assertEquals(all.get(Statistic.P95), left.get(Statistic.P95), 0);
+    }
+}